@@ -32,7 +32,9 @@ public enum Dimension
 	VELOCITY,
 	LENGTH,
 	AREA, TIME, ANGLE, RATE, // count per frames
-	ANGLE_RATE, STRING; // for non-numeric features
+	ANGLE_RATE,
+	DIFFUSION_COEFFICIENT, // length^2 / time
+	STRING; // for non-numeric features
 
 	/*
 	 * We separated length and position so that x,y,z are plotted on a different
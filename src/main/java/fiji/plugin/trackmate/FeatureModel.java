@@ -25,7 +25,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -57,16 +56,15 @@ public class FeatureModel
 	private final Map< String, Boolean > trackFeatureIsInt = new HashMap<>();
 
 	/**
-	 * Feature storage. We use a Map of Map as a 2D Map. The list maps each
-	 * track to its feature map. The feature map maps each feature to the double
-	 * value for the specified feature.
+	 * Feature storage for tracks. Values are stored in one primitive column
+	 * per feature, indexed by track.
 	 */
-	Map< Integer, Map< String, Double > > trackFeatureValues = new ConcurrentHashMap<>();
+	private final FeatureTable< Integer > trackFeatureValues = new FeatureTable<>();
 
 	/**
 	 * Feature storage for edges.
 	 */
-	private final ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double > > edgeFeatureValues = new ConcurrentHashMap<>();
+	private final FeatureTable< DefaultWeightedEdge > edgeFeatureValues = new FeatureTable<>();
 
 	private final Collection< String > edgeFeatures = new LinkedHashSet<>();
 
@@ -136,6 +134,28 @@ public class FeatureModel
 	 * Note that no checks are made to ensures that the edge exists in the
 	 * {@link TrackModel}, and that the feature is declared in this
 	 * {@link FeatureModel}.
+	 * <p>
+	 * This method does not lock. Several threads can store values
+	 * concurrently, as long as they do not write the same edge.
+	 *
+	 * @param edge
+	 *            the edge whose features to update.
+	 * @param feature
+	 *            the feature.
+	 * @param value
+	 *            the feature value. If <code>null</code>, the feature value
+	 *            is removed.
+	 */
+	public void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	{
+		if ( null == value )
+			edgeFeatureValues.remove( edge, feature );
+		else
+			edgeFeatureValues.put( edge, feature, value.doubleValue() );
+	}
+
+	/**
+	 * Stores a numerical feature for an edge of this model, without boxing.
 	 *
 	 * @param edge
 	 *            the edge whose features to update.
@@ -143,24 +163,16 @@ public class FeatureModel
 	 *            the feature.
 	 * @param value
 	 *            the feature value
+	 * @see #putEdgeFeature(DefaultWeightedEdge, String, Double)
 	 */
-	public synchronized void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	public void putEdgeFeatureValue( final DefaultWeightedEdge edge, final String feature, final double value )
 	{
-		ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
-		{
-			map = new ConcurrentHashMap<>();
-			edgeFeatureValues.put( edge, map );
-		}
-		map.put( feature, value );
+		edgeFeatureValues.put( edge, feature, value );
 	}
 
 	public Double getEdgeFeature( final DefaultWeightedEdge edge, final String featureName )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
-			return null;
-		return map.get( featureName );
+		return edgeFeatureValues.get( edge, featureName );
 	}
 
 	/**
@@ -173,10 +185,7 @@ public class FeatureModel
 	 */
 	public void removeEdgeFeature( final DefaultWeightedEdge edge, final String feature )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
-			return;
-		map.remove( feature );
+		edgeFeatureValues.remove( edge, feature );
 	}
 
 	/**
@@ -388,6 +397,28 @@ public class FeatureModel
 	 * Note that no checks are made to ensures that the track ID exists in the
 	 * {@link TrackModel}, and that the feature is declared in this
 	 * {@link FeatureModel}.
+	 * <p>
+	 * This method does not lock. Several threads can store values
+	 * concurrently, as long as they do not write the same track.
+	 *
+	 * @param trackID
+	 *            the ID of the track. It must be an existing track ID.
+	 * @param feature
+	 *            the feature.
+	 * @param value
+	 *            the feature value. If <code>null</code>, the feature value
+	 *            is removed.
+	 */
+	public void putTrackFeature( final Integer trackID, final String feature, final Double value )
+	{
+		if ( null == value )
+			trackFeatureValues.remove( trackID, feature );
+		else
+			trackFeatureValues.put( trackID, feature, value.doubleValue() );
+	}
+
+	/**
+	 * Stores a track numerical feature, without boxing.
 	 *
 	 * @param trackID
 	 *            the ID of the track. It must be an existing track ID.
@@ -395,16 +426,11 @@ public class FeatureModel
 	 *            the feature.
 	 * @param value
 	 *            the feature value.
+	 * @see #putTrackFeature(Integer, String, Double)
 	 */
-	public synchronized void putTrackFeature( final Integer trackID, final String feature, final Double value )
+	public void putTrackFeatureValue( final Integer trackID, final String feature, final double value )
 	{
-		Map< String, Double > trackFeatureMap = trackFeatureValues.get( trackID );
-		if ( null == trackFeatureMap )
-		{
-			trackFeatureMap = new HashMap<>( trackFeatures.size() );
-			trackFeatureValues.put( trackID, trackFeatureMap );
-		}
-		trackFeatureMap.put( feature, value );
+		trackFeatureValues.put( trackID, feature, value );
 	}
 
 	/**
@@ -418,10 +444,7 @@ public class FeatureModel
 	 */
 	public void removeTrackFeature( final Integer trackID, final String feature )
 	{
-		final Map< String, Double > map = trackFeatureValues.get( trackID );
-		if ( null == map )
-			return;
-		map.remove( feature );
+		trackFeatureValues.remove( trackID, feature );
 	}
 
 	/**
@@ -436,8 +459,7 @@ public class FeatureModel
 	 */
 	public Double getTrackFeature( final Integer trackID, final String feature )
 	{
-		final Map< String, Double > valueMap = trackFeatureValues.get( trackID );
-		return valueMap == null ? null : valueMap.get( feature );
+		return trackFeatureValues.get( trackID, feature );
 	}
 
 	/**
@@ -640,13 +662,15 @@ public class FeatureModel
 	 * STATIC UTILS
 	 */
 
-	private static final < K > void appendFeatureValues( final StringBuilder str, final Map< K, ? extends Map< String, Double > > values )
+	private static final < K > void appendFeatureValues( final StringBuilder str, final FeatureTable< K > values )
 	{
-		for ( final K key : values.keySet() )
+		for ( final K key : values.keys() )
 		{
+			final Map< String, Double > map = values.values( key );
+			if ( map.isEmpty() )
+				continue;
 			final String header = "   - " + key.toString() + ":\n";
 			str.append( header );
-			final Map< String, Double > map = values.get( key );
 			for ( final String feature : map.keySet() )
 				str.append( "     - " + feature + " = " + map.get( feature ) + '\n' );
 		}
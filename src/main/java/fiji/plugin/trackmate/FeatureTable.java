@@ -0,0 +1,234 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Columnar storage for the numerical features of edges or tracks.
+ * <p>
+ * Each object is given a row ordinal the first time a value is stored for it,
+ * and each feature is stored in a dense column of primitive values indexed by
+ * this ordinal. Columns are made of fixed-size chunks, so they can grow
+ * without moving the values already written. Writing a value takes no lock
+ * once the row and its chunk exist, so that analyzers running in parallel on
+ * disjoint sets of objects do not contend.
+ * <p>
+ * Values written by a thread are guaranteed to be visible to another thread
+ * only after a synchronization between the two, for instance after the
+ * writer's task completed in an executor.
+ *
+ * @param <K>
+ *            the type of objects features are stored for.
+ * @author Jean-Yves Tinevez
+ */
+class FeatureTable< K >
+{
+
+	private static final int CHUNK_SHIFT = 12;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * Values are stored as the complement of their bits, so that the default
+	 * array content, 0, stands for a missing value.
+	 */
+	private static final long MISSING = 0l;
+
+	private final ConcurrentHashMap< K, Integer > rows = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nRows = new AtomicInteger();
+
+	private final ConcurrentHashMap< String, Column > columns = new ConcurrentHashMap<>();
+
+	/**
+	 * Stores a value.
+	 *
+	 * @param key
+	 *            the object to store the value for.
+	 * @param feature
+	 *            the feature.
+	 * @param value
+	 *            the value.
+	 */
+	public void put( final K key, final String feature, final double value )
+	{
+		column( feature ).set( row( key ), encode( value ) );
+	}
+
+	/**
+	 * Returns a stored value.
+	 *
+	 * @param key
+	 *            the object to query.
+	 * @param feature
+	 *            the feature.
+	 * @return the value, or <code>null</code> if there is no value for this
+	 *         object and this feature.
+	 */
+	public Double get( final K key, final String feature )
+	{
+		final Integer row = rows.get( key );
+		if ( null == row )
+			return null;
+		final Column column = columns.get( feature );
+		if ( null == column )
+			return null;
+		final long bits = column.get( row.intValue() );
+		if ( bits == MISSING )
+			return null;
+		return Double.valueOf( decode( bits ) );
+	}
+
+	/**
+	 * Removes a stored value. Does nothing if there is no value for this
+	 * object and this feature.
+	 *
+	 * @param key
+	 *            the object.
+	 * @param feature
+	 *            the feature.
+	 */
+	public void remove( final K key, final String feature )
+	{
+		final Integer row = rows.get( key );
+		if ( null == row )
+			return;
+		final Column column = columns.get( feature );
+		if ( null == column || column.get( row.intValue() ) == MISSING )
+			return;
+		column.set( row.intValue(), MISSING );
+	}
+
+	/**
+	 * Returns the objects for which a value was stored at least once.
+	 *
+	 * @return the set of objects.
+	 */
+	public Set< K > keys()
+	{
+		return rows.keySet();
+	}
+
+	/**
+	 * Returns the values stored for the specified object.
+	 *
+	 * @param key
+	 *            the object.
+	 * @return a new map of feature names to values.
+	 */
+	public Map< String, Double > values( final K key )
+	{
+		final Map< String, Double > map = new LinkedHashMap<>();
+		final Integer row = rows.get( key );
+		if ( null == row )
+			return map;
+		for ( final Map.Entry< String, Column > entry : columns.entrySet() )
+		{
+			final long bits = entry.getValue().get( row.intValue() );
+			if ( bits != MISSING )
+				map.put( entry.getKey(), Double.valueOf( decode( bits ) ) );
+		}
+		return map;
+	}
+
+	private int row( final K key )
+	{
+		final Integer row = rows.get( key );
+		if ( null != row )
+			return row.intValue();
+		return rows.computeIfAbsent( key, k -> Integer.valueOf( nRows.getAndIncrement() ) ).intValue();
+	}
+
+	private Column column( final String feature )
+	{
+		final Column column = columns.get( feature );
+		if ( null != column )
+			return column;
+		return columns.computeIfAbsent( feature, f -> new Column() );
+	}
+
+	private static final long encode( final double value )
+	{
+		final long bits = Double.doubleToRawLongBits( value );
+		// The only NaN whose complement would read as missing.
+		if ( bits == ~MISSING )
+			return ~Double.doubleToRawLongBits( Double.NaN );
+		return ~bits;
+	}
+
+	private static final double decode( final long bits )
+	{
+		return Double.longBitsToDouble( ~bits );
+	}
+
+	/**
+	 * A growable column of encoded values. Chunks are only allocated, and the
+	 * chunk array only replaced, under the column monitor. Chunks are never
+	 * moved, so that writes in an existing chunk are never lost.
+	 */
+	private static final class Column
+	{
+
+		private volatile long[][] chunks = new long[ 16 ][];
+
+		private long get( final int row )
+		{
+			final long[][] c = chunks;
+			final int ci = row >>> CHUNK_SHIFT;
+			if ( ci >= c.length )
+				return MISSING;
+			final long[] chunk = c[ ci ];
+			if ( null == chunk )
+				return MISSING;
+			return chunk[ row & CHUNK_MASK ];
+		}
+
+		private void set( final int row, final long bits )
+		{
+			final long[][] c = chunks;
+			final int ci = row >>> CHUNK_SHIFT;
+			long[] chunk = ( ci < c.length ) ? c[ ci ] : null;
+			if ( null == chunk )
+				chunk = newChunk( ci );
+			chunk[ row & CHUNK_MASK ] = bits;
+		}
+
+		private synchronized long[] newChunk( final int ci )
+		{
+			long[][] c = chunks;
+			if ( ci >= c.length )
+				c = Arrays.copyOf( c, Math.max( ci + 1, 2 * c.length ) );
+			if ( null == c[ ci ] )
+				c[ ci ] = new long[ CHUNK_SIZE ];
+			chunks = c;
+			return c[ ci ];
+		}
+	}
+}
@@ -21,17 +21,17 @@
  */
 package fiji.plugin.trackmate;
 
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
-import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureFilterIndex;
 
 /**
  * The model for the data managed by TrackMate.
@@ -71,6 +71,13 @@ public class Model
 	/** The spots managed by this model. */
 	protected SpotCollection spots = new SpotCollection();
 
+	/**
+	 * The index used to make successive track filtering incremental. Is
+	 * <code>null</code> until the first track filtering, and reset to
+	 * <code>null</code> every time the tracks or their features change.
+	 */
+	private FeatureFilterIndex< Integer > trackFilterIndex;
+
 	// TRANSACTION MODEL
 
 	/**
@@ -311,6 +318,7 @@ public class Model
 	public void clearTracks( final boolean doNotify )
 	{
 		trackModel.clear();
+		trackFilterIndex = null;
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.TRACKS_COMPUTED );
@@ -346,6 +354,7 @@ public class Model
 	public void setTracks( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final boolean doNotify )
 	{
 		trackModel.setGraph( graph );
+		trackFilterIndex = null;
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.TRACKS_COMPUTED );
@@ -428,6 +437,65 @@ public class Model
 
 	}
 
+	/**
+	 * Filters the tracks managed by this model with the {@link FeatureFilter}s
+	 * specified. A track is made visible if it passes all the filters. Tracks
+	 * that have no value for the feature of a filter pass this filter.
+	 * <p>
+	 * Like for spots, filtering relies on a {@link FeatureFilterIndex} kept
+	 * until the tracks or their features change, so that moving the threshold
+	 * of a filter only updates the tracks that are affected.
+	 *
+	 * @param trackFilters
+	 *            the {@link FeatureFilter} collection to use for filtering.
+	 * @param doNotify
+	 *            if true, will fire a
+	 *            {@link ModelChangeEvent#TRACKS_VISIBILITY_CHANGED} event if the
+	 *            visibility of some tracks changed.
+	 */
+	public void filterTracks( final Collection< FeatureFilter > trackFilters, final boolean doNotify )
+	{
+		beginUpdate();
+		try
+		{
+			synchronized ( this )
+			{
+				FeatureFilterIndex< Integer > index = trackFilterIndex;
+				final boolean isNew = ( null == index );
+				if ( isNew )
+				{
+					// NaN values never fail a track filter, like missing ones.
+					index = new FeatureFilterIndex<>( trackModel.trackIDs( false ), ( id, feature ) -> {
+						final Double val = featureModel.getTrackFeature( id, feature );
+						return ( null == val || val.isNaN() ) ? null : val;
+					}, false );
+					trackFilterIndex = index;
+				}
+
+				final BitSet changed = index.filter( trackFilters );
+				boolean modified = false;
+				if ( isNew )
+				{
+					// We do not know the current visibility of tracks: set all.
+					for ( int i = 0; i < index.size(); i++ )
+						modified |= trackModel.setVisibility( index.get( i ), index.isVisible( i ) ) != index.isVisible( i );
+				}
+				else
+				{
+					for ( int i = changed.nextSetBit( 0 ); i >= 0; i = changed.nextSetBit( i + 1 ) )
+						modified |= trackModel.setVisibility( index.get( i ), index.isVisible( i ) ) != index.isVisible( i );
+				}
+
+				if ( modified && doNotify )
+					eventCache.add( ModelChangeEvent.TRACKS_VISIBILITY_CHANGED );
+			}
+		}
+		finally
+		{
+			endUpdate();
+		}
+	}
+
 	/**
 	 * Notify the {@link ModelChangeListener}s of this model that feature values
 	 * have been computed. This method serves as a manual trigger for this
@@ -435,6 +503,8 @@ public class Model
 	 */
 	public void notifyFeaturesComputed()
 	{
+		spots.invalidateFilterIndex();
+		trackFilterIndex = null;
 		final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.FEATURES_COMPUTED );
 		for ( final ModelChangeListener listener : modelChangeListeners )
 			listener.modelChanged( event );
@@ -525,6 +595,7 @@ public class Model
 
 		// Mark for update spot and edges
 		trackModel.edgesModified.addAll( trackModel.edgesOf( spotToMove ) );
+		trackModel.spotModified( spotToMove );
 		spotsMoved.add( spotToMove );
 		return spotToMove;
 	}
@@ -632,6 +703,7 @@ public class Model
 		{
 			trackModel.edgesModified.addAll( touchingEdges );
 		}
+		trackModel.spotModified( spotToUpdate );
 	}
 
 	/**
@@ -755,6 +827,7 @@ public class Model
 		final boolean modified = oldvis != visible;
 		if ( modified )
 		{
+			trackFilterIndex = null;
 			eventCache.add( ModelChangeEvent.TRACKS_VISIBILITY_CHANGED );
 		}
 		return oldvis;
@@ -777,18 +850,11 @@ public class Model
 		copy.setPhysicalUnits( spaceUnits, timeUnits );
 
 		// Spots.
-		final SpotCollection spots2 = SpotCollection.fromCollection( spots.iterable( true ) );
+		final SpotCollection spots2 = spots.copy( true );
 		copy.setSpots( spots2, false );
 
 		// Track model.
-		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graphCopy = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
-		Graphs.addGraph( graphCopy, trackModel.graph );
-		copy.getTrackModel().from(
-				graphCopy,
-				new HashMap<>( trackModel.connectedVertexSets ),
-				new HashMap<>( trackModel.connectedEdgeSets ),
-				new HashMap<>( trackModel.visibility ),
-				new HashMap<>( trackModel.names ) );
+		copy.getTrackModel().copyFrom( trackModel );
 
 		// Feature model.
 		final FeatureModel fm2 = copy.getFeatureModel();
@@ -864,6 +930,13 @@ public class Model
 
 		// Configure it with spots to signal.
 		final int nSpotsToSignal = nSpotsToUpdate + spotsRemoved.size();
+
+		// Feature values are about to change: discard filter indices.
+		if ( nEdgesToSignal + nSpotsToSignal > 0 || !tracksToUpdate.isEmpty() )
+		{
+			spots.invalidateFilterIndex();
+			trackFilterIndex = null;
+		}
 		if ( nSpotsToSignal > 0 )
 		{
 			event.addAllSpots( spotsAdded );
@@ -22,19 +22,25 @@
 package fiji.plugin.trackmate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureFilterIndex;
 import net.imglib2.algorithm.MultiThreaded;
 
 /**
@@ -45,8 +51,14 @@ import net.imglib2.algorithm.MultiThreaded;
  * without clashes.
  * <p>
  * This class is {@link MultiThreaded}. There are a few processes that can
- * benefit from multithreaded computation ({@link #filter(Collection)},
- * {@link #filter(FeatureFilter)}
+ * benefit from multithreaded computation ({@link #setVisible(boolean)}).
+ * <p>
+ * Filtering is made incremental by a {@link FeatureFilterIndex}, so that
+ * moving the threshold of a filter only updates the spots that are affected.
+ * The visibility of a spot is still stored in its {@link #VISIBILITY}
+ * feature, which is what this class, the XML files, the tables and the
+ * scripts read. The index only tells which spots must have this feature
+ * rewritten.
  *
  * @author Jean-Yves Tinevez - Feb 2011 -2013. Revised December 2020.
  */
@@ -76,6 +88,13 @@ public class SpotCollection implements MultiThreaded
 
 	private int numThreads;
 
+	/**
+	 * The index used to make successive filtering incremental. Is
+	 * <code>null</code> until the first filtering, and reset to
+	 * <code>null</code> every time the content of this collection changes.
+	 */
+	private volatile FeatureFilterIndex< Spot > filterIndex;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -154,6 +173,7 @@ public class SpotCollection implements MultiThreaded
 		spots.add( spot );
 		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
 		spot.putFeature( VISIBILITY, ONE );
+		filterIndex = null;
 	}
 
 	/**
@@ -174,6 +194,7 @@ public class SpotCollection implements MultiThreaded
 		final Set< Spot > spots = content.get( frame );
 		if ( null == spots )
 			return false;
+		filterIndex = null;
 		return spots.remove( spot );
 	}
 
@@ -185,6 +206,7 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public void setVisible( final boolean visible )
 	{
+		filterIndex = null;
 		final Double val = visible ? ONE : ZERO;
 		final Collection< Integer > frames = content.keySet();
 
@@ -229,54 +251,7 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final void filter( final FeatureFilter featurefilter )
 	{
-
-		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
-
-		for ( final Integer frame : frames )
-		{
-
-			final Runnable command = new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					final Set< Spot > spots = content.get( frame );
-					final double tval = featurefilter.value;
-
-					if ( featurefilter.isAbove )
-					{
-						for ( final Spot spot : spots )
-						{
-							final Double val = spot.getFeature( featurefilter.feature );
-							spot.putFeature( VISIBILITY, val.compareTo( tval ) < 0 ? ZERO : ONE );
-						}
-
-					}
-					else
-					{
-						for ( final Spot spot : spots )
-						{
-							final Double val = spot.getFeature( featurefilter.feature );
-							spot.putFeature( VISIBILITY, val.compareTo( tval ) > 0 ? ZERO : ONE );
-						}
-					}
-				}
-			};
-			executors.execute( command );
-		}
-
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		filter( Collections.singletonList( featurefilter ) );
 	}
 
 	/**
@@ -284,62 +259,62 @@ public class SpotCollection implements MultiThreaded
 	 * {@link FeatureFilter} collection. Spots that are filtered out are marked
 	 * as invisible, and visible otherwise. To be marked as visible, a spot must
 	 * pass <b>all</b> of the specified filters (AND chaining).
+	 * <p>
+	 * Filtering relies on a {@link FeatureFilterIndex} built on the first call
+	 * and kept until the content of this collection changes. Successive calls
+	 * with filters that differ only by their threshold values, as generated by
+	 * the GUI sliders, only touch the spots whose feature value lies between
+	 * the old and new thresholds. The {@link #VISIBILITY} feature of these
+	 * spots is rewritten, and is left untouched for the others.
+	 * <p>
+	 * The index must therefore be discarded with
+	 * {@link #invalidateFilterIndex()} when the feature values or the
+	 * {@link #VISIBILITY} of spots are set directly rather than through the
+	 * {@link Model}, which discards it on every modification.
 	 *
 	 * @param filters
 	 *            the filter collection to use.
 	 */
 	public final void filter( final Collection< FeatureFilter > filters )
 	{
-
-		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
-
-		for ( final Integer frame : frames )
+		FeatureFilterIndex< Spot > index = filterIndex;
+		final boolean isNew = ( null == index );
+		if ( isNew )
 		{
-			final Runnable command = new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					final Set< Spot > spots = content.get( frame );
-					for ( final Spot spot : spots )
-					{
-
-						boolean shouldNotBeVisible = false;
-						for ( final FeatureFilter featureFilter : filters )
-						{
-
-							final Double val = spot.getFeature( featureFilter.feature );
-							final double tval = featureFilter.value;
-							final boolean isAbove = featureFilter.isAbove;
-
-							if ( null == val || isAbove && val.compareTo( tval ) < 0 || !isAbove && val.compareTo( tval ) > 0 )
-							{
-								shouldNotBeVisible = true;
-								break;
-							}
-						} // loop over filters
-						spot.putFeature( VISIBILITY, shouldNotBeVisible ? ZERO : ONE );
-
-					} // loop over spots
-				}
-			};
-			executors.execute( command );
+			final List< Spot > all = new ArrayList<>( getNSpots( false ) );
+			for ( final Set< Spot > spots : content.values() )
+				all.addAll( spots );
+			index = new FeatureFilterIndex<>( all, Spot::getFeature, true );
+			filterIndex = index;
 		}
 
-		executors.shutdown();
-		try
+		final BitSet changed = index.filter( filters );
+		if ( isNew )
 		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
+			// We do not know the current visibility of spots: write it all.
+			for ( int i = 0; i < index.size(); i++ )
+				index.get( i ).putFeature( VISIBILITY, index.isVisible( i ) ? ONE : ZERO );
 		}
-		catch ( final InterruptedException e )
+		else
 		{
-			e.printStackTrace();
+			for ( int i = changed.nextSetBit( 0 ); i >= 0; i = changed.nextSetBit( i + 1 ) )
+				index.get( i ).putFeature( VISIBILITY, index.isVisible( i ) ? ONE : ZERO );
 		}
 	}
 
+	/**
+	 * Discards the index used to speed-up successive filtering of this
+	 * collection. This method must be called when the feature values or the
+	 * {@link #VISIBILITY} of the spots of this collection are changed, so
+	 * that the next call to {@link #filter(Collection)} uses the new values
+	 * and rewrites the visibility of all spots. Modifying the content of this
+	 * collection discards the index automatically.
+	 */
+	public void invalidateFilterIndex()
+	{
+		filterIndex = null;
+	}
+
 	/**
 	 * Returns the closest {@link Spot} to the given location (encoded as a
 	 * Spot), contained in the frame <code>frame</code>. If the frame has no
@@ -583,6 +558,7 @@ public class SpotCollection implements MultiThreaded
 			spot.putFeature( VISIBILITY, ZERO );
 		}
 		content.put( frame, value );
+		filterIndex = null;
 	}
 
 	/**
@@ -637,6 +613,52 @@ public class SpotCollection implements MultiThreaded
 	public void clear()
 	{
 		content.clear();
+		filterIndex = null;
+	}
+
+	/**
+	 * Returns a new {@link SpotCollection} made of the same spot objects,
+	 * stored in the same frames. The frames are copied in parallel, and the
+	 * new collection is built in bulk, which is much faster than
+	 * {@link #fromCollection(Iterable)} for large collections. The spots are
+	 * untouched, and in particular their {@link #VISIBILITY} feature is left
+	 * untouched.
+	 *
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the visible spots are copied, and
+	 *            the frames that have no visible spots are omitted.
+	 * @return a new SpotCollection.
+	 */
+	public SpotCollection copy( final boolean visibleOnly )
+	{
+		final Integer[] frames = content.keySet().toArray( new Integer[ 0 ] );
+		final List< Set< Spot > > sets = Arrays.stream( frames )
+				.parallel()
+				.map( frame -> copyFrame( content.getOrDefault( frame, Collections.emptySet() ), visibleOnly ) )
+				.collect( Collectors.toList() );
+
+		final TreeMap< Integer, Set< Spot > > map = new TreeMap<>();
+		for ( int i = 0; i < frames.length; i++ )
+			if ( !visibleOnly || !sets.get( i ).isEmpty() )
+				map.put( frames[ i ], sets.get( i ) );
+
+		final SpotCollection sc = new SpotCollection();
+		sc.setNumThreads( numThreads );
+		// Built in linear time from a sorted map.
+		sc.content = new ConcurrentSkipListMap<>( map );
+		return sc;
+	}
+
+	private static Set< Spot > copyFrame( final Set< Spot > spots, final boolean visibleOnly )
+	{
+		if ( !visibleOnly )
+			return new HashSet<>( spots );
+
+		final Set< Spot > copy = new HashSet<>( spots.size() );
+		for ( final Spot spot : spots )
+			if ( isVisible( spot ) )
+				copy.add( spot );
+		return copy;
 	}
 
 	/*
@@ -889,6 +911,7 @@ public class SpotCollection implements MultiThreaded
 
 			fc.removeAll( toRemove );
 		}
+		filterIndex = null;
 	}
 
 	/**
@@ -972,18 +995,27 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public static SpotCollection fromCollection( final Iterable< Spot > spots )
 	{
-		final SpotCollection sc = new SpotCollection();
+		/*
+		 * Group the spots in a plain sorted map, from which the concurrent
+		 * map is built in one go. Spots usually come grouped by frame, so we
+		 * keep the last frame set at hand.
+		 */
+		final TreeMap< Integer, Set< Spot > > frames = new TreeMap<>();
+		int lastFrame = 0;
+		Set< Spot > fc = null;
 		for ( final Spot spot : spots )
 		{
 			final int frame = spot.getFeature( Spot.FRAME ).intValue();
-			Set< Spot > fc = sc.content.get( frame );
-			if ( null == fc )
+			if ( null == fc || frame != lastFrame )
 			{
-				fc = new HashSet<>();
-				sc.content.put( frame, fc );
+				fc = frames.computeIfAbsent( frame, k -> new HashSet<>() );
+				lastFrame = frame;
 			}
 			fc.add( spot );
 		}
+
+		final SpotCollection sc = new SpotCollection();
+		sc.content = new ConcurrentSkipListMap<>( frames );
 		return sc;
 	}
 
@@ -699,43 +699,7 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 			logger.log( "Starting track filtering process.\n" );
 		}
 
-		model.beginUpdate();
-		try
-		{
-			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
-			{
-				boolean trackIsOk = true;
-				for ( final FeatureFilter filter : settings.getTrackFilters() )
-				{
-					final Double tval = filter.value;
-					final Double val = model.getFeatureModel().getTrackFeature( trackID, filter.feature );
-					if ( null == val )
-						continue;
-
-					if ( filter.isAbove )
-					{
-						if ( val < tval )
-						{
-							trackIsOk = false;
-							break;
-						}
-					}
-					else
-					{
-						if ( val > tval )
-						{
-							trackIsOk = false;
-							break;
-						}
-					}
-				}
-				model.setTrackVisibility( trackID, trackIsOk );
-			}
-		}
-		finally
-		{
-			model.endUpdate();
-		}
+		model.filterTracks( settings.getTrackFilters(), true );
 		return true;
 	}
 
@@ -0,0 +1,413 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fiji.plugin.trackmate.io.StatsExporter;
+import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlWriter;
+import fiji.plugin.trackmate.providers.DetectorProvider;
+import fiji.plugin.trackmate.providers.TrackerProvider;
+import fiji.plugin.trackmate.util.LogRecorder;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Runs TrackMate headless on many image files in the same JVM, with the same
+ * settings.
+ * <p>
+ * The settings are read once from a TrackMate XML file, then applied to each
+ * image with {@link Settings#copyOn(ImagePlus)}. Several files are processed
+ * concurrently. The total thread budget is split between files: with
+ * <code>T</code> threads and <code>F</code> files processed in parallel, each
+ * TrackMate instance uses <code>T/F</code> threads.
+ * <p>
+ * For each input file, the TrackMate XML file and the spot, edge and track
+ * tables in CSV are written in the output folder as soon as the file is
+ * processed. The time spent opening, processing and saving each file is
+ * appended to a report file, <code>batch-report.csv</code>, in the output
+ * folder.
+ * <p>
+ * Can be run from the command line with:
+ *
+ * <pre>
+ * TrackMateBatchRunner settings.xml input output [nThreads] [nParallelFiles]
+ * </pre>
+ *
+ * where <code>input</code> is either a folder, in which case all the TIFF files
+ * it contains are processed, or a text file listing one image path per line.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TrackMateBatchRunner
+{
+
+	public static final String REPORT_FILE_NAME = "batch-report.csv";
+
+	private static final String REPORT_HEADER = "FILE,STATUS,N_SPOTS,N_TRACKS,OPEN_MS,PROCESS_MS,SAVE_MS,TOTAL_MS,MESSAGE";
+
+	private final Settings template;
+
+	private final List< File > inputs;
+
+	private final File outputFolder;
+
+	private final int numThreads;
+
+	private final int nParallelFiles;
+
+	private final Logger logger;
+
+	/**
+	 * Creates a batch runner.
+	 *
+	 * @param template
+	 *            the settings to apply to each file. The image they point to
+	 *            is ignored.
+	 * @param inputs
+	 *            the image files to process.
+	 * @param outputFolder
+	 *            the folder in which to write the results.
+	 * @param numThreads
+	 *            the total number of threads to use.
+	 * @param nParallelFiles
+	 *            the number of files to process concurrently.
+	 * @param logger
+	 *            a logger to report progress.
+	 */
+	public TrackMateBatchRunner( final Settings template, final List< File > inputs, final File outputFolder, final int numThreads, final int nParallelFiles, final Logger logger )
+	{
+		this.template = template;
+		this.inputs = inputs;
+		this.outputFolder = outputFolder;
+		this.numThreads = Math.max( 1, numThreads );
+		this.nParallelFiles = Math.max( 1, Math.min( Math.min( nParallelFiles, this.numThreads ), Math.max( 1, inputs.size() ) ) );
+		this.logger = logger;
+	}
+
+	/**
+	 * Reads the settings of a TrackMate XML file, to be used as template for a
+	 * batch. The image the settings point to is not opened. Only the detector,
+	 * the tracker and the filters are read; the feature analyzers are added
+	 * for each image.
+	 *
+	 * @param settingsFile
+	 *            the TrackMate XML file.
+	 * @return a new settings object.
+	 * @throws IOException
+	 *             if the file cannot be read or does not contain settings.
+	 */
+	public static Settings readTemplate( final File settingsFile ) throws IOException
+	{
+		final TmXmlReader reader = new TmXmlReader( settingsFile );
+		if ( !reader.isReadingOk() )
+			throw new IOException( "Could not read TrackMate file " + settingsFile + ":\n" + reader.getErrorMessage() );
+
+		final Settings settings = reader.readSettings( null,
+				new DetectorProvider(),
+				new TrackerProvider(),
+				null,
+				null,
+				null,
+				null );
+		if ( null == settings || !reader.isReadingOk() )
+			throw new IOException( "Could not read settings from TrackMate file " + settingsFile + ":\n" + reader.getErrorMessage() );
+		return settings;
+	}
+
+	/**
+	 * Lists the image files to process.
+	 *
+	 * @param input
+	 *            a folder, in which case all the TIFF files in this folder are
+	 *            returned, or a text file listing one image path per line.
+	 *            Relative paths are resolved against the folder of the text
+	 *            file. Empty lines and lines starting with <code>#</code> are
+	 *            ignored.
+	 * @return a new list of files.
+	 * @throws IOException
+	 *             if the input cannot be read.
+	 */
+	public static List< File > listInputs( final File input ) throws IOException
+	{
+		final List< File > files = new ArrayList<>();
+		if ( input.isDirectory() )
+		{
+			final File[] children = input.listFiles();
+			if ( null == children )
+				throw new IOException( "Could not list the content of " + input );
+			for ( final File child : children )
+			{
+				final String name = child.getName().toLowerCase( Locale.ROOT );
+				if ( child.isFile() && !child.isHidden() && ( name.endsWith( ".tif" ) || name.endsWith( ".tiff" ) ) )
+					files.add( child );
+			}
+			Collections.sort( files );
+			return files;
+		}
+
+		for ( final String line : Files.readAllLines( input.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			final String path = line.trim();
+			if ( path.isEmpty() || path.startsWith( "#" ) )
+				continue;
+			final File file = new File( path );
+			files.add( file.isAbsolute() ? file : new File( input.getAbsoluteFile().getParentFile(), path ) );
+		}
+		return files;
+	}
+
+	/**
+	 * Processes all the files. Files that fail are reported and do not stop
+	 * the batch.
+	 *
+	 * @return the result for each file, in the order they completed.
+	 * @throws IOException
+	 *             if the output folder or the report cannot be written.
+	 */
+	public List< Result > run() throws IOException
+	{
+		if ( !outputFolder.isDirectory() && !outputFolder.mkdirs() )
+			throw new IOException( "Could not create output folder " + outputFolder );
+
+		final int threadsPerFile = Math.max( 1, numThreads / nParallelFiles );
+		logger.log( String.format( "Processing %d files, %d at a time with %d threads each.\n",
+				inputs.size(), nParallelFiles, threadsPerFile ) );
+
+		final long start = System.currentTimeMillis();
+		final List< Result > results = new ArrayList<>( inputs.size() );
+		final ExecutorService executor = Executors.newFixedThreadPool( nParallelFiles );
+		try (final BufferedWriter report = Files.newBufferedWriter( new File( outputFolder, REPORT_FILE_NAME ).toPath(), StandardCharsets.UTF_8 ))
+		{
+			report.write( REPORT_HEADER );
+			report.newLine();
+			report.flush();
+
+			final CompletionService< Result > completion = new ExecutorCompletionService<>( executor );
+			for ( final File input : inputs )
+				completion.submit( () -> process( input, threadsPerFile ) );
+
+			for ( int i = 0; i < inputs.size(); i++ )
+			{
+				final Result result = completion.take().get();
+				results.add( result );
+
+				report.write( result.toCsvLine() );
+				report.newLine();
+				report.flush();
+
+				if ( result.ok )
+					logger.log( String.format( "[%d/%d] %s: %d spots, %d tracks in %.1f s.\n",
+							i + 1, inputs.size(), result.file.getName(), result.nSpots, result.nTracks, result.totalTime() / 1000. ) );
+				else
+					logger.error( String.format( "[%d/%d] %s failed: %s\n",
+							i + 1, inputs.size(), result.file.getName(), result.message ) );
+				logger.setProgress( ( double ) ( i + 1 ) / inputs.size() );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			logger.error( "Batch interrupted.\n" );
+		}
+		catch ( final ExecutionException e )
+		{
+			// Should not happen, process() catches everything.
+			throw new IOException( e.getCause() );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		logger.log( String.format( "Batch done in %.1f s.\n", ( System.currentTimeMillis() - start ) / 1000. ) );
+		return results;
+	}
+
+	private Result process( final File file, final int threadsPerFile )
+	{
+		final Result result = new Result( file );
+		final long t0 = System.currentTimeMillis();
+		ImagePlus imp = null;
+		try
+		{
+			imp = IJ.openImage( file.getAbsolutePath() );
+			if ( null == imp )
+				return result.fail( "Could not open image." );
+			// Same as in the headless script: swap Z and T if T = 1.
+			if ( imp.getNFrames() == 1 && imp.getNSlices() > 1 )
+				imp.setDimensions( imp.getNChannels(), 1, imp.getNSlices() );
+			final long t1 = System.currentTimeMillis();
+			result.openTime = t1 - t0;
+
+			final Settings settings = template.copyOn( imp );
+			final Model model = new Model();
+			model.setPhysicalUnits( imp.getCalibration().getXUnit(), imp.getCalibration().getTimeUnit() );
+			final LogRecorder log = new LogRecorder( Logger.VOID_LOGGER );
+			model.setLogger( log );
+
+			final TrackMate trackmate = new TrackMate( model, settings );
+			trackmate.setNumThreads( threadsPerFile );
+			log.log( TrackMate.PLUGIN_NAME_STR + " v" + TrackMate.PLUGIN_NAME_VERSION + " started on:\n" + TMUtils.getCurrentTimeString() + '\n' );
+			if ( !trackmate.checkInput() || !trackmate.process() )
+				return result.fail( trackmate.getErrorMessage() );
+			final long t2 = System.currentTimeMillis();
+			result.processTime = t2 - t1;
+			result.nSpots = model.getSpots().getNSpots( true );
+			result.nTracks = model.getTrackModel().nTracks( true );
+
+			final String baseName = baseName( file );
+			final TmXmlWriter writer = new TmXmlWriter( new File( outputFolder, baseName + ".xml" ), log );
+			writer.appendLog( log.toString() );
+			writer.appendModel( model );
+			writer.appendSettings( settings );
+			writer.writeToFile();
+			StatsExporter.exportAll( model, outputFolder, baseName, StatsExporter.Format.CSV, threadsPerFile );
+			result.saveTime = System.currentTimeMillis() - t2;
+			result.ok = true;
+			return result;
+		}
+		catch ( final Exception | OutOfMemoryError e )
+		{
+			return result.fail( e.getClass().getSimpleName() + ": " + e.getMessage() );
+		}
+		finally
+		{
+			if ( null != imp )
+				imp.flush();
+		}
+	}
+
+	/**
+	 * Returns the name of the file without its image extension, used to name
+	 * the output files.
+	 */
+	static String baseName( final File file )
+	{
+		final String name = file.getName();
+		final String lower = name.toLowerCase( Locale.ROOT );
+		for ( final String ext : Arrays.asList( ".ome.tiff", ".ome.tif", ".tiff", ".tif" ) )
+			if ( lower.endsWith( ext ) )
+				return name.substring( 0, name.length() - ext.length() );
+		final int dot = name.lastIndexOf( '.' );
+		return dot > 0 ? name.substring( 0, dot ) : name;
+	}
+
+	/**
+	 * The outcome of processing one file.
+	 */
+	public static class Result
+	{
+
+		public final File file;
+
+		public boolean ok = false;
+
+		public String message = "";
+
+		public int nSpots = 0;
+
+		public int nTracks = 0;
+
+		/** Time spent opening the image, in ms. */
+		public long openTime = 0;
+
+		/** Time spent running TrackMate, in ms. */
+		public long processTime = 0;
+
+		/** Time spent writing the results, in ms. */
+		public long saveTime = 0;
+
+		private Result( final File file )
+		{
+			this.file = file;
+		}
+
+		private Result fail( final String message )
+		{
+			this.ok = false;
+			this.message = message == null ? "" : message;
+			return this;
+		}
+
+		public long totalTime()
+		{
+			return openTime + processTime + saveTime;
+		}
+
+		private String toCsvLine()
+		{
+			return String.join( ",",
+					quote( file.getPath() ),
+					ok ? "OK" : "FAILED",
+					Integer.toString( nSpots ),
+					Integer.toString( nTracks ),
+					Long.toString( openTime ),
+					Long.toString( processTime ),
+					Long.toString( saveTime ),
+					Long.toString( totalTime() ),
+					quote( message.trim() ) );
+		}
+
+		private static String quote( final String s )
+		{
+			return '"' + s.replace( "\"", "\"\"" ) + '"';
+		}
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		if ( args.length < 3 )
+		{
+			System.err.println( "Usage: TrackMateBatchRunner settings.xml input output [nThreads] [nParallelFiles]" );
+			System.exit( 1 );
+		}
+		final Settings template = readTemplate( new File( args[ 0 ] ) );
+		final List< File > inputs = listInputs( new File( args[ 1 ] ) );
+		final File output = new File( args[ 2 ] );
+		final int numThreads = args.length > 3 ? Integer.parseInt( args[ 3 ] ) : Runtime.getRuntime().availableProcessors();
+		final int nParallelFiles = args.length > 4 ? Integer.parseInt( args[ 4 ] ) : Math.max( 1, numThreads / 4 );
+
+		final List< Result > results = new TrackMateBatchRunner( template, inputs, output, numThreads, nParallelFiles, Logger.DEFAULT_LOGGER ).run();
+		int nFailed = 0;
+		for ( final Result result : results )
+			if ( !result.ok )
+				nFailed++;
+		System.exit( nFailed == 0 ? 0 : 2 );
+	}
+}
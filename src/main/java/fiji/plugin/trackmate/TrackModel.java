@@ -32,8 +32,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
 import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
 import org.jgrapht.event.ConnectedComponentTraversalEvent;
 import org.jgrapht.event.EdgeTraversalEvent;
@@ -51,6 +53,8 @@ import org.jgrapht.traverse.BreadthFirstIterator;
 import org.jgrapht.traverse.DepthFirstIterator;
 import org.jgrapht.traverse.GraphIterator;
 
+import fiji.plugin.trackmate.graph.BranchDecompositionCache;
+import fiji.plugin.trackmate.graph.CompactSpotGraph;
 import fiji.plugin.trackmate.graph.Function1;
 import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
 import fiji.plugin.trackmate.graph.TimeDirectedDepthFirstIterator;
@@ -76,6 +80,15 @@ public class TrackModel
 	 */
 	DefaultListenableGraph< Spot, DefaultWeightedEdge > graph;
 
+	/** The graph wrapped by {@link #graph}. */
+	private Graph< Spot, DefaultWeightedEdge > backend;
+
+	/**
+	 * If <code>true</code>, the graphs of this model are stored in a
+	 * {@link CompactSpotGraph}.
+	 */
+	private final boolean compact;
+
 	private final MyGraphListener mgl;
 
 	/*
@@ -144,19 +157,72 @@ public class TrackModel
 
 	private final Iterator< String > nameGenerator = new DefaultNameGenerator();
 
+	/**
+	 * Incremented every time the content of a track changes. Used to stamp
+	 * track versions.
+	 */
+	private long modCount = 0;
+
+	/**
+	 * The version stamp of the tracks modified since the last bulk creation.
+	 */
+	private final Map< Integer, Long > trackVersions = new HashMap<>();
+
+	/**
+	 * The version stamp of the tracks created in bulk and not modified since.
+	 */
+	private long bulkVersion = 0;
+
+	/**
+	 * Incremented every time tracks are created or removed, renamed, or have
+	 * their visibility changed. Used to invalidate the track ID listings.
+	 */
+	private long listingVersion = 0;
+
+	/**
+	 * The cached track ID listings, <code>null</code> or outdated if their
+	 * version differs from {@link #listingVersion}.
+	 */
+	private volatile TrackListing listing;
+
+	/**
+	 * The convex branch decompositions of the tracks, discarded when the
+	 * tracks are modified.
+	 */
+	private final BranchDecompositionCache branchDecompositions = new BranchDecompositionCache();
+
 	/*
 	 * Constructors -----------------------------------------------------------
 	 */
 
 	TrackModel()
 	{
-		this( new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class ) );
+		this( false );
 	}
 
-	private TrackModel( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	private TrackModel( final boolean compact )
 	{
+		this.compact = compact;
 		this.mgl = new MyGraphListener();
-		setGraph( graph );
+		setGraph( newGraph() );
+	}
+
+	/**
+	 * Creates an empty track model that stores its links in a
+	 * {@link CompactSpotGraph} rather than in a {@link SimpleWeightedGraph}.
+	 * It can be returned by {@link Model#createTrackModel()} to opt in for
+	 * this graph.
+	 * <p>
+	 * The graphs given to {@link #setGraph(Graph)} and
+	 * {@link #from(Graph, Map, Map, Map, Map)} are then copied to a compact
+	 * graph, unless they are one already, and
+	 * {@link #edgesOf(Spot)} returns snapshots rather than live views.
+	 *
+	 * @return a new track model.
+	 */
+	public static TrackModel withCompactGraph()
+	{
+		return new TrackModel( true );
 	}
 
 	/*
@@ -172,14 +238,10 @@ public class TrackModel
 	 * @param graph
 	 *            the graph to parse for tracks.
 	 */
-	void setGraph( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	void setGraph( final Graph< Spot, DefaultWeightedEdge > graph )
 	{
-		if ( null != this.graph )
-			this.graph.removeGraphListener( mgl );
-
-		this.graph = new DefaultListenableGraph<>( graph );
-		this.graph.addGraphListener( mgl );
-		init( graph );
+		install( graph );
+		init( this.graph );
 	}
 
 	/**
@@ -187,7 +249,7 @@ public class TrackModel
 	 */
 	void clear()
 	{
-		setGraph( new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class ) );
+		setGraph( newGraph() );
 	}
 
 	/**
@@ -215,17 +277,42 @@ public class TrackModel
 	 */
 	public void from( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > lGraph, final Map< Integer, Set< Spot > > trackSpots, final Map< Integer, Set< DefaultWeightedEdge > > trackEdges, final Map< Integer, Boolean > trackVisibility, final Map< Integer, String > trackNames )
 	{
+		from( ( Graph< Spot, DefaultWeightedEdge > ) lGraph, trackSpots, trackEdges, trackVisibility, trackNames );
+	}
 
-		if ( null != this.graph )
-			this.graph.removeGraphListener( mgl );
-
-		this.graph = new DefaultListenableGraph<>( lGraph );
-		this.graph.addGraphListener( mgl );
+	/**
+	 * Same as
+	 * {@link #from(SimpleWeightedGraph, Map, Map, Map, Map)}, for any simple
+	 * weighted graph of spots, and notably a {@link CompactSpotGraph}.
+	 * <p>
+	 * For a model created with {@link #withCompactGraph()}, the graph is
+	 * copied to a {@link CompactSpotGraph}, unless it is one already.
+	 *
+	 * @param lGraph
+	 *            the mother graph for the model.
+	 * @param trackSpots
+	 *            the mapping of track IDs vs the connected components as sets
+	 *            of spots.
+	 * @param trackEdges
+	 *            the mapping of track IDs vs the connected components as sets
+	 *            of edges.
+	 * @param trackVisibility
+	 *            the track visibility.
+	 * @param trackNames
+	 *            the track names.
+	 */
+	public void from( final Graph< Spot, DefaultWeightedEdge > lGraph, final Map< Integer, Set< Spot > > trackSpots, final Map< Integer, Set< DefaultWeightedEdge > > trackEdges, final Map< Integer, Boolean > trackVisibility, final Map< Integer, String > trackNames )
+	{
+		install( lGraph );
 
 		edgesAdded.clear();
 		edgesModified.clear();
 		edgesRemoved.clear();
 		tracksUpdated.clear();
+		trackVersions.clear();
+		branchDecompositions.clear();
+		bulkVersion = ++modCount;
+		listingVersion++;
 
 		visibility = trackVisibility;
 		names = trackNames;
@@ -268,6 +355,92 @@ public class TrackModel
 
 	}
 
+	/**
+	 * Replaces the mother graph by the specified graph, or by a compact copy
+	 * of it if this model stores its links in a {@link CompactSpotGraph}.
+	 */
+	private void install( final Graph< Spot, DefaultWeightedEdge > lGraph )
+	{
+		if ( null != this.graph )
+			this.graph.removeGraphListener( mgl );
+
+		this.backend = ( compact && !( lGraph instanceof CompactSpotGraph ) )
+				? CompactSpotGraph.copyOf( lGraph )
+				: lGraph;
+		this.graph = new DefaultListenableGraph<>( backend );
+		this.graph.addGraphListener( mgl );
+	}
+
+	/**
+	 * Returns a new empty graph of the type this model stores its links in.
+	 */
+	private Graph< Spot, DefaultWeightedEdge > newGraph()
+	{
+		if ( compact )
+			return new CompactSpotGraph();
+		return new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+	}
+
+	/**
+	 * Returns a copy of the mother graph, made of the same spot and edge
+	 * objects.
+	 */
+	private Graph< Spot, DefaultWeightedEdge > copyGraph()
+	{
+		if ( backend instanceof CompactSpotGraph )
+			return ( ( CompactSpotGraph ) backend ).copy();
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > copy = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		Graphs.addGraph( copy, backend );
+		return copy;
+	}
+
+	/**
+	 * Makes this model a copy of the specified one. The copy is made of the
+	 * same spot and edge objects, but the graph and the track sets are copied,
+	 * so that the two models can be edited independently. The graph copy is
+	 * of the same type as the graph of the source.
+	 * <p>
+	 * This is much faster than {@link #from(Graph, Map, Map, Map, Map)}: the
+	 * track sets are copied in parallel, and the spot and edge to track ID
+	 * maps are copied instead of being rebuilt. A {@link CompactSpotGraph} is
+	 * copied as whole arrays.
+	 *
+	 * @param source
+	 *            the model to copy.
+	 */
+	void copyFrom( final TrackModel source )
+	{
+		install( source.copyGraph() );
+
+		edgesAdded.clear();
+		edgesModified.clear();
+		edgesRemoved.clear();
+		tracksUpdated.clear();
+		trackVersions.clear();
+		branchDecompositions.clear();
+		bulkVersion = ++modCount;
+		listingVersion++;
+
+		connectedVertexSets = copySets( source.connectedVertexSets );
+		connectedEdgeSets = copySets( source.connectedEdgeSets );
+		vertexToID = new HashMap<>( source.vertexToID );
+		edgeToID = new HashMap<>( source.edgeToID );
+		visibility = new HashMap<>( source.visibility );
+		names = new HashMap<>( source.names );
+		IDcounter = source.IDcounter;
+		( ( DefaultNameGenerator ) nameGenerator ).setNameID( ( ( DefaultNameGenerator ) source.nameGenerator ).nameID );
+	}
+
+	private static < T > Map< Integer, Set< T > > copySets( final Map< Integer, Set< T > > sets )
+	{
+		return sets.entrySet().parallelStream().collect( Collectors.toMap(
+				e -> e.getKey(),
+				e -> new HashSet<>( e.getValue() ),
+				( a, b ) -> a,
+				HashMap::new ) );
+	}
+
 	/*
 	 * DEFAULT VISIBILIT METHODS made to be called from the mother model.
 	 */
@@ -314,9 +487,28 @@ public class TrackModel
 
 	Boolean setVisibility( final Integer trackID, final boolean visible )
 	{
+		listingVersion++;
 		return visibility.put( trackID, Boolean.valueOf( visible ) );
 	}
 
+	/**
+	 * Marks the track the specified spot belongs to as modified, without
+	 * changing its edges. Called when a spot is moved or its features are
+	 * updated.
+	 *
+	 * @param spot
+	 *            the spot that was modified.
+	 */
+	void spotModified( final Spot spot )
+	{
+		final Integer id = vertexToID.get( spot );
+		if ( null != id )
+		{
+			trackVersions.put( id, Long.valueOf( ++modCount ) );
+			branchDecompositions.invalidate( id );
+		}
+	}
+
 	/*
 	 * PUBLIC METHODS
 	 */
@@ -518,23 +710,19 @@ public class TrackModel
 	/**
 	 * Returns the set of track IDs managed by this model, ordered by track
 	 * names (alpha-numerically sorted).
+	 * <p>
+	 * The returned set is an unmodifiable snapshot, computed once and reused
+	 * until tracks are added, removed, renamed or have their visibility
+	 * changed.
 	 *
 	 * @param visibleOnly
 	 *            if <code>true</code>, only visible track IDs will be returned.
-	 * @return a new set of track IDs.
+	 * @return an unmodifiable set of track IDs.
 	 */
 	public Set< Integer > trackIDs( final boolean visibleOnly )
 	{
-		final Set< Integer > ids = TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet();
-		if ( !visibleOnly )
-			return ids;
-
-		final Set< Integer > vids = new LinkedHashSet<>( ids.size() );
-		for ( final Integer id : ids )
-			if ( visibility.get( id ) )
-				vids.add( id );
-
-		return vids;
+		final TrackListing l = listing();
+		return visibleOnly ? l.visibleSorted : l.sorted;
 	}
 
 	/**
@@ -551,12 +739,7 @@ public class TrackModel
 		if ( !visibleOnly )
 			return visibility.keySet();
 
-		final Set< Integer > vids = new LinkedHashSet<>( visibility.size() );
-		for ( final Integer id : visibility.keySet() )
-			if ( visibility.get( id ) )
-				vids.add( id );
-
-		return vids;
+		return listing().visible;
 	}
 
 	/**
@@ -581,6 +764,7 @@ public class TrackModel
 	 */
 	public void setName( final Integer id, final String name )
 	{
+		listingVersion++;
 		names.put( id, name );
 	}
 
@@ -613,12 +797,7 @@ public class TrackModel
 		if ( !visibleOnly )
 			return connectedEdgeSets.size();
 
-		int ntracks = 0;
-		for ( final Boolean visible : visibility.values() )
-			if ( visible )
-				ntracks++;
-
-		return ntracks;
+		return listing().visible.size();
 	}
 
 	/**
@@ -648,6 +827,22 @@ public class TrackModel
 		return vertexToID.get( spot );
 	}
 
+	/**
+	 * Returns the version stamp of the specified track. The stamp changes every
+	 * time an edge is added to or removed from the track, or when one of its
+	 * spots is moved or updated through the model. Two calls returning the same
+	 * stamp ensure that the track content did not change in between.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return the version stamp of the track.
+	 */
+	public long trackVersion( final Integer trackID )
+	{
+		final Long version = trackVersions.get( trackID );
+		return ( null == version ) ? bulkVersion : version.longValue();
+	}
+
 	/*
 	 * PRIVATE METHODS
 	 */
@@ -673,6 +868,10 @@ public class TrackModel
 		edgesModified.clear();
 		edgesRemoved.clear();
 		tracksUpdated.clear();
+		trackVersions.clear();
+		branchDecompositions.clear();
+		bulkVersion = ++modCount;
+		listingVersion++;
 
 		final Set< Spot > vertexSet = lGraph.vertexSet();
 		if ( vertexSet.size() > 0 )
@@ -685,6 +884,69 @@ public class TrackModel
 		}
 	}
 
+	/**
+	 * Returns the track ID listings for the current version of this model,
+	 * recomputing them if needed.
+	 */
+	private TrackListing listing()
+	{
+		final TrackListing l = listing;
+		if ( null != l && l.version == listingVersion )
+			return l;
+
+		final TrackListing nl = new TrackListing( listingVersion, names, visibility );
+		listing = nl;
+		return nl;
+	}
+
+	/**
+	 * Unmodifiable snapshots of the track IDs, sorted by name or not, for one
+	 * version of the model.
+	 */
+	private static final class TrackListing
+	{
+
+		private final long version;
+
+		private final Set< Integer > sorted;
+
+		private final Set< Integer > visibleSorted;
+
+		private final Set< Integer > visible;
+
+		private TrackListing( final long version, final Map< Integer, String > names, final Map< Integer, Boolean > visibility )
+		{
+			this.version = version;
+			final Set< Integer > ids = TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet();
+			final Set< Integer > vids = new LinkedHashSet<>( ids.size() );
+			for ( final Integer id : ids )
+				if ( visibility.get( id ) )
+					vids.add( id );
+			final Set< Integer > uvids = new LinkedHashSet<>( visibility.size() );
+			for ( final Integer id : visibility.keySet() )
+				if ( visibility.get( id ) )
+					uvids.add( id );
+
+			this.sorted = Collections.unmodifiableSet( ids );
+			this.visibleSorted = Collections.unmodifiableSet( vids );
+			this.visible = Collections.unmodifiableSet( uvids );
+		}
+	}
+
+	/**
+	 * Marks the specified track as updated in the current transaction and
+	 * stamps it with a new version.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 */
+	private void trackUpdated( final Integer trackID )
+	{
+		tracksUpdated.add( trackID );
+		trackVersions.put( trackID, Long.valueOf( ++modCount ) );
+		branchDecompositions.invalidate( trackID );
+	}
+
 	/*
 	 * UTILS
 	 */
@@ -780,6 +1042,19 @@ public class TrackModel
 		return new SortedDepthFirstIterator<>( graph, start, comparator );
 	}
 
+	/**
+	 * Returns the cache of the convex branch decompositions of the tracks of
+	 * this model. Its content is discarded when tracks are modified.
+	 *
+	 * @return the branch decomposition cache.
+	 * @see fiji.plugin.trackmate.graph.ConvexBranchesDecomposition#processTrack(Integer,
+	 *      TrackModel, boolean, boolean)
+	 */
+	public BranchDecompositionCache getBranchDecompositionCache()
+	{
+		return branchDecompositions;
+	}
+
 	public TimeDirectedNeighborIndex getDirectedNeighborIndex()
 	{
 		return new TimeDirectedNeighborIndex( graph );
@@ -928,6 +1203,8 @@ public class TrackModel
 			if ( null == connectedEdgeSets )
 				return;
 
+			listingVersion++;
+
 			final Spot v = event.getVertex();
 			vertexToID.remove( v );
 			final Integer id = vertexToID.get( v );
@@ -957,6 +1234,7 @@ public class TrackModel
 		{
 			// To signal to ModelChangeListener
 			edgesAdded.add( event.getEdge() );
+			listingVersion++;
 
 			// To maintain connected sets coherence:
 			/*
@@ -1042,7 +1320,7 @@ public class TrackModel
 
 					// Transaction: we signal that the large id is to be
 					// updated, and forget about the small one
-					tracksUpdated.add( nid );
+					trackUpdated( nid );
 					tracksUpdated.remove( rid );
 
 					// Visibility: if at least one is visible, the new set is
@@ -1079,7 +1357,7 @@ public class TrackModel
 				// and a default name.
 				names.put( nid, nameGenerator.next() );
 				// Transaction: we mark the new track as updated
-				tracksUpdated.add( nid );
+				trackUpdated( nid );
 
 			}
 			else if ( null == sid )
@@ -1093,7 +1371,7 @@ public class TrackModel
 				vertexToID.put( sv, tid );
 				// We do not change the visibility, nor the name.
 				// Transaction: we mark the mother track as updated
-				tracksUpdated.add( tid );
+				trackUpdated( tid );
 
 			}
 			else if ( null == tid )
@@ -1107,7 +1385,7 @@ public class TrackModel
 				vertexToID.put( tv, sid );
 				// We do not change the visibility, nor the name.
 				// Transaction: we mark the mother track as updated
-				tracksUpdated.add( sid );
+				trackUpdated( sid );
 
 			}
 
@@ -1118,6 +1396,7 @@ public class TrackModel
 		{
 			// To signal to ModelChangeListeners
 			edgesRemoved.add( event.getEdge() );
+			listingVersion++;
 
 			// To maintain connected sets coherence
 
@@ -1209,7 +1488,7 @@ public class TrackModel
 				 */
 				if ( targetVCS.equals( sourceVCS ) )
 				{
-					tracksUpdated.add( id );
+					trackUpdated( id );
 					connectedEdgeSets.get( id ).remove( e );
 					return;
 				}
@@ -1229,7 +1508,7 @@ public class TrackModel
 																// have the
 																// right id in
 																// #vertexToId
-					tracksUpdated.add( id ); // old track has changed
+					trackUpdated( id ); // old track has changed
 
 					if ( sourceECS.size() > 0 )
 					{
@@ -1249,7 +1528,7 @@ public class TrackModel
 						names.put( newid, nameGenerator.next() );
 						// Transaction: both children tracks are marked for
 						// update.
-						tracksUpdated.add( newid );
+						trackUpdated( newid );
 
 					}
 					else
@@ -1272,7 +1551,7 @@ public class TrackModel
 						// it.
 						connectedEdgeSets.put( id, sourceECS );
 						connectedVertexSets.put( id, sourceVCS );
-						tracksUpdated.add( id );
+						trackUpdated( id );
 
 						if ( targetECS.size() > 0 )
 						{
@@ -1291,7 +1570,7 @@ public class TrackModel
 							names.put( newid, nameGenerator.next() );
 							// Transaction: both children tracks are marked for
 							// update.
-							tracksUpdated.add( newid );
+							trackUpdated( newid );
 						}
 						else
 						{
@@ -31,11 +31,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
@@ -314,7 +319,7 @@ public class CTCExporter
 		for ( int frame = 0; frame < dims[ 3 ]; frame++ )
 		{
 			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-			final SpotRoiWriter spotWriter = new SpotRoiWriter( imgCT );
+			final SpotRoiWriter< UnsignedShortType > spotWriter = new SpotRoiWriter<>( imgCT );
 
 			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
 			{
@@ -362,7 +367,7 @@ public class CTCExporter
 		 * the case, and if yes, removing the erased spot from the smallest
 		 * track.
 		 */
-		final Model model2 = sanitizeAndCopy( trackmate.getModel() );
+		final Model model2 = sanitizeAndCopy( trackmate.getModel(), trackmate.getNumThreads() );
 
 		// What we need to decompose tracks in branches.
 		final TrackModel trackModel = model2.getTrackModel();
@@ -413,10 +418,16 @@ public class CTCExporter
 				BufferedWriter bw = new BufferedWriter( new OutputStreamWriter( fos ) ))
 		{
 
-			for ( final Integer trackID : trackModel.trackIDs( true ) )
+			// Decompose the tracks.
+			final Map< Integer, TrackBranchDecomposition > decompositions = ConvexBranchesDecomposition.processTracks(
+					trackModel.trackIDs( true ),
+					trackModel,
+					forbidMiddleLinks,
+					forbidGaps,
+					trackmate.getNumThreads() );
+
+			for ( final TrackBranchDecomposition decomposition : decompositions.values() )
 			{
-				// Decompose the track.
-				final TrackBranchDecomposition decomposition = ConvexBranchesDecomposition.processTrack( trackID, trackModel, neighborIndex, forbidMiddleLinks, forbidGaps );
 				final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( decomposition );
 
 				// Find the first branch (the one with no parent).
@@ -446,7 +457,7 @@ public class CTCExporter
 					{
 						final long frame = spot.getFeature( Spot.FRAME ).longValue();
 						final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-						final SpotRoiWriter spotRoiWriter = new SpotRoiWriter( imgCT );
+						final SpotRoiWriter< UnsignedShortType > spotRoiWriter = new SpotRoiWriter<>( imgCT );
 						spotRoiWriter.write( spot, currentID );
 					}
 
@@ -537,97 +548,243 @@ public class CTCExporter
 	 * <p>
 	 * This fix is approximate: the calculus for complete overlap assume the
 	 * spots are spherical with a fudge factor.
+	 * <p>
+	 * The overlapping pairs are searched in parallel over frames with a
+	 * spatial grid. They are then fixed in a single model transaction, in the
+	 * order they would be met when comparing all the spots of a frame
+	 * pairwise, since each fix can change the tracks the next ones depend on.
+	 * The specified model is not modified.
 	 */
-	private static final Model sanitizeAndCopy( final Model model )
+	static final Model sanitizeAndCopy( final Model model, final int numThreads )
 	{
-		final double fudgeFactor = 1.2; // 20%
 		final Model copy = model.copy();
 
 		final SpotCollection allSpots = copy.getSpots();
 		final TrackModel trackModel = copy.getTrackModel();
-		for ( final Integer frame : allSpots.keySet() )
+		final List< Integer > frames = new ArrayList<>( allSpots.keySet() );
+
+		final ExecutorService executors = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		final List< Future< List< Spot[] > > > overlaps = new ArrayList<>( frames.size() );
+		for ( final Integer frame : frames )
+			overlaps.add( executors.submit( () -> {
+				final List< Spot > spots = new ArrayList<>();
+				allSpots.iterable( frame, true ).forEach( spots::add );
+				return findOverlaps( spots );
+			} ) );
+
+		copy.beginUpdate();
+		try
+		{
+			for ( final Future< List< Spot[] > > future : overlaps )
+				for ( final Spot[] pair : future.get() )
+					fixOverlap( copy, trackModel, pair[ 0 ], pair[ 1 ] );
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( "Could not check spot overlaps.", e );
+		}
+		finally
+		{
+			copy.endUpdate();
+			executors.shutdown();
+		}
+		return copy;
+	}
+
+	private static final double OVERLAP_FUDGE_FACTOR = 1.2; // 20%
+
+	/**
+	 * Returns <code>true</code> if the mask of one of the two spots would
+	 * completely erase the other.
+	 */
+	private static final boolean overlap( final Spot s1, final Spot s2 )
+	{
+		final double r1 = s1.getFeature( Spot.RADIUS ).doubleValue();
+		final double r2 = s2.getFeature( Spot.RADIUS ).doubleValue();
+		final double d = Math.sqrt( s1.squareDistanceTo( s2 ) );
+		return OVERLAP_FUDGE_FACTOR * r1 > ( d + r2 ) || OVERLAP_FUDGE_FACTOR * r2 > ( d + r1 );
+	}
+
+	/**
+	 * Returns the pairs of overlapping spots in the specified list, sorted by
+	 * index of their first then second spot in the list.
+	 * <p>
+	 * Two spots can only overlap if their distance is smaller than the fudged
+	 * radius of the largest one minus the smallest radius in the list. The
+	 * spots are binned in a grid and each spot is only compared to the spots
+	 * in the cells within this distance.
+	 */
+	private static final List< Spot[] > findOverlaps( final List< Spot > spots )
+	{
+		final int n = spots.size();
+		final double[][] pos = new double[ n ][ 3 ];
+		final double[] radius = new double[ n ];
+		double minRadius = Double.POSITIVE_INFINITY;
+		for ( int i = 0; i < n; i++ )
+		{
+			final Spot spot = spots.get( i );
+			spot.localize( pos[ i ] );
+			radius[ i ] = spot.getFeature( Spot.RADIUS ).doubleValue();
+			if ( radius[ i ] < minRadius )
+				minRadius = radius[ i ];
+		}
+
+		// Search radius of each spot, and grid cell size.
+		final double[] range = new double[ n ];
+		double sumRange = 0.;
+		int nRange = 0;
+		for ( int i = 0; i < n; i++ )
 		{
-			final List< Spot > spots = new ArrayList<>();
-			allSpots.iterable( frame, true ).forEach( spots::add );
-			final int nSpots = spots.size();
-			for ( int i = 0; i < nSpots; i++ )
+			range[ i ] = OVERLAP_FUDGE_FACTOR * radius[ i ] - minRadius;
+			// NaN radii never overlap.
+			if ( range[ i ] > 0. )
 			{
-				final Spot s1 = spots.get( i );
-				final double r1 = s1.getFeature( Spot.RADIUS ).doubleValue();
-				for ( int j = i + 1; j < nSpots; j++ )
-				{
-					final Spot s2 = spots.get( j );
-					final double r2 = s2.getFeature( Spot.RADIUS ).doubleValue();
-					final double d = Math.sqrt( s1.squareDistanceTo( s2 ) );
-					
-					if ( fudgeFactor * r1 > ( d + r2 ) || fudgeFactor * r2 > ( d + r1 ) )
+				sumRange += range[ i ];
+				nRange++;
+			}
+		}
+		if ( nRange == 0 )
+			return new ArrayList<>();
+		final double cellSize = Math.max( sumRange / nRange, Double.MIN_NORMAL );
+
+		final Map< Long, List< Integer > > grid = new HashMap<>();
+		for ( int i = 0; i < n; i++ )
+		{
+			final long key = cellKey(
+					cell( pos[ i ][ 0 ], cellSize ),
+					cell( pos[ i ][ 1 ], cellSize ),
+					cell( pos[ i ][ 2 ], cellSize ) );
+			grid.computeIfAbsent( Long.valueOf( key ), k -> new ArrayList<>() ).add( Integer.valueOf( i ) );
+		}
+
+		// Pairs encoded as i * n + j, with i < j.
+		final Set< Long > pairs = new HashSet<>();
+		for ( int a = 0; a < n; a++ )
+		{
+			final double r = range[ a ];
+			if ( !( r > 0. ) )
+				continue;
+
+			final long[] min = new long[ 3 ];
+			final long[] max = new long[ 3 ];
+			double nCells = 1.;
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = cell( pos[ a ][ d ] - r, cellSize );
+				max[ d ] = cell( pos[ a ][ d ] + r, cellSize );
+				nCells *= ( max[ d ] - min[ d ] + 1 );
+			}
+
+			if ( nCells > n )
+			{
+				// Cheaper to compare against all spots.
+				for ( int b = 0; b < n; b++ )
+					checkPair( spots, pos, a, b, r, pairs );
+				continue;
+			}
+
+			for ( long cx = min[ 0 ]; cx <= max[ 0 ]; cx++ )
+				for ( long cy = min[ 1 ]; cy <= max[ 1 ]; cy++ )
+					for ( long cz = min[ 2 ]; cz <= max[ 2 ]; cz++ )
 					{
-						// They overlap too much. We must fix this.
-						final Integer id1 = trackModel.trackIDOf( s1 );
-						final Set< Spot > track1 = trackModel.trackSpots( id1 );
-						if ( track1 == null )
-						{
-							try
-							{
-								model.removeSpot( s1 );
-							}
-							finally
-							{
-								model.endUpdate();
-							}
+						final List< Integer > cell = grid.get( Long.valueOf( cellKey( cx, cy, cz ) ) );
+						if ( null == cell )
 							continue;
-						}
-						final int n1 = track1.size();
-
-						final Integer id2 = trackModel.trackIDOf( s2 );
-						final Set< Spot > track2 = trackModel.trackSpots( id2 );
-						if ( track2 == null )
-						{
-							try
-							{
-								model.removeSpot( s2 );
-							}
-							finally
-							{
-								model.endUpdate();
-							}
-							continue;
-						}
-						final int n2 = track2.size();
-
-						final Spot toRemove = ( n2 > n1 ) ? s1 : s2;
-
-						// To mend the edges later.
-						final List< Spot > sources = new ArrayList<>();
-						final List< Spot > targets = new ArrayList<>();
-						final Set< DefaultWeightedEdge > edges = trackModel.edgesOf( toRemove );
-						for ( final DefaultWeightedEdge edge : edges )
-						{
-							final Spot source = trackModel.getEdgeSource( edge );
-							if ( source == toRemove )
-								targets.add( trackModel.getEdgeTarget( edge ) );
-							else
-								sources.add( trackModel.getEdgeSource( edge ) );
-						}
-						
-						model.beginUpdate();
-						try
-						{
-							for ( final Spot source : sources )
-								for ( final Spot target : targets )
-									model.addEdge( source, target, -1. );
-
-							model.removeSpot( toRemove );
-						}
-						finally
-						{
-							model.endUpdate();
-						}
+						for ( final Integer b : cell )
+							checkPair( spots, pos, a, b.intValue(), r, pairs );
 					}
-				}
-			}
 		}
-		return copy;
+
+		final long[] codes = new long[ pairs.size() ];
+		int k = 0;
+		for ( final Long code : pairs )
+			codes[ k++ ] = code.longValue();
+		Arrays.sort( codes );
+
+		final List< Spot[] > overlaps = new ArrayList<>( codes.length );
+		for ( final long code : codes )
+			overlaps.add( new Spot[] { spots.get( ( int ) ( code / n ) ), spots.get( ( int ) ( code % n ) ) } );
+		return overlaps;
+	}
+
+	private static final void checkPair( final List< Spot > spots, final double[][] pos, final int a, final int b, final double range, final Set< Long > pairs )
+	{
+		if ( a == b )
+			return;
+		final double dx = pos[ a ][ 0 ] - pos[ b ][ 0 ];
+		final double dy = pos[ a ][ 1 ] - pos[ b ][ 1 ];
+		final double dz = pos[ a ][ 2 ] - pos[ b ][ 2 ];
+		// Small tolerance for the rounding errors of the exact test below.
+		if ( dx * dx + dy * dy + dz * dz > range * range * ( 1. + 1e-9 ) )
+			return;
+
+		// Same test and same order as a pairwise comparison.
+		final int i = Math.min( a, b );
+		final int j = Math.max( a, b );
+		if ( overlap( spots.get( i ), spots.get( j ) ) )
+			pairs.add( Long.valueOf( ( long ) i * spots.size() + j ) );
+	}
+
+	private static final long cell( final double x, final double cellSize )
+	{
+		return ( long ) Math.floor( x / cellSize );
+	}
+
+	/**
+	 * Packs 3 cell coordinates in a key. Coordinates are wrapped over 21 bits,
+	 * which can only put distant cells in the same bin, never lose spots.
+	 */
+	private static final long cellKey( final long cx, final long cy, final long cz )
+	{
+		final long mask = ( 1l << 21 ) - 1;
+		return ( cx & mask ) | ( ( cy & mask ) << 21 ) | ( ( cz & mask ) << 42 );
+	}
+
+	/**
+	 * Removes the spot of the smallest track among two overlapping spots,
+	 * linking its predecessors to its successors. Spots that do not belong to
+	 * a track are removed first.
+	 */
+	private static final void fixOverlap( final Model model, final TrackModel trackModel, final Spot s1, final Spot s2 )
+	{
+		final Integer id1 = trackModel.trackIDOf( s1 );
+		final Set< Spot > track1 = trackModel.trackSpots( id1 );
+		if ( track1 == null )
+		{
+			model.removeSpot( s1 );
+			return;
+		}
+		final int n1 = track1.size();
+
+		final Integer id2 = trackModel.trackIDOf( s2 );
+		final Set< Spot > track2 = trackModel.trackSpots( id2 );
+		if ( track2 == null )
+		{
+			model.removeSpot( s2 );
+			return;
+		}
+		final int n2 = track2.size();
+
+		final Spot toRemove = ( n2 > n1 ) ? s1 : s2;
+
+		// To mend the edges later.
+		final List< Spot > sources = new ArrayList<>();
+		final List< Spot > targets = new ArrayList<>();
+		final Set< DefaultWeightedEdge > edges = trackModel.edgesOf( toRemove );
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			final Spot source = trackModel.getEdgeSource( edge );
+			if ( source == toRemove )
+				targets.add( trackModel.getEdgeTarget( edge ) );
+			else
+				sources.add( trackModel.getEdgeSource( edge ) );
+		}
+
+		for ( final Spot source : sources )
+			for ( final Spot target : targets )
+				model.addEdge( source, target, -1. );
+
+		model.removeSpot( toRemove );
 	}
 
 	/**
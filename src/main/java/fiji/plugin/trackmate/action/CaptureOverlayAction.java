@@ -37,9 +37,7 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
-import fiji.plugin.trackmate.util.TMUtils;
-import fiji.plugin.trackmate.visualization.ViewUtils;
-import fiji.plugin.trackmate.visualization.hyperstack.HyperStackDisplayer;
+import fiji.plugin.trackmate.visualization.hyperstack.OverlayRenderer;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.measure.Calibration;
@@ -61,6 +59,9 @@ public class CaptureOverlayAction extends AbstractTMAction
 			"It can take long since we pause between each frame to ensure the whole <br>" +
 			"overlay is redrawn. The current zoom is taken into account. <br>" +
 			"Also, make sure nothing is moved over the image while capturing. " +
+			"<p>" +
+			"If the image is hidden, or if it is not displayed, the overlay is <br>" +
+			"rendered off-screen over the whole image, in parallel. " +
 			"</html>";
 
 	private static int firstFrame = -1;
@@ -104,28 +105,21 @@ public class CaptureOverlayAction extends AbstractTMAction
 			hideImage = panel.isHideImage();
 		}
 
-		if ( hideImage )
+		final ImagePlus capture;
+		if ( hideImage || null == imp.getCanvas() )
 		{
-			// Make an empty image.
-			final ImagePlus imp2 = ViewUtils.makeEmptyImagePlus(
-					imp.getWidth(),
-					imp.getHeight(),
-					imp.getNSlices(),
-					imp.getNFrames(),
-					TMUtils.getSpatialCalibration( imp ) );
-			// Add overlay to it.
-			final HyperStackDisplayer displayer = new HyperStackDisplayer( trackmate.getModel(), new SelectionModel( trackmate.getModel() ), imp2, displaySettings );
-			displayer.render();
-			final ImagePlus capture = capture( imp2, firstFrame, lastFrame, logger );
-			imp2.close();
-			capture.show();
+			// Render off-screen, no need for a window.
+			final OverlayRenderer renderer = new OverlayRenderer( trackmate.getModel(), selectionModel, imp, displaySettings );
+			renderer.setHideImage( hideImage );
+			renderer.setNumThreads( trackmate.getNumThreads() );
+			capture = renderer.render( firstFrame, lastFrame, logger );
 		}
 		else
 		{
-			final ImagePlus capture = capture( trackmate, firstFrame, lastFrame, logger );
-			capture.show();
+			capture = capture( trackmate, firstFrame, lastFrame, logger );
 		}
-
+		if ( null != capture )
+			capture.show();
 	}
 
 	/**
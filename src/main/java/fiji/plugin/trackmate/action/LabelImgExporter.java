@@ -25,11 +25,14 @@ import static fiji.plugin.trackmate.gui.Icons.LABEL_IMG_ICON;
 import static fiji.plugin.trackmate.gui.Icons.TRACKMATE_ICON;
 
 import java.awt.Frame;
+import java.io.File;
+import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.scijava.plugin.Plugin;
 
@@ -38,10 +41,20 @@ import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
+import fiji.plugin.trackmate.util.FileChooser;
+import fiji.plugin.trackmate.util.FileChooser.DialogType;
+import fiji.plugin.trackmate.util.FileChooser.SelectionMode;
+import fiji.plugin.trackmate.util.LookAheadStack;
 import fiji.plugin.trackmate.util.SpotUtil;
 import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImageJ;
 import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 import net.imagej.ImgPlus;
 import net.imagej.axis.Axes;
 import net.imagej.axis.AxisType;
@@ -49,8 +62,14 @@ import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
 import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
@@ -68,6 +87,9 @@ public class LabelImgExporter extends AbstractTMAction
 			+ "larger than the last trackID in the dataset. "
 			+ "<p> "
 			+ "Only visible spots are painted. "
+			+ "<p> "
+			+ "The label image can also be saved directly to a TIFF file, frame "
+			+ "by frame, without creating it in memory. "
 			+ "</html>";
 
 	public static final String KEY = "EXPORT_LABEL_IMG";
@@ -84,6 +106,7 @@ public class LabelImgExporter extends AbstractTMAction
 		final boolean exportSpotsAsDots;
 		final boolean exportTracksOnly;
 		final boolean useSpotIDsAsLabels;
+		final boolean saveToFile;
 		if ( gui != null )
 		{
 			final LabelImgExporterPanel panel = new LabelImgExporterPanel();
@@ -101,19 +124,71 @@ public class LabelImgExporter extends AbstractTMAction
 			exportSpotsAsDots = panel.isExportSpotsAsDots();
 			exportTracksOnly = panel.isExportTracksOnly();
 			useSpotIDsAsLabels =  panel.isUseSpotIDsAsLabels();;
+			saveToFile = panel.isSaveToFile();
 		}
 		else
 		{
 			exportSpotsAsDots = false;
 			exportTracksOnly = false;
 			useSpotIDsAsLabels = false;
+			saveToFile = false;
 		}
 
 		/*
 		 * Generate label image.
 		 */
 
-		createLabelImagePlus( trackmate, exportSpotsAsDots, exportTracksOnly, useSpotIDsAsLabels ,logger ).show();
+		if ( !saveToFile )
+		{
+			createLabelImagePlus( trackmate, exportSpotsAsDots, exportTracksOnly, useSpotIDsAsLabels ,logger ).show();
+			return;
+		}
+
+		/*
+		 * Or stream it to a file.
+		 */
+
+		final File file = FileChooser.chooseFile(
+				gui,
+				defaultFile( trackmate ).getAbsolutePath(),
+				new FileNameExtensionFilter( "TIFF files", "tif", "tiff" ),
+				"Save label image",
+				DialogType.SAVE,
+				SelectionMode.FILES_ONLY );
+		if ( null == file )
+		{
+			logger.log( "Exporting label image aborted.\n" );
+			return;
+		}
+
+		try
+		{
+			exportLabelImage( trackmate, exportSpotsAsDots, exportTracksOnly, useSpotIDsAsLabels, file, logger );
+		}
+		catch ( final IOException | IllegalArgumentException e )
+		{
+			logger.error( "Trouble writing to " + file + ":\n" + e.getMessage() + '\n' );
+		}
+	}
+
+	/**
+	 * Returns the label image file proposed by default, next to the input
+	 * image.
+	 */
+	private static final File defaultFile( final TrackMate trackmate )
+	{
+		final ImagePlus imp = trackmate.getSettings().imp;
+		final FileInfo fileInfo = ( null == imp ) ? null : imp.getOriginalFileInfo();
+		final String folder = ( null == fileInfo || null == fileInfo.directory )
+				? System.getProperty( "user.home" )
+				: fileInfo.directory;
+		final String imageFileName = trackmate.getSettings().imageFileName;
+		if ( null == imageFileName || imageFileName.isEmpty() )
+			return new File( folder, "LblImg.tif" );
+
+		final int dot = imageFileName.lastIndexOf( '.' );
+		final String baseName = dot < 0 ? imageFileName : imageFileName.substring( 0, dot );
+		return new File( folder, baseName + "_LblImg.tif" );
 	}
 
 	/**
@@ -477,8 +552,8 @@ public class LabelImgExporter extends AbstractTMAction
 		{
 			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( imgPlus, 0, frame );
 			final SpotWriter spotWriter = exportSpotsAsDots
-					? new SpotAsDotWriter( imgCT )
-					: new SpotRoiWriter( imgCT );
+					? new SpotAsDotWriter<>( imgCT )
+					: new SpotRoiWriter<>( imgCT );
 
 			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
 			{
@@ -511,6 +586,322 @@ public class LabelImgExporter extends AbstractTMAction
 		return lblImg;
 	}
 
+	/**
+	 * Exports a label image of the spots of the specified {@link TrackMate}
+	 * instance directly to a TIFF file, without creating the full image in
+	 * memory.
+	 *
+	 * @param trackmate
+	 *            the trackmate instance from which we takes the spots to paint.
+	 *            The label image will have the same calibration and dimension
+	 *            that of the input image stored in the trackmate settings,
+	 *            except for the number of channels, which will be 1. The
+	 *            number of threads of this instance is used to paint frames in
+	 *            parallel.
+	 * @param exportSpotsAsDots
+	 *            if <code>true</code>, spots will be painted as single dots
+	 *            instead of ellipsoids.
+	 * @param exportTracksOnly
+	 *            if <code>true</code>, only the spots belonging to visible
+	 *            tracks will be painted.
+	 * @param useSpotIDsAsLabels
+	 *            if <code>true</code>, the label image will contain the spot
+	 *            ID. If <code>false</code>, it will contain the track ID.
+	 * @param file
+	 *            the TIFF file to write.
+	 * @param logger
+	 *            a {@link Logger} instance, to report progress of the export
+	 *            process.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 * @see #exportLabelImage(Model, long[], double[], boolean, boolean,
+	 *      boolean, File, int, Logger)
+	 */
+	public static final void exportLabelImage(
+			final TrackMate trackmate,
+			final boolean exportSpotsAsDots,
+			final boolean exportTracksOnly,
+			final boolean useSpotIDsAsLabels,
+			final File file,
+			final Logger logger ) throws IOException
+	{
+		final ImagePlus imp = trackmate.getSettings().imp;
+		final int[] dimensions = imp.getDimensions();
+		final long[] dims = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ], dimensions[ 4 ] };
+		final double[] calibration = new double[] {
+				imp.getCalibration().pixelWidth,
+				imp.getCalibration().pixelHeight,
+				imp.getCalibration().pixelDepth,
+				imp.getCalibration().frameInterval
+		};
+		exportLabelImage( trackmate.getModel(), dims, calibration, exportSpotsAsDots, exportTracksOnly, useSpotIDsAsLabels, file, trackmate.getNumThreads(), logger );
+	}
+
+	/**
+	 * Exports a label image of the spots of the specified model directly to a
+	 * TIFF file, without creating the full image in memory.
+	 * <p>
+	 * The labels are the same that of
+	 * {@link #createLabelImg(Model, long[], double[], boolean, boolean, boolean, Logger)}.
+	 * Frames are painted in parallel, each in its own buffer, and written to
+	 * the file in order as soon as they are ready. At most one frame per
+	 * thread is kept in memory, plus the one being written. The TIFF file is
+	 * 16-bit if the labels fit, and 32-bit otherwise.
+	 *
+	 * @param model
+	 *            the model from which we takes the spots to paint.
+	 * @param dimensions
+	 *            the desired dimensions of the output image (width, height,
+	 *            nZSlices, nFrames) as a 4 element array. Spots outside these
+	 *            dimensions are ignored.
+	 * @param calibration
+	 *            the pixel sizes and frame interval, as a 4 element array.
+	 * @param exportSpotsAsDots
+	 *            if <code>true</code>, spots will be painted as single dots
+	 *            instead of ellipsoids.
+	 * @param exportTracksOnly
+	 *            if <code>true</code>, only the spots belonging to visible
+	 *            tracks will be painted. If <code>false</code>, spots not
+	 *            belonging to a track will be painted with a unique ID,
+	 *            different from the track IDs and different for each spot.
+	 * @param useSpotIDsAsLabels
+	 *            if <code>true</code>, the label image will contain the spot
+	 *            ID. If <code>false</code>, it will contain the track ID.
+	 * @param file
+	 *            the TIFF file to write.
+	 * @param numThreads
+	 *            the number of threads to use to paint frames.
+	 * @param logger
+	 *            a {@link Logger} instance, to report progress of the export
+	 *            process.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 * @throws IllegalArgumentException
+	 *             if the largest label cannot be stored exactly in a 32-bit
+	 *             TIFF file.
+	 */
+	public static final void exportLabelImage(
+			final Model model,
+			final long[] dimensions,
+			final double[] calibration,
+			final boolean exportSpotsAsDots,
+			final boolean exportTracksOnly,
+			final boolean useSpotIDsAsLabels,
+			final File file,
+			final int numThreads,
+			final Logger logger ) throws IOException
+	{
+		final int width = ( int ) dimensions[ 0 ];
+		final int height = ( int ) dimensions[ 1 ];
+		final int nZ = ( int ) dimensions[ 2 ];
+		final int nFrames = ( int ) dimensions[ 3 ];
+
+		final Labels labels = new Labels( model, nFrames, exportTracksOnly, useSpotIDsAsLabels );
+		final boolean is16bit = labels.maxLabel <= MAX_16BIT_LABEL;
+		if ( !is16bit && labels.maxLabel > MAX_32BIT_LABEL )
+			throw new IllegalArgumentException( "Cannot export label image: the largest label, " + labels.maxLabel
+					+ ", cannot be stored exactly in a 32-bit image (max " + MAX_32BIT_LABEL + ")." );
+
+		logger.log( "Writing " + ( is16bit ? 16 : 32 ) + "-bit label image to " + file + ".\n" );
+		final AtomicInteger nDone = new AtomicInteger( 0 );
+		final LookAheadStack stack = new LookAheadStack( width, height, nFrames, nZ, numThreads, frame -> () -> {
+			final ImageProcessor[] planes = paintFrame( model, frame, width, height, nZ, calibration, is16bit, labels, exportSpotsAsDots );
+			logger.setProgress( ( double ) nDone.incrementAndGet() / nFrames );
+			return planes;
+		} );
+
+		final FileInfo fi = new FileInfo();
+		fi.fileType = is16bit ? FileInfo.GRAY16_UNSIGNED : FileInfo.GRAY32_FLOAT;
+		fi.width = width;
+		fi.height = height;
+		fi.nImages = nZ * nFrames;
+		fi.unit = model.getSpaceUnits();
+		fi.pixelWidth = calibration[ 0 ];
+		fi.pixelHeight = calibration[ 1 ];
+		fi.pixelDepth = calibration[ 2 ];
+		fi.frameInterval = calibration[ 3 ];
+		fi.description = tiffDescription( nZ, nFrames, calibration, model.getSpaceUnits(), model.getTimeUnits(), labels.maxLabel );
+
+		stack.writeTiff( fi, file );
+		logger.log( "Done.\n" );
+	}
+
+	/**
+	 * Largest label that can be stored in a 16-bit image.
+	 */
+	private static final long MAX_16BIT_LABEL = 0xFFFF;
+
+	/**
+	 * Largest label such that all labels below can be stored exactly in a
+	 * 32-bit float image.
+	 */
+	private static final long MAX_32BIT_LABEL = 1l << 24;
+
+	private static final String tiffDescription( final int nZ, final int nFrames, final double[] calibration, final String spaceUnits, final String timeUnits, final long maxLabel )
+	{
+		final StringBuilder str = new StringBuilder();
+		str.append( "ImageJ=" + ImageJ.VERSION + "\n" );
+		str.append( "images=" + ( nZ * nFrames ) + "\n" );
+		if ( nZ > 1 )
+			str.append( "slices=" + nZ + "\n" );
+		if ( nFrames > 1 )
+			str.append( "frames=" + nFrames + "\n" );
+		if ( nZ > 1 && nFrames > 1 )
+			str.append( "hyperstack=true\n" );
+		str.append( "unit=" + spaceUnits + "\n" );
+		if ( nZ > 1 )
+			str.append( "spacing=" + calibration[ 2 ] + "\n" );
+		if ( nFrames > 1 )
+		{
+			str.append( "finterval=" + calibration[ 3 ] + "\n" );
+			str.append( "tunit=" + timeUnits + "\n" );
+		}
+		str.append( "loop=false\n" );
+		str.append( "min=0.0\n" );
+		str.append( "max=" + ( double ) maxLabel + "\n" );
+		str.append( ( char ) 0 );
+		return str.toString();
+	}
+
+	/**
+	 * Paints the spots of one frame in a new buffer.
+	 *
+	 * @return the Z planes of the frame.
+	 */
+	private static final ImageProcessor[] paintFrame(
+			final Model model,
+			final int frame,
+			final int width,
+			final int height,
+			final int nZ,
+			final double[] calibration,
+			final boolean is16bit,
+			final Labels labels,
+			final boolean exportSpotsAsDots )
+	{
+		final ImageProcessor[] planes = new ImageProcessor[ nZ ];
+		if ( is16bit )
+		{
+			final PlanarImg< UnsignedShortType, ShortArray > img = PlanarImgs.unsignedShorts( width, height, nZ, 1 );
+			paintFrame( img, model, frame, calibration, labels, exportSpotsAsDots );
+			for ( int z = 0; z < nZ; z++ )
+				planes[ z ] = new ShortProcessor( width, height, img.getPlane( z ).getCurrentStorageArray(), null );
+		}
+		else
+		{
+			final PlanarImg< FloatType, FloatArray > img = PlanarImgs.floats( width, height, nZ, 1 );
+			paintFrame( img, model, frame, calibration, labels, exportSpotsAsDots );
+			for ( int z = 0; z < nZ; z++ )
+				planes[ z ] = new FloatProcessor( width, height, img.getPlane( z ).getCurrentStorageArray() );
+		}
+		return planes;
+	}
+
+	private static final < T extends RealType< T > > void paintFrame(
+			final Img< T > img,
+			final Model model,
+			final int frame,
+			final double[] calibration,
+			final Labels labels,
+			final boolean exportSpotsAsDots )
+	{
+		final AxisType[] axes = new AxisType[] {
+				Axes.X,
+				Axes.Y,
+				Axes.Z,
+				Axes.TIME };
+		final ImgPlus< T > imgPlus = new ImgPlus<>( img, "LblImg", axes, calibration );
+		final ImgPlus< T > imgCT = TMUtils.hyperSlice( imgPlus, 0, 0 );
+		final SpotWriter spotWriter = exportSpotsAsDots
+				? new SpotAsDotWriter<>( imgCT )
+				: new SpotRoiWriter<>( imgCT );
+
+		int lonelySpotID = labels.firstLonelySpotID[ frame ];
+		for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+		{
+			int id = labels.labelOf( spot );
+			if ( id == Labels.SKIP )
+				continue;
+			if ( id == Labels.LONELY )
+				id = lonelySpotID++;
+			spotWriter.write( spot, id );
+		}
+	}
+
+	/**
+	 * Determines the label of each spot before painting, so that frames can
+	 * be painted independently and in any order, while giving the same labels
+	 * that when painting frames in order.
+	 */
+	private static final class Labels
+	{
+
+		private static final int SKIP = -1;
+
+		private static final int LONELY = 0;
+
+		private final TrackModel trackModel;
+
+		private final boolean exportTracksOnly;
+
+		private final boolean useSpotIDsAsLabels;
+
+		/**
+		 * For each frame, the label of the first spot not in a visible track.
+		 */
+		private final int[] firstLonelySpotID;
+
+		private final long maxLabel;
+
+		private Labels( final Model model, final int nFrames, final boolean exportTracksOnly, final boolean useSpotIDsAsLabels )
+		{
+			this.trackModel = model.getTrackModel();
+			this.exportTracksOnly = exportTracksOnly;
+			this.useSpotIDsAsLabels = useSpotIDsAsLabels;
+			this.firstLonelySpotID = new int[ nFrames ];
+
+			int maxTrackID = -1;
+			final Set< Integer > trackIDs = trackModel.trackIDs( false );
+			if ( null != trackIDs )
+				for ( final Integer trackID : trackIDs )
+					if ( trackID > maxTrackID )
+						maxTrackID = trackID.intValue();
+
+			long max = 0;
+			int lonelySpotID = maxTrackID + 2;
+			for ( int frame = 0; frame < nFrames; frame++ )
+			{
+				firstLonelySpotID[ frame ] = lonelySpotID;
+				for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+				{
+					final int id = labelOf( spot );
+					if ( id == LONELY )
+						max = Math.max( max, lonelySpotID++ );
+					else
+						max = Math.max( max, id );
+				}
+			}
+			this.maxLabel = max;
+		}
+
+		/**
+		 * Returns the label of the specified spot, {@link #SKIP} if it must
+		 * not be painted, or {@link #LONELY} if it must be painted with a
+		 * unique label.
+		 */
+		private int labelOf( final Spot spot )
+		{
+			final Integer trackID = trackModel.trackIDOf( spot );
+			if ( null == trackID || !trackModel.isVisible( trackID ) )
+			{
+				if ( exportTracksOnly )
+					return SKIP;
+				return useSpotIDsAsLabels ? spot.ID() + 1 : LONELY;
+			}
+			return useSpotIDsAsLabels ? spot.ID() + 1 : 1 + trackID.intValue();
+		}
+	}
+
 	@Plugin( type = TrackMateActionFactory.class )
 	public static class Factory implements TrackMateActionFactory
 	{
@@ -554,12 +945,12 @@ public class LabelImgExporter extends AbstractTMAction
 		public void write( Spot spot, int id );
 	}
 
-	public static final class SpotRoiWriter implements SpotWriter
+	public static final class SpotRoiWriter< T extends RealType< T > > implements SpotWriter
 	{
 
-		private final ImgPlus< UnsignedShortType > img;
+		private final ImgPlus< T > img;
 
-		public SpotRoiWriter( final ImgPlus< UnsignedShortType > img )
+		public SpotRoiWriter( final ImgPlus< T > img )
 		{
 			this.img = img;
 		}
@@ -567,21 +958,21 @@ public class LabelImgExporter extends AbstractTMAction
 		@Override
 		public void write( final Spot spot, final int id )
 		{
-			for ( final UnsignedShortType pixel : SpotUtil.iterable( spot, img ) )
-				pixel.set( id );
+			for ( final T pixel : SpotUtil.iterable( spot, img ) )
+				pixel.setReal( id );
 		}
 	}
 
-	public static final class SpotAsDotWriter implements SpotWriter
+	public static final class SpotAsDotWriter< T extends RealType< T > > implements SpotWriter
 	{
 
 		private final double[] calibration;
 
 		private final long[] center;
 
-		private final RandomAccess< UnsignedShortType > ra;
+		private final RandomAccess< T > ra;
 
-		public SpotAsDotWriter( final ImgPlus< UnsignedShortType > img )
+		public SpotAsDotWriter( final ImgPlus< T > img )
 		{
 			this.calibration = TMUtils.getSpatialCalibration( img );
 			this.center = new long[ img.numDimensions() ];
@@ -595,7 +986,7 @@ public class LabelImgExporter extends AbstractTMAction
 				center[ d ] = Math.round( spot.getFeature( Spot.POSITION_FEATURES[ d ] ).doubleValue() / calibration[ d ] );
 
 			ra.setPosition( center );
-			ra.get().set( id );
+			ra.get().setReal( id );
 		}
 	}
 }
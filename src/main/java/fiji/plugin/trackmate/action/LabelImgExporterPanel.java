@@ -39,6 +39,8 @@ public class LabelImgExporterPanel extends JPanel
 
 	private final JCheckBox useSpotIdsAsLabels;
 
+	private final JCheckBox saveToFile;
+
 	public LabelImgExporterPanel()
 	{
 		final GridBagLayout gridBagLayout = new GridBagLayout();
@@ -60,6 +62,12 @@ public class LabelImgExporterPanel extends JPanel
 		useSpotIdsAsLabels = new JCheckBox( "Use spots IDs as labels", false );
 		gbc.gridy++;
 		add( useSpotIdsAsLabels, gbc );
+
+		saveToFile = new JCheckBox( "Save directly to a TIFF file", false );
+		saveToFile.setToolTipText( "<html>Write the label image to a file frame by frame, <br>"
+				+ "without creating it in memory. Use it for large images.</html>" );
+		gbc.gridy++;
+		add( saveToFile, gbc );
 	}
 
 	public boolean isExportSpotsAsDots()
@@ -76,4 +84,9 @@ public class LabelImgExporterPanel extends JPanel
 	{
 		return useSpotIdsAsLabels.isSelected();
 	}
+
+	public boolean isSaveToFile()
+	{
+		return saveToFile.isSelected();
+	}
 }
@@ -127,6 +127,12 @@ public class PlotNSpotsVsTimeAction extends AbstractTMAction
 			this.dataset = dataset;
 		}
 
+		@Override
+		protected int getItemCount()
+		{
+			return dataset.nspots.length;
+		}
+
 		@Override
 		protected ModelDataset buildMainDataSet( final List< String > targetYFeatures )
 		{
@@ -24,6 +24,7 @@ package fiji.plugin.trackmate.action.autonaming;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -37,17 +38,20 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
-import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 
 public class AutoNamingPerformer
 {
 
 	public static void autoNameSpots( final Model model, final AutoNamingRule rule )
 	{
-		final TimeDirectedNeighborIndex neighborIndex = model.getTrackModel().getDirectedNeighborIndex();
-		for ( final Integer trackID : model.getTrackModel().unsortedTrackIDs( true ) )
+		final Map< Integer, TrackBranchDecomposition > decompositions = ConvexBranchesDecomposition.processTracks(
+				model.getTrackModel().unsortedTrackIDs( true ),
+				model.getTrackModel(),
+				true,
+				false,
+				Runtime.getRuntime().availableProcessors() );
+		for ( final TrackBranchDecomposition branchDecomposition : decompositions.values() )
 		{
-			final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), neighborIndex, true, false );
 			final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
 			processTrack( rule, model.getTrackModel(), branchGraph );
 		}
@@ -21,10 +21,19 @@
  */
 package fiji.plugin.trackmate.action.closegaps;
 
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
+
 import java.io.File;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -36,15 +45,24 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.SpotDetector;
+import fiji.plugin.trackmate.detection.SpotDetectorFactory;
 import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettingsIO;
 import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.hyperstack.HyperStackDisplayer;
 import fiji.plugin.trackmate.visualization.trackscheme.TrackScheme;
 import ij.ImageJ;
 import ij.ImagePlus;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.util.Util;
 
 /**
@@ -88,87 +106,115 @@ public class CloseGapsByDetection implements GapClosingMethod
 		return Collections.singletonList( radiusFactor );
 	}
 
+	/**
+	 * Gaps are processed in rounds. In each round, detection is attempted at
+	 * the next missing frame of every gap still open. Attempts are grouped by
+	 * frame and frames are processed in parallel, reusing the same wrapped
+	 * image and detector factory. When a spot is found, the gap is split in
+	 * two smaller gaps that are processed in the next rounds. The model is
+	 * only modified at the end, in a single transaction.
+	 */
 	@Override
 	public void execute( final TrackMate trackmate, final Logger logger )
 	{
 		final Model model = trackmate.getModel();
 		final TrackModel trackModel = model.getTrackModel();
 
-		// Copy settings & make a new TrackMate.
+		final List< DefaultWeightedEdge > edges = GapClosingMethod.getAllGaps( model );
+		final int nTasks = GapClosingMethod.countMissingSpots( edges, model );
 
-		model.beginUpdate();
-		try
+		// Spots found for each gap.
+		final Map< DefaultWeightedEdge, List< Spot > > found = new LinkedHashMap<>();
+		List< Gap > open = new ArrayList<>( edges.size() );
+		for ( final DefaultWeightedEdge edge : edges )
 		{
-			final ArrayDeque< DefaultWeightedEdge > gaps = new ArrayDeque<>( GapClosingMethod.getAllGaps( model ) );
-
-			int progress = 0;
-			final int nTasks = GapClosingMethod.countMissingSpots( gaps, model );
+			found.put( edge, new ArrayList<>() );
+			open.add( new Gap( edge, trackModel.getEdgeSource( edge ), trackModel.getEdgeTarget( edge ) ) );
+		}
 
-			while ( !gaps.isEmpty() )
+		final FrameDetector detector = createDetector( trackmate, logger );
+		final ExecutorService executors = Executors.newFixedThreadPool( Math.max( 1, trackmate.getNumThreads() ) );
+		int progress = 0;
+		try
+		{
+			while ( !open.isEmpty() )
 			{
-				final DefaultWeightedEdge gap = gaps.poll();
+				// Group the next attempt of each open gap by frame.
+				final Map< Integer, List< Gap > > byFrame = new LinkedHashMap<>();
+				for ( final Gap gap : open )
+					byFrame.computeIfAbsent( gap.frame(), k -> new ArrayList<>() ).add( gap );
 
-				// Interpolate position.
-				final List< Spot > spots = GapClosingMethod.interpolate( model, gap );
-				final Spot source = trackModel.getEdgeSource( gap );
-				for ( final Spot spot : spots )
-				{
-					logger.setProgress( ( double ) ( progress++ ) / nTasks );
-
-					final int t = spot.getFeature( Spot.FRAME ).intValue();
-
-					// Re-execute detection.
-					final Settings settings = GapClosingMethod.makeSettingsForRoiAround(
-							spot,
-							radiusFactor.value,
-							trackmate.getSettings() );
-					final TrackMate localTM = new TrackMate( settings );
-					localTM.getModel().setLogger( Logger.VOID_LOGGER );
-					localTM.setNumThreads( trackmate.getNumThreads() );
-					if ( !localTM.execDetection() )
-					{
-						logger.error( "Error detecting spots around position " + Util.printCoordinates( source )
-								+ " at frame " + t + ":\n"
-								+ localTM.getErrorMessage() );
-						continue;
-					}
+				final List< Future< ? > > futures = new ArrayList<>( byFrame.size() );
+				for ( final Integer frame : byFrame.keySet() )
+					futures.add( executors.submit( () -> detector.detect( frame.intValue(), byFrame.get( frame ) ) ) );
+				for ( final Future< ? > future : futures )
+					future.get();
 
-					// Did we find something?
-					Spot candidate = null;
-					for ( final Spot s : localTM.getModel().getSpots().iterable( t, false ) )
-					{
-						if ( candidate == null || s.diffTo( candidate, Spot.QUALITY ) > 0 )
-							candidate = s;
-					}
+				final List< Gap > next = new ArrayList<>();
+				for ( final Gap gap : open )
+				{
+					logger.setProgress( Math.min( 1., ( double ) ( progress++ ) / nTasks ) );
+					final Spot candidate = gap.candidate;
 					if ( candidate == null )
 					{
-						logger.log( "Could not find a suitable spot around position " + Util.printCoordinates( spot )
-								+ " at frame " + t + ".\n" );
+						logger.log( "Could not find a suitable spot around position " + Util.printCoordinates( gap.attempt() )
+								+ " at frame " + gap.frame() + ".\n" );
+						gap.index++;
+						if ( gap.index < gap.attempts.size() )
+							next.add( gap );
 						continue;
 					}
 
-					// Add new spot to the model.
-					model.addSpotTo( candidate, t );
+					found.get( gap.edge ).add( candidate );
 
-					// Add link from source to candidate.
-					final DefaultWeightedEdge sourceCandidateEdge = model.addEdge( source, candidate, 1.0 );
+					// Should we re-add the new gaps?
+					if ( countMissingSpots( gap.source, candidate ) > 1 )
+						next.add( new Gap( gap.edge, gap.source, candidate ) );
+					if ( countMissingSpots( candidate, gap.target ) > 1 )
+						next.add( new Gap( gap.edge, candidate, gap.target ) );
+				}
+				open = next;
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			logger.error( "Gap-closing detection was interrupted.\n" );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			logger.error( "Problem during gap-closing detection: " + cause + '\n' );
+		}
+		finally
+		{
+			executors.shutdown();
+		}
 
-					// Add link from candidate to target.
-					final Spot target = trackModel.getEdgeTarget( gap );
-					final DefaultWeightedEdge candidateTargetEdge = model.addEdge( candidate, target, 1.0 );
+		// Update the model.
+		model.beginUpdate();
+		try
+		{
+			for ( final DefaultWeightedEdge edge : found.keySet() )
+			{
+				final List< Spot > candidates = found.get( edge );
+				if ( candidates.isEmpty() )
+					continue;
 
-					// Remove old edge.
-					model.removeEdge( gap );
-					
-					// Should we re-add the new edges?
-					if ( GapClosingMethod.countMissingSpots( sourceCandidateEdge, model ) > 1 )
-						gaps.push( sourceCandidateEdge );
-					if ( GapClosingMethod.countMissingSpots( candidateTargetEdge, model ) > 1 )
-						gaps.push( candidateTargetEdge );
+				final Spot source = trackModel.getEdgeSource( edge );
+				final Spot target = trackModel.getEdgeTarget( edge );
+				final int st = source.getFeature( Spot.FRAME ).intValue();
+				candidates.sort( Comparator.comparingInt( s -> Math.abs( s.getFeature( Spot.FRAME ).intValue() - st ) ) );
 
-					// Reiterate.
-					break;
+				Spot previous = source;
+				for ( final Spot candidate : candidates )
+				{
+					model.addSpotTo( candidate, candidate.getFeature( Spot.FRAME ).intValue() );
+					model.addEdge( previous, candidate, 1.0 );
+					previous = candidate;
 				}
+				model.addEdge( previous, target, 1.0 );
+				model.removeEdge( edge );
 			}
 		}
 		finally
@@ -177,6 +223,216 @@ public class CloseGapsByDetection implements GapClosingMethod
 		}
 	}
 
+	private static int countMissingSpots( final Spot source, final Spot target )
+	{
+		final int st = source.getFeature( Spot.FRAME ).intValue();
+		final int tt = target.getFeature( Spot.FRAME ).intValue();
+		return Math.abs( tt - st ) - 1;
+	}
+
+	/**
+	 * A gap between two spots, possibly created by splitting a gap edge of
+	 * the model, and the current detection attempt in it.
+	 */
+	private static final class Gap
+	{
+
+		/** The gap edge in the model this gap comes from. */
+		private final DefaultWeightedEdge edge;
+
+		private final Spot source;
+
+		private final Spot target;
+
+		/** The interpolated spots to detect around, in time order. */
+		private final List< Spot > attempts;
+
+		private int index = 0;
+
+		/** The spot found at the current attempt, if any. */
+		private Spot candidate;
+
+		private Gap( final DefaultWeightedEdge edge, final Spot source, final Spot target )
+		{
+			this.edge = edge;
+			this.source = source;
+			this.target = target;
+			this.attempts = GapClosingMethod.interpolate( source, target );
+		}
+
+		private Spot attempt()
+		{
+			return attempts.get( index );
+		}
+
+		private Integer frame()
+		{
+			return Integer.valueOf( attempt().getFeature( Spot.FRAME ).intValue() );
+		}
+	}
+
+	/**
+	 * Detects spots around the current attempts of several gaps in one frame,
+	 * and stores the best candidate in each gap.
+	 */
+	private static interface FrameDetector
+	{
+		public void detect( int frame, List< Gap > gaps );
+	}
+
+	private FrameDetector createDetector( final TrackMate trackmate, final Logger logger )
+	{
+		final Settings settings = trackmate.getSettings();
+		if ( settings.detectorFactory instanceof SpotDetectorFactory && null != settings.detectorSettings )
+		{
+			@SuppressWarnings( "rawtypes" )
+			final SpotDetectorFactory factory = ( SpotDetectorFactory ) settings.detectorFactory.copy();
+			@SuppressWarnings( "rawtypes" )
+			final ImgPlus img = TMUtils.rawWraps( settings.imp );
+			@SuppressWarnings( "unchecked" )
+			final boolean ok = factory.setTarget( img, settings.detectorSettings );
+			if ( ok )
+				return ( frame, gaps ) -> detectInRois( factory, img, settings, frame, gaps, logger );
+
+			logger.error( "Error configuring the detector:\n" + factory.getErrorMessage() );
+			return ( frame, gaps ) -> gaps.forEach( gap -> gap.candidate = null );
+		}
+
+		// Other detectors: run a full TrackMate detection per attempt.
+		return ( frame, gaps ) -> {
+			for ( final Gap gap : gaps )
+				gap.candidate = detectWithTrackMate( gap, trackmate, logger );
+		};
+	}
+
+	/**
+	 * Runs the detector on the ROI around the current attempt of each gap, as
+	 * {@link TrackMate#execDetection()} would with the settings returned by
+	 * {@link GapClosingMethod#makeSettingsForRoiAround(Spot, double, Settings)}.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private void detectInRois( final SpotDetectorFactory factory, final ImgPlus img, final Settings settings, final int frame, final List< Gap > gaps, final Logger logger )
+	{
+		final double[] calibration = TMUtils.getSpatialCalibration( settings.imp );
+		Integer channel = ( Integer ) settings.detectorSettings.get( KEY_TARGET_CHANNEL ); // 1-based.
+		if ( null == channel )
+			channel = 1;
+
+		for ( final Gap gap : gaps )
+		{
+			gap.candidate = null;
+			final Interval roi = GapClosingMethod.roiAround( gap.attempt(), radiusFactor.value, settings.imp );
+			final SpotDetector< ? > detector = factory.getDetector( detectionInterval( img, roi, channel.intValue() ), frame );
+			if ( detector instanceof MultiThreaded )
+				( ( MultiThreaded ) detector ).setNumThreads( 1 );
+
+			if ( !detector.checkInput() || !detector.process() )
+			{
+				logger.error( "Error detecting spots around position " + Util.printCoordinates( gap.source )
+						+ " at frame " + frame + ":\n"
+						+ detector.getErrorMessage() );
+				continue;
+			}
+
+			for ( final Spot s : detector.getResult() )
+			{
+				// Same pruning than with a rectangle ROI.
+				final long x = Math.round( s.getFeature( Spot.POSITION_X ) / calibration[ 0 ] );
+				final long y = Math.round( s.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] );
+				if ( x < roi.min( 0 ) || x >= roi.max( 0 ) || y < roi.min( 1 ) || y >= roi.max( 1 ) )
+					continue;
+				if ( gap.candidate == null || s.diffTo( gap.candidate, Spot.QUALITY ) > 0 )
+					gap.candidate = s;
+			}
+			if ( gap.candidate != null )
+			{
+				gap.candidate.putFeature( Spot.POSITION_T, frame * settings.dt );
+				gap.candidate.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+			}
+		}
+	}
+
+	/**
+	 * Returns the interval to detect in for the specified ROI, as
+	 * {@link TMUtils#getInterval(ImgPlus, Settings)} would.
+	 */
+	private static Interval detectionInterval( final ImgPlus< ? > img, final Interval roi, final int channel )
+	{
+		final int n = img.numDimensions();
+		final int tindex = img.dimensionIndex( Axes.TIME );
+		final long[] min = new long[ tindex < 0 ? n : n - 1 ];
+		final long[] max = new long[ min.length ];
+		int k = 0;
+		for ( int d = 0; d < n; d++ )
+		{
+			if ( d == tindex )
+				continue;
+
+			final AxisType axis = img.axis( d ).type();
+			long lmin = 0;
+			long lmax = 0;
+			if ( axis == Axes.X )
+			{
+				lmin = roi.min( 0 );
+				lmax = roi.max( 0 );
+			}
+			else if ( axis == Axes.Y )
+			{
+				lmin = roi.min( 1 );
+				lmax = roi.max( 1 );
+			}
+			else if ( axis == Axes.Z )
+			{
+				lmin = roi.min( 2 );
+				lmax = roi.max( 2 );
+			}
+			else if ( axis == Axes.CHANNEL )
+			{
+				lmin = channel - 1; // 0-based.
+				lmax = lmin;
+			}
+			min[ k ] = Math.max( 0l, lmin );
+			max[ k ] = Math.min( img.max( d ), lmax );
+			k++;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * Runs a complete TrackMate detection on a ROI around the current attempt
+	 * of the specified gap.
+	 */
+	private Spot detectWithTrackMate( final Gap gap, final TrackMate trackmate, final Logger logger )
+	{
+		final Spot spot = gap.attempt();
+		final int t = spot.getFeature( Spot.FRAME ).intValue();
+
+		// Re-execute detection.
+		final Settings settings = GapClosingMethod.makeSettingsForRoiAround(
+				spot,
+				radiusFactor.value,
+				trackmate.getSettings() );
+		final TrackMate localTM = new TrackMate( settings );
+		localTM.getModel().setLogger( Logger.VOID_LOGGER );
+		localTM.setNumThreads( 1 );
+		if ( !localTM.execDetection() )
+		{
+			logger.error( "Error detecting spots around position " + Util.printCoordinates( gap.source )
+					+ " at frame " + t + ":\n"
+					+ localTM.getErrorMessage() );
+			return null;
+		}
+
+		// Did we find something?
+		Spot candidate = null;
+		for ( final Spot s : localTM.getModel().getSpots().iterable( t, false ) )
+		{
+			if ( candidate == null || s.diffTo( candidate, Spot.QUALITY ) > 0 )
+				candidate = s;
+		}
+		return candidate;
+	}
+
 	@Override
 	public String getInfoText()
 	{
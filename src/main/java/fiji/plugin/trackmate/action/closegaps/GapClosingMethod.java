@@ -37,7 +37,10 @@ import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.detection.DetectionUtils;
 import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImagePlus;
 import ij.gui.Roi;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RealPoint;
 
 public interface GapClosingMethod
@@ -149,13 +152,27 @@ public interface GapClosingMethod
 	public static List< Spot > interpolate( final Model model, final DefaultWeightedEdge edge )
 	{
 		final TrackModel trackModel = model.getTrackModel();
+		return interpolate( trackModel.getEdgeSource( edge ), trackModel.getEdgeTarget( edge ) );
+	}
 
-		final Spot source = trackModel.getEdgeSource( edge );
+	/**
+	 * Returns a list of newly created spots obtained by interpolating the
+	 * position, radius, quality and time features of the specified source and
+	 * target spots, that do not have to be linked.
+	 *
+	 * @param source
+	 *            the source spot.
+	 * @param target
+	 *            the target spot.
+	 * @return a new list of spots.
+	 * @see #interpolate(Model, DefaultWeightedEdge)
+	 */
+	public static List< Spot > interpolate( final Spot source, final Spot target )
+	{
 		final double[] sPos = new double[ 3 ];
 		source.localize( sPos );
 		final int st = source.getFeature( Spot.FRAME ).intValue();
 
-		final Spot target = trackModel.getEdgeTarget( edge );
 		final double[] tPos = new double[ 3 ];
 		target.localize( tPos );
 		final int tt = target.getFeature( Spot.FRAME ).intValue();
@@ -212,9 +229,44 @@ public interface GapClosingMethod
 	 * @return a new {@link Settings} object.
 	 */
 	public static Settings makeSettingsForRoiAround( final Spot spot, final double neighborhoodFactor, final Settings settings )
+	{
+		final Interval roi = roiAround( spot, neighborhoodFactor, settings.imp );
+
+		// Make a new settings with a smaller ROI.
+		final Settings settingsCopy = settings.copyOn( settings.imp );
+		settingsCopy.setRoi( new Roi( roi.min( 0 ), roi.min( 1 ), roi.max( 0 ) - roi.min( 0 ), roi.max( 1 ) - roi.min( 1 ) ) );
+		// Time.
+		final int t = spot.getFeature( Spot.FRAME ).intValue();
+		settingsCopy.tstart = t;
+		settingsCopy.tend = t;
+
+		if ( !DetectionUtils.is2D( settings.imp ) )
+		{
+			// 3D
+			settingsCopy.zstart = ( int ) roi.min( 2 );
+			settingsCopy.zend = ( int ) roi.max( 2 );
+		}
+		return settingsCopy;
+	}
+
+	/**
+	 * Returns the bounds, in pixel coordinates, of the ROI used by
+	 * {@link #makeSettingsForRoiAround(Spot, double, Settings)}. The interval
+	 * is 3D, with Z bounds equal to 0 for 2D images.
+	 * 
+	 * @param spot
+	 *            the spot to read the coordinates from.
+	 * @param neighborhoodFactor
+	 *            the ROI proportionality factor. The ROI radius will be equal
+	 *            to the spot radius times this factor.
+	 * @param imp
+	 *            the image to read calibration and size from.
+	 * @return a new interval.
+	 */
+	public static Interval roiAround( final Spot spot, final double neighborhoodFactor, final ImagePlus imp )
 	{
 		// Extract scales.
-		final double[] cal = TMUtils.getSpatialCalibration( settings.imp );
+		final double[] cal = TMUtils.getSpatialCalibration( imp );
 		final double dx = cal[ 0 ];
 		final double dy = cal[ 1 ];
 		final double dz = cal[ 2 ];
@@ -231,31 +283,22 @@ public interface GapClosingMethod
 		final long rz = ( long ) Math.abs( Math.ceil( neighborhoodFactor * radius / dz ) );
 
 		// Extract crop cube
-		final long width = settings.imp.getWidth();
-		final long height = settings.imp.getHeight();
+		final long width = imp.getWidth();
+		final long height = imp.getHeight();
 		final long x0 = Math.max( 0, x - r );
 		final long y0 = Math.max( 0, y - r );
 		final long x1 = Math.min( width - 1, x + r );
 		final long y1 = Math.min( height - 1, y + r );
 
-		// Make a new settings with a smaller ROI.
-		final Settings settingsCopy = settings.copyOn( settings.imp );
-		settingsCopy.setRoi( new Roi( x0, y0, x1 - x0, y1 - y0 ) );
-		// Time.
-		final int t = spot.getFeature( Spot.FRAME ).intValue();
-		settingsCopy.tstart = t;
-		settingsCopy.tend = t;
-
-		if ( !DetectionUtils.is2D( settings.imp ) )
+		long z0 = 0;
+		long z1 = 0;
+		if ( !DetectionUtils.is2D( imp ) )
 		{
-			// 3D
-			final long depth = settings.imp.getNSlices();
-			final long z0 = Math.max( 0, z - rz );
-			final long z1 = Math.min( depth - 1, z + rz );
-			settingsCopy.zstart = ( int ) z0;
-			settingsCopy.zend = ( int ) z1;
+			final long depth = imp.getNSlices();
+			z0 = Math.max( 0, z - rz );
+			z1 = Math.min( depth - 1, z + rz );
 		}
-		return settingsCopy;
+		return new FinalInterval( new long[] { x0, y0, z0 }, new long[] { x1, y1, z1 } );
 	}
 
 	public static int countMissingSpots( final Collection< DefaultWeightedEdge > gaps, final Model model )
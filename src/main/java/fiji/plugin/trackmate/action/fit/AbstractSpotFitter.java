@@ -29,6 +29,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
 
@@ -60,6 +61,11 @@ public abstract class AbstractSpotFitter implements SpotFitter
 
 	protected final double[] calibration;
 
+	/**
+	 * @deprecated not used by the fitters of this package anymore. Kept for
+	 *             subclasses fitting with commons-math.
+	 */
+	@Deprecated
 	protected final LevenbergMarquardtOptimizer optimizer;
 
 	@SuppressWarnings( "rawtypes" )
@@ -82,26 +88,38 @@ public abstract class AbstractSpotFitter implements SpotFitter
 		setNumThreads();
 	}
 
+	/**
+	 * Spots are fitted in chunks, one task per chunk, so that each task reuses
+	 * the fitter workspace of its thread.
+	 */
 	@Override
 	public void process( final Iterable< Spot > spots, final Logger logger )
 	{
 		logger.log( String.format( "Starting fitting with %d threads.\n", numThreads ) );
 		logger.setStatus( "Spot fitting" );
 		final long start = System.currentTimeMillis();
+
+		final List< Spot > list = new ArrayList<>();
+		spots.forEach( list::add );
+		final int nspots = list.size();
+		final int nTasks = Math.min( nspots, 8 * numThreads );
 		final ExecutorService executorService = Executors.newFixedThreadPool( numThreads );
-		final List< Future< ? > > futures = new ArrayList<>();
-		for ( final Spot spot : spots )
-			futures.add( executorService.submit( () -> fit( spot ) ) );
+		final List< Future< ? > > futures = new ArrayList<>( nTasks );
+		final AtomicInteger nDone = new AtomicInteger( 0 );
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final List< Spot > chunk = list.subList( ( int ) ( ( long ) t * nspots / nTasks ), ( int ) ( ( long ) ( t + 1 ) * nspots / nTasks ) );
+			futures.add( executorService.submit( () -> {
+				for ( final Spot spot : chunk )
+					fit( spot );
+				logger.setProgress( ( double ) nDone.addAndGet( chunk.size() ) / nspots );
+			} ) );
+		}
 
-		final int nspots = futures.size();
 		try
 		{
-			int i = 0;
 			for ( final Future< ? > future : futures )
-			{
 				future.get();
-				logger.setProgress( ( double ) i++ / nspots );
-			}
 		}
 		catch ( InterruptedException | ExecutionException e )
 		{
@@ -131,7 +149,7 @@ public abstract class AbstractSpotFitter implements SpotFitter
 	@Override
 	public void setNumThreads()
 	{
-		setNumThreads( Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ) );
+		setNumThreads( Runtime.getRuntime().availableProcessors() );
 	}
 
 	@Override
@@ -152,6 +170,53 @@ public abstract class AbstractSpotFitter implements SpotFitter
 		return processingTime;
 	}
 
+	/**
+	 * Collects the pixel values around the specified position in the fitter
+	 * workspace, replacing its previous observations.
+	 *
+	 * @param point
+	 *            the pixel position to collect around.
+	 * @param span
+	 *            the half-size of the neighborhood to collect, per dimension.
+	 * @param frame
+	 *            the frame to collect from.
+	 * @param fitter
+	 *            the fitter to store the observations in.
+	 */
+	protected void gatherObservationData( final long[] point, final long[] span, final int frame, final GaussianFitter fitter )
+	{
+		@SuppressWarnings( "rawtypes" )
+		final RandomAccessibleInterval< RealType > slice = getSlice( frame );
+		final int ndims = point.length;
+		// Create interval.
+		final long[] min = new long[ ndims ];
+		final long[] max = new long[ ndims ];
+		for ( int d = 0; d < ndims; d++ )
+		{
+			min[ d ] = Math.max( point[ d ] - span[ d ], slice.min( d ) );
+			max[ d ] = Math.min( point[ d ] + span[ d ], slice.max( d ) );
+		}
+
+		// Collect.
+		fitter.clear();
+		@SuppressWarnings( "rawtypes" )
+		final Cursor< RealType > cursor = Views.interval( slice, min, max ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			fitter.add(
+					cursor.getDoublePosition( 0 ),
+					cursor.getDoublePosition( 1 ),
+					( ndims > 2 ) ? cursor.getDoublePosition( 2 ) : 0.,
+					cursor.get().getRealDouble() );
+		}
+	}
+
+	/**
+	 * @deprecated not used by the fitters of this package anymore. Kept for
+	 *             subclasses.
+	 */
+	@Deprecated
 	protected static void clipBackground( final Observation obs )
 	{
 		// Remove background and clip to 0.
@@ -162,18 +227,23 @@ public abstract class AbstractSpotFitter implements SpotFitter
 			obs.values[ i ] = Math.max( 0., obs.values[ i ] );
 	}
 
+	/**
+	 * @deprecated not used by the fitters of this package anymore. Kept for
+	 *             subclasses.
+	 */
+	@Deprecated
 	protected Observation gatherObservationData( final Point point, final long[] span, final int frame )
 	{
 		@SuppressWarnings( "rawtypes" )
 		final RandomAccessibleInterval< RealType > slice = getSlice( frame );
 		final int ndims = point.numDimensions();
 		// Create interval.
-		final long[] min = new long[ point.numDimensions() ];
-		final long[] max = new long[ point.numDimensions() ];
-		for ( int d = 0; d < max.length; d++ )
+		final long[] min = new long[ ndims ];
+		final long[] max = new long[ ndims ];
+		for ( int d = 0; d < ndims; d++ )
 		{
-			min[ d ] = Math.max( point.getLongPosition( d ) - span[ d ], slice.min( 0 ) );
-			max[ d ] = Math.min( point.getLongPosition( d ) + span[ d ], slice.max( 0 ) );
+			min[ d ] = Math.max( point.getLongPosition( d ) - span[ d ], slice.min( d ) );
+			max[ d ] = Math.min( point.getLongPosition( d ) + span[ d ], slice.max( d ) );
 		}
 
 		// Collect.
@@ -196,6 +266,11 @@ public abstract class AbstractSpotFitter implements SpotFitter
 		return new Observation( vals, pos );
 	}
 
+	/**
+	 * @deprecated not used by the fitters of this package anymore. Kept for
+	 *             subclasses.
+	 */
+	@Deprecated
 	protected static class Observation
 	{
 
@@ -0,0 +1,489 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.fit;
+
+import java.util.Arrays;
+
+/**
+ * Levenberg-Marquardt fitter of a 2D or 3D Gaussian on pixel values, without
+ * background:
+ *
+ * <pre>
+ * f(x) = A × exp( - bXY × ((x - x₀)² + (y - y₀)²) - bZ × (z - z₀)² )
+ * </pre>
+ *
+ * The parameters are, in this order, the center coordinates, the amplitude
+ * and, if the width is fitted, bXY then bZ in 3D. This gives 3 to 6
+ * parameters. Otherwise the width is fixed.
+ * <p>
+ * The normal equations are accumulated directly from the analytic gradient,
+ * without storing the Jacobian, and solved by Cholesky decomposition. All the
+ * arrays are allocated once and grown when needed, so that an instance can fit
+ * many spots without allocating. Instances are not thread-safe: use one per
+ * thread.
+ *
+ * @author Jean-Yves Tinevez
+ */
+class GaussianFitter
+{
+
+	private static final int MAX_ITERATIONS = 1000;
+
+	private static final double COST_RELATIVE_TOLERANCE = 1e-12;
+
+	private static final double PARAMETER_RELATIVE_TOLERANCE = 1e-12;
+
+	private static final double INITIAL_LAMBDA = 1e-3;
+
+	private static final double MAX_LAMBDA = 1e16;
+
+	private final boolean is3D;
+
+	private final boolean fitWidth;
+
+	private final int nParams;
+
+	/*
+	 * Observations.
+	 */
+
+	private int n;
+
+	private double[] values = new double[ 64 ];
+
+	private double[] xs = new double[ 64 ];
+
+	private double[] ys = new double[ 64 ];
+
+	private double[] zs = new double[ 64 ];
+
+	private double[] scratch = new double[ 64 ];
+
+	/*
+	 * Width, fixed or lower bound.
+	 */
+
+	private double bXY;
+
+	private double bZ;
+
+	private double minBxy;
+
+	private double minBz;
+
+	/*
+	 * Solver workspace.
+	 */
+
+	private double[] params;
+
+	private double[] trial;
+
+	private double[] jtj;
+
+	private double[] jtr;
+
+	private double[] trialJtj;
+
+	private double[] trialJtr;
+
+	private final double[] lhs;
+
+	private final double[] step;
+
+	private final double[] grad;
+
+	/**
+	 * Creates a new fitter.
+	 *
+	 * @param is3D
+	 *            whether the Gaussian is 3D.
+	 * @param fitWidth
+	 *            whether the width is fitted, or fixed.
+	 */
+	GaussianFitter( final boolean is3D, final boolean fitWidth )
+	{
+		this.is3D = is3D;
+		this.fitWidth = fitWidth;
+		final int nDims = is3D ? 3 : 2;
+		this.nParams = nDims + 1 + ( fitWidth ? nDims - 1 : 0 );
+		this.params = new double[ nParams ];
+		this.trial = new double[ nParams ];
+		this.jtj = new double[ nParams * nParams ];
+		this.jtr = new double[ nParams ];
+		this.trialJtj = new double[ nParams * nParams ];
+		this.trialJtr = new double[ nParams ];
+		this.lhs = new double[ nParams * nParams ];
+		this.step = new double[ nParams ];
+		this.grad = new double[ nParams ];
+	}
+
+	/**
+	 * Removes all the observations.
+	 */
+	void clear()
+	{
+		n = 0;
+	}
+
+	/**
+	 * Adds an observation.
+	 *
+	 * @param x
+	 *            the X pixel coordinate.
+	 * @param y
+	 *            the Y pixel coordinate.
+	 * @param z
+	 *            the Z pixel coordinate, ignored in 2D.
+	 * @param value
+	 *            the pixel value.
+	 */
+	void add( final double x, final double y, final double z, final double value )
+	{
+		if ( n == values.length )
+		{
+			final int capacity = 2 * n;
+			values = Arrays.copyOf( values, capacity );
+			xs = Arrays.copyOf( xs, capacity );
+			ys = Arrays.copyOf( ys, capacity );
+			zs = Arrays.copyOf( zs, capacity );
+			scratch = new double[ capacity ];
+		}
+		values[ n ] = value;
+		xs[ n ] = x;
+		ys[ n ] = y;
+		zs[ n ] = z;
+		n++;
+	}
+
+	/**
+	 * Returns the number of observations.
+	 */
+	int size()
+	{
+		return n;
+	}
+
+	/**
+	 * Subtracts the median of the observations from them, and clips the
+	 * results to 0.
+	 */
+	void clipBackground()
+	{
+		if ( n == 0 )
+			return;
+		System.arraycopy( values, 0, scratch, 0, n );
+		Arrays.sort( scratch, 0, n );
+		final double bg = ( n % 2 == 1 )
+				? scratch[ n / 2 ]
+				: 0.5 * ( scratch[ n / 2 ] + scratch[ n / 2 - 1 ] );
+		for ( int i = 0; i < n; i++ )
+			values[ i ] = Math.max( 0., values[ i ] - bg );
+	}
+
+	/**
+	 * Fits the Gaussian on the current observations, starting with the
+	 * largest observation as amplitude.
+	 *
+	 * @param x0
+	 *            the starting X center.
+	 * @param y0
+	 *            the starting Y center.
+	 * @param z0
+	 *            the starting Z center, ignored in 2D.
+	 * @param bXY
+	 *            the XY width parameter, starting value if the width is
+	 *            fitted.
+	 * @param bZ
+	 *            the Z width parameter, starting value if the width is fitted.
+	 *            Ignored in 2D.
+	 * @param minBxy
+	 *            the smallest XY width parameter, ignored if the width is
+	 *            fixed.
+	 * @param minBz
+	 *            the smallest Z width parameter, ignored if the width is fixed
+	 *            or in 2D.
+	 * @return <code>true</code> if the fit converged. If <code>false</code>,
+	 *         the fitted parameters must not be used.
+	 */
+	boolean fit( final double x0, final double y0, final double z0, final double bXY, final double bZ, final double minBxy, final double minBz )
+	{
+		if ( n == 0 )
+			return false;
+
+		this.bXY = bXY;
+		this.bZ = is3D ? bZ : 0.;
+		this.minBxy = minBxy;
+		this.minBz = minBz;
+
+		double amplitude = values[ 0 ];
+		for ( int i = 1; i < n; i++ )
+			amplitude = Math.max( amplitude, values[ i ] );
+
+		int k = 0;
+		params[ k++ ] = x0;
+		params[ k++ ] = y0;
+		if ( is3D )
+			params[ k++ ] = z0;
+		params[ k++ ] = amplitude;
+		if ( fitWidth )
+		{
+			params[ k++ ] = bXY;
+			if ( is3D )
+				params[ k++ ] = bZ;
+		}
+		validate( params );
+
+		double cost = evaluate( params, jtj, jtr );
+		if ( cost == 0. )
+			return true;
+
+		double lambda = INITIAL_LAMBDA;
+		for ( int iteration = 0; iteration < MAX_ITERATIONS; iteration++ )
+		{
+			// Damped normal equations.
+			System.arraycopy( jtj, 0, lhs, 0, lhs.length );
+			for ( int a = 0; a < nParams; a++ )
+				lhs[ a * nParams + a ] += lambda * Math.max( jtj[ a * nParams + a ], Double.MIN_NORMAL );
+
+			if ( !solve( lhs, jtr, step, nParams ) )
+			{
+				lambda *= 10.;
+				if ( lambda > MAX_LAMBDA )
+					return true;
+				continue;
+			}
+
+			for ( int a = 0; a < nParams; a++ )
+				trial[ a ] = params[ a ] + step[ a ];
+			validate( trial );
+
+			final double trialCost = evaluate( trial, trialJtj, trialJtr );
+			double relativeStep = 0.;
+			for ( int a = 0; a < nParams; a++ )
+				relativeStep = Math.max( relativeStep, Math.abs( trial[ a ] - params[ a ] ) / Math.max( Math.abs( params[ a ] ), Double.MIN_NORMAL ) );
+
+			if ( trialCost < cost )
+			{
+				final double relativeCost = ( cost - trialCost ) / cost;
+				swap();
+				cost = trialCost;
+				lambda = Math.max( lambda / 10., Double.MIN_NORMAL );
+
+				if ( cost == 0. || relativeCost <= COST_RELATIVE_TOLERANCE || relativeStep <= PARAMETER_RELATIVE_TOLERANCE )
+					return true;
+			}
+			else
+			{
+				// No progress possible at this precision: we are at the minimum.
+				if ( relativeStep <= PARAMETER_RELATIVE_TOLERANCE )
+					return true;
+				lambda *= 10.;
+				if ( lambda > MAX_LAMBDA )
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the fitted X center.
+	 */
+	double getX()
+	{
+		return params[ 0 ];
+	}
+
+	/**
+	 * Returns the fitted Y center.
+	 */
+	double getY()
+	{
+		return params[ 1 ];
+	}
+
+	/**
+	 * Returns the fitted Z center, or 0 in 2D.
+	 */
+	double getZ()
+	{
+		return is3D ? params[ 2 ] : 0.;
+	}
+
+	/**
+	 * Returns the fitted amplitude.
+	 */
+	double getAmplitude()
+	{
+		return params[ is3D ? 3 : 2 ];
+	}
+
+	/**
+	 * Returns the fitted or fixed XY width parameter.
+	 */
+	double getBxy()
+	{
+		return fitWidth ? params[ is3D ? 4 : 3 ] : bXY;
+	}
+
+	/**
+	 * Returns the fitted or fixed Z width parameter, or 0 in 2D.
+	 */
+	double getBz()
+	{
+		if ( !is3D )
+			return 0.;
+		return fitWidth ? params[ 5 ] : bZ;
+	}
+
+	private void validate( final double[] p )
+	{
+		final int ia = is3D ? 3 : 2;
+		p[ ia ] = Math.abs( p[ ia ] );
+		if ( fitWidth )
+		{
+			p[ ia + 1 ] = Math.max( minBxy, Math.abs( p[ ia + 1 ] ) );
+			if ( is3D )
+				p[ ia + 2 ] = Math.max( minBz, Math.abs( p[ ia + 2 ] ) );
+		}
+	}
+
+	/**
+	 * Computes the sum of squared residuals at the specified parameters, and
+	 * accumulates the normal equations matrix JᵀJ and vector Jᵀr.
+	 */
+	private double evaluate( final double[] p, final double[] jtjOut, final double[] jtrOut )
+	{
+		final int ia = is3D ? 3 : 2;
+		final double x0 = p[ 0 ];
+		final double y0 = p[ 1 ];
+		final double z0 = is3D ? p[ 2 ] : 0.;
+		final double A = p[ ia ];
+		final double bxy = fitWidth ? p[ ia + 1 ] : bXY;
+		final double bz = is3D ? ( fitWidth ? p[ ia + 2 ] : bZ ) : 0.;
+
+		Arrays.fill( jtjOut, 0. );
+		Arrays.fill( jtrOut, 0. );
+		double cost = 0.;
+		for ( int i = 0; i < n; i++ )
+		{
+			final double dx = xs[ i ] - x0;
+			final double dy = ys[ i ] - y0;
+			final double dz = is3D ? zs[ i ] - z0 : 0.;
+			final double r2xy = dx * dx + dy * dy;
+			final double r2z = dz * dz;
+			final double E = Math.exp( -bxy * r2xy - bz * r2z );
+			final double AE = A * E;
+			final double r = values[ i ] - AE;
+			cost += r * r;
+
+			int k = 0;
+			grad[ k++ ] = 2. * AE * bxy * dx;
+			grad[ k++ ] = 2. * AE * bxy * dy;
+			if ( is3D )
+				grad[ k++ ] = 2. * AE * bz * dz;
+			grad[ k++ ] = E;
+			if ( fitWidth )
+			{
+				grad[ k++ ] = -AE * r2xy;
+				if ( is3D )
+					grad[ k++ ] = -AE * r2z;
+			}
+
+			for ( int a = 0; a < nParams; a++ )
+			{
+				final double ga = grad[ a ];
+				jtrOut[ a ] += ga * r;
+				final int row = a * nParams;
+				for ( int b = 0; b <= a; b++ )
+					jtjOut[ row + b ] += ga * grad[ b ];
+			}
+		}
+
+		// Symmetrize.
+		for ( int a = 0; a < nParams; a++ )
+			for ( int b = 0; b < a; b++ )
+				jtjOut[ b * nParams + a ] = jtjOut[ a * nParams + b ];
+
+		return cost;
+	}
+
+	private void swap()
+	{
+		final double[] p = params;
+		params = trial;
+		trial = p;
+		final double[] m = jtj;
+		jtj = trialJtj;
+		trialJtj = m;
+		final double[] v = jtr;
+		jtr = trialJtr;
+		trialJtr = v;
+	}
+
+	/**
+	 * Solves the symmetric positive-definite system m x = v in place by
+	 * Cholesky decomposition. The matrix is overwritten.
+	 *
+	 * @return <code>false</code> if the matrix is not positive-definite.
+	 */
+	static boolean solve( final double[] m, final double[] v, final double[] x, final int size )
+	{
+		// Decomposition, lower triangle.
+		for ( int j = 0; j < size; j++ )
+		{
+			double d = m[ j * size + j ];
+			for ( int k = 0; k < j; k++ )
+				d -= m[ j * size + k ] * m[ j * size + k ];
+			if ( !( d > 0. ) )
+				return false;
+			final double ljj = Math.sqrt( d );
+			m[ j * size + j ] = ljj;
+			for ( int i = j + 1; i < size; i++ )
+			{
+				double s = m[ i * size + j ];
+				for ( int k = 0; k < j; k++ )
+					s -= m[ i * size + k ] * m[ j * size + k ];
+				m[ i * size + j ] = s / ljj;
+			}
+		}
+
+		// Forward substitution.
+		for ( int i = 0; i < size; i++ )
+		{
+			double s = v[ i ];
+			for ( int k = 0; k < i; k++ )
+				s -= m[ i * size + k ] * x[ k ];
+			x[ i ] = s / m[ i * size + i ];
+		}
+
+		// Back substitution.
+		for ( int i = size - 1; i >= 0; i-- )
+		{
+			double s = x[ i ];
+			for ( int k = i + 1; k < size; k++ )
+				s -= m[ k * size + i ] * x[ k ];
+			x[ i ] = s / m[ i * size + i ];
+		}
+		return true;
+	}
+}
@@ -23,17 +23,22 @@ package fiji.plugin.trackmate.detection;
 
 import java.awt.Polygon;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotRoi;
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TLongIntHashMap;
 import ij.ImagePlus;
 import ij.gui.PolygonRoi;
 import ij.measure.Measurements;
 import ij.process.FloatPolygon;
+import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
@@ -57,6 +62,7 @@ import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
@@ -192,6 +198,18 @@ public class MaskUtils
 			final double threshold,
 			final int numThreads )
 	{
+		if ( ParallelConnectedComponents.canLabel( interval ) )
+		{
+			final Img< IntType > labels = toLabelImage( input, interval, threshold, numThreads );
+			int nLabels = 0;
+			for ( final IntType label : labels )
+				nLabels = Math.max( nLabels, label.get() );
+			final List< Integer > indices = new ArrayList<>( nLabels );
+			for ( int i = 0; i < nLabels; i++ )
+				indices.add( Integer.valueOf( i + 1 ) );
+			return ImgLabeling.fromImageAndLabels( labels, indices );
+		}
+
 		// Crop.
 		final IntervalView< T > crop = Views.interval( input, interval );
 		final IntervalView< T > in = Views.zeroMin( crop );
@@ -221,6 +239,47 @@ public class MaskUtils
 		return labeling;
 	}
 
+	/**
+	 * Creates a zero-min label image from a thresholded image. The connected
+	 * components of the mask are labeled in parallel with
+	 * {@link ParallelConnectedComponents}, and numbered 1, 2, 3, ... in the
+	 * order of their first pixel.
+	 *
+	 * @param <T>
+	 *            the type of the input image. Must be real, scalar.
+	 * @param input
+	 *            the input image.
+	 * @param interval
+	 *            the interval in the input image to analyze. Must have less
+	 *            than {@link ParallelConnectedComponents#MAX_SIZE} pixels.
+	 * @param threshold
+	 *            the threshold to apply to the input image.
+	 * @param numThreads
+	 *            how many threads to use for multithreaded computation.
+	 * @return a new label image.
+	 */
+	public static final < T extends RealType< T > > Img< IntType > toLabelImage(
+			final RandomAccessible< T > input,
+			final Interval interval,
+			final double threshold,
+			final int numThreads )
+	{
+		return ParallelConnectedComponents.withExecutor( numThreads, executor -> toLabelImage( input, interval, threshold, numThreads, executor ) );
+	}
+
+	private static final < T extends RealType< T > > Img< IntType > toLabelImage(
+			final RandomAccessible< T > input,
+			final Interval interval,
+			final double threshold,
+			final int numThreads,
+			final ExecutorService executor )
+	{
+		final IntervalView< T > in = Views.zeroMin( Views.interval( input, interval ) );
+		final Converter< T, BitType > converter = ( a, b ) -> b.set( a.getRealDouble() > threshold );
+		final RandomAccessibleInterval< BitType > bitMask = Converters.convertRAI( in, converter, new BitType() );
+		return ParallelConnectedComponents.label( bitMask, numThreads, executor );
+	}
+
 	/**
 	 * Creates spots from a grayscale image, thresholded to create a mask. A
 	 * spot is created for each connected-component of the mask, with a size
@@ -247,6 +306,14 @@ public class MaskUtils
 			final double threshold,
 			final int numThreads )
 	{
+		if ( ParallelConnectedComponents.canLabel( interval ) )
+			return ParallelConnectedComponents.withExecutor( numThreads, executor -> fromLabelImage(
+					toLabelImage( input, interval, threshold, numThreads, executor ),
+					interval,
+					calibration,
+					numThreads,
+					executor ) );
+
 		// Get labeling from mask.
 		final ImgLabeling< Integer, IntType > labeling = toLabeling( input, interval, threshold, numThreads );
 		return fromLabeling(
@@ -344,12 +411,24 @@ public class MaskUtils
 			final int numThreads,
 			final RandomAccessibleInterval< R > qualityImage )
 	{
-		// Get labeling from mask.
-		final ImgLabeling< Integer, IntType > labeling = toLabeling( input, interval, threshold, numThreads );
-
 		// Crop of the quality image.
 		final IntervalView< R > cropQuality = Views.interval( qualityImage, interval );
 		final IntervalView< R > inQuality = Views.zeroMin( cropQuality );
+
+		if ( ParallelConnectedComponents.canLabel( interval ) )
+		{
+			return ParallelConnectedComponents.withExecutor( numThreads, executor -> {
+				final Img< IntType > labels = toLabelImage( input, interval, threshold, numThreads, executor );
+				final LabelMoments moments = LabelMoments.measure( labels, inQuality, numThreads, executor );
+				final List< Spot > spots = new ArrayList<>( moments.size );
+				for ( final int i : moments.sortedByLabel() )
+					spots.add( moments.toSpot( i, interval, calibration, moments.qualities[ i ] ) );
+				return spots;
+			} );
+		}
+
+		// Get labeling from mask.
+		final ImgLabeling< Integer, IntType > labeling = toLabeling( input, interval, threshold, numThreads );
 		final RandomAccess< R > raQuality = inQuality.randomAccess( inQuality );
 
 		// Parse each component.
@@ -441,6 +520,16 @@ public class MaskUtils
 		if ( input.numDimensions() != 2 )
 			throw new IllegalArgumentException( "Can only process 2D images with this method, but got " + input.numDimensions() + "D." );
 		
+		// Without quality image, the contours can be traced in parallel.
+		if ( null == qualityImage && ParallelConnectedComponents.canLabel( interval ) )
+			return ParallelConnectedComponents.withExecutor( numThreads, executor -> fromLabelImageWithROI(
+					toLabelImage( input, interval, threshold, numThreads, executor ),
+					interval,
+					calibration,
+					simplify,
+					numThreads,
+					executor ) );
+
 		// Get labeling.
 		final ImgLabeling< Integer, IntType > labeling = toLabeling( input, interval, threshold, numThreads );
 		return fromLabelingWithROI( labeling, interval, calibration, simplify, qualityImage );
@@ -505,45 +594,224 @@ public class MaskUtils
 		// Simplify them and compute a quality.
 		for ( final Polygon polygon : polygons )
 		{
-			final PolygonRoi roi = new PolygonRoi( polygon, PolygonRoi.POLYGON );
+			final Spot spot = polygonToSpot( polygon, interval, calibration, simplify, qualityImp );
+			if ( null != spot )
+				spots.add( spot );
+		}
+		return spots;
+	}
 
-			// Create Spot ROI.
-			final PolygonRoi fRoi;
-			if ( simplify )
-				fRoi = simplify( roi, SMOOTH_INTERVAL, DOUGLAS_PEUCKER_MAX_DISTANCE );
-			else
-				fRoi = roi;
+	/**
+	 * Creates spots from a label image, where each pixel stores the label of
+	 * the object it belongs to, and 0 is the background. A spot is created
+	 * for each label, at the centroid of its pixels, with a size that matches
+	 * the number of pixels.
+	 * <p>
+	 * Contrary to {@link #fromLabeling(ImgLabeling, Interval, double[])}, this
+	 * method does not need an {@link ImgLabeling}: the label image is parsed
+	 * once, and the label values can be sparse or large. The spots are
+	 * returned in increasing label order.
+	 *
+	 * @param <R>
+	 *            the type of the label image.
+	 * @param labels
+	 *            the label image, must be zero-min.
+	 * @param interval
+	 *            the interval, used to reposition the spots from the zero-min
+	 *            label image to the proper coordinates.
+	 * @param calibration
+	 *            the physical calibration.
+	 * @return a list of spots, without ROI.
+	 */
+	public static < R extends IntegerType< R > > List< Spot > fromLabelImage(
+			final RandomAccessibleInterval< R > labels,
+			final Interval interval,
+			final double[] calibration )
+	{
+		return fromLabelImage( labels, interval, calibration, 1 );
+	}
 
-			// Don't include ROIs that have been shrunk to < 1 pixel.
-			if ( fRoi.getNCoordinates() < 3 || fRoi.getStatistics().area <= 0. )
-				continue;
+	/**
+	 * Creates spots from a label image, using several threads to parse it.
+	 *
+	 * @param <R>
+	 *            the type of the label image.
+	 * @param labels
+	 *            the label image, must be zero-min.
+	 * @param interval
+	 *            the interval, used to reposition the spots from the zero-min
+	 *            label image to the proper coordinates.
+	 * @param calibration
+	 *            the physical calibration.
+	 * @param numThreads
+	 *            how many threads to use.
+	 * @return a list of spots, without ROI.
+	 * @see #fromLabelImage(RandomAccessibleInterval, Interval, double[])
+	 */
+	public static < R extends IntegerType< R > > List< Spot > fromLabelImage(
+			final RandomAccessibleInterval< R > labels,
+			final Interval interval,
+			final double[] calibration,
+			final int numThreads )
+	{
+		return ParallelConnectedComponents.withExecutor( numThreads, executor -> fromLabelImage( labels, interval, calibration, numThreads, executor ) );
+	}
 
-			// Measure quality.
-			final double quality;
-			if ( null == qualityImp )
-			{
-				quality = fRoi.getStatistics().area;
-			}
-			else
-			{
-				qualityImp.setRoi( fRoi );
-				quality = qualityImp.getStatistics( Measurements.MIN_MAX ).max;
-			}
+	private static < R extends IntegerType< R > > List< Spot > fromLabelImage(
+			final RandomAccessibleInterval< R > labels,
+			final Interval interval,
+			final double[] calibration,
+			final int numThreads,
+			final ExecutorService executor )
+	{
+		final LabelMoments moments = LabelMoments.measure( labels, null, numThreads, executor );
+		final List< Spot > spots = new ArrayList<>( moments.size );
+		for ( final int i : moments.sortedByLabel() )
+			spots.add( moments.toSpot( i, interval, calibration, moments.counts[ i ] ) );
+		return spots;
+	}
+
+	/**
+	 * Creates spots with ROIs from a 2D label image, where each pixel stores
+	 * the label of the object it belongs to, and 0 is the background. The
+	 * spots and ROIs are the same as those of
+	 * {@link #fromLabelingWithROI(ImgLabeling, Interval, double[], boolean, RandomAccessibleInterval)}
+	 * with no quality image: the quality is the area of the ROI.
+	 * <p>
+	 * The label image is parsed once to find the bounding box of each label,
+	 * then the contours of the labels are traced in parallel, each within its
+	 * bounding box. The label values can be sparse or large. The spots are
+	 * returned in increasing label order.
+	 *
+	 * @param <R>
+	 *            the type of the label image.
+	 * @param labels
+	 *            the label image, must be zero-min and 2D.
+	 * @param interval
+	 *            the interval, used to reposition the spots from the zero-min
+	 *            label image to the proper coordinates.
+	 * @param calibration
+	 *            the physical calibration.
+	 * @param simplify
+	 *            if <code>true</code> the polygon will be post-processed to be
+	 *            smoother and contain less points.
+	 * @param numThreads
+	 *            how many threads to use to trace the contours.
+	 * @return a list of spots, with ROI.
+	 */
+	public static < R extends IntegerType< R > > List< Spot > fromLabelImageWithROI(
+			final RandomAccessibleInterval< R > labels,
+			final Interval interval,
+			final double[] calibration,
+			final boolean simplify,
+			final int numThreads )
+	{
+		if ( labels.numDimensions() != 2 )
+			throw new IllegalArgumentException( "Can only process 2D images with this method, but got " + labels.numDimensions() + "D." );
+
+		return ParallelConnectedComponents.withExecutor( numThreads, executor -> fromLabelImageWithROI( labels, interval, calibration, simplify, numThreads, executor ) );
+	}
 
-			final Polygon fPolygon = fRoi.getPolygon();
-			final double[] xpoly = new double[ fPolygon.npoints ];
-			final double[] ypoly = new double[ fPolygon.npoints ];
-			for ( int i = 0; i < fPolygon.npoints; i++ )
+	private static < R extends IntegerType< R > > List< Spot > fromLabelImageWithROI(
+			final RandomAccessibleInterval< R > labels,
+			final Interval interval,
+			final double[] calibration,
+			final boolean simplify,
+			final int numThreads,
+			final ExecutorService executor )
+	{
+		final LabelMoments moments = LabelMoments.measure( labels, null, numThreads, executor );
+		final int[] order = moments.sortedByLabel();
+
+		// One list of spots per label, filled in parallel.
+		@SuppressWarnings( "unchecked" )
+		final List< Spot >[] results = new List[ order.length ];
+		final AtomicInteger next = new AtomicInteger( 0 );
+		final Runnable task = () -> {
+			int k;
+			while ( ( k = next.getAndIncrement() ) < order.length )
 			{
-				xpoly[ i ] = calibration[ 0 ] * ( interval.min( 0 ) + fPolygon.xpoints[ i ] - 0.5 );
-				ypoly[ i ] = calibration[ 1 ] * ( interval.min( 1 ) + fPolygon.ypoints[ i ] - 0.5 );
+				final int i = order[ k ];
+				final long label = moments.labels[ i ];
+				final long[] min = new long[] { moments.mins[ 2 * i ], moments.mins[ 2 * i + 1 ] };
+				final long[] max = new long[] { moments.maxs[ 2 * i ], moments.maxs[ 2 * i + 1 ] };
+
+				// Mask of this label in its bounding box.
+				final Converter< R, BitType > converter = ( a, b ) -> b.set( a.getIntegerLong() == label );
+				final RandomAccessibleInterval< BitType > mask = Converters.convertRAI(
+						Views.zeroMin( Views.interval( labels, min, max ) ), converter, new BitType() );
+
+				final List< Polygon > polygons = maskToPolygons( mask );
+				final List< Spot > spots = new ArrayList<>( polygons.size() );
+				for ( final Polygon polygon : polygons )
+				{
+					// Translate back to interval coords.
+					polygon.translate( ( int ) min[ 0 ], ( int ) min[ 1 ] );
+					final Spot spot = polygonToSpot( polygon, interval, calibration, simplify, null );
+					if ( null != spot )
+						spots.add( spot );
+				}
+				results[ k ] = spots;
 			}
+		};
 
-			spots.add( SpotRoi.createSpot( xpoly, ypoly, quality ) );
-		}
+		final int nTasks = Math.max( 1, Math.min( numThreads, order.length ) );
+		ParallelConnectedComponents.parallel( nTasks, executor, t -> task.run() );
+
+		final List< Spot > spots = new ArrayList<>( order.length );
+		for ( final List< Spot > list : results )
+			spots.addAll( list );
 		return spots;
 	}
 
+	/**
+	 * Creates a spot from a polygon found in a mask, or returns
+	 * <code>null</code> if the polygon is too small once simplified.
+	 */
+	private static final Spot polygonToSpot(
+			final Polygon polygon,
+			final Interval interval,
+			final double[] calibration,
+			final boolean simplify,
+			final ImagePlus qualityImp )
+	{
+		final PolygonRoi roi = new PolygonRoi( polygon, PolygonRoi.POLYGON );
+
+		// Create Spot ROI.
+		final PolygonRoi fRoi;
+		if ( simplify )
+			fRoi = simplify( roi, SMOOTH_INTERVAL, DOUGLAS_PEUCKER_MAX_DISTANCE );
+		else
+			fRoi = roi;
+
+		// Don't include ROIs that have been shrunk to < 1 pixel.
+		if ( fRoi.getNCoordinates() < 3 || fRoi.getStatistics().area <= 0. )
+			return null;
+
+		// Measure quality.
+		final double quality;
+		if ( null == qualityImp )
+		{
+			quality = fRoi.getStatistics().area;
+		}
+		else
+		{
+			qualityImp.setRoi( fRoi );
+			quality = qualityImp.getStatistics( Measurements.MIN_MAX ).max;
+		}
+
+		final Polygon fPolygon = fRoi.getPolygon();
+		final double[] xpoly = new double[ fPolygon.npoints ];
+		final double[] ypoly = new double[ fPolygon.npoints ];
+		for ( int i = 0; i < fPolygon.npoints; i++ )
+		{
+			xpoly[ i ] = calibration[ 0 ] * ( interval.min( 0 ) + fPolygon.xpoints[ i ] - 0.5 );
+			ypoly[ i ] = calibration[ 1 ] * ( interval.min( 1 ) + fPolygon.ypoints[ i ] - 0.5 );
+		}
+
+		return SpotRoi.createSpot( xpoly, ypoly, quality );
+	}
+
 	private static final double distanceSquaredBetweenPoints( final double vx, final double vy, final double wx, final double wy )
 	{
 		final double deltax = ( vx - wx );
@@ -930,6 +1198,197 @@ public class MaskUtils
 		return polygons;
 	}
 
+	/**
+	 * Number of pixels, sum of coordinates, bounding box and optionally max
+	 * quality of each label of a label image, accumulated in a single pass.
+	 */
+	private static final class LabelMoments
+	{
+
+		private final int nDims;
+
+		/** Maps a label value to its index in the arrays below. */
+		private final TLongIntHashMap index = new TLongIntHashMap( Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0l, -1 );
+
+		private long[] labels = new long[ 16 ];
+
+		private long[] counts = new long[ 16 ];
+
+		private long[] sums;
+
+		private long[] mins;
+
+		private long[] maxs;
+
+		private double[] qualities = new double[ 16 ];
+
+		private int size = 0;
+
+		private LabelMoments( final int nDims )
+		{
+			this.nDims = nDims;
+			this.sums = new long[ 16 * nDims ];
+			this.mins = new long[ 16 * nDims ];
+			this.maxs = new long[ 16 * nDims ];
+		}
+
+		/**
+		 * Measures the labels in parallel, over slabs along the last
+		 * dimension, then merges the slab measurements.
+		 */
+		private static < R extends IntegerType< R > > LabelMoments measure(
+				final RandomAccessibleInterval< R > labels,
+				final RandomAccessibleInterval< ? extends RealType< ? > > quality,
+				final int numThreads,
+				final ExecutorService executor )
+		{
+			final int nDims = labels.numDimensions();
+			final int nSlices = ( int ) labels.dimension( nDims - 1 );
+			final int nBlocks = Math.max( 1, Math.min( numThreads, nSlices ) );
+			final LabelMoments[] partials = new LabelMoments[ nBlocks ];
+			ParallelConnectedComponents.parallel( nBlocks, executor, b -> {
+				final long[] min = Intervals.minAsLongArray( labels );
+				final long[] max = Intervals.maxAsLongArray( labels );
+				min[ nDims - 1 ] = labels.min( nDims - 1 ) + ( long ) nSlices * b / nBlocks;
+				max[ nDims - 1 ] = labels.min( nDims - 1 ) + ( long ) nSlices * ( b + 1 ) / nBlocks - 1;
+				partials[ b ] = measure( Views.interval( labels, min, max ), quality );
+			} );
+
+			final LabelMoments moments = partials[ 0 ];
+			for ( int b = 1; b < nBlocks; b++ )
+				moments.merge( partials[ b ] );
+			return moments;
+		}
+
+		private static < R extends IntegerType< R > > LabelMoments measure(
+				final RandomAccessibleInterval< R > labels,
+				final RandomAccessibleInterval< ? extends RealType< ? > > quality )
+		{
+			final int nDims = labels.numDimensions();
+			final LabelMoments moments = new LabelMoments( nDims );
+			final long[] pos = new long[ nDims ];
+			final RandomAccess< ? extends RealType< ? > > raQuality = ( null == quality ) ? null : quality.randomAccess( labels );
+			final Cursor< R > cursor = Views.flatIterable( labels ).localizingCursor();
+			long previous = 0l;
+			int i = -1;
+			while ( cursor.hasNext() )
+			{
+				final long label = cursor.next().getIntegerLong();
+				if ( label == 0l )
+					continue;
+
+				// Consecutive pixels often have the same label.
+				if ( label != previous )
+				{
+					i = moments.indexOf( label );
+					previous = label;
+				}
+
+				cursor.localize( pos );
+				moments.counts[ i ]++;
+				final int o = i * nDims;
+				for ( int d = 0; d < nDims; d++ )
+				{
+					moments.sums[ o + d ] += pos[ d ];
+					if ( pos[ d ] < moments.mins[ o + d ] )
+						moments.mins[ o + d ] = pos[ d ];
+					if ( pos[ d ] > moments.maxs[ o + d ] )
+						moments.maxs[ o + d ] = pos[ d ];
+				}
+
+				if ( null != raQuality )
+				{
+					raQuality.setPosition( pos );
+					final double q = raQuality.get().getRealDouble();
+					if ( q > moments.qualities[ i ] )
+						moments.qualities[ i ] = q;
+				}
+			}
+			return moments;
+		}
+
+		/**
+		 * Adds the measurements of another part of the same label image.
+		 */
+		private void merge( final LabelMoments other )
+		{
+			for ( int j = 0; j < other.size; j++ )
+			{
+				final int i = indexOf( other.labels[ j ] );
+				counts[ i ] += other.counts[ j ];
+				for ( int d = 0; d < nDims; d++ )
+				{
+					sums[ i * nDims + d ] += other.sums[ j * nDims + d ];
+					mins[ i * nDims + d ] = Math.min( mins[ i * nDims + d ], other.mins[ j * nDims + d ] );
+					maxs[ i * nDims + d ] = Math.max( maxs[ i * nDims + d ], other.maxs[ j * nDims + d ] );
+				}
+				qualities[ i ] = Math.max( qualities[ i ], other.qualities[ j ] );
+			}
+		}
+
+		private int indexOf( final long label )
+		{
+			final int i = index.get( label );
+			if ( i >= 0 )
+				return i;
+
+			if ( size == labels.length )
+			{
+				final int capacity = 2 * size;
+				labels = Arrays.copyOf( labels, capacity );
+				counts = Arrays.copyOf( counts, capacity );
+				sums = Arrays.copyOf( sums, capacity * nDims );
+				mins = Arrays.copyOf( mins, capacity * nDims );
+				maxs = Arrays.copyOf( maxs, capacity * nDims );
+				qualities = Arrays.copyOf( qualities, capacity );
+			}
+			labels[ size ] = label;
+			Arrays.fill( mins, size * nDims, ( size + 1 ) * nDims, Long.MAX_VALUE );
+			Arrays.fill( maxs, size * nDims, ( size + 1 ) * nDims, Long.MIN_VALUE );
+			qualities[ size ] = Double.NEGATIVE_INFINITY;
+			index.put( label, size );
+			return size++;
+		}
+
+		/**
+		 * Returns the indices of the labels, sorted by label value.
+		 */
+		private int[] sortedByLabel()
+		{
+			final long[] sorted = Arrays.copyOf( labels, size );
+			Arrays.sort( sorted );
+			final int[] order = new int[ size ];
+			for ( int k = 0; k < size; k++ )
+				order[ k ] = index.get( sorted[ k ] );
+			return order;
+		}
+
+		/**
+		 * Creates a spot at the centroid of a label, with a size that matches
+		 * its number of pixels.
+		 */
+		private Spot toSpot( final int i, final Interval interval, final double[] calibration, final double quality )
+		{
+			final long size = counts[ i ];
+			final double[] pos = new double[ 3 ];
+			for ( int d = 0; d < nDims; d++ )
+				pos[ d ] = sums[ i * nDims + d ] / ( double ) size;
+
+			final double x = calibration[ 0 ] * ( interval.min( 0 ) + pos[ 0 ] );
+			final double y = calibration[ 1 ] * ( interval.min( 1 ) + pos[ 1 ] );
+			final double z = ( nDims > 2 ) ? calibration[ 2 ] * ( interval.min( 2 ) + pos[ 2 ] ) : 0.;
+
+			double volume = size;
+			for ( int d = 0; d < calibration.length; d++ )
+				if ( calibration[ d ] > 0 )
+					volume *= calibration[ d ];
+			final double radius = ( nDims == 2 )
+					? Math.sqrt( volume / Math.PI )
+					: Math.pow( 3. * volume / ( 4. * Math.PI ), 1. / 3. );
+			return new Spot( x, y, z, radius, quality );
+		}
+	}
+
 	/**
 	 * This class implements a Cartesian polygon in progress. The edges are
 	 * supposed to be parallel to the x or y axis. It is implemented as a deque
@@ -0,0 +1,310 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.detection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Connected-component labeling of a mask with a block-parallel union-find.
+ * <p>
+ * The mask is split in slabs along its last dimension, one per thread. Each
+ * slab is scanned once, linking every pixel to its already-visited
+ * neighbors along each axis (4-connectivity in 2D, 6-connectivity in 3D).
+ * The slabs are then merged along their boundaries, and the components are
+ * numbered 1, 2, 3, ... in the order of their first pixel in the image.
+ * <p>
+ * The union-find forest and the output are stored in <code>int[]</code>
+ * arrays, so the mask must have less than {@link #MAX_SIZE} pixels.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class ParallelConnectedComponents
+{
+
+	/** The largest number of pixels this labeling can process. */
+	public static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	private ParallelConnectedComponents()
+	{}
+
+	/**
+	 * Returns <code>true</code> if an interval is small enough to be labeled
+	 * by this class.
+	 *
+	 * @param interval
+	 *            the interval.
+	 * @return <code>true</code> if the interval has less than
+	 *         {@link #MAX_SIZE} pixels.
+	 */
+	public static boolean canLabel( final Interval interval )
+	{
+		return Intervals.numElements( interval ) <= MAX_SIZE;
+	}
+
+	/**
+	 * Labels the connected components of a mask.
+	 *
+	 * @param <B>
+	 *            the type of the mask.
+	 * @param mask
+	 *            the mask.
+	 * @param numThreads
+	 *            how many threads to use.
+	 * @return a new zero-min label image, with 0 for the background and
+	 *         labels 1 to N for the N components.
+	 */
+	public static < B extends BooleanType< B > > Img< IntType > label( final RandomAccessibleInterval< B > mask, final int numThreads )
+	{
+		return withExecutor( numThreads, executor -> label( mask, numThreads, executor ) );
+	}
+
+	/**
+	 * Labels the connected components of a mask, running the parallel phases
+	 * in the specified executor, so that it can be shared with other steps of
+	 * a detection.
+	 *
+	 * @param <B>
+	 *            the type of the mask.
+	 * @param mask
+	 *            the mask.
+	 * @param numThreads
+	 *            in how many slabs to split the mask.
+	 * @param executor
+	 *            the executor to run the slabs in. If <code>null</code>, they
+	 *            are processed in the calling thread.
+	 * @return a new zero-min label image, with 0 for the background and
+	 *         labels 1 to N for the N components.
+	 */
+	public static < B extends BooleanType< B > > Img< IntType > label( final RandomAccessibleInterval< B > mask, final int numThreads, final ExecutorService executor )
+	{
+		if ( !canLabel( mask ) )
+			throw new IllegalArgumentException( "Cannot label masks with more than " + MAX_SIZE + " pixels." );
+
+		final int n = mask.numDimensions();
+		final long[] dims = Intervals.dimensionsAsLongArray( mask );
+		final int size = ( int ) Intervals.numElements( mask );
+		final int[] strides = new int[ n ];
+		strides[ 0 ] = 1;
+		for ( int d = 1; d < n; d++ )
+			strides[ d ] = strides[ d - 1 ] * ( int ) dims[ d - 1 ];
+
+		// Slabs along the last dimension.
+		final int nSlices = ( int ) dims[ n - 1 ];
+		final int sliceSize = strides[ n - 1 ];
+		final int nBlocks = Math.max( 1, Math.min( numThreads, nSlices ) );
+		final int[] blockStart = new int[ nBlocks + 1 ];
+		for ( int b = 0; b <= nBlocks; b++ )
+			blockStart[ b ] = ( int ) ( ( long ) nSlices * b / nBlocks );
+
+		/*
+		 * 1. Union-find within each slab. Roots are always the smallest
+		 * pixel index of their tree, and links never leave the slab.
+		 */
+		final int[] parent = new int[ size ];
+		parallel( nBlocks, executor, b -> {
+			final int s0 = blockStart[ b ];
+			final int s1 = blockStart[ b + 1 ];
+			if ( s0 == s1 )
+				return;
+
+			final long[] min = Intervals.minAsLongArray( mask );
+			final long[] max = Intervals.maxAsLongArray( mask );
+			min[ n - 1 ] += s0;
+			max[ n - 1 ] = mask.min( n - 1 ) + s1 - 1;
+			final Cursor< B > cursor = Views.flatIterable( Views.interval( mask, min, max ) ).cursor();
+
+			final long[] pos = new long[ n ];
+			pos[ n - 1 ] = s0;
+			int p = s0 * sliceSize;
+			while ( cursor.hasNext() )
+			{
+				if ( cursor.next().get() )
+				{
+					parent[ p ] = p;
+					for ( int d = 0; d < n; d++ )
+					{
+						final boolean inside = ( d < n - 1 ) ? pos[ d ] > 0 : pos[ d ] > s0;
+						if ( !inside )
+							continue;
+						final int q = p - strides[ d ];
+						if ( parent[ q ] >= 0 )
+							union( parent, p, q );
+					}
+				}
+				else
+				{
+					parent[ p ] = -1;
+				}
+
+				p++;
+				for ( int d = 0; d < n; d++ )
+				{
+					if ( ++pos[ d ] < dims[ d ] || d == n - 1 )
+						break;
+					pos[ d ] = 0;
+				}
+			}
+		} );
+
+		// 2. Merge along the slab boundaries.
+		for ( int b = 1; b < nBlocks; b++ )
+		{
+			final int start = blockStart[ b ] * sliceSize;
+			for ( int p = start; p < start + sliceSize; p++ )
+			{
+				final int q = p - sliceSize;
+				if ( parent[ p ] >= 0 && parent[ q ] >= 0 )
+					union( parent, p, q );
+			}
+		}
+
+		// 3. Number the roots in raster order.
+		final int[] nRoots = new int[ nBlocks ];
+		parallel( nBlocks, executor, b -> {
+			int count = 0;
+			for ( int p = blockStart[ b ] * sliceSize; p < blockStart[ b + 1 ] * sliceSize; p++ )
+				if ( parent[ p ] == p )
+					count++;
+			nRoots[ b ] = count;
+		} );
+
+		final int[] out = new int[ size ];
+		parallel( nBlocks, executor, b -> {
+			int label = 0;
+			for ( int k = 0; k < b; k++ )
+				label += nRoots[ k ];
+			for ( int p = blockStart[ b ] * sliceSize; p < blockStart[ b + 1 ] * sliceSize; p++ )
+				if ( parent[ p ] == p )
+					out[ p ] = ++label;
+		} );
+
+		// 4. Propagate the labels of the roots.
+		parallel( nBlocks, executor, b -> {
+			for ( int p = blockStart[ b ] * sliceSize; p < blockStart[ b + 1 ] * sliceSize; p++ )
+				if ( parent[ p ] >= 0 && parent[ p ] != p )
+					out[ p ] = out[ root( parent, p ) ];
+		} );
+
+		return ArrayImgs.ints( out, dims );
+	}
+
+	/**
+	 * Finds the root of a pixel, halving the path on the way.
+	 */
+	private static int find( final int[] parent, int p )
+	{
+		while ( parent[ p ] != p )
+		{
+			parent[ p ] = parent[ parent[ p ] ];
+			p = parent[ p ];
+		}
+		return p;
+	}
+
+	/**
+	 * Finds the root of a pixel without modifying the forest.
+	 */
+	private static int root( final int[] parent, int p )
+	{
+		while ( parent[ p ] != p )
+			p = parent[ p ];
+		return p;
+	}
+
+	private static void union( final int[] parent, final int p, final int q )
+	{
+		final int rp = find( parent, p );
+		final int rq = find( parent, q );
+		if ( rp < rq )
+			parent[ rq ] = rp;
+		else if ( rq < rp )
+			parent[ rp ] = rq;
+	}
+
+	/**
+	 * Runs a task for indices 0 to <code>nTasks</code> excluded in the
+	 * specified executor, and waits for them to complete. The tasks are run in
+	 * the calling thread if there is only one, or if the executor is
+	 * <code>null</code>.
+	 */
+	static void parallel( final int nTasks, final ExecutorService executor, final IntConsumer task )
+	{
+		if ( nTasks <= 1 || null == executor )
+		{
+			for ( int t = 0; t < nTasks; t++ )
+				task.accept( t );
+			return;
+		}
+
+		final List< Future< ? > > futures = new ArrayList<>( nTasks );
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final int index = t;
+			futures.add( executor.submit( () -> task.accept( index ) ) );
+		}
+		try
+		{
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Runs a computation with an executor of the specified number of threads,
+	 * created for this computation only and shut down after it. The executor
+	 * is <code>null</code> if a single thread is requested.
+	 */
+	static < S > S withExecutor( final int numThreads, final Function< ExecutorService, S > computation )
+	{
+		final ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool( numThreads ) : null;
+		try
+		{
+			return computation.apply( executor );
+		}
+		finally
+		{
+			if ( null != executor )
+				executor.shutdown();
+		}
+	}
+}
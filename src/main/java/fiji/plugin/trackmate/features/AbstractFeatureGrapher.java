@@ -26,6 +26,7 @@ import static fiji.plugin.trackmate.gui.Fonts.SMALL_FONT;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -48,6 +49,7 @@ import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.ui.RectangleInsets;
 
 import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.gui.displaysettings.Colormap;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
 
@@ -70,6 +72,17 @@ public abstract class AbstractFeatureGrapher
 
 	private final String timeUnits;
 
+	/**
+	 * Above this number of items, features are plotted as a density map
+	 * rather than one shape per item.
+	 */
+	public static final int DEFAULT_DENSITY_THRESHOLD = 50_000;
+
+	/** Number of bins along X and Y in density maps. */
+	private static final int N_DENSITY_BINS = 200;
+
+	private int densityThreshold = DEFAULT_DENSITY_THRESHOLD;
+
 	public AbstractFeatureGrapher(
 			final String xFeature,
 			final List< String > yFeatures,
@@ -88,6 +101,29 @@ public abstract class AbstractFeatureGrapher
 		this.timeUnits = timeUnits;
 	}
 
+	/**
+	 * Sets the number of items above which features are plotted as density
+	 * maps.
+	 *
+	 * @param densityThreshold
+	 *            the threshold.
+	 */
+	public void setDensityThreshold( final int densityThreshold )
+	{
+		this.densityThreshold = densityThreshold;
+	}
+
+	/**
+	 * Returns <code>true</code> if the features will be plotted as density
+	 * maps, because there are too many items to plot them one by one.
+	 *
+	 * @return whether the density mode is used.
+	 */
+	public boolean isDensityMode()
+	{
+		return getItemCount() > densityThreshold;
+	}
+
 	/**
 	 * Draws and renders the graph in a new JFrame.
 	 * 
@@ -95,6 +131,9 @@ public abstract class AbstractFeatureGrapher
 	 */
 	public JFrame render()
 	{
+		if ( isDensityMode() )
+			return renderDensity();
+
 		// X label
 		final String xAxisLabel = featureNames.get( xFeature ) + " (" + TMUtils.getUnitsFor( xDimension, spaceUnits, timeUnits ) + ")";
 
@@ -127,36 +166,107 @@ public abstract class AbstractFeatureGrapher
 			chart.setBorderVisible( false );
 			chart.getLegend().setBackgroundPaint( bgColor );
 
-			// The plot
-			final XYPlot plot = chart.getXYPlot();
-			plot.setRenderer( renderer );
-			plot.getRangeAxis().setLabelFont( FONT );
-			plot.getRangeAxis().setTickLabelFont( SMALL_FONT );
-			plot.getDomainAxis().setLabelFont( FONT );
-			plot.getDomainAxis().setTickLabelFont( SMALL_FONT );
-			plot.setOutlineVisible( false );
-			plot.setDomainCrosshairVisible( false );
-			plot.setDomainGridlinesVisible( false );
-			plot.setRangeCrosshairVisible( false );
-			plot.setRangeGridlinesVisible( false );
-			plot.setBackgroundAlpha( 0f );
-
-			// Plot range.
-			( ( NumberAxis ) plot.getRangeAxis() ).setAutoRangeIncludesZero( false );
-
-			// Ticks. Fewer of them.
-			plot.getRangeAxis().setTickLabelInsets( new RectangleInsets( 20, 10, 20, 10 ) );
-			plot.getDomainAxis().setTickLabelInsets( new RectangleInsets( 10, 20, 10, 20 ) );
-
-			// The panel
-			final ExportableChartPanel chartPanel = new ExportableChartPanel( chart );
-			chartPanel.setPreferredSize( new java.awt.Dimension( 500, 270 ) );
-			chartPanels.add( chartPanel );
+			chart.getXYPlot().setRenderer( renderer );
+			chartPanels.add( configure( chart ) );
 		}
 
 		return renderCharts( chartPanels );
 	}
 
+	/**
+	 * Configures the plot of the specified chart and wraps it in a panel.
+	 *
+	 * @return a new panel.
+	 */
+	private static final ExportableChartPanel configure( final JFreeChart chart )
+	{
+		// The plot
+		final XYPlot plot = chart.getXYPlot();
+		plot.getRangeAxis().setLabelFont( FONT );
+		plot.getRangeAxis().setTickLabelFont( SMALL_FONT );
+		plot.getDomainAxis().setLabelFont( FONT );
+		plot.getDomainAxis().setTickLabelFont( SMALL_FONT );
+		plot.setOutlineVisible( false );
+		plot.setDomainCrosshairVisible( false );
+		plot.setDomainGridlinesVisible( false );
+		plot.setRangeCrosshairVisible( false );
+		plot.setRangeGridlinesVisible( false );
+		plot.setBackgroundAlpha( 0f );
+
+		// Plot range.
+		( ( NumberAxis ) plot.getRangeAxis() ).setAutoRangeIncludesZero( false );
+
+		// Ticks. Fewer of them.
+		plot.getRangeAxis().setTickLabelInsets( new RectangleInsets( 20, 10, 20, 10 ) );
+		plot.getDomainAxis().setTickLabelInsets( new RectangleInsets( 10, 20, 10, 20 ) );
+
+		// The panel
+		final ExportableChartPanel chartPanel = new ExportableChartPanel( chart );
+		chartPanel.setPreferredSize( new java.awt.Dimension( 500, 270 ) );
+		return chartPanel;
+	}
+
+	/**
+	 * Draws each Y feature against the X feature as a density map, with one
+	 * chart per Y feature.
+	 *
+	 * @return a new JFrame, not shown yet.
+	 */
+	private JFrame renderDensity()
+	{
+		final String xAxisLabel = featureNames.get( xFeature ) + " (" + TMUtils.getUnitsFor( xDimension, spaceUnits, timeUnits ) + ")";
+
+		// Read all feature values at once.
+		final ModelDataset dataset = buildMainDataSet( yFeatures );
+		final double[][] columns = dataset.getColumns();
+
+		final ArrayList< ExportableChartPanel > chartPanels = new ArrayList<>( yFeatures.size() );
+		for ( int i = 0; i < yFeatures.size(); i++ )
+		{
+			final String yFeature = yFeatures.get( i );
+			final String yAxisLabel = featureNames.get( yFeature ) + " (" + TMUtils.getUnitsFor( yDimensions.get( yFeature ), spaceUnits, timeUnits ) + ")";
+			final String title = buildPlotTitle( Collections.singletonList( yFeature ), featureNames );
+
+			final DensityDataset density = new DensityDataset( dataset.getSeriesKey( i ).toString(), columns[ 0 ], columns[ 1 + i ], N_DENSITY_BINS, N_DENSITY_BINS );
+			final NumberAxis xAxis = new NumberAxis( xAxisLabel );
+			final NumberAxis yAxis = new NumberAxis( yAxisLabel );
+			xAxis.setAutoRangeIncludesZero( false );
+			yAxis.setAutoRangeIncludesZero( false );
+			final XYPlot plot = new XYPlot( density, xAxis, yAxis, density.createRenderer( getColormap() ) );
+			density.listenTo( xAxis, yAxis );
+
+			final JFreeChart chart = new JFreeChart( title, plot );
+			chart.getTitle().setFont( FONT );
+			chart.removeLegend();
+			chart.setBackgroundPaint( bgColor );
+			chart.setBorderVisible( false );
+			chartPanels.add( configure( chart ) );
+		}
+		return renderCharts( chartPanels );
+	}
+
+	/**
+	 * Returns the colormap to use for density maps.
+	 *
+	 * @return the colormap.
+	 */
+	protected Colormap getColormap()
+	{
+		return Colormap.Viridis;
+	}
+
+	/**
+	 * Returns the number of items to plot, used to decide whether to plot a
+	 * density map. Returns 0 by default, so that subclasses that do not
+	 * override this method always plot individual items.
+	 *
+	 * @return the number of items.
+	 */
+	protected int getItemCount()
+	{
+		return 0;
+	}
+
 	protected abstract ModelDataset buildMainDataSet( final List< String > targetYFeatures );
 
 	/*
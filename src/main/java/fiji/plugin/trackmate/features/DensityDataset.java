@@ -0,0 +1,398 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import java.awt.Paint;
+import java.util.stream.IntStream;
+
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
+import org.jfree.chart.renderer.PaintScale;
+import org.jfree.chart.renderer.xy.XYBlockRenderer;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYZDataset;
+
+import fiji.plugin.trackmate.gui.displaysettings.Colormap;
+
+/**
+ * A 2D histogram of two feature columns, to plot a large number of points as
+ * a density map with a {@link XYBlockRenderer}.
+ * <p>
+ * Only the non-empty bins are exposed as items, with the bin center as X and
+ * Y, and the number of points in the bin as Z. The histogram is computed in
+ * parallel over the current axis ranges, and is recomputed when they change,
+ * so that the resolution follows the zoom level. The bounds reported to the
+ * plot are always those of the whole data.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class DensityDataset extends AbstractXYZDataset implements DomainInfo, RangeInfo, AxisChangeListener
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/** Number of points binned per parallel task. */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final String seriesKey;
+
+	private final double[] xs;
+
+	private final double[] ys;
+
+	private final int nBinsX;
+
+	private final int nBinsY;
+
+	private final Range domainBounds;
+
+	private final Range rangeBounds;
+
+	private XYBlockRenderer renderer;
+
+	private ValueAxis domainAxis;
+
+	private ValueAxis rangeAxis;
+
+	/** The ranges over which the current histogram was computed. */
+	private Range binnedX;
+
+	private Range binnedY;
+
+	private double[] binX = new double[ 0 ];
+
+	private double[] binY = new double[ 0 ];
+
+	private double[] binCount = new double[ 0 ];
+
+	private double maxCount = 1.;
+
+	/**
+	 * Creates a density dataset over the specified columns. Points with a NaN
+	 * coordinate are ignored.
+	 *
+	 * @param seriesKey
+	 *            the name of the series.
+	 * @param xs
+	 *            the X values of the points.
+	 * @param ys
+	 *            the Y values of the points, same length than the X values.
+	 * @param nBinsX
+	 *            the number of bins along X over the displayed range.
+	 * @param nBinsY
+	 *            the number of bins along Y over the displayed range.
+	 */
+	public DensityDataset( final String seriesKey, final double[] xs, final double[] ys, final int nBinsX, final int nBinsY )
+	{
+		this.seriesKey = seriesKey;
+		this.xs = xs;
+		this.ys = ys;
+		this.nBinsX = nBinsX;
+		this.nBinsY = nBinsY;
+
+		double xmin = Double.POSITIVE_INFINITY;
+		double xmax = Double.NEGATIVE_INFINITY;
+		double ymin = Double.POSITIVE_INFINITY;
+		double ymax = Double.NEGATIVE_INFINITY;
+		for ( int i = 0; i < xs.length; i++ )
+		{
+			final double x = xs[ i ];
+			final double y = ys[ i ];
+			if ( Double.isNaN( x ) || Double.isNaN( y ) )
+				continue;
+			if ( x < xmin )
+				xmin = x;
+			if ( x > xmax )
+				xmax = x;
+			if ( y < ymin )
+				ymin = y;
+			if ( y > ymax )
+				ymax = y;
+		}
+		this.domainBounds = ( xmin > xmax ) ? new Range( 0., 1. ) : expand( xmin, xmax );
+		this.rangeBounds = ( ymin > ymax ) ? new Range( 0., 1. ) : expand( ymin, ymax );
+		rebin( domainBounds, rangeBounds );
+	}
+
+	/**
+	 * Returns a new renderer for this dataset, that paints bins with the
+	 * specified colormap on a log scale of the counts.
+	 *
+	 * @param colormap
+	 *            the colormap to use.
+	 * @return a new renderer.
+	 */
+	public XYBlockRenderer createRenderer( final Colormap colormap )
+	{
+		final XYBlockRenderer r = new XYBlockRenderer();
+		r.setPaintScale( new LogPaintScale( colormap ) );
+		r.setBlockWidth( binWidth( binnedX, nBinsX ) );
+		r.setBlockHeight( binWidth( binnedY, nBinsY ) );
+		this.renderer = r;
+		return r;
+	}
+
+	/**
+	 * Makes this dataset follow the ranges of the specified axes.
+	 *
+	 * @param domainAxis
+	 *            the X axis.
+	 * @param rangeAxis
+	 *            the Y axis.
+	 */
+	public void listenTo( final ValueAxis domainAxis, final ValueAxis rangeAxis )
+	{
+		this.domainAxis = domainAxis;
+		this.rangeAxis = rangeAxis;
+		domainAxis.addChangeListener( this );
+		rangeAxis.addChangeListener( this );
+	}
+
+	@Override
+	public void axisChanged( final AxisChangeEvent event )
+	{
+		if ( null == domainAxis || null == rangeAxis )
+			return;
+
+		final Range xr = domainAxis.getRange();
+		final Range yr = rangeAxis.getRange();
+		if ( xr.equals( binnedX ) && yr.equals( binnedY ) )
+			return;
+
+		rebin( xr, yr );
+		if ( null != renderer )
+		{
+			renderer.setBlockWidth( binWidth( binnedX, nBinsX ) );
+			renderer.setBlockHeight( binWidth( binnedY, nBinsY ) );
+		}
+		fireDatasetChanged();
+	}
+
+	/**
+	 * Recomputes the histogram over the specified ranges.
+	 */
+	private void rebin( final Range xr, final Range yr )
+	{
+		final double x0 = xr.getLowerBound();
+		final double y0 = yr.getLowerBound();
+		final double sx = nBinsX / xr.getLength();
+		final double sy = nBinsY / yr.getLength();
+		final int nBins = nBinsX * nBinsY;
+
+		final int n = xs.length;
+		final int nChunks = Math.max( 1, ( n + CHUNK_SIZE - 1 ) / CHUNK_SIZE );
+		final int[] counts = IntStream.range( 0, nChunks ).parallel().mapToObj( c -> {
+			final int[] local = new int[ nBins ];
+			final int end = Math.min( n, ( c + 1 ) * CHUNK_SIZE );
+			for ( int i = c * CHUNK_SIZE; i < end; i++ )
+			{
+				// NaNs fail both tests.
+				final double bx = ( xs[ i ] - x0 ) * sx;
+				final double by = ( ys[ i ] - y0 ) * sy;
+				if ( !( bx >= 0. && bx <= nBinsX ) || !( by >= 0. && by <= nBinsY ) )
+					continue;
+				final int ix = Math.min( nBinsX - 1, ( int ) bx );
+				final int iy = Math.min( nBinsY - 1, ( int ) by );
+				local[ ix + iy * nBinsX ]++;
+			}
+			return local;
+		} ).reduce( ( a, b ) -> {
+			for ( int k = 0; k < a.length; k++ )
+				a[ k ] += b[ k ];
+			return a;
+		} ).orElse( new int[ nBins ] );
+
+		int nonEmpty = 0;
+		int max = 1;
+		for ( final int count : counts )
+		{
+			if ( count > 0 )
+				nonEmpty++;
+			if ( count > max )
+				max = count;
+		}
+
+		final double[] lBinX = new double[ nonEmpty ];
+		final double[] lBinY = new double[ nonEmpty ];
+		final double[] lBinCount = new double[ nonEmpty ];
+		int item = 0;
+		for ( int k = 0; k < nBins; k++ )
+		{
+			if ( counts[ k ] == 0 )
+				continue;
+			lBinX[ item ] = x0 + ( k % nBinsX + 0.5 ) / sx;
+			lBinY[ item ] = y0 + ( k / nBinsX + 0.5 ) / sy;
+			lBinCount[ item ] = counts[ k ];
+			item++;
+		}
+		this.binX = lBinX;
+		this.binY = lBinY;
+		this.binCount = lBinCount;
+		this.maxCount = max;
+		this.binnedX = xr;
+		this.binnedY = yr;
+	}
+
+	private static final double binWidth( final Range range, final int nBins )
+	{
+		return range.getLength() / nBins;
+	}
+
+	/**
+	 * Returns a non-empty range around the specified bounds.
+	 */
+	private static final Range expand( final double min, final double max )
+	{
+		if ( max > min )
+			return new Range( min, max );
+		final double pad = ( min == 0. ) ? 1. : Math.abs( min ) * 0.5;
+		return new Range( min - pad, max + pad );
+	}
+
+	@Override
+	public int getSeriesCount()
+	{
+		return 1;
+	}
+
+	@SuppressWarnings( "rawtypes" )
+	@Override
+	public Comparable getSeriesKey( final int series )
+	{
+		return seriesKey;
+	}
+
+	@Override
+	public int getItemCount( final int series )
+	{
+		return binCount.length;
+	}
+
+	@Override
+	public Number getX( final int series, final int item )
+	{
+		return Double.valueOf( binX[ item ] );
+	}
+
+	@Override
+	public double getXValue( final int series, final int item )
+	{
+		return binX[ item ];
+	}
+
+	@Override
+	public Number getY( final int series, final int item )
+	{
+		return Double.valueOf( binY[ item ] );
+	}
+
+	@Override
+	public double getYValue( final int series, final int item )
+	{
+		return binY[ item ];
+	}
+
+	@Override
+	public Number getZ( final int series, final int item )
+	{
+		return Double.valueOf( binCount[ item ] );
+	}
+
+	@Override
+	public double getZValue( final int series, final int item )
+	{
+		return binCount[ item ];
+	}
+
+	@Override
+	public double getDomainLowerBound( final boolean includeInterval )
+	{
+		return domainBounds.getLowerBound();
+	}
+
+	@Override
+	public double getDomainUpperBound( final boolean includeInterval )
+	{
+		return domainBounds.getUpperBound();
+	}
+
+	@Override
+	public Range getDomainBounds( final boolean includeInterval )
+	{
+		return domainBounds;
+	}
+
+	@Override
+	public double getRangeLowerBound( final boolean includeInterval )
+	{
+		return rangeBounds.getLowerBound();
+	}
+
+	@Override
+	public double getRangeUpperBound( final boolean includeInterval )
+	{
+		return rangeBounds.getUpperBound();
+	}
+
+	@Override
+	public Range getRangeBounds( final boolean includeInterval )
+	{
+		return rangeBounds;
+	}
+
+	/**
+	 * Maps bin counts to colors on a log scale, up to the largest count of
+	 * the current histogram.
+	 */
+	private final class LogPaintScale implements PaintScale
+	{
+
+		private final Colormap colormap;
+
+		private LogPaintScale( final Colormap colormap )
+		{
+			this.colormap = colormap;
+		}
+
+		@Override
+		public double getLowerBound()
+		{
+			return 0.;
+		}
+
+		@Override
+		public double getUpperBound()
+		{
+			return maxCount;
+		}
+
+		@Override
+		public Paint getPaint( final double value )
+		{
+			final double alpha = maxCount <= 1. ? 1. : Math.log( value ) / Math.log( maxCount );
+			return colormap.getPaint( colormap.getLowerBound() + alpha * ( colormap.getUpperBound() - colormap.getLowerBound() ) );
+		}
+	}
+}
@@ -27,6 +27,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.gui.displaysettings.Colormap;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 
 public class EdgeFeatureGrapher extends AbstractFeatureGrapher
@@ -76,6 +77,18 @@ public class EdgeFeatureGrapher extends AbstractFeatureGrapher
 				xFeature,
 				targetYFeatures,
 				edges,
-				addLines );
+				addLines && !isDensityMode() );
+	}
+
+	@Override
+	protected int getItemCount()
+	{
+		return edges.size();
+	}
+
+	@Override
+	protected Colormap getColormap()
+	{
+		return ds.getColormap();
 	}
 }
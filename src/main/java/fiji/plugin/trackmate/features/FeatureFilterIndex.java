@@ -0,0 +1,443 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * An index that makes repeated filtering of a fixed set of objects with
+ * {@link FeatureFilter}s incremental.
+ * <p>
+ * For each feature used in a filter, the feature values of all the objects are
+ * read once and stored sorted in primitive arrays. Each object is given an
+ * ordinal, and the index keeps track of how many of the current filters reject
+ * each object. The visibility of the objects is stored in a {@link BitSet}.
+ * When the threshold of a filter is moved from <code>a</code> to
+ * <code>b</code>, only the objects whose feature value lies between
+ * <code>a</code> and <code>b</code> are examined, which is what makes this
+ * class suitable to follow the sliders of the filter GUI.
+ * <p>
+ * The feature values are read when a feature is first used in a filter, and
+ * are not monitored afterwards. The index must therefore be discarded when the
+ * objects it was built on change, or when their feature values are
+ * recomputed.
+ *
+ * @param <O>
+ *            the type of objects to filter.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class FeatureFilterIndex< O >
+{
+
+	private final List< O > objects;
+
+	private final BiFunction< O, String, Double > featureGetter;
+
+	private final boolean rejectMissing;
+
+	/** The sorted feature values, per feature. Built lazily. */
+	private final Map< String, Column > columns = new HashMap<>();
+
+	/** For each object, the number of current filters that reject it. */
+	private final int[] nRejections;
+
+	/** The visibility of each object, indexed by ordinal. */
+	private final BitSet visibility;
+
+	/** The filters currently applied. */
+	private final List< FeatureFilter > applied = new ArrayList<>();
+
+	/**
+	 * Creates a new index over the specified objects. Initially, no filter is
+	 * applied and all the objects are visible.
+	 *
+	 * @param objects
+	 *            the objects to index. Their order defines their ordinal in
+	 *            this index.
+	 * @param featureGetter
+	 *            a function that returns the value of a feature for an object,
+	 *            or <code>null</code> if the object has no value for this
+	 *            feature.
+	 * @param rejectMissing
+	 *            if <code>true</code>, an object that has no value for the
+	 *            feature of a filter is rejected by this filter. If
+	 *            <code>false</code>, it passes the filter.
+	 */
+	public FeatureFilterIndex( final Collection< O > objects, final BiFunction< O, String, Double > featureGetter, final boolean rejectMissing )
+	{
+		this.objects = new ArrayList<>( objects );
+		this.featureGetter = featureGetter;
+		this.rejectMissing = rejectMissing;
+		final int n = this.objects.size();
+		this.nRejections = new int[ n ];
+		this.visibility = new BitSet( n );
+		visibility.set( 0, n );
+	}
+
+	/**
+	 * Applies the specified filters to the indexed objects, replacing the
+	 * filters previously applied. An object is visible if it passes
+	 * <b>all</b> the filters (AND chaining).
+	 * <p>
+	 * Filters are compared with the previous ones by their position in the
+	 * collection. When a filter has the same feature and direction as the
+	 * previous one at the same position, only the objects that lie between the
+	 * old and new threshold are updated.
+	 *
+	 * @param filters
+	 *            the filters to apply. Can be <code>null</code> or empty, in
+	 *            which case all the objects are made visible.
+	 * @return the ordinals of the objects whose visibility changed since the
+	 *         previous call.
+	 */
+	public synchronized BitSet filter( final Collection< FeatureFilter > filters )
+	{
+		final List< FeatureFilter > target = ( null == filters )
+				? Collections.emptyList()
+				: new ArrayList<>( filters );
+		final BitSet changed = new BitSet( objects.size() );
+
+		final int nCommon = Math.min( applied.size(), target.size() );
+		for ( int i = 0; i < nCommon; i++ )
+		{
+			final FeatureFilter oldFilter = applied.get( i );
+			final FeatureFilter newFilter = target.get( i );
+			if ( oldFilter.feature.equals( newFilter.feature ) && oldFilter.isAbove == newFilter.isAbove )
+			{
+				moveThreshold( oldFilter, newFilter, changed );
+			}
+			else
+			{
+				apply( oldFilter, -1, changed );
+				apply( newFilter, 1, changed );
+			}
+		}
+		for ( int i = nCommon; i < applied.size(); i++ )
+			apply( applied.get( i ), -1, changed );
+		for ( int i = nCommon; i < target.size(); i++ )
+			apply( target.get( i ), 1, changed );
+
+		applied.clear();
+		applied.addAll( target );
+		return changed;
+	}
+
+	/**
+	 * Returns the object with the specified ordinal.
+	 *
+	 * @param ordinal
+	 *            the ordinal.
+	 * @return the object.
+	 */
+	public O get( final int ordinal )
+	{
+		return objects.get( ordinal );
+	}
+
+	/**
+	 * Returns the number of objects in this index.
+	 *
+	 * @return the number of objects.
+	 */
+	public int size()
+	{
+		return objects.size();
+	}
+
+	/**
+	 * Returns whether the object with the specified ordinal passes the filters
+	 * currently applied.
+	 *
+	 * @param ordinal
+	 *            the ordinal.
+	 * @return <code>true</code> if the object is visible.
+	 */
+	public synchronized boolean isVisible( final int ordinal )
+	{
+		return visibility.get( ordinal );
+	}
+
+	/**
+	 * Returns a copy of the visibility of the indexed objects, indexed by
+	 * ordinal.
+	 *
+	 * @return a new {@link BitSet}.
+	 */
+	public synchronized BitSet getVisibility()
+	{
+		return ( BitSet ) visibility.clone();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Adds (<code>delta = 1</code>) or removes (<code>delta = -1</code>) the
+	 * specified filter.
+	 */
+	private void apply( final FeatureFilter filter, final int delta, final BitSet changed )
+	{
+		final Column column = getColumn( filter.feature );
+		if ( filter.isAbove )
+			update( column, 0, column.lowerBound( filter.value ), delta, changed );
+		else
+			update( column, column.upperBound( filter.value ), column.values.length, delta, changed );
+
+		if ( rejectMissing )
+			for ( final int ordinal : column.missing )
+				update( ordinal, delta, changed );
+	}
+
+	/**
+	 * Moves the threshold of a filter, touching only the objects between the
+	 * old and new threshold values.
+	 */
+	private void moveThreshold( final FeatureFilter oldFilter, final FeatureFilter newFilter, final BitSet changed )
+	{
+		final Column column = getColumn( newFilter.feature );
+		if ( newFilter.isAbove )
+		{
+			// Rejected: [0, lowerBound( value ) ).
+			final int oldBound = column.lowerBound( oldFilter.value );
+			final int newBound = column.lowerBound( newFilter.value );
+			if ( newBound > oldBound )
+				update( column, oldBound, newBound, 1, changed );
+			else
+				update( column, newBound, oldBound, -1, changed );
+		}
+		else
+		{
+			// Rejected: [upperBound( value ), n ).
+			final int oldBound = column.upperBound( oldFilter.value );
+			final int newBound = column.upperBound( newFilter.value );
+			if ( newBound < oldBound )
+				update( column, newBound, oldBound, 1, changed );
+			else
+				update( column, oldBound, newBound, -1, changed );
+		}
+	}
+
+	private void update( final Column column, final int from, final int to, final int delta, final BitSet changed )
+	{
+		for ( int i = from; i < to; i++ )
+			update( column.order[ i ], delta, changed );
+	}
+
+	private void update( final int ordinal, final int delta, final BitSet changed )
+	{
+		final int before = nRejections[ ordinal ];
+		final int after = before + delta;
+		nRejections[ ordinal ] = after;
+		if ( ( before == 0 ) != ( after == 0 ) )
+		{
+			visibility.set( ordinal, after == 0 );
+			changed.flip( ordinal );
+		}
+	}
+
+	private Column getColumn( final String feature )
+	{
+		Column column = columns.get( feature );
+		if ( null == column )
+		{
+			column = buildColumn( feature );
+			columns.put( feature, column );
+		}
+		return column;
+	}
+
+	private Column buildColumn( final String feature )
+	{
+		final int n = objects.size();
+		double[] values = new double[ n ];
+		int[] order = new int[ n ];
+		final int[] missing = new int[ n ];
+		int nValues = 0;
+		int nMissing = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			final Double val = featureGetter.apply( objects.get( i ), feature );
+			if ( null == val )
+			{
+				missing[ nMissing++ ] = i;
+				continue;
+			}
+			values[ nValues ] = val.doubleValue();
+			order[ nValues ] = i;
+			nValues++;
+		}
+		if ( nValues < n )
+		{
+			final double[] tmpValues = new double[ nValues ];
+			System.arraycopy( values, 0, tmpValues, 0, nValues );
+			values = tmpValues;
+			final int[] tmpOrder = new int[ nValues ];
+			System.arraycopy( order, 0, tmpOrder, 0, nValues );
+			order = tmpOrder;
+		}
+		sort( values, order, 0, nValues - 1 );
+
+		final int[] missingOrdinals = new int[ nMissing ];
+		System.arraycopy( missing, 0, missingOrdinals, 0, nMissing );
+		return new Column( values, order, missingOrdinals );
+	}
+
+	/**
+	 * Sorts the values and their ordinals, in place, between the indices
+	 * <code>lo</code> and <code>hi</code> inclusive. Uses a 3-way quicksort to
+	 * deal efficiently with the many equal values found in integer features.
+	 * We recurse on the smaller partition to bound the stack depth.
+	 */
+	private static void sort( final double[] values, final int[] order, int lo, int hi )
+	{
+		while ( hi - lo > 16 )
+		{
+			final double pivot = median( values[ lo ], values[ ( lo + hi ) >>> 1 ], values[ hi ] );
+			int lt = lo;
+			int gt = hi;
+			int i = lo;
+			while ( i <= gt )
+			{
+				final int c = Double.compare( values[ i ], pivot );
+				if ( c < 0 )
+					swap( values, order, lt++, i++ );
+				else if ( c > 0 )
+					swap( values, order, i, gt-- );
+				else
+					i++;
+			}
+			if ( lt - lo < hi - gt )
+			{
+				sort( values, order, lo, lt - 1 );
+				lo = gt + 1;
+			}
+			else
+			{
+				sort( values, order, gt + 1, hi );
+				hi = lt - 1;
+			}
+		}
+
+		// Insertion sort for small ranges.
+		for ( int i = lo + 1; i <= hi; i++ )
+		{
+			final double v = values[ i ];
+			final int o = order[ i ];
+			int j = i - 1;
+			while ( j >= lo && Double.compare( values[ j ], v ) > 0 )
+			{
+				values[ j + 1 ] = values[ j ];
+				order[ j + 1 ] = order[ j ];
+				j--;
+			}
+			values[ j + 1 ] = v;
+			order[ j + 1 ] = o;
+		}
+	}
+
+	private static double median( final double a, final double b, final double c )
+	{
+		if ( Double.compare( a, b ) > 0 )
+			return median( b, a, c );
+		if ( Double.compare( b, c ) <= 0 )
+			return b;
+		return Double.compare( a, c ) > 0 ? a : c;
+	}
+
+	private static void swap( final double[] values, final int[] order, final int i, final int j )
+	{
+		final double tv = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = tv;
+		final int to = order[ i ];
+		order[ i ] = order[ j ];
+		order[ j ] = to;
+	}
+
+	/**
+	 * The values of one feature, sorted, with the ordinal of the object they
+	 * come from, and the ordinals of the objects that have no value.
+	 */
+	private static final class Column
+	{
+
+		private final double[] values;
+
+		private final int[] order;
+
+		private final int[] missing;
+
+		private Column( final double[] values, final int[] order, final int[] missing )
+		{
+			this.values = values;
+			this.order = order;
+			this.missing = missing;
+		}
+
+		/**
+		 * Index of the first value that is not strictly lower than the
+		 * specified value.
+		 */
+		private int lowerBound( final double value )
+		{
+			int lo = 0;
+			int hi = values.length;
+			while ( lo < hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				if ( Double.compare( values[ mid ], value ) < 0 )
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		/**
+		 * Index of the first value that is strictly larger than the specified
+		 * value.
+		 */
+		private int upperBound( final double value )
+		{
+			int lo = 0;
+			int hi = values.length;
+			while ( lo < hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				if ( Double.compare( values[ mid ], value ) <= 0 )
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+	}
+}
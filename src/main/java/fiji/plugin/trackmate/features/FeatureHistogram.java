@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * An immutable summary of the values of a feature, used to plot histograms
+ * and to set thresholds on this feature.
+ * <p>
+ * The values are stored sorted, so that the number of values above or below
+ * a threshold can be obtained without iterating over them, and the bin
+ * number and auto-threshold are computed once at creation.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class FeatureHistogram
+{
+
+	/** The smallest number of bins used to plot a histogram. */
+	public static final int MIN_N_BINS = 8;
+
+	/** The largest number of bins used to plot a histogram. */
+	public static final int MAX_N_BINS = 100;
+
+	private static final FeatureHistogram EMPTY = new FeatureHistogram( new double[ 0 ] );
+
+	private final double[] sorted;
+
+	private final int nBins;
+
+	private final double otsuThreshold;
+
+	private FeatureHistogram( final double[] sorted )
+	{
+		this.sorted = sorted;
+		if ( sorted.length == 0 )
+		{
+			this.nBins = 0;
+			this.otsuThreshold = Double.NaN;
+		}
+		else
+		{
+			this.nBins = TMUtils.getNBins( sorted, MIN_N_BINS, MAX_N_BINS );
+			this.otsuThreshold = TMUtils.otsuThreshold( sorted );
+		}
+	}
+
+	/**
+	 * Creates the histogram of the specified values. The array is not
+	 * modified. NaN values are ignored.
+	 *
+	 * @param values
+	 *            the feature values.
+	 * @return a new histogram.
+	 */
+	public static FeatureHistogram of( final double[] values )
+	{
+		if ( null == values || values.length == 0 )
+			return EMPTY;
+		final double[] sorted = Arrays.stream( values ).filter( v -> !Double.isNaN( v ) ).toArray();
+		Arrays.parallelSort( sorted );
+		return new FeatureHistogram( sorted );
+	}
+
+	/**
+	 * Returns a new histogram, with the specified values added to and removed
+	 * from the values of this one. This costs a single pass over the values,
+	 * instead of sorting them again.
+	 *
+	 * @param added
+	 *            the values to add. NaN values are ignored.
+	 * @param removed
+	 *            the values to remove, one occurrence each. NaN values are
+	 *            ignored.
+	 * @return a new histogram, or <code>null</code> if one of the values to
+	 *         remove is not in this histogram.
+	 */
+	public FeatureHistogram update( final double[] added, final double[] removed )
+	{
+		final double[] a = Arrays.stream( added ).filter( v -> !Double.isNaN( v ) ).sorted().toArray();
+		final double[] r = Arrays.stream( removed ).filter( v -> !Double.isNaN( v ) ).sorted().toArray();
+		if ( r.length > sorted.length )
+			return null;
+
+		final double[] out = new double[ sorted.length - r.length + a.length ];
+		int i = 0;
+		int ir = 0;
+		int ia = 0;
+		int o = 0;
+		while ( i < sorted.length )
+		{
+			final double v = sorted[ i ];
+			if ( ir < r.length && r[ ir ] < v )
+				return null;
+			if ( ir < r.length && r[ ir ] == v )
+			{
+				// Drop one occurrence.
+				ir++;
+				i++;
+				continue;
+			}
+			if ( o == out.length )
+				// Some values to remove are larger than all of ours.
+				return null;
+			if ( ia < a.length && a[ ia ] < v )
+				out[ o++ ] = a[ ia++ ];
+			else
+			{
+				out[ o++ ] = v;
+				i++;
+			}
+		}
+		if ( ir < r.length )
+			return null;
+		while ( ia < a.length )
+			out[ o++ ] = a[ ia++ ];
+
+		return ( out.length == 0 ) ? EMPTY : new FeatureHistogram( out );
+	}
+
+	/**
+	 * Returns the number of values in this histogram.
+	 *
+	 * @return the number of values.
+	 */
+	public int size()
+	{
+		return sorted.length;
+	}
+
+	/**
+	 * Returns the smallest value, or NaN if this histogram is empty.
+	 *
+	 * @return the min value.
+	 */
+	public double getMin()
+	{
+		return sorted.length == 0 ? Double.NaN : sorted[ 0 ];
+	}
+
+	/**
+	 * Returns the largest value, or NaN if this histogram is empty.
+	 *
+	 * @return the max value.
+	 */
+	public double getMax()
+	{
+		return sorted.length == 0 ? Double.NaN : sorted[ sorted.length - 1 ];
+	}
+
+	/**
+	 * Returns the number of bins to use to plot this histogram, determined with
+	 * the Freedman and Diaconis rule.
+	 *
+	 * @return the number of bins, 0 if this histogram is empty.
+	 */
+	public int getNBins()
+	{
+		return nBins;
+	}
+
+	/**
+	 * Returns the threshold that splits the values in two classes, with the
+	 * Otsu method.
+	 *
+	 * @return the threshold, NaN if this histogram is empty.
+	 */
+	public double getOtsuThreshold()
+	{
+		return otsuThreshold;
+	}
+
+	/**
+	 * Returns the sorted values of this histogram. The array is not copied and
+	 * must not be modified.
+	 *
+	 * @return the sorted values.
+	 */
+	public double[] getSortedValues()
+	{
+		return sorted;
+	}
+
+	/**
+	 * Returns the number of values in each of the specified number of bins,
+	 * spanning the min to the max values.
+	 *
+	 * @param nBins
+	 *            the number of bins.
+	 * @return a new array of counts.
+	 */
+	public int[] getBinCounts( final int nBins )
+	{
+		final int[] counts = new int[ nBins ];
+		if ( sorted.length == 0 || nBins == 0 )
+			return counts;
+
+		final double min = getMin();
+		final double width = ( getMax() - min ) / nBins;
+		int start = 0;
+		for ( int b = 0; b < nBins - 1; b++ )
+		{
+			final int end = countBelow( min + ( b + 1 ) * width );
+			counts[ b ] = end - start;
+			start = end;
+		}
+		counts[ nBins - 1 ] = sorted.length - start;
+		return counts;
+	}
+
+	/**
+	 * Returns the number of values strictly above the specified threshold.
+	 *
+	 * @param threshold
+	 *            the threshold.
+	 * @return the number of values.
+	 */
+	public int countAbove( final double threshold )
+	{
+		// First index with a value > threshold.
+		int lo = 0;
+		int hi = sorted.length;
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( sorted[ mid ] <= threshold )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return sorted.length - lo;
+	}
+
+	/**
+	 * Returns the number of values strictly below the specified threshold.
+	 *
+	 * @param threshold
+	 *            the threshold.
+	 * @return the number of values.
+	 */
+	public int countBelow( final double threshold )
+	{
+		// First index with a value >= threshold.
+		int lo = 0;
+		int hi = sorted.length;
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( sorted[ mid ] < threshold )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,319 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
+
+/**
+ * Caches the {@link FeatureHistogram} of features, so that the values of a
+ * feature are collected and sorted once, and not every time a histogram is
+ * displayed or a threshold is moved.
+ * <p>
+ * Histograms are computed in the background, on the common fork-join pool.
+ * {@link #get(String)} waits for them, and {@link #getAsync(String)} does
+ * not, so that UI code can build its display when they are ready.
+ * <p>
+ * A cache created with {@link #forModel(Model, TrackMateObject, boolean)}
+ * listens to the model and keeps its histograms up to date. When spots are
+ * only added or removed, the cached spot histograms are updated with the
+ * values of these spots, without collecting all the values again. Any other
+ * change discards the histograms of the concerned objects.
+ * <p>
+ * The feature values of the added spots are read when the model signals the
+ * change. The cache must therefore be created after the
+ * {@link ModelFeatureUpdater} of the model, if any, so that it is notified
+ * after the features of new spots are computed. The histograms of features
+ * that are missing on one of the added spots are discarded.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class FeatureHistogramCache
+{
+
+	private final Function< String, double[] > valueCollector;
+
+	private final Map< String, CompletableFuture< FeatureHistogram > > histograms = new ConcurrentHashMap<>();
+
+	private Model model;
+
+	private ModelChangeListener modelListener;
+
+	/**
+	 * Creates a cache that collects feature values with the specified
+	 * function. The cache does not know when these values change, so
+	 * {@link #refresh(String)} and {@link #invalidate()} must be called then.
+	 *
+	 * @param valueCollector
+	 *            a function that returns the values of the feature with the
+	 *            specified key.
+	 */
+	public FeatureHistogramCache( final Function< String, double[] > valueCollector )
+	{
+		this.valueCollector = valueCollector;
+	}
+
+	/**
+	 * Creates a cache for the features of the specified objects in a model,
+	 * that is kept up to date as the model changes.
+	 *
+	 * @param model
+	 *            the model.
+	 * @param target
+	 *            the type of objects whose features are cached.
+	 * @param visibleOnly
+	 *            if <code>true</code>, only the values of visible objects are
+	 *            collected.
+	 * @return a new cache, registered as a listener of the model.
+	 */
+	public static FeatureHistogramCache forModel( final Model model, final TrackMateObject target, final boolean visibleOnly )
+	{
+		final FeatureHistogramCache cache = new FeatureHistogramCache(
+				key -> FeatureUtils.collectFeatureValues( key, target, model, visibleOnly ) );
+		cache.model = model;
+		cache.modelListener = cache.new ModelListener( target, visibleOnly );
+		model.addModelChangeListener( cache.modelListener );
+		return cache;
+	}
+
+	/**
+	 * Stops listening to the model, if this cache was created with
+	 * {@link #forModel(Model, TrackMateObject, boolean)}, and discards all the
+	 * histograms.
+	 */
+	public void quit()
+	{
+		if ( null != model )
+			model.removeModelChangeListener( modelListener );
+		model = null;
+		modelListener = null;
+		invalidate();
+	}
+
+	/**
+	 * Returns the histogram of the feature with the specified key, waiting
+	 * for it to be computed if needed.
+	 *
+	 * @param key
+	 *            the feature key.
+	 * @return the histogram.
+	 */
+	public FeatureHistogram get( final String key )
+	{
+		return getAsync( key ).join();
+	}
+
+	/**
+	 * Returns a future of the histogram of the feature with the specified key.
+	 * The histogram is computed in the background if it is not in the cache.
+	 *
+	 * @param key
+	 *            the feature key.
+	 * @return the histogram future.
+	 */
+	public CompletableFuture< FeatureHistogram > getAsync( final String key )
+	{
+		return histograms.computeIfAbsent( key, k -> CompletableFuture.supplyAsync( () -> collect( k ) ) );
+	}
+
+	/**
+	 * Starts computing the histograms of the specified features in the
+	 * background, if they are not in the cache.
+	 *
+	 * @param keys
+	 *            the feature keys.
+	 */
+	public void prefetch( final Collection< String > keys )
+	{
+		for ( final String key : keys )
+			getAsync( key );
+	}
+
+	/**
+	 * Signals that the values of the specified feature might have changed. If
+	 * this cache listens to a model, it is already up to date and this does
+	 * nothing. Otherwise the histogram of this feature is discarded.
+	 *
+	 * @param key
+	 *            the feature key.
+	 */
+	public void refresh( final String key )
+	{
+		if ( null == modelListener )
+			histograms.remove( key );
+	}
+
+	/**
+	 * Discards all the histograms in this cache.
+	 */
+	public void invalidate()
+	{
+		histograms.clear();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private FeatureHistogram collect( final String key )
+	{
+		return FeatureHistogram.of( valueCollector.apply( key ) );
+	}
+
+	/**
+	 * Chains an update of the cached spot histograms with the features of the
+	 * specified spots. Histograms still being collected are discarded, as we
+	 * cannot know whether they already include these spots. So are the
+	 * histograms of features missing on one of these spots.
+	 */
+	private void update( final List< Spot > added, final List< Spot > removed )
+	{
+		for ( final String key : new ArrayList<>( histograms.keySet() ) )
+		{
+			histograms.computeIfPresent( key, ( k, future ) -> {
+				if ( !future.isDone() || future.isCompletedExceptionally() )
+					return null;
+
+				// Read the values now, while they match the event.
+				final double[] addedValues = values( added, k );
+				final double[] removedValues = values( removed, k );
+				if ( null == addedValues || null == removedValues )
+					return null;
+
+				return future.thenApplyAsync( histogram -> {
+					final FeatureHistogram updated = histogram.update( addedValues, removedValues );
+					return ( null == updated ) ? collect( k ) : updated;
+				} );
+			} );
+		}
+	}
+
+	/**
+	 * Returns the values of the specified feature for the specified spots,
+	 * without NaNs, or <code>null</code> if one of the spots does not have
+	 * this feature.
+	 */
+	private static double[] values( final List< Spot > spots, final String key )
+	{
+		final double[] values = new double[ spots.size() ];
+		int n = 0;
+		for ( final Spot spot : spots )
+		{
+			final Double val = spot.getFeature( key );
+			if ( null == val )
+				return null;
+			if ( !val.isNaN() )
+				values[ n++ ] = val.doubleValue();
+		}
+		return ( n == values.length ) ? values : Arrays.copyOf( values, n );
+	}
+
+	private final class ModelListener implements ModelChangeListener
+	{
+
+		private final TrackMateObject target;
+
+		private final boolean visibleOnly;
+
+		private ModelListener( final TrackMateObject target, final boolean visibleOnly )
+		{
+			this.target = target;
+			this.visibleOnly = visibleOnly;
+		}
+
+		@Override
+		public void modelChanged( final ModelChangeEvent event )
+		{
+			switch ( event.getEventID() )
+			{
+			case ModelChangeEvent.SPOTS_COMPUTED:
+			case ModelChangeEvent.FEATURES_COMPUTED:
+				invalidate();
+				return;
+
+			case ModelChangeEvent.SPOTS_FILTERED:
+				if ( visibleOnly && target == TrackMateObject.SPOTS )
+					invalidate();
+				return;
+
+			case ModelChangeEvent.TRACKS_COMPUTED:
+			case ModelChangeEvent.TRACKS_VISIBILITY_CHANGED:
+				if ( target != TrackMateObject.SPOTS )
+					invalidate();
+				return;
+
+			case ModelChangeEvent.MODEL_MODIFIED:
+				modelModified( event );
+				return;
+
+			default:
+				return;
+			}
+		}
+
+		private void modelModified( final ModelChangeEvent event )
+		{
+			if ( target != TrackMateObject.SPOTS )
+			{
+				invalidate();
+				return;
+			}
+			if ( event.getSpots().isEmpty() )
+				return;
+			if ( visibleOnly )
+			{
+				invalidate();
+				return;
+			}
+
+			final List< Spot > added = new ArrayList<>();
+			final List< Spot > removed = new ArrayList<>();
+			for ( final Spot spot : event.getSpots() )
+			{
+				final int flag = event.getSpotFlag( spot );
+				if ( flag == ModelChangeEvent.FLAG_SPOT_ADDED )
+					added.add( spot );
+				else if ( flag == ModelChangeEvent.FLAG_SPOT_REMOVED )
+					removed.add( spot );
+				else
+				{
+					// The old feature values are not known.
+					invalidate();
+					return;
+				}
+			}
+			update( added, removed );
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.data.DomainOrder;
@@ -132,6 +133,26 @@ public abstract class ModelDataset extends AbstractDataset implements XYDataset,
 		return val.doubleValue();
 	}
 
+	/**
+	 * Returns the values of the X feature and of the Y features as primitive
+	 * columns, read in parallel. Missing values are stored as NaN.
+	 *
+	 * @return a new array, with the X column first, then one column per
+	 *         series.
+	 */
+	public double[][] getColumns()
+	{
+		final int n = getItemCount( 0 );
+		final int nSeries = getSeriesCount();
+		final double[][] columns = new double[ 1 + nSeries ][ n ];
+		IntStream.range( 0, n ).parallel().forEach( item -> {
+			columns[ 0 ][ item ] = getXValue( 0, item );
+			for ( int series = 0; series < nSeries; series++ )
+				columns[ 1 + series ][ item ] = getYValue( series, item );
+		} );
+		return columns;
+	}
+
 	public abstract String getItemLabel( int item );
 
 	public abstract void setItemLabel( int item, String label );
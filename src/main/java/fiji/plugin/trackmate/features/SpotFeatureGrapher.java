@@ -26,6 +26,7 @@ import java.util.List;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.gui.displaysettings.Colormap;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 
 public class SpotFeatureGrapher extends AbstractFeatureGrapher
@@ -75,6 +76,18 @@ public class SpotFeatureGrapher extends AbstractFeatureGrapher
 				xFeature,
 				targetYFeatures,
 				spots,
-				addLines );
+				addLines && !isDensityMode() );
+	}
+
+	@Override
+	protected int getItemCount()
+	{
+		return spots.size();
+	}
+
+	@Override
+	protected Colormap getColormap()
+	{
+		return ds.getColormap();
 	}
 }
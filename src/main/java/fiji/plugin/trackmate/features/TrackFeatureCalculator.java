@@ -32,6 +32,7 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.features.track.Trajectories;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 /**
@@ -139,6 +140,9 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 			logger.log( "Computing track features:\n", Logger.BLUE_COLOR );
 		}
 
+		// Shared by all analyzers, so that each track is walked once.
+		final Trajectories trajectories = new Trajectories( model.getTrackModel() );
+
 		for ( final TrackAnalyzer analyzer : analyzers )
 		{
 			if ( isCanceled() )
@@ -153,11 +157,11 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 			analyzer.setNumThreads( numThreads );
 			if ( analyzer.isLocal() )
 			{
-				analyzer.process( trackIDs, model );
+				analyzer.process( trackIDs, model, trajectories );
 			}
 			else
 			{
-				analyzer.process( model.getTrackModel().trackIDs( false ), model );
+				analyzer.process( model.getTrackModel().trackIDs( false ), model, trajectories );
 			}
 
 			if ( doLogIt )
@@ -25,6 +25,7 @@ import java.util.List;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.gui.displaysettings.Colormap;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 
 public class TrackFeatureGrapher extends AbstractFeatureGrapher
@@ -71,4 +72,16 @@ public class TrackFeatureGrapher extends AbstractFeatureGrapher
 				targetYFeatures,
 				trackIDs );
 	}
+
+	@Override
+	protected int getItemCount()
+	{
+		return trackIDs.size();
+	}
+
+	@Override
+	protected Colormap getColormap()
+	{
+		return ds.getColormap();
+	}
 }
@@ -182,24 +182,34 @@ public abstract class AbstractEdgeAnalyzer implements EdgeAnalyzer
 
 		final long start = System.currentTimeMillis();
 
-		// Create tasks.
-		final List< Callable< Void > > tasks = new ArrayList<>( edges.size() );
-		for ( final DefaultWeightedEdge edge : edges )
+		/*
+		 * Create tasks. Each task processes a block of edges, so that we do
+		 * not create one task per edge on large models, and so that each task
+		 * writes the features of its own edges.
+		 */
+		final List< DefaultWeightedEdge > edgeList = new ArrayList<>( edges );
+		final int nTasks = Math.max( 1, Math.min( edgeList.size(), 4 * numThreads ) );
+		final List< Callable< Void > > tasks = new ArrayList<>( nTasks );
+		for ( int i = 0; i < nTasks; i++ )
 		{
+			final List< DefaultWeightedEdge > block = edgeList.subList(
+					( int ) ( ( long ) i * edgeList.size() / nTasks ),
+					( int ) ( ( long ) ( i + 1 ) * edgeList.size() / nTasks ) );
 			final Callable< Void > task = new Callable< Void >()
 			{
 
 				@Override
 				public Void call() throws Exception
 				{
-					analyze( edge, model );
+					for ( final DefaultWeightedEdge edge : block )
+						analyze( edge, model );
 					return null;
 				}
 			};
 			tasks.add( task );
 		}
 
-		final ExecutorService executorService = Executors.newFixedThreadPool( numThreads );
+		final ExecutorService executorService = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
 		List< Future< Void > > futures;
 		try
 		{
@@ -175,6 +175,12 @@ public abstract class AbstractTrackAnalyzer implements TrackAnalyzer
 
 	@Override
 	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+		process( trackIDs, model, new Trajectories( model.getTrackModel() ) );
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model, final Trajectories trajectories )
 	{
 		if ( trackIDs.isEmpty() )
 			return;
@@ -191,7 +197,7 @@ public abstract class AbstractTrackAnalyzer implements TrackAnalyzer
 				@Override
 				public Void call() throws Exception
 				{
-					analyze( trackID, model );
+					analyze( trackID, model, trajectories );
 					return null;
 				}
 			};
@@ -217,4 +223,21 @@ public abstract class AbstractTrackAnalyzer implements TrackAnalyzer
 	}
 
 	protected abstract void analyze( final Integer trackID, final Model model );
+
+	/**
+	 * Computes the features of the specified track. Analyzers that can use
+	 * the shared {@link Trajectory} of the track should override this method.
+	 * The default implementation calls {@link #analyze(Integer, Model)}.
+	 *
+	 * @param trackID
+	 *            the ID of the track.
+	 * @param model
+	 *            the model.
+	 * @param trajectories
+	 *            the shared trajectories.
+	 */
+	protected void analyze( final Integer trackID, final Model model, final Trajectories trajectories )
+	{
+		analyze( trackID, model );
+	}
 }
@@ -0,0 +1,263 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * Static utilities to compute the mean-squared displacement (MSD) of linear
+ * track segments, and to fit a diffusion model on it.
+ * <p>
+ * The MSD is accumulated per lag, in frames, as the sum of squared
+ * displacements and the number of spot pairs separated by this lag. This
+ * allows combining several segments of the same track. Frames missing in a
+ * segment, for instance because of gap-closing, are simply excluded from the
+ * pairs.
+ * <p>
+ * The main method {@link #accumulate(double[], double[], double[], int[], int, double[], long[])}
+ * uses the FFT autocorrelation method and runs in <code>O(N log N)</code>,
+ * where <code>N</code> is the number of frames spanned by the segment.
+ * {@link #accumulateNaive(double[], double[], double[], int[], int, double[], long[])}
+ * computes the same quantities by iterating over all pairs, in
+ * <code>O(N²)</code>.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class MeanSquaredDisplacement
+{
+
+	private MeanSquaredDisplacement()
+	{}
+
+	/**
+	 * Adds the squared displacements and the number of pairs of the specified
+	 * segment, for each lag, to the specified arrays. Uses the FFT
+	 * autocorrelation method.
+	 * <p>
+	 * Writing <code>w(k)</code> for the presence of a spot in frame
+	 * <code>k</code> and <code>r(k)</code> for its position, the sum of
+	 * squared displacements at lag <code>m</code> is
+	 *
+	 * <pre>
+	 * S(m) = sum_k w(k) w(k+m) ( |r(k+m)|² + |r(k)|² - 2 r(k).r(k+m) )
+	 * </pre>
+	 *
+	 * and each of the three terms is a correlation computed by FFT.
+	 *
+	 * @param x
+	 *            the X position of the spots, sorted by frame.
+	 * @param y
+	 *            the Y position of the spots, sorted by frame.
+	 * @param z
+	 *            the Z position of the spots, sorted by frame.
+	 * @param frame
+	 *            the frame of the spots, strictly increasing.
+	 * @param n
+	 *            the number of spots in the segment.
+	 * @param sums
+	 *            the array to which to add the sum of squared displacements,
+	 *            indexed by lag. Must be at least as long as the number of
+	 *            frames spanned by the segment.
+	 * @param counts
+	 *            the array to which to add the number of pairs, indexed by
+	 *            lag.
+	 */
+	public static void accumulate( final double[] x, final double[] y, final double[] z, final int[] frame, final int n, final double[] sums, final long[] counts )
+	{
+		if ( n < 2 )
+			return;
+
+		final int span = frame[ n - 1 ] - frame[ 0 ] + 1;
+		int size = 1;
+		while ( size < 2 * span )
+			size <<= 1;
+
+		// Center positions to limit round-off errors.
+		double mx = 0.;
+		double my = 0.;
+		double mz = 0.;
+		for ( int i = 0; i < n; i++ )
+		{
+			mx += x[ i ];
+			my += y[ i ];
+			mz += z[ i ];
+		}
+		mx /= n;
+		my /= n;
+		mz /= n;
+
+		// Signals on the frame grid, zero-padded.
+		final double[][] w = new double[ 2 ][ size ];
+		final double[][] q = new double[ 2 ][ size ];
+		final double[][] rx = new double[ 2 ][ size ];
+		final double[][] ry = new double[ 2 ][ size ];
+		final double[][] rz = new double[ 2 ][ size ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final int k = frame[ i ] - frame[ 0 ];
+			final double dx = x[ i ] - mx;
+			final double dy = y[ i ] - my;
+			final double dz = z[ i ] - mz;
+			w[ 0 ][ k ] = 1.;
+			q[ 0 ][ k ] = dx * dx + dy * dy + dz * dz;
+			rx[ 0 ][ k ] = dx;
+			ry[ 0 ][ k ] = dy;
+			rz[ 0 ][ k ] = dz;
+		}
+		FastFourierTransformer.transformInPlace( w, DftNormalization.STANDARD, TransformType.FORWARD );
+		FastFourierTransformer.transformInPlace( q, DftNormalization.STANDARD, TransformType.FORWARD );
+		FastFourierTransformer.transformInPlace( rx, DftNormalization.STANDARD, TransformType.FORWARD );
+		FastFourierTransformer.transformInPlace( ry, DftNormalization.STANDARD, TransformType.FORWARD );
+		FastFourierTransformer.transformInPlace( rz, DftNormalization.STANDARD, TransformType.FORWARD );
+
+		/*
+		 * The two |r|² terms are the correlations of q with w and of w with q,
+		 * which are conjugate in Fourier space: their sum is 2 Re( Q* W ). The
+		 * cross term is the sum of the autocorrelations of each coordinate.
+		 * The number of pairs is the autocorrelation of w. All are real, we
+		 * reuse the arrays.
+		 */
+		final double[][] s = q;
+		final double[][] c = rx;
+		for ( int f = 0; f < size; f++ )
+		{
+			final double wr = w[ 0 ][ f ];
+			final double wi = w[ 1 ][ f ];
+			final double qr = q[ 0 ][ f ];
+			final double qi = q[ 1 ][ f ];
+			final double autoCorr = rx[ 0 ][ f ] * rx[ 0 ][ f ] + rx[ 1 ][ f ] * rx[ 1 ][ f ]
+					+ ry[ 0 ][ f ] * ry[ 0 ][ f ] + ry[ 1 ][ f ] * ry[ 1 ][ f ]
+					+ rz[ 0 ][ f ] * rz[ 0 ][ f ] + rz[ 1 ][ f ] * rz[ 1 ][ f ];
+			s[ 0 ][ f ] = 2. * ( qr * wr + qi * wi ) - 2. * autoCorr;
+			s[ 1 ][ f ] = 0.;
+			c[ 0 ][ f ] = wr * wr + wi * wi;
+			c[ 1 ][ f ] = 0.;
+		}
+		FastFourierTransformer.transformInPlace( s, DftNormalization.STANDARD, TransformType.INVERSE );
+		FastFourierTransformer.transformInPlace( c, DftNormalization.STANDARD, TransformType.INVERSE );
+
+		for ( int m = 1; m < span; m++ )
+		{
+			final long count = Math.round( c[ 0 ][ m ] );
+			if ( count == 0 )
+				continue;
+			sums[ m ] += Math.max( 0., s[ 0 ][ m ] );
+			counts[ m ] += count;
+		}
+	}
+
+	/**
+	 * Adds the squared displacements and the number of pairs of the specified
+	 * segment, for each lag, to the specified arrays, by iterating over all
+	 * pairs of spots. Gives the same results as
+	 * {@link #accumulate(double[], double[], double[], int[], int, double[], long[])}
+	 * in <code>O(N²)</code>.
+	 *
+	 * @param x
+	 *            the X position of the spots, sorted by frame.
+	 * @param y
+	 *            the Y position of the spots, sorted by frame.
+	 * @param z
+	 *            the Z position of the spots, sorted by frame.
+	 * @param frame
+	 *            the frame of the spots, strictly increasing.
+	 * @param n
+	 *            the number of spots in the segment.
+	 * @param sums
+	 *            the array to which to add the sum of squared displacements,
+	 *            indexed by lag.
+	 * @param counts
+	 *            the array to which to add the number of pairs, indexed by
+	 *            lag.
+	 */
+	public static void accumulateNaive( final double[] x, final double[] y, final double[] z, final int[] frame, final int n, final double[] sums, final long[] counts )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int j = i + 1; j < n; j++ )
+			{
+				final int m = frame[ j ] - frame[ i ];
+				final double dx = x[ j ] - x[ i ];
+				final double dy = y[ j ] - y[ i ];
+				final double dz = z[ j ] - z[ i ];
+				sums[ m ] += dx * dx + dy * dy + dz * dz;
+				counts[ m ]++;
+			}
+		}
+	}
+
+	/**
+	 * Fits the anomalous diffusion model
+	 *
+	 * <pre>
+	 * MSD( t ) = 2 d D t^α
+	 * </pre>
+	 *
+	 * on the MSD curve, by linear regression in log-log scale over the lags 1
+	 * to <code>maxLag</code>. Lags without pairs or with a null MSD are
+	 * ignored.
+	 *
+	 * @param sums
+	 *            the sum of squared displacements per lag.
+	 * @param counts
+	 *            the number of pairs per lag.
+	 * @param maxLag
+	 *            the largest lag, in frames, to include in the fit.
+	 * @param frameInterval
+	 *            the time interval between two frames.
+	 * @param nDims
+	 *            the dimensionality <code>d</code> of the motion.
+	 * @return a new <code>double[]</code> array containing the diffusion
+	 *         coefficient <code>D</code> and the exponent <code>α</code>. Both
+	 *         are <code>NaN</code> if there are less than 2 lags to fit.
+	 */
+	public static double[] fit( final double[] sums, final long[] counts, final int maxLag, final double frameInterval, final int nDims )
+	{
+		double sx = 0.;
+		double sy = 0.;
+		double sxx = 0.;
+		double sxy = 0.;
+		int np = 0;
+		for ( int m = 1; m <= maxLag && m < sums.length; m++ )
+		{
+			if ( counts[ m ] == 0 || sums[ m ] <= 0. )
+				continue;
+
+			final double lx = Math.log( m * frameInterval );
+			final double ly = Math.log( sums[ m ] / counts[ m ] );
+			sx += lx;
+			sy += ly;
+			sxx += lx * lx;
+			sxy += lx * ly;
+			np++;
+		}
+		if ( np < 2 )
+			return new double[] { Double.NaN, Double.NaN };
+
+		final double alpha = ( np * sxy - sx * sy ) / ( np * sxx - sx * sx );
+		final double intercept = ( sy - alpha * sx ) / np;
+		final double D = Math.exp( intercept ) / ( 2. * nDims );
+		return new double[] { D, alpha };
+	}
+}
@@ -68,6 +68,28 @@ public interface TrackAnalyzer extends Benchmark, FeatureAnalyzer, MultiThreaded
 	 */
 	public void process( final Collection< Integer > trackIDs, final Model model );
 
+	/**
+	 * Compute the features of the track whose ID is given, using the
+	 * specified {@link Trajectories} to retrieve the track content.
+	 * <p>
+	 * The trajectories are shared by all the analyzers that compute the
+	 * features of the same tracks, so that each track is walked only once.
+	 * The default implementation ignores them and calls
+	 * {@link #process(Collection, Model)}.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the track whose features are to be calculated.
+	 * @param model
+	 *            the {@link Model} from which actual tracks are to be
+	 *            retrieved.
+	 * @param trajectories
+	 *            the shared trajectories of the tracks of the model.
+	 */
+	public default void process( final Collection< Integer > trackIDs, final Model model, final Trajectories trajectories )
+	{
+		process( trackIDs, model );
+	}
+
 	/**
 	 * Returns <code>true</code> if this analyzer is a local analyzer. That is:
 	 * a modification that affects only one track requires the track features to
@@ -23,17 +23,13 @@ package fiji.plugin.trackmate.features.track;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = TrackAnalyzer.class )
 public class TrackBranchingAnalyzer extends AbstractTrackAnalyzer
@@ -99,34 +95,25 @@ public class TrackBranchingAnalyzer extends AbstractTrackAnalyzer
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
 	{
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		analyze( trackID, model, Trajectory.of( trackID, model.getTrackModel() ) );
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model, final Trajectories trajectories )
+	{
+		analyze( trackID, model, trajectories.get( trackID ) );
+	}
 
+	private static final void analyze( final Integer trackID, final Model model, final Trajectory trajectory )
+	{
 		int nmerges = 0;
 		int nsplits = 0;
 		int ncomplex = 0;
-		for ( final Spot spot : track )
+		for ( int i = 0; i < trajectory.nSpots(); i++ )
 		{
-			final Set< DefaultWeightedEdge > edges = model.getTrackModel().edgesOf( spot );
-
-			// get neighbors
-			final Set< Spot > neighbors = new HashSet<>();
-			for ( final DefaultWeightedEdge edge : edges )
-			{
-				neighbors.add( model.getTrackModel().getEdgeSource( edge ) );
-				neighbors.add( model.getTrackModel().getEdgeTarget( edge ) );
-			}
-			neighbors.remove( spot );
-
-			// inspect neighbors relative time position
-			int earlier = 0;
-			int later = 0;
-			for ( final Spot neighbor : neighbors )
-			{
-				if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
-					earlier++; // neighbor is before in time
-				else
-					later++;
-			}
+			// Neighbors relative time position.
+			final int earlier = trajectory.nEarlier[ i ];
+			final int later = trajectory.nLater[ i ];
 
 			// Test for classical spot
 			if ( earlier == 1 && later == 1 )
@@ -142,11 +129,9 @@ public class TrackBranchingAnalyzer extends AbstractTrackAnalyzer
 		}
 
 		int ngaps = 0, longestgap = 0;
-		for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
+		for ( int e = 0; e < trajectory.nEdges(); e++ )
 		{
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
-			final int gaplength = ( int ) Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
+			final int gaplength = Math.abs( trajectory.frame[ trajectory.target[ e ] ] - trajectory.frame[ trajectory.source[ e ] ] ) - 1;
 			if ( gaplength > 0 )
 			{
 				ngaps++;
@@ -161,7 +146,7 @@ public class TrackBranchingAnalyzer extends AbstractTrackAnalyzer
 		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( nsplits ) );
 		model.getFeatureModel().putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( nmerges ) );
 		model.getFeatureModel().putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
-		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( track.size() ) );
+		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( trajectory.nSpots() ) );
 
 	}
 }
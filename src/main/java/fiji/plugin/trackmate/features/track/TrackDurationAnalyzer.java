@@ -25,14 +25,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = TrackAnalyzer.class )
 public class TrackDurationAnalyzer extends AbstractTrackAnalyzer
@@ -85,36 +83,47 @@ public class TrackDurationAnalyzer extends AbstractTrackAnalyzer
 
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
+	{
+		analyze( trackID, model, Trajectory.of( trackID, model.getTrackModel() ) );
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model, final Trajectories trajectories )
+	{
+		analyze( trackID, model, trajectories.get( trackID ) );
+	}
+
+	private static final void analyze( final Integer trackID, final Model model, final Trajectory trajectory )
 	{
 		final FeatureModel fm = model.getFeatureModel();
 
-		// I love brute force.
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		final double[] t = trajectory.t;
 		double minT = Double.POSITIVE_INFINITY;
 		double maxT = Double.NEGATIVE_INFINITY;
-		Double t;
-		Spot startSpot = null;
-		Spot endSpot = null;
-		for ( final Spot spot : track )
+		int start = -1;
+		int end = -1;
+		for ( int i = 0; i < t.length; i++ )
 		{
-			t = spot.getFeature( Spot.POSITION_T );
-			if ( t < minT )
+			if ( t[ i ] < minT )
 			{
-				minT = t;
-				startSpot = spot;
+				minT = t[ i ];
+				start = i;
 			}
-			if ( t > maxT )
+			if ( t[ i ] > maxT )
 			{
-				maxT = t;
-				endSpot = spot;
+				maxT = t[ i ];
+				end = i;
 			}
 		}
-		if ( null == startSpot || null == endSpot )
+		if ( start < 0 || end < 0 )
 			return;
 
+		final double dx = trajectory.x[ end ] - trajectory.x[ start ];
+		final double dy = trajectory.y[ end ] - trajectory.y[ start ];
+		final double dz = trajectory.z[ end ] - trajectory.z[ start ];
 		fm.putTrackFeature( trackID, TRACK_DURATION, ( maxT - minT ) );
 		fm.putTrackFeature( trackID, TRACK_START, minT );
 		fm.putTrackFeature( trackID, TRACK_STOP, maxT );
-		fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
+		fm.putTrackFeature( trackID, TRACK_DISPLACEMENT, Math.sqrt( dx * dx + dy * dy + dz * dz ) );
 	}
 }
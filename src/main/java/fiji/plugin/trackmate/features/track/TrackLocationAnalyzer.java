@@ -25,14 +25,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 
 @Plugin( type = TrackAnalyzer.class )
 public class TrackLocationAnalyzer extends AbstractTrackAnalyzer
@@ -79,21 +77,31 @@ public class TrackLocationAnalyzer extends AbstractTrackAnalyzer
 
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
+	{
+		analyze( trackID, model, Trajectory.of( trackID, model.getTrackModel() ) );
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model, final Trajectories trajectories )
+	{
+		analyze( trackID, model, trajectories.get( trackID ) );
+	}
+
+	private static final void analyze( final Integer trackID, final Model model, final Trajectory trajectory )
 	{
 		final FeatureModel fm = model.getFeatureModel();
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
 
 		double x = 0.;
 		double y = 0.;
 		double z = 0.;
 
-		for ( final Spot spot : track )
+		final int nspots = trajectory.nSpots();
+		for ( int i = 0; i < nspots; i++ )
 		{
-			x += spot.getFeature( Spot.POSITION_X );
-			y += spot.getFeature( Spot.POSITION_Y );
-			z += spot.getFeature( Spot.POSITION_Z );
+			x += trajectory.x[ i ];
+			y += trajectory.y[ i ];
+			z += trajectory.z[ i ];
 		}
-		final int nspots = track.size();
 		x /= nspots;
 		y /= nspots;
 		z /= nspots;
@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
+
+/**
+ * Computes the mean-squared displacement (MSD) curve of tracks and fits an
+ * anomalous diffusion model on it, yielding a diffusion coefficient and an
+ * anomalous exponent per track.
+ * <p>
+ * The MSD is computed per linear segment of the track. Tracks with splits or
+ * merges are decomposed in convex branches first, and the MSD of all branches
+ * are pooled. Gaps in a segment, as created by the gap-closing step of the
+ * tracker, are handled by excluding the missing frames from the spot pairs.
+ * <p>
+ * The branched tracks are all decomposed at once, before the tracks are
+ * dispatched to the worker threads.
+ *
+ * @see MeanSquaredDisplacement
+ * @author Jean-Yves Tinevez
+ */
+@Plugin( type = TrackAnalyzer.class, priority = Priority.LOW )
+public class TrackMSDAnalyzer extends AbstractTrackAnalyzer
+{
+
+	public static final String KEY = "Track MSD analysis";
+
+	public static final String TRACK_DIFFUSION_COEFFICIENT = "DIFFUSION_COEFFICIENT";
+	public static final String TRACK_MSD_ALPHA = "MSD_ALPHA";
+	public static final List< String > FEATURES = new ArrayList<>( 2 );
+	public static final Map< String, String > FEATURE_NAMES = new HashMap<>( 2 );
+	public static final Map< String, String > FEATURE_SHORT_NAMES = new HashMap<>( 2 );
+	public static final Map< String, Dimension > FEATURE_DIMENSIONS = new HashMap<>( 2 );
+	public static final Map< String, Boolean > IS_INT = new HashMap<>( 2 );
+
+	/**
+	 * The minimal number of lags used in the fit, when the track is long
+	 * enough.
+	 */
+	private static final int MIN_FIT_LAGS = 4;
+
+	/**
+	 * The decompositions of the branched tracks being processed, computed
+	 * before the worker threads start.
+	 */
+	private Map< Integer, TrackBranchDecomposition > decompositions = Collections.emptyMap();
+
+	static
+	{
+		FEATURES.add( TRACK_DIFFUSION_COEFFICIENT );
+		FEATURES.add( TRACK_MSD_ALPHA );
+
+		FEATURE_NAMES.put( TRACK_DIFFUSION_COEFFICIENT, "Diffusion coefficient" );
+		FEATURE_NAMES.put( TRACK_MSD_ALPHA, "MSD anomalous exponent" );
+
+		FEATURE_SHORT_NAMES.put( TRACK_DIFFUSION_COEFFICIENT, "Diff. coeff." );
+		FEATURE_SHORT_NAMES.put( TRACK_MSD_ALPHA, "MSD alpha" );
+
+		FEATURE_DIMENSIONS.put( TRACK_DIFFUSION_COEFFICIENT, Dimension.DIFFUSION_COEFFICIENT );
+		FEATURE_DIMENSIONS.put( TRACK_MSD_ALPHA, Dimension.NONE );
+
+		IS_INT.put( TRACK_DIFFUSION_COEFFICIENT, Boolean.FALSE );
+		IS_INT.put( TRACK_MSD_ALPHA, Boolean.FALSE );
+	}
+
+	public TrackMSDAnalyzer()
+	{
+		super( KEY, KEY, FEATURES, FEATURE_NAMES, FEATURE_SHORT_NAMES, FEATURE_DIMENSIONS, IS_INT );
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model, final Trajectories trajectories )
+	{
+		final List< Integer > branched = new ArrayList<>();
+		for ( final Integer trackID : trackIDs )
+			if ( !isLinear( trajectories.get( trackID ) ) )
+				branched.add( trackID );
+
+		decompositions = ConvexBranchesDecomposition.processTracks( branched, model.getTrackModel(), true, false, getNumThreads() );
+		try
+		{
+			super.process( trackIDs, model, trajectories );
+		}
+		finally
+		{
+			decompositions = Collections.emptyMap();
+		}
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model )
+	{
+		analyze( trackID, model, Trajectory.of( trackID, model.getTrackModel() ) );
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model, final Trajectories trajectories )
+	{
+		analyze( trackID, model, trajectories.get( trackID ) );
+	}
+
+	private void analyze( final Integer trackID, final Model model, final Trajectory trajectory )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final int n = trajectory.nSpots();
+		final int span = ( n == 0 ) ? 0 : trajectory.frame[ n - 1 ] - trajectory.frame[ 0 ] + 1;
+		if ( span < 2 )
+		{
+			fm.putTrackFeature( trackID, TRACK_DIFFUSION_COEFFICIENT, Double.NaN );
+			fm.putTrackFeature( trackID, TRACK_MSD_ALPHA, Double.NaN );
+			return;
+		}
+
+		final double frameInterval = ( trajectory.t[ n - 1 ] - trajectory.t[ 0 ] ) / ( span - 1 );
+		final double[] sums = new double[ span ];
+		final long[] counts = new long[ span ];
+		if ( isLinear( trajectory ) )
+		{
+			MeanSquaredDisplacement.accumulate( trajectory.x, trajectory.y, trajectory.z, trajectory.frame, n, sums, counts );
+		}
+		else
+		{
+			TrackBranchDecomposition decomposition = decompositions.get( trackID );
+			if ( null == decomposition )
+				decomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), true, false );
+			final Collection< List< Spot > > branches = decomposition.branches;
+			for ( final List< Spot > branch : branches )
+			{
+				final int nb = branch.size();
+				final double[] x = new double[ nb ];
+				final double[] y = new double[ nb ];
+				final double[] z = new double[ nb ];
+				final int[] frame = new int[ nb ];
+				for ( int i = 0; i < nb; i++ )
+				{
+					final Spot spot = branch.get( i );
+					x[ i ] = spot.getDoublePosition( 0 );
+					y[ i ] = spot.getDoublePosition( 1 );
+					z[ i ] = spot.getDoublePosition( 2 );
+					frame[ i ] = spot.getFeature( Spot.FRAME ).intValue();
+				}
+				MeanSquaredDisplacement.accumulate( x, y, z, frame, nb, sums, counts );
+			}
+		}
+
+		final int maxLag = Math.min( span - 1, Math.max( MIN_FIT_LAGS, ( span - 1 ) / 4 ) );
+		final double[] fit = MeanSquaredDisplacement.fit( sums, counts, maxLag, frameInterval, isPlanar( trajectory ) ? 2 : 3 );
+		fm.putTrackFeature( trackID, TRACK_DIFFUSION_COEFFICIENT, fit[ 0 ] );
+		fm.putTrackFeature( trackID, TRACK_MSD_ALPHA, fit[ 1 ] );
+	}
+
+	/**
+	 * Returns <code>true</code> if the trajectory is a single segment without
+	 * splits, merges or two spots in the same frame.
+	 */
+	private static final boolean isLinear( final Trajectory trajectory )
+	{
+		for ( int i = 0; i < trajectory.nSpots(); i++ )
+		{
+			if ( trajectory.nEarlier[ i ] > 1 || trajectory.nLater[ i ] > 1 )
+				return false;
+			if ( i > 0 && trajectory.frame[ i ] == trajectory.frame[ i - 1 ] )
+				return false;
+		}
+		return true;
+	}
+
+	private static final boolean isPlanar( final Trajectory trajectory )
+	{
+		for ( int i = 1; i < trajectory.nSpots(); i++ )
+			if ( trajectory.z[ i ] != trajectory.z[ 0 ] )
+				return false;
+		return true;
+	}
+}
@@ -23,11 +23,9 @@ package fiji.plugin.trackmate.features.track;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -36,14 +34,12 @@ import java.util.concurrent.Future;
 
 import javax.swing.ImageIcon;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.edges.DirectionalChangeAnalyzer;
 
 @Plugin( type = TrackAnalyzer.class, priority = Priority.LOW )
@@ -214,6 +210,12 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 
 	@Override
 	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+		process( trackIDs, model, new Trajectories( model.getTrackModel() ) );
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model, final Trajectories trajectories )
 	{
 		if ( trackIDs.isEmpty() )
 			return;
@@ -230,7 +232,7 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 				@Override
 				public Void call() throws Exception
 				{
-					analyze( trackID, model );
+					analyze( trackID, model, trajectories.get( trackID ) );
 					return null;
 				}
 			};
@@ -255,40 +257,39 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 		processingTime = end - start;
 	}
 
-	private static final void analyze( final Integer trackID, final Model model )
+	private static final void analyze( final Integer trackID, final Model model, final Trajectory trajectory )
 	{
 		final FeatureModel fm = model.getFeatureModel();
 
 		/*
-		 * Get the first spot (lowest FRAME).
+		 * The first spot (lowest FRAME) is the first of the trajectory.
 		 */
 
-		final List< Spot > spots = new ArrayList<>( model.getTrackModel().trackSpots( trackID ) );
-		Collections.sort( spots, Spot.frameComparator );
-		final Spot first = spots.get( 0 );
+		final double fx = trajectory.x[ 0 ];
+		final double fy = trajectory.y[ 0 ];
+		final double fz = trajectory.z[ 0 ];
 
 		/*
 		 * Iterate over edges.
 		 */
 
-		final Set< DefaultWeightedEdge > edges = model.getTrackModel().trackEdges( trackID );
-
 		double totalDistance = 0.;
 		double maxDistanceSq = Double.NEGATIVE_INFINITY;
 		double maxDistance = 0.;
 		double sumAngleSpeed = 0.;
 		int nAngleSpeed = 0;
 
-		for ( final DefaultWeightedEdge edge : edges )
+		for ( int e = 0; e < trajectory.nEdges(); e++ )
 		{
 			// Total distance traveled.
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
-			final double d = Math.sqrt( source.squareDistanceTo( target ) );
-			totalDistance += d;
+			totalDistance += trajectory.length[ e ];
 
 			// Max distance traveled.
-			final double dToFirstSq = first.squareDistanceTo( target );
+			final int target = trajectory.target[ e ];
+			final double dx = trajectory.x[ target ] - fx;
+			final double dy = trajectory.y[ target ] - fy;
+			final double dz = trajectory.z[ target ] - fz;
+			final double dToFirstSq = dx * dx + dy * dy + dz * dz;
 			if ( dToFirstSq > maxDistanceSq )
 			{
 				maxDistanceSq = dToFirstSq;
@@ -299,7 +300,7 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 			 * Mean rate of directional change. We depend on the edge feature
 			 */
 
-			final Double val = fm.getEdgeFeature( edge, DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
+			final Double val = fm.getEdgeFeature( trajectory.edges[ e ], DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
 			if ( null != val && !val.isNaN() )
 			{
 				sumAngleSpeed += val.doubleValue();
@@ -25,15 +25,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import net.imglib2.util.Util;
 
@@ -94,25 +91,26 @@ public class TrackSpeedStatisticsAnalyzer extends AbstractTrackAnalyzer
 
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
+	{
+		analyze( trackID, model, Trajectory.of( trackID, model.getTrackModel() ) );
+	}
+
+	@Override
+	protected void analyze( final Integer trackID, final Model model, final Trajectories trajectories )
+	{
+		analyze( trackID, model, trajectories.get( trackID ) );
+	}
+
+	private static final void analyze( final Integer trackID, final Model model, final Trajectory trajectory )
 	{
 		final FeatureModel fm = model.getFeatureModel();
-		final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-		final double[] speeds = new double[ track.size() ];
-		int n = 0;
-		for ( final DefaultWeightedEdge edge : track )
-		{
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
-			final double d2 = source.squareDistanceTo( target );
-			final double dt = source.diffTo( target, Spot.POSITION_T );
-			final double val = Math.sqrt( d2 ) / Math.abs( dt );
-			speeds[ n++ ] = val;
-		}
-
-		Util.quicksort( speeds, 0, track.size() - 1 );
-		final double median = speeds[ track.size() / 2 ];
+		final int nEdges = trajectory.nEdges();
+		final double[] speeds = trajectory.speed.clone();
+
+		Util.quicksort( speeds, 0, nEdges - 1 );
+		final double median = speeds[ nEdges / 2 ];
 		final double min = speeds[ 0 ];
-		final double max = speeds[ track.size() - 1 ];
+		final double max = speeds[ nEdges - 1 ];
 		final double mean = Util.average( speeds );
 		final double std = TMUtils.standardDeviation( speeds );
 
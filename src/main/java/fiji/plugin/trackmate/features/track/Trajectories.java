@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * A thread-safe cache of {@link Trajectory}s, shared by the
+ * {@link TrackAnalyzer}s that compute the features of the same tracks. The
+ * trajectory of a track is built the first time it is requested.
+ * <p>
+ * Each trajectory is stamped with the {@link TrackModel#trackVersion(Integer)
+ * version} of its track, and is built again if the track was modified since.
+ * The track model must not be modified while trajectories are requested.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class Trajectories
+{
+
+	private final TrackModel tm;
+
+	private final Map< Integer, VersionedTrajectory > trajectories = new ConcurrentHashMap<>();
+
+	public Trajectories( final TrackModel tm )
+	{
+		this.tm = tm;
+	}
+
+	/**
+	 * Returns the trajectory of the specified track, building it if it was
+	 * not requested yet or if the track was modified since.
+	 *
+	 * @param trackID
+	 *            the ID of the track.
+	 * @return the trajectory of the track.
+	 */
+	public Trajectory get( final Integer trackID )
+	{
+		final long version = tm.trackVersion( trackID );
+		return trajectories.compute( trackID, ( id, cached ) -> ( null != cached && cached.version == version )
+				? cached
+				: new VersionedTrajectory( version, Trajectory.of( id, tm ) ) ).trajectory;
+	}
+
+	private static final class VersionedTrajectory
+	{
+		private final long version;
+
+		private final Trajectory trajectory;
+
+		private VersionedTrajectory( final long version, final Trajectory trajectory )
+		{
+			this.version = version;
+			this.trajectory = trajectory;
+		}
+	}
+}
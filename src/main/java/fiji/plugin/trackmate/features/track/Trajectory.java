@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A read-only view of a track, with spot and edge values stored in primitive
+ * arrays. It is built once per track and shared by the {@link TrackAnalyzer}s,
+ * so that they do not have to walk the track graph and look up spot features
+ * again.
+ * <p>
+ * Spots are sorted by increasing frame. Edges are stored in no particular
+ * order, with the index of their source and target spots in the spot arrays.
+ * The arrays are exposed directly and must not be modified.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class Trajectory
+{
+
+	/** The spots of the track, sorted by frame. */
+	public final Spot[] spots;
+
+	/** The time of each spot. */
+	public final double[] t;
+
+	/** The X position of each spot. */
+	public final double[] x;
+
+	/** The Y position of each spot. */
+	public final double[] y;
+
+	/** The Z position of each spot. */
+	public final double[] z;
+
+	/** The frame of each spot. */
+	public final int[] frame;
+
+	/**
+	 * The number of neighbors of each spot that are in an earlier frame.
+	 */
+	public final int[] nEarlier;
+
+	/**
+	 * The number of neighbors of each spot that are in the same or a later
+	 * frame.
+	 */
+	public final int[] nLater;
+
+	/** The edges of the track. */
+	public final DefaultWeightedEdge[] edges;
+
+	/** The index of the source spot of each edge. */
+	public final int[] source;
+
+	/** The index of the target spot of each edge. */
+	public final int[] target;
+
+	/** The length of each edge. */
+	public final double[] length;
+
+	/**
+	 * The speed along each edge, that is its length divided by the absolute
+	 * time difference between its spots.
+	 */
+	public final double[] speed;
+
+	private Trajectory( final List< Spot > spots, final Set< DefaultWeightedEdge > edges, final TrackModel tm )
+	{
+		final int nSpots = spots.size();
+		this.spots = spots.toArray( new Spot[ nSpots ] );
+		this.t = new double[ nSpots ];
+		this.x = new double[ nSpots ];
+		this.y = new double[ nSpots ];
+		this.z = new double[ nSpots ];
+		this.frame = new int[ nSpots ];
+		this.nEarlier = new int[ nSpots ];
+		this.nLater = new int[ nSpots ];
+
+		final TObjectIntHashMap< Spot > index = new TObjectIntHashMap<>( 2 * nSpots, 0.5f, -1 );
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final Spot spot = this.spots[ i ];
+			index.put( spot, i );
+			t[ i ] = spot.getFeature( Spot.POSITION_T ).doubleValue();
+			x[ i ] = spot.getDoublePosition( 0 );
+			y[ i ] = spot.getDoublePosition( 1 );
+			z[ i ] = spot.getDoublePosition( 2 );
+			frame[ i ] = spot.getFeature( Spot.FRAME ).intValue();
+		}
+
+		final int nEdges = edges.size();
+		this.edges = edges.toArray( new DefaultWeightedEdge[ nEdges ] );
+		this.source = new int[ nEdges ];
+		this.target = new int[ nEdges ];
+		this.length = new double[ nEdges ];
+		this.speed = new double[ nEdges ];
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			final int s = index.get( tm.getEdgeSource( this.edges[ e ] ) );
+			final int u = index.get( tm.getEdgeTarget( this.edges[ e ] ) );
+			source[ e ] = s;
+			target[ e ] = u;
+
+			final double dx = x[ s ] - x[ u ];
+			final double dy = y[ s ] - y[ u ];
+			final double dz = z[ s ] - z[ u ];
+			length[ e ] = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			speed[ e ] = length[ e ] / Math.abs( t[ s ] - t[ u ] );
+
+			// Branch markers.
+			if ( frame[ s ] - frame[ u ] > 0 )
+			{
+				nEarlier[ s ]++;
+				nLater[ u ]++;
+			}
+			else if ( frame[ u ] - frame[ s ] > 0 )
+			{
+				nLater[ s ]++;
+				nEarlier[ u ]++;
+			}
+			else
+			{
+				nLater[ s ]++;
+				nLater[ u ]++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of spots in this trajectory.
+	 *
+	 * @return the number of spots.
+	 */
+	public int nSpots()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns the number of edges in this trajectory.
+	 *
+	 * @return the number of edges.
+	 */
+	public int nEdges()
+	{
+		return edges.length;
+	}
+
+	/**
+	 * Builds the trajectory of the specified track.
+	 *
+	 * @param trackID
+	 *            the ID of the track.
+	 * @param tm
+	 *            the track model in which the track is stored.
+	 * @return a new trajectory.
+	 */
+	public static Trajectory of( final Integer trackID, final TrackModel tm )
+	{
+		final List< Spot > spots = new ArrayList<>( tm.trackSpots( trackID ) );
+		Collections.sort( spots, Spot.frameComparator );
+		return new Trajectory( spots, tm.trackEdges( trackID ), tm );
+	}
+}
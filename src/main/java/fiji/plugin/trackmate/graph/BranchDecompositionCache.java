@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
+
+/**
+ * The convex branch decompositions of the tracks of a {@link TrackModel},
+ * stamped with the {@link TrackModel#trackVersion(Integer) version} of the
+ * track they were computed for.
+ * <p>
+ * Each track model owns one instance, that it invalidates when its tracks
+ * are modified. The version stamp guards against decompositions computed
+ * while the track was being modified. This class is thread-safe, and does
+ * not lock.
+ *
+ * @see ConvexBranchesDecomposition#processTrack(Integer, TrackModel, boolean,
+ *      boolean)
+ * @author Jean-Yves Tinevez
+ */
+public class BranchDecompositionCache
+{
+
+	private final Map< Long, CachedDecomposition > cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the decomposition cached for the specified track and flags, or
+	 * <code>null</code> if there is none for the specified version.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @param forbidMiddleLinks
+	 *            the flag the decomposition was computed with.
+	 * @param forbidGaps
+	 *            the flag the decomposition was computed with.
+	 * @param version
+	 *            the current version of the track.
+	 * @return the cached decomposition, or <code>null</code>.
+	 */
+	public TrackBranchDecomposition get( final Integer trackID, final boolean forbidMiddleLinks, final boolean forbidGaps, final long version )
+	{
+		final CachedDecomposition cached = cache.get( key( trackID, forbidMiddleLinks, forbidGaps ) );
+		if ( null == cached || cached.version != version )
+			return null;
+		return cached.decomposition;
+	}
+
+	/**
+	 * Stores the decomposition of the specified track.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @param forbidMiddleLinks
+	 *            the flag the decomposition was computed with.
+	 * @param forbidGaps
+	 *            the flag the decomposition was computed with.
+	 * @param version
+	 *            the version of the track the decomposition was computed
+	 *            for.
+	 * @param decomposition
+	 *            the decomposition, that must not be modified afterwards.
+	 */
+	public void put( final Integer trackID, final boolean forbidMiddleLinks, final boolean forbidGaps, final long version, final TrackBranchDecomposition decomposition )
+	{
+		cache.put( key( trackID, forbidMiddleLinks, forbidGaps ), new CachedDecomposition( version, decomposition ) );
+	}
+
+	/**
+	 * Discards the decompositions of the specified track.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 */
+	public void invalidate( final Integer trackID )
+	{
+		if ( cache.isEmpty() )
+			return;
+
+		for ( int flags = 0; flags < 4; flags++ )
+			cache.remove( Long.valueOf( ( trackID.longValue() << 2 ) | flags ) );
+	}
+
+	/**
+	 * Discards all the decompositions.
+	 */
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	private static final Long key( final Integer trackID, final boolean forbidMiddleLinks, final boolean forbidGaps )
+	{
+		return Long.valueOf( ( trackID.longValue() << 2 ) | ( forbidMiddleLinks ? 2 : 0 ) | ( forbidGaps ? 1 : 0 ) );
+	}
+
+	private static final class CachedDecomposition
+	{
+		private final long version;
+
+		private final TrackBranchDecomposition decomposition;
+
+		private CachedDecomposition( final long version, final TrackBranchDecomposition decomposition )
+		{
+			this.version = version;
+			this.decomposition = decomposition;
+		}
+	}
+}
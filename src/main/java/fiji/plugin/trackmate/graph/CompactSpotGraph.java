@@ -0,0 +1,924 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.jgrapht.Graph;
+import org.jgrapht.GraphType;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.DefaultGraphType;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Spot;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A simple, undirected and weighted graph of spots, with the same semantics
+ * as a {@link org.jgrapht.graph.SimpleWeightedGraph}, but stored in primitive
+ * arrays.
+ * <p>
+ * The jgrapht graphs store, for each vertex, a map entry and a
+ * <code>LinkedHashSet</code> of its edges, and for each edge another map
+ * entry. TrackMate tracks are lineages, where most spots have one link to
+ * the previous frame and one or two links to the next one. Here each spot and
+ * each edge gets an ordinal, and:
+ * <ul>
+ * <li>the spots are stored in an array, and found from their ID with a
+ * primitive map;
+ * <li>the edges of a spot are stored as edge ordinals in {@value #SLOTS}
+ * fixed slots per spot, with an overflow list for the rare spots that have
+ * more;
+ * <li>the source and target spot ordinals and the weight of each edge are
+ * stored in primitive arrays.
+ * </ul>
+ * The edge objects themselves are kept, because they are the handles that
+ * the rest of TrackMate uses to refer to links, for instance to store their
+ * features.
+ * <p>
+ * Removed spots and edges leave a hole in the arrays, that is reclaimed by
+ * compacting them when there are too many. This way, the iteration order of
+ * the vertex and edge sets is the insertion order, as for the jgrapht graphs.
+ * Spots and edges are compacted separately, and the iterators of the vertex
+ * set only fail on changes of the spots, as the iterators of the edge set only
+ * fail on changes of the edges. For instance, edges can be added or removed
+ * while iterating over the spots.
+ * <p>
+ * This class implements the jgrapht {@link Graph} interface, so that it can
+ * be used with the jgrapht algorithms and iterators. Like the jgrapht graphs,
+ * it is not thread-safe.
+ * <p>
+ * A {@link fiji.plugin.trackmate.TrackModel} stores its links in this graph
+ * only when created with
+ * {@link fiji.plugin.trackmate.TrackModel#withCompactGraph()}. The edge
+ * objects and the track maps of the track model are kept in both cases, so
+ * the memory saved is limited to the jgrapht per-spot and per-edge
+ * structures. {@code CompactSpotGraphMemoryBenchmark}, in the tests, measures
+ * it for the graph alone and for a whole model.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class CompactSpotGraph extends AbstractGraph< Spot, DefaultWeightedEdge >
+{
+
+	/**
+	 * The number of edges stored inline for each spot: one to the previous
+	 * frame and two to the next one, in the case of a division.
+	 */
+	public static final int SLOTS = 3;
+
+	private static final int NO_ENTRY = -1;
+
+	private static final GraphType TYPE = DefaultGraphType.simple().asWeighted();
+
+	private static final Supplier< DefaultWeightedEdge > EDGE_SUPPLIER = DefaultWeightedEdge::new;
+
+	/*
+	 * SPOTS.
+	 */
+
+	/** The spots, by ordinal. <code>null</code> for removed spots. */
+	private Spot[] spots;
+
+	/** The number of edges of each spot. */
+	private int[] degrees;
+
+	/** The first {@link #SLOTS} edge ordinals of each spot. */
+	private int[] slots;
+
+	/** The edge ordinals in excess of {@link #SLOTS}, by spot ordinal. */
+	private final TIntObjectHashMap< TIntArrayList > overflow = new TIntObjectHashMap<>();
+
+	/** Spot ID to spot ordinal. */
+	private final TIntIntHashMap idToOrdinal;
+
+	/** The number of spot ordinals in use, including removed ones. */
+	private int spotEnd;
+
+	private int nSpots;
+
+	/*
+	 * EDGES.
+	 */
+
+	/** The edges, by ordinal. <code>null</code> for removed edges. */
+	private DefaultWeightedEdge[] edges;
+
+	private int[] sources;
+
+	private int[] targets;
+
+	private double[] weights;
+
+	/** Edge to edge ordinal, by identity. */
+	private final TObjectIntHashMap< DefaultWeightedEdge > edgeToOrdinal;
+
+	/** The number of edge ordinals in use, including removed ones. */
+	private int edgeEnd;
+
+	private int nEdges;
+
+	/**
+	 * Incremented when a spot is added or removed, or when the spots are
+	 * compacted, for fail-fast vertex set iterators.
+	 */
+	private int vertexModCount;
+
+	/**
+	 * Incremented when an edge is added or removed, or when the edges are
+	 * compacted, for fail-fast edge set iterators.
+	 */
+	private int edgeModCount;
+
+	private final Set< Spot > vertexSet = new VertexSet();
+
+	private final Set< DefaultWeightedEdge > edgeSet = new EdgeSet();
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new, empty graph.
+	 */
+	public CompactSpotGraph()
+	{
+		this( 16, 16 );
+	}
+
+	/**
+	 * Creates a new, empty graph, with room for the specified number of spots
+	 * and edges.
+	 *
+	 * @param spotCapacity
+	 *            the initial spot capacity.
+	 * @param edgeCapacity
+	 *            the initial edge capacity.
+	 */
+	public CompactSpotGraph( final int spotCapacity, final int edgeCapacity )
+	{
+		final int sc = Math.max( 1, spotCapacity );
+		final int ec = Math.max( 1, edgeCapacity );
+		this.spots = new Spot[ sc ];
+		this.degrees = new int[ sc ];
+		this.slots = new int[ SLOTS * sc ];
+		this.idToOrdinal = new TIntIntHashMap( sc, 0.5f, Integer.MIN_VALUE, NO_ENTRY );
+		this.edges = new DefaultWeightedEdge[ ec ];
+		this.sources = new int[ ec ];
+		this.targets = new int[ ec ];
+		this.weights = new double[ ec ];
+		this.edgeToOrdinal = new TObjectIntHashMap<>( ec, 0.5f, NO_ENTRY );
+	}
+
+	/**
+	 * Returns a compact copy of the specified graph. The spot and edge objects
+	 * are the same, so that features stored against the edges of the source
+	 * graph still apply to the copy.
+	 *
+	 * @param graph
+	 *            the graph to copy.
+	 * @return a new graph.
+	 */
+	public static CompactSpotGraph copyOf( final Graph< Spot, DefaultWeightedEdge > graph )
+	{
+		final Set< Spot > vs = graph.vertexSet();
+		final Set< DefaultWeightedEdge > es = graph.edgeSet();
+		final CompactSpotGraph copy = new CompactSpotGraph( vs.size(), es.size() );
+		for ( final Spot spot : vs )
+			copy.addVertex( spot );
+		for ( final DefaultWeightedEdge edge : es )
+		{
+			final int source = copy.ordinal( graph.getEdgeSource( edge ) );
+			final int target = copy.ordinal( graph.getEdgeTarget( edge ) );
+			if ( source == target || copy.edgeBetween( source, target ) >= 0 || copy.containsEdge( edge ) )
+				continue;
+			copy.add( source, target, edge, graph.getEdgeWeight( edge ) );
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a copy of this graph, made of the same spot and edge objects.
+	 * This is much faster than {@link #copyOf(Graph)}, as the arrays are
+	 * copied in bulk and the spots and edges are not re-inserted one by one.
+	 * The copy and this graph can then be edited independently.
+	 *
+	 * @return a new graph.
+	 */
+	public CompactSpotGraph copy()
+	{
+		return new CompactSpotGraph( this );
+	}
+
+	private CompactSpotGraph( final CompactSpotGraph source )
+	{
+		this.spots = Arrays.copyOf( source.spots, Math.max( 1, source.spotEnd ) );
+		this.degrees = Arrays.copyOf( source.degrees, spots.length );
+		this.slots = Arrays.copyOf( source.slots, SLOTS * spots.length );
+		this.spotEnd = source.spotEnd;
+		this.nSpots = source.nSpots;
+		this.idToOrdinal = new TIntIntHashMap( spots.length, 0.5f, Integer.MIN_VALUE, NO_ENTRY );
+		for ( int o = 0; o < spotEnd; o++ )
+		{
+			if ( null == spots[ o ] )
+				continue;
+			idToOrdinal.put( spots[ o ].ID(), o );
+			if ( degrees[ o ] > SLOTS )
+				overflow.put( o, new TIntArrayList( source.overflow.get( o ) ) );
+		}
+
+		this.edges = Arrays.copyOf( source.edges, Math.max( 1, source.edgeEnd ) );
+		this.sources = Arrays.copyOf( source.sources, edges.length );
+		this.targets = Arrays.copyOf( source.targets, edges.length );
+		this.weights = Arrays.copyOf( source.weights, edges.length );
+		this.edgeEnd = source.edgeEnd;
+		this.nEdges = source.nEdges;
+		this.edgeToOrdinal = new TObjectIntHashMap<>( edges.length, 0.5f, NO_ENTRY );
+		for ( int e = 0; e < edgeEnd; e++ )
+			if ( null != edges[ e ] )
+				edgeToOrdinal.put( edges[ e ], e );
+	}
+
+	/*
+	 * GRAPH METHODS
+	 */
+
+	@Override
+	public Set< DefaultWeightedEdge > getAllEdges( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final int source = ordinal( sourceVertex );
+		final int target = ordinal( targetVertex );
+		if ( source == NO_ENTRY || target == NO_ENTRY )
+			return null;
+		final int e = edgeBetween( source, target );
+		return ( e == NO_ENTRY ) ? Collections.emptySet() : Collections.singleton( edges[ e ] );
+	}
+
+	@Override
+	public DefaultWeightedEdge getEdge( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final int source = ordinal( sourceVertex );
+		final int target = ordinal( targetVertex );
+		if ( source == NO_ENTRY || target == NO_ENTRY )
+			return null;
+		final int e = edgeBetween( source, target );
+		return ( e == NO_ENTRY ) ? null : edges[ e ];
+	}
+
+	@Override
+	public Supplier< Spot > getVertexSupplier()
+	{
+		return null;
+	}
+
+	@Override
+	public Supplier< DefaultWeightedEdge > getEdgeSupplier()
+	{
+		return EDGE_SUPPLIER;
+	}
+
+	@Override
+	public DefaultWeightedEdge addEdge( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final int source = assertSpot( sourceVertex );
+		final int target = assertSpot( targetVertex );
+		if ( edgeBetween( source, target ) != NO_ENTRY )
+			return null;
+		if ( source == target )
+			throw new IllegalArgumentException( "loops not allowed" );
+
+		final DefaultWeightedEdge edge = EDGE_SUPPLIER.get();
+		add( source, target, edge, Graph.DEFAULT_EDGE_WEIGHT );
+		return edge;
+	}
+
+	@Override
+	public boolean addEdge( final Spot sourceVertex, final Spot targetVertex, final DefaultWeightedEdge e )
+	{
+		if ( e == null )
+			throw new NullPointerException();
+		if ( containsEdge( e ) )
+			return false;
+
+		final int source = assertSpot( sourceVertex );
+		final int target = assertSpot( targetVertex );
+		if ( edgeBetween( source, target ) != NO_ENTRY )
+			return false;
+		if ( source == target )
+			throw new IllegalArgumentException( "loops not allowed" );
+
+		add( source, target, e, Graph.DEFAULT_EDGE_WEIGHT );
+		return true;
+	}
+
+	@Override
+	public Spot addVertex()
+	{
+		throw new UnsupportedOperationException( "The graph contains no vertex supplier" );
+	}
+
+	@Override
+	public boolean addVertex( final Spot v )
+	{
+		if ( v == null )
+			throw new NullPointerException();
+		if ( ordinal( v ) != NO_ENTRY )
+			return false;
+
+		if ( spotEnd == spots.length )
+		{
+			final int capacity = spots.length + ( spots.length >> 1 ) + 1;
+			spots = Arrays.copyOf( spots, capacity );
+			degrees = Arrays.copyOf( degrees, capacity );
+			slots = Arrays.copyOf( slots, SLOTS * capacity );
+		}
+		final int o = spotEnd++;
+		spots[ o ] = v;
+		degrees[ o ] = 0;
+		idToOrdinal.put( v.ID(), o );
+		nSpots++;
+		vertexModCount++;
+		return true;
+	}
+
+	@Override
+	public boolean containsEdge( final DefaultWeightedEdge e )
+	{
+		return index( e ) != NO_ENTRY;
+	}
+
+	@Override
+	public boolean containsVertex( final Spot v )
+	{
+		return ordinal( v ) != NO_ENTRY;
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > edgeSet()
+	{
+		return edgeSet;
+	}
+
+	@Override
+	public int degreeOf( final Spot vertex )
+	{
+		return degrees[ assertSpot( vertex ) ];
+	}
+
+	/**
+	 * Returns the edges of the specified spot. Unlike for the jgrapht graphs,
+	 * the set is a snapshot, that does not change when the graph is
+	 * modified.
+	 */
+	@Override
+	public Set< DefaultWeightedEdge > edgesOf( final Spot vertex )
+	{
+		final int o = assertSpot( vertex );
+		final DefaultWeightedEdge[] incident = new DefaultWeightedEdge[ degrees[ o ] ];
+		for ( int pos = 0; pos < incident.length; pos++ )
+			incident[ pos ] = edges[ slot( o, pos ) ];
+		return new IncidentEdges( incident );
+	}
+
+	@Override
+	public int inDegreeOf( final Spot vertex )
+	{
+		return degreeOf( vertex );
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > incomingEdgesOf( final Spot vertex )
+	{
+		return edgesOf( vertex );
+	}
+
+	@Override
+	public int outDegreeOf( final Spot vertex )
+	{
+		return degreeOf( vertex );
+	}
+
+	@Override
+	public Set< DefaultWeightedEdge > outgoingEdgesOf( final Spot vertex )
+	{
+		return edgesOf( vertex );
+	}
+
+	@Override
+	public DefaultWeightedEdge removeEdge( final Spot sourceVertex, final Spot targetVertex )
+	{
+		final int source = ordinal( sourceVertex );
+		final int target = ordinal( targetVertex );
+		if ( source == NO_ENTRY || target == NO_ENTRY )
+			return null;
+		final int e = edgeBetween( source, target );
+		if ( e == NO_ENTRY )
+			return null;
+
+		final DefaultWeightedEdge edge = edges[ e ];
+		remove( e );
+		compactEdgesIfNeeded();
+		return edge;
+	}
+
+	@Override
+	public boolean removeEdge( final DefaultWeightedEdge e )
+	{
+		final int index = index( e );
+		if ( index == NO_ENTRY )
+			return false;
+
+		remove( index );
+		compactEdgesIfNeeded();
+		return true;
+	}
+
+	@Override
+	public boolean removeVertex( final Spot v )
+	{
+		final int o = ordinal( v );
+		if ( o == NO_ENTRY )
+			return false;
+
+		while ( degrees[ o ] > 0 )
+			remove( slot( o, degrees[ o ] - 1 ) );
+		idToOrdinal.remove( spots[ o ].ID() );
+		spots[ o ] = null;
+		nSpots--;
+		vertexModCount++;
+		compactIfNeeded();
+		return true;
+	}
+
+	@Override
+	public Set< Spot > vertexSet()
+	{
+		return vertexSet;
+	}
+
+	@Override
+	public Spot getEdgeSource( final DefaultWeightedEdge e )
+	{
+		return spots[ sources[ assertEdge( e ) ] ];
+	}
+
+	@Override
+	public Spot getEdgeTarget( final DefaultWeightedEdge e )
+	{
+		return spots[ targets[ assertEdge( e ) ] ];
+	}
+
+	@Override
+	public GraphType getType()
+	{
+		return TYPE;
+	}
+
+	@Override
+	public double getEdgeWeight( final DefaultWeightedEdge e )
+	{
+		return weights[ assertEdge( e ) ];
+	}
+
+	@Override
+	public void setEdgeWeight( final DefaultWeightedEdge e, final double weight )
+	{
+		weights[ assertEdge( e ) ] = weight;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int ordinal( final Object v )
+	{
+		if ( !( v instanceof Spot ) )
+			return NO_ENTRY;
+		return idToOrdinal.get( ( ( Spot ) v ).ID() );
+	}
+
+	private int index( final Object e )
+	{
+		if ( !( e instanceof DefaultWeightedEdge ) )
+			return NO_ENTRY;
+		return edgeToOrdinal.get( e );
+	}
+
+	private int assertSpot( final Spot v )
+	{
+		if ( v == null )
+			throw new NullPointerException();
+		final int o = ordinal( v );
+		if ( o == NO_ENTRY )
+			throw new IllegalArgumentException( "no such vertex in graph: " + v.toString() );
+		return o;
+	}
+
+	private int assertEdge( final DefaultWeightedEdge e )
+	{
+		if ( e == null )
+			throw new NullPointerException();
+		final int index = index( e );
+		if ( index == NO_ENTRY )
+			throw new IllegalArgumentException( "no such edge in graph" );
+		return index;
+	}
+
+	/**
+	 * Returns the ordinal of the edge between two spots, or -1 if there is
+	 * none. Only scans the edges of the spot with the smallest degree.
+	 */
+	private int edgeBetween( final int a, final int b )
+	{
+		final int from = ( degrees[ a ] <= degrees[ b ] ) ? a : b;
+		final int other = ( from == a ) ? b : a;
+		for ( int pos = 0; pos < degrees[ from ]; pos++ )
+		{
+			final int e = slot( from, pos );
+			if ( ( sources[ e ] == from && targets[ e ] == other ) || ( sources[ e ] == other && targets[ e ] == from ) )
+				return e;
+		}
+		return NO_ENTRY;
+	}
+
+	private int slot( final int o, final int pos )
+	{
+		return ( pos < SLOTS ) ? slots[ SLOTS * o + pos ] : overflow.get( o ).getQuick( pos - SLOTS );
+	}
+
+	private void setSlot( final int o, final int pos, final int e )
+	{
+		if ( pos < SLOTS )
+			slots[ SLOTS * o + pos ] = e;
+		else
+			overflow.get( o ).setQuick( pos - SLOTS, e );
+	}
+
+	private void attach( final int o, final int e )
+	{
+		final int pos = degrees[ o ];
+		if ( pos < SLOTS )
+		{
+			slots[ SLOTS * o + pos ] = e;
+		}
+		else
+		{
+			TIntArrayList list = overflow.get( o );
+			if ( null == list )
+			{
+				list = new TIntArrayList( 4 );
+				overflow.put( o, list );
+			}
+			list.add( e );
+		}
+		degrees[ o ] = pos + 1;
+	}
+
+	/**
+	 * Removes an edge from the slots of a spot, shifting the next ones so as
+	 * to keep the insertion order.
+	 */
+	private void detach( final int o, final int e )
+	{
+		final int degree = degrees[ o ];
+		int pos = 0;
+		while ( slot( o, pos ) != e )
+			pos++;
+		for ( ; pos < degree - 1; pos++ )
+			setSlot( o, pos, slot( o, pos + 1 ) );
+
+		if ( degree > SLOTS )
+		{
+			final TIntArrayList list = overflow.get( o );
+			list.removeAt( list.size() - 1 );
+			if ( list.isEmpty() )
+				overflow.remove( o );
+		}
+		degrees[ o ] = degree - 1;
+	}
+
+	private void add( final int source, final int target, final DefaultWeightedEdge edge, final double weight )
+	{
+		if ( edgeEnd == edges.length )
+		{
+			final int capacity = edges.length + ( edges.length >> 1 ) + 1;
+			edges = Arrays.copyOf( edges, capacity );
+			sources = Arrays.copyOf( sources, capacity );
+			targets = Arrays.copyOf( targets, capacity );
+			weights = Arrays.copyOf( weights, capacity );
+		}
+		final int e = edgeEnd++;
+		edges[ e ] = edge;
+		sources[ e ] = source;
+		targets[ e ] = target;
+		weights[ e ] = weight;
+		edgeToOrdinal.put( edge, e );
+		attach( source, e );
+		attach( target, e );
+		nEdges++;
+		edgeModCount++;
+	}
+
+	private void remove( final int e )
+	{
+		detach( sources[ e ], e );
+		detach( targets[ e ], e );
+		edgeToOrdinal.remove( edges[ e ] );
+		edges[ e ] = null;
+		nEdges--;
+		edgeModCount++;
+	}
+
+	private void compactIfNeeded()
+	{
+		compactEdgesIfNeeded();
+		if ( spotEnd - nSpots > ( nSpots >> 1 ) + 64 )
+			compactSpots();
+	}
+
+	private void compactEdgesIfNeeded()
+	{
+		if ( edgeEnd - nEdges > ( nEdges >> 1 ) + 64 )
+			compactEdges();
+	}
+
+	/**
+	 * Reclaims the ordinals of removed edges, keeping the order of the
+	 * others. The spot ordinals do not change.
+	 */
+	private void compactEdges()
+	{
+		final int[] newEdge = new int[ edgeEnd ];
+		int ne = 0;
+		for ( int e = 0; e < edgeEnd; e++ )
+		{
+			if ( edges[ e ] == null )
+				continue;
+			newEdge[ e ] = ne;
+			if ( ne != e )
+			{
+				edges[ ne ] = edges[ e ];
+				sources[ ne ] = sources[ e ];
+				targets[ ne ] = targets[ e ];
+				weights[ ne ] = weights[ e ];
+				edgeToOrdinal.put( edges[ ne ], ne );
+			}
+			ne++;
+		}
+		Arrays.fill( edges, ne, edgeEnd, null );
+		edgeEnd = ne;
+
+		// The edge ordinals in the slots of the spots.
+		for ( int o = 0; o < spotEnd; o++ )
+		{
+			final int degree = degrees[ o ];
+			for ( int pos = 0; pos < Math.min( degree, SLOTS ); pos++ )
+				slots[ SLOTS * o + pos ] = newEdge[ slots[ SLOTS * o + pos ] ];
+			if ( degree > SLOTS )
+			{
+				final TIntArrayList list = overflow.get( o );
+				for ( int i = 0; i < list.size(); i++ )
+					list.setQuick( i, newEdge[ list.getQuick( i ) ] );
+			}
+		}
+		edgeModCount++;
+	}
+
+	/**
+	 * Reclaims the ordinals of removed spots, keeping the order of the
+	 * others. The edge ordinals do not change.
+	 */
+	private void compactSpots()
+	{
+		final int[] newSpot = new int[ spotEnd ];
+		int ns = 0;
+		for ( int o = 0; o < spotEnd; o++ )
+		{
+			if ( spots[ o ] == null )
+				continue;
+			newSpot[ o ] = ns;
+			if ( ns != o )
+			{
+				final int degree = degrees[ o ];
+				System.arraycopy( slots, SLOTS * o, slots, SLOTS * ns, Math.min( degree, SLOTS ) );
+				if ( degree > SLOTS )
+					overflow.put( ns, overflow.remove( o ) );
+				degrees[ ns ] = degree;
+				spots[ ns ] = spots[ o ];
+				idToOrdinal.put( spots[ ns ].ID(), ns );
+			}
+			ns++;
+		}
+		Arrays.fill( spots, ns, spotEnd, null );
+		Arrays.fill( degrees, ns, spotEnd, 0 );
+		spotEnd = ns;
+
+		// The spot ordinals of the edges.
+		for ( int e = 0; e < edgeEnd; e++ )
+		{
+			if ( edges[ e ] == null )
+				continue;
+			sources[ e ] = newSpot[ sources[ e ] ];
+			targets[ e ] = newSpot[ targets[ e ] ];
+		}
+		vertexModCount++;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Iterates over the non-<code>null</code> elements of an array field.
+	 */
+	private abstract class OrdinalIterator< T > implements Iterator< T >
+	{
+
+		private final int expectedModCount;
+
+		private int next = -1;
+
+		private OrdinalIterator()
+		{
+			expectedModCount = modCount();
+			advance();
+		}
+
+		protected abstract T at( int i );
+
+		protected abstract int end();
+
+		protected abstract int modCount();
+
+		private void advance()
+		{
+			next++;
+			while ( next < end() && at( next ) == null )
+				next++;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if ( modCount() != expectedModCount )
+				throw new ConcurrentModificationException();
+			return next < end();
+		}
+
+		@Override
+		public T next()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			final T t = at( next );
+			advance();
+			return t;
+		}
+	}
+
+	private final class VertexSet extends AbstractSet< Spot >
+	{
+
+		@Override
+		public Iterator< Spot > iterator()
+		{
+			return new OrdinalIterator< Spot >()
+			{
+				@Override
+				protected Spot at( final int i )
+				{
+					return spots[ i ];
+				}
+
+				@Override
+				protected int end()
+				{
+					return spotEnd;
+				}
+
+				@Override
+				protected int modCount()
+				{
+					return vertexModCount;
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return nSpots;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return ordinal( o ) != NO_ENTRY;
+		}
+	}
+
+	private final class EdgeSet extends AbstractSet< DefaultWeightedEdge >
+	{
+
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return new OrdinalIterator< DefaultWeightedEdge >()
+			{
+				@Override
+				protected DefaultWeightedEdge at( final int i )
+				{
+					return edges[ i ];
+				}
+
+				@Override
+				protected int end()
+				{
+					return edgeEnd;
+				}
+
+				@Override
+				protected int modCount()
+				{
+					return edgeModCount;
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return nEdges;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			return index( o ) != NO_ENTRY;
+		}
+	}
+
+	/**
+	 * An unmodifiable set over a small array of edges.
+	 */
+	private static final class IncidentEdges extends AbstractSet< DefaultWeightedEdge >
+	{
+
+		private final DefaultWeightedEdge[] edges;
+
+		private IncidentEdges( final DefaultWeightedEdge[] edges )
+		{
+			this.edges = edges;
+		}
+
+		@Override
+		public Iterator< DefaultWeightedEdge > iterator()
+		{
+			return Collections.unmodifiableList( Arrays.asList( edges ) ).iterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return edges.length;
+		}
+
+		@Override
+		public boolean contains( final Object o )
+		{
+			for ( final DefaultWeightedEdge edge : edges )
+				if ( edge == o )
+					return true;
+			return false;
+		}
+	}
+}
@@ -27,9 +27,16 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jgrapht.alg.connectivity.ConnectivityInspector;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -41,6 +48,7 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackModel;
 import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
 
 /**
  * A class that can decompose the tracks of a {@link Model} in convex branches.
@@ -161,13 +169,31 @@ import net.imglib2.algorithm.Benchmark;
  * the decomposition. Only spots belonging to visible tracks are taken into
  * account. This class also outputs the links that were cut in the source model
  * to generate these branches.
+ * <p>
+ * Tracks are decomposed in parallel. The decomposition of each track is cached
+ * in the {@link BranchDecompositionCache} of its track model, against its
+ * {@link TrackModel#trackVersion(Integer) version stamp}, so that successive
+ * decompositions of the same model only recompute the tracks that were
+ * modified in between. Cached decompositions are shared and cannot be
+ * modified.
  * 
  * @author Jean-Yves Tinevez - 2014
  */
-public class ConvexBranchesDecomposition implements Algorithm, Benchmark
+public class ConvexBranchesDecomposition implements Algorithm, Benchmark, MultiThreaded
 {
 	private static final String BASE_ERROR_MSG = "[ConvexBranchesDecomposition] ";
 
+	/**
+	 * The threads decomposing tracks, shared by all the calls to
+	 * {@link #processTracks(Collection, TrackModel, boolean, boolean, int)}.
+	 * Idle threads are discarded after a while.
+	 */
+	private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool( r -> {
+		final Thread thread = new Thread( r, "TrackMate-branch-decomposition" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
 	private String errorMessage;
 
 	private Collection< List< Spot > > branches;
@@ -178,11 +204,13 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 
 	private Map< Integer, Collection< List< Spot > > > linksPerTrack;
 
+	private Map< Integer, TrackBranchDecomposition > decompositionPerTrack;
+
 	private long processingTime;
 
-	private final TrackModel tm;
+	private int numThreads;
 
-	private final TimeDirectedNeighborIndex neighborIndex;
+	private final TrackModel tm;
 
 	private final boolean forbidMiddleLinks;
 
@@ -211,7 +239,7 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		this.forbidMiddleLinks = forbidMiddleLinks;
 		this.forbidGaps = forbidGaps;
 		this.tm = model.getTrackModel();
-		this.neighborIndex = tm.getDirectedNeighborIndex();
+		setNumThreads();
 	}
 
 	/**
@@ -258,6 +286,15 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		final long startT = System.currentTimeMillis();
 
 		final Set< Integer > trackIDs = tm.trackIDs( true );
+		try
+		{
+			decompositionPerTrack = processTracks( trackIDs, tm, forbidMiddleLinks, forbidGaps, numThreads );
+		}
+		catch ( final RuntimeException e )
+		{
+			errorMessage = BASE_ERROR_MSG + "Problem decomposing tracks: " + e.getMessage() + '\n';
+			return false;
+		}
 
 		branches = new ArrayList<>();
 		branchesPerTrack = new HashMap<>();
@@ -265,7 +302,7 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		linksPerTrack = new HashMap<>();
 		for ( final Integer trackID : trackIDs )
 		{
-			final TrackBranchDecomposition branchDecomposition = processTrack( trackID, tm, neighborIndex, forbidMiddleLinks, forbidGaps );
+			final TrackBranchDecomposition branchDecomposition = decompositionPerTrack.get( trackID );
 
 			branchesPerTrack.put( trackID, branchDecomposition.branches );
 			linksPerTrack.put( trackID, branchDecomposition.links );
@@ -281,6 +318,182 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 
 	}
 
+	/**
+	 * A static utility that returns the convex branch decomposition of a
+	 * specific track in a model, reusing the cached decomposition if the
+	 * track was not modified since it was last decomposed.
+	 *
+	 * @param trackID
+	 *            the ID of the track to decompose.
+	 * @param tm
+	 *            the {@link TrackModel} in which the track is stored.
+	 * @param forbidMiddleLinks
+	 *            if <code>true</code>, the decomposition will include branches
+	 *            where only the first and last spots may have more than one
+	 *            predecessor and one successor respectively. If
+	 *            <code>false</code>, some spots inside a branch may be a fusion
+	 *            or splitting point. This leads to fewer and longer branches.
+	 * @param forbidGaps
+	 *            if <code>true</code>, two neighbor spots in a branch will be
+	 *            separated by exactly one frame. If <code>false</code>,
+	 *            branches will include gaps.
+	 * @return a {@link TrackBranchDecomposition} that cannot be modified.
+	 * @see ConvexBranchesDecomposition
+	 */
+	public static final TrackBranchDecomposition processTrack( final Integer trackID, final TrackModel tm, final boolean forbidMiddleLinks, final boolean forbidGaps )
+	{
+		final BranchDecompositionCache cache = tm.getBranchDecompositionCache();
+		final long version = tm.trackVersion( trackID );
+		final TrackBranchDecomposition cached = cache.get( trackID, forbidMiddleLinks, forbidGaps, version );
+		if ( null != cached )
+			return cached;
+
+		// Decompose in the calling thread.
+		final TrackBranchDecomposition decomposition = unmodifiable( processTrack( trackID, tm, tm.getDirectedNeighborIndex(), forbidMiddleLinks, forbidGaps ) );
+		cache.put( trackID, forbidMiddleLinks, forbidGaps, version, decomposition );
+		return decomposition;
+	}
+
+	/**
+	 * A static utility that returns the convex branch decomposition of several
+	 * tracks in a model. Only the tracks that were modified since they were
+	 * last decomposed are processed, in parallel, on at most the specified
+	 * number of threads taken from a pool shared by all calls.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the tracks to decompose.
+	 * @param tm
+	 *            the {@link TrackModel} in which the tracks are stored.
+	 * @param forbidMiddleLinks
+	 *            if <code>true</code>, the decomposition will include branches
+	 *            where only the first and last spots may have more than one
+	 *            predecessor and one successor respectively.
+	 * @param forbidGaps
+	 *            if <code>true</code>, two neighbor spots in a branch will be
+	 *            separated by exactly one frame.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return a new map from track ID to {@link TrackBranchDecomposition}s
+	 *         that cannot be modified, iterated in the order of the specified
+	 *         track IDs.
+	 */
+	public static final Map< Integer, TrackBranchDecomposition > processTracks( final Collection< Integer > trackIDs, final TrackModel tm, final boolean forbidMiddleLinks, final boolean forbidGaps, final int numThreads )
+	{
+		return processTracks( trackIDs, tm, forbidMiddleLinks, forbidGaps, numThreads > 1 ? SHARED_EXECUTOR : null, numThreads );
+	}
+
+	/**
+	 * A static utility that returns the convex branch decomposition of several
+	 * tracks in a model. Only the tracks that were modified since they were
+	 * last decomposed are processed, in parallel, in the specified executor.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the tracks to decompose.
+	 * @param tm
+	 *            the {@link TrackModel} in which the tracks are stored.
+	 * @param forbidMiddleLinks
+	 *            if <code>true</code>, the decomposition will include branches
+	 *            where only the first and last spots may have more than one
+	 *            predecessor and one successor respectively.
+	 * @param forbidGaps
+	 *            if <code>true</code>, two neighbor spots in a branch will be
+	 *            separated by exactly one frame.
+	 * @param executor
+	 *            the executor to decompose the tracks in. It is not shut
+	 *            down. If <code>null</code>, the tracks are decomposed in the
+	 *            calling thread.
+	 * @return a new map from track ID to {@link TrackBranchDecomposition}s
+	 *         that cannot be modified, iterated in the order of the specified
+	 *         track IDs.
+	 */
+	public static final Map< Integer, TrackBranchDecomposition > processTracks( final Collection< Integer > trackIDs, final TrackModel tm, final boolean forbidMiddleLinks, final boolean forbidGaps, final ExecutorService executor )
+	{
+		return processTracks( trackIDs, tm, forbidMiddleLinks, forbidGaps, executor, Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Decomposes the tracks that are not cached with at most the specified
+	 * number of tasks running in the executor. Each task decomposes tracks
+	 * until there are none left.
+	 */
+	private static final Map< Integer, TrackBranchDecomposition > processTracks( final Collection< Integer > trackIDs, final TrackModel tm, final boolean forbidMiddleLinks, final boolean forbidGaps, final ExecutorService executor, final int maxTasks )
+	{
+		final Map< Integer, TrackBranchDecomposition > output = new LinkedHashMap<>( trackIDs.size() );
+		final BranchDecompositionCache cache = tm.getBranchDecompositionCache();
+
+		// Retrieve cached decompositions and find what has to be recomputed.
+		final List< Integer > toProcess = new ArrayList<>();
+		final List< Long > versions = new ArrayList<>();
+		for ( final Integer trackID : trackIDs )
+		{
+			final long version = tm.trackVersion( trackID );
+			final TrackBranchDecomposition cached = cache.get( trackID, forbidMiddleLinks, forbidGaps, version );
+			output.put( trackID, cached );
+			if ( null == cached )
+			{
+				toProcess.add( trackID );
+				versions.add( Long.valueOf( version ) );
+			}
+		}
+
+		if ( toProcess.isEmpty() )
+			return output;
+
+		final TrackBranchDecomposition[] results = new TrackBranchDecomposition[ toProcess.size() ];
+		final AtomicInteger next = new AtomicInteger( 0 );
+		final Runnable task = () -> {
+			int i;
+			while ( ( i = next.getAndIncrement() ) < results.length )
+			{
+				final Integer trackID = toProcess.get( i );
+				results[ i ] = unmodifiable( processTrack( trackID, tm, tm.getDirectedNeighborIndex(), forbidMiddleLinks, forbidGaps ) );
+				cache.put( trackID, forbidMiddleLinks, forbidGaps, versions.get( i ).longValue(), results[ i ] );
+			}
+		};
+
+		// Do not use other threads for a single track.
+		final int nTasks = Math.min( maxTasks, results.length );
+		if ( null == executor || nTasks <= 1 )
+		{
+			task.run();
+		}
+		else
+		{
+			final List< Future< ? > > futures = new ArrayList<>( nTasks );
+			for ( int t = 0; t < nTasks; t++ )
+				futures.add( executor.submit( task ) );
+			try
+			{
+				for ( final Future< ? > future : futures )
+					future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				throw new RuntimeException( e.getCause() );
+			}
+		}
+
+		for ( int i = 0; i < results.length; i++ )
+			output.put( toProcess.get( i ), results[ i ] );
+		return output;
+	}
+
+	/**
+	 * Clears the decompositions cached for the specified track model.
+	 *
+	 * @param tm
+	 *            the track model.
+	 */
+	public static final void clearCache( final TrackModel tm )
+	{
+		tm.getBranchDecompositionCache().clear();
+	}
+
 	/**
 	 * A static utility that generates the convex branch decomposition of a
 	 * specific track in a model.
@@ -583,6 +796,21 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		return branchGraph;
 	}
 
+	private static final TrackBranchDecomposition unmodifiable( final TrackBranchDecomposition decomposition )
+	{
+		final List< List< Spot > > branches = new ArrayList<>( decomposition.branches.size() );
+		for ( final List< Spot > branch : decomposition.branches )
+			branches.add( Collections.unmodifiableList( branch ) );
+		final List< List< Spot > > links = new ArrayList<>( decomposition.links.size() );
+		for ( final List< Spot > link : decomposition.links )
+			links.add( Collections.unmodifiableList( link ) );
+
+		final TrackBranchDecomposition output = new TrackBranchDecomposition();
+		output.branches = Collections.unmodifiableCollection( branches );
+		output.links = Collections.unmodifiableCollection( links );
+		return output;
+	}
+
 	private static final List< Spot > makeLink( final Spot spotA, final Spot spotB )
 	{
 		final List< Spot > link = new ArrayList<>( 2 );
@@ -662,6 +890,35 @@ public class ConvexBranchesDecomposition implements Algorithm, Benchmark
 		return linksPerTrack;
 	}
 
+	/**
+	 * Returns the mapping of each source track ID to its decomposition. The
+	 * decompositions cannot be modified.
+	 *
+	 * @return the mapping of track IDs to their decomposition.
+	 */
+	public Map< Integer, TrackBranchDecomposition > getDecompositionPerTrack()
+	{
+		return decompositionPerTrack;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	/*
 	 * STATIC CLASSES
 	 */
@@ -22,7 +22,6 @@
 package fiji.plugin.trackmate.gui.components;
 
 import static fiji.plugin.trackmate.features.FeatureUtils.collectFeatureKeys;
-import static fiji.plugin.trackmate.features.FeatureUtils.collectFeatureValues;
 import static fiji.plugin.trackmate.features.FeatureUtils.nObjects;
 import static fiji.plugin.trackmate.gui.Fonts.BIG_FONT;
 import static fiji.plugin.trackmate.gui.Fonts.SMALL_FONT;
@@ -41,7 +40,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
-import java.util.function.Function;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -60,6 +58,7 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureHistogramCache;
 import fiji.plugin.trackmate.gui.GuiUtils;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import fiji.plugin.trackmate.util.OnRequestUpdater;
@@ -101,6 +100,8 @@ public class FilterGuiPanel extends JPanel implements ChangeListener
 
 	private final JProgressBar progressBar;
 
+	private final FeatureHistogramCache histograms;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -119,6 +120,7 @@ public class FilterGuiPanel extends JPanel implements ChangeListener
 		this.target = target;
 		this.defaultFeature = defaultFeature;
 		this.updater = new OnRequestUpdater( () -> refresh() );
+		this.histograms = FeatureHistogramCache.forModel( model, target, false );
 
 		this.setLayout( new BorderLayout() );
 		setPreferredSize( new Dimension( 270, 500 ) );
@@ -204,6 +206,10 @@ public class FilterGuiPanel extends JPanel implements ChangeListener
 		 * Initial values.
 		 */
 
+		final List< String > features = new ArrayList<>( filters.size() );
+		for ( final FeatureFilter ft : filters )
+			features.add( ft.feature );
+		histograms.prefetch( features );
 		for ( final FeatureFilter ft : filters )
 			addFilterPanel( ft );
 
@@ -211,7 +217,10 @@ public class FilterGuiPanel extends JPanel implements ChangeListener
 		logger = new ProgressBarLogger();
 		
 		// On close
-		GuiUtils.addOnClosingEvent( this, () -> updater.quit() );
+		GuiUtils.addOnClosingEvent( this, () -> {
+			updater.quit();
+			histograms.quit();
+		} );
 	}
 
 	/*
@@ -286,8 +295,7 @@ public class FilterGuiPanel extends JPanel implements ChangeListener
 	public void addFilterPanel( final FeatureFilter filter )
 	{
 		final Map< String, String > featureNames = collectFeatureKeys( target, model, settings );
-		final Function< String, double[] > valueCollector = ( featureKey ) -> collectFeatureValues( featureKey, target, model, false );
-		final FilterPanel tp = new FilterPanel( featureNames, valueCollector, filter );
+		final FilterPanel tp = new FilterPanel( featureNames, histograms, filter );
 
 		tp.addChangeListener( this );
 		final Component strut = Box.createVerticalStrut( 5 );
@@ -55,6 +55,7 @@ import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JRadioButton;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.border.LineBorder;
 import javax.swing.event.ChangeEvent;
@@ -70,8 +71,9 @@ import org.jfree.chart.renderer.xy.StandardXYBarPainter;
 import org.jfree.chart.renderer.xy.XYBarRenderer;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureHistogram;
+import fiji.plugin.trackmate.features.FeatureHistogramCache;
 import fiji.plugin.trackmate.gui.GuiUtils;
-import fiji.plugin.trackmate.util.TMUtils;
 import fiji.util.NumberParser;
 
 /**
@@ -110,7 +112,22 @@ public class FilterPanel extends javax.swing.JPanel
 
 	private double threshold;
 
-	private final Function< String, double[] > valueCollector;
+	private final FeatureHistogramCache histograms;
+
+	/**
+	 * If <code>true</code>, the cache was created by this panel and must be
+	 * refreshed when the panel is.
+	 */
+	private final boolean ownCache;
+
+	/** The histogram currently displayed. */
+	private volatile FeatureHistogram histogram;
+
+	/**
+	 * Whether the threshold must be set automatically when the histogram of
+	 * the selected feature is ready.
+	 */
+	private boolean pendingAutoThreshold;
 
 	private final XYTextSimpleAnnotation annotation;
 
@@ -132,7 +149,37 @@ public class FilterPanel extends javax.swing.JPanel
 			final Function< String, double[] > valueCollector,
 			final FeatureFilter filter )
 	{
-		this.valueCollector = valueCollector;
+		this( keyNames, new FeatureHistogramCache( valueCollector ), true, filter );
+	}
+
+	/**
+	 * Creates a filter panel that takes the feature histograms from the
+	 * specified cache. The owner of the cache is responsible for keeping it
+	 * up to date before calling {@link #refresh()}.
+	 *
+	 * @param keyNames
+	 *            the feature keys and names to choose from.
+	 * @param histograms
+	 *            the histogram cache.
+	 * @param filter
+	 *            the initial filter.
+	 */
+	public FilterPanel(
+			final Map< String, String > keyNames,
+			final FeatureHistogramCache histograms,
+			final FeatureFilter filter )
+	{
+		this( keyNames, histograms, false, filter );
+	}
+
+	private FilterPanel(
+			final Map< String, String > keyNames,
+			final FeatureHistogramCache histograms,
+			final boolean ownCache,
+			final FeatureFilter filter )
+	{
+		this.histograms = histograms;
+		this.ownCache = ownCache;
 
 		final Dimension panelSize = new java.awt.Dimension( 250, 140 );
 		final Dimension panelMaxSize = new java.awt.Dimension( 1000, 140 );
@@ -278,23 +325,26 @@ public class FilterPanel extends javax.swing.JPanel
 		buttonGroup.add( rdbtnBelow );
 
 		/*
-		 * Listeners & co.
+		 * Current values. The histogram is displayed when ready, and the
+		 * threshold is set automatically then if it is not specified.
 		 */
 
-		cmbboxFeatureKeys.addActionListener( e -> comboBoxSelectionChanged() );
+		rdbtnAbove.setSelected( filter.isAbove );
+		rdbtnBelow.setSelected( !filter.isAbove );
+		cmbboxFeatureKeys.setSelectedItem( filter.feature );
+		pendingAutoThreshold = Double.isNaN( filter.value );
+		if ( !pendingAutoThreshold )
+			this.threshold = filter.value;
+		comboBoxSelectionChanged();
 
 		/*
-		 * Current values.
+		 * Listeners & co.
 		 */
 
-		cmbboxFeatureKeys.setSelectedItem( filter.feature );
-		rdbtnAbove.setSelected( filter.isAbove );
-		rdbtnBelow.setSelected( !filter.isAbove );
-		if ( Double.isNaN( filter.value ) )
-			autoThreshold();
-		else
-			this.threshold = filter.value;
-		redrawThresholdMarker();
+		cmbboxFeatureKeys.addActionListener( e -> {
+			pendingAutoThreshold = true;
+			comboBoxSelectionChanged();
+		} );
 	}
 
 	/*
@@ -335,31 +385,45 @@ public class FilterPanel extends javax.swing.JPanel
 	/**
 	 * Refreshes the histogram content. Call this method when the values in the
 	 * values map changed to update histogram display.
+	 * <p>
+	 * The values are collected and binned in the background, and the display
+	 * is updated on the EDT when they are ready.
 	 */
 	public void refresh()
 	{
-		final double old = threshold;
 		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
+		if ( ownCache )
+			histograms.refresh( key );
+		histograms.getAsync( key ).thenAccept( h -> {
+			final LogHistogramDataset dataset = LogHistogramDataset.of( DATA_SERIES_NAME, h );
+			SwingUtilities.invokeLater( () -> {
+				// Discard if the user selected another feature meanwhile.
+				if ( !key.equals( cmbboxFeatureKeys.getSelectedItem() ) )
+					return;
 
-		final LogHistogramDataset dataset;
-		if ( null == values || 0 == values.length )
-		{
-			dataset = new LogHistogramDataset();
-			annotation.setLocation( 0.5f, 0.5f );
-			annotation.setText( "No data" );
-		}
-		else
-		{
-			final int nBins = TMUtils.getNBins( values, 8, 100 );
-			dataset = new LogHistogramDataset();
-			if ( nBins > 1 )
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
-		}
-		plot.setDataset( dataset );
-		threshold = old;
-		repaint();
-		redrawThresholdMarker();
+				final double old = threshold;
+				histogram = h;
+				if ( h.size() == 0 )
+				{
+					annotation.setLocation( 0.5f, 0.5f );
+					annotation.setText( "No data" );
+				}
+				plot.setDataset( dataset );
+				threshold = old;
+				repaint();
+				redrawThresholdMarker();
+			} );
+		} );
+	}
+
+	/**
+	 * Returns the histogram currently displayed by this panel.
+	 *
+	 * @return the histogram, or <code>null</code> if it is not computed yet.
+	 */
+	public FeatureHistogram getHistogram()
+	{
+		return histogram;
 	}
 
 	/*
@@ -372,40 +436,51 @@ public class FilterPanel extends javax.swing.JPanel
 			al.stateChanged( CHANGE_EVENT );
 	}
 
+	/**
+	 * Displays the histogram of the selected feature. The values are collected
+	 * and binned in the background, and the display is updated on the EDT
+	 * when they are ready.
+	 */
 	private void comboBoxSelectionChanged()
 	{
 		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
-
-		final LogHistogramDataset dataset;
-		if ( null == values || 0 == values.length )
-		{
-			dataset = new LogHistogramDataset();
-			threshold = Double.NaN;
-			annotation.setLocation( 0.5f, 0.5f );
-			annotation.setText( "No data" );
-			fireThresholdChanged();
-		}
-		else
-		{
-			final int nBins = TMUtils.getNBins( values, 8, 100 );
-			dataset = new LogHistogramDataset();
+		histograms.getAsync( key ).thenAccept( h -> {
+			final LogHistogramDataset dataset = LogHistogramDataset.of( DATA_SERIES_NAME, h );
+			SwingUtilities.invokeLater( () -> {
+				// Discard if the user selected another feature meanwhile.
+				if ( !key.equals( cmbboxFeatureKeys.getSelectedItem() ) )
+					return;
 
-			if ( nBins > 1 )
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
-		}
-		plot.setDataset( dataset );
-		resetAxes();
-		autoThreshold(); // Will fire the fireThresholdChanged();
+				histogram = h;
+				plot.setDataset( dataset );
+				resetAxes();
+				if ( h.size() == 0 )
+				{
+					pendingAutoThreshold = false;
+					threshold = Double.NaN;
+					annotation.setLocation( 0.5f, 0.5f );
+					annotation.setText( "No data" );
+					fireThresholdChanged();
+					return;
+				}
+				if ( pendingAutoThreshold )
+				{
+					pendingAutoThreshold = false;
+					autoThreshold(); // Will fire the fireThresholdChanged();
+				}
+				else
+				{
+					redrawThresholdMarker();
+				}
+			} );
+		} );
 	}
 
 	private void autoThreshold()
 	{
-		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
-		if ( null != values && values.length > 0 )
+		if ( null != histogram && histogram.size() > 0 )
 		{
-			threshold = TMUtils.otsuThreshold( values );
+			threshold = histogram.getOtsuThreshold();
 			redrawThresholdMarker();
 		}
 	}
@@ -418,9 +493,7 @@ public class FilterPanel extends javax.swing.JPanel
 
 	private void redrawThresholdMarker()
 	{
-		final String key = ( String ) cmbboxFeatureKeys.getSelectedItem();
-		final double[] values = valueCollector.apply( key );
-		if ( null == values )
+		if ( null == histogram )
 			return;
 
 		if ( rdbtnAbove.isSelected() )
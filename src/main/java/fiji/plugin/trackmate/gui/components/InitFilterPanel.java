@@ -37,6 +37,8 @@ import javax.swing.SpringLayout;
 
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureHistogram;
+import fiji.plugin.trackmate.features.FeatureHistogramCache;
 import fiji.plugin.trackmate.util.OnRequestUpdater;
 
 public class InitFilterPanel extends JPanel
@@ -50,14 +52,12 @@ public class InitFilterPanel extends JPanel
 
 	private final OnRequestUpdater updater;
 
-	private final Function< String, double[] > valueCollector;
+	private final FeatureHistogramCache histograms;
 
 	private final FilterPanel filterPanel;
 
 	private final JLabel lblSelectedSpots;
 
-	private double[] values;
-
 	/**
 	 * Default constructor, initialize component.
 	 *
@@ -66,7 +66,7 @@ public class InitFilterPanel extends JPanel
 	 */
 	public InitFilterPanel( final FeatureFilter filter, final Function< String, double[] > valueCollector )
 	{
-		this.valueCollector = valueCollector;
+		this.histograms = new FeatureHistogramCache( valueCollector );
 		this.updater = new OnRequestUpdater( () -> thresholdChanged() );
 
 		final BorderLayout thisLayout = new BorderLayout();
@@ -112,15 +112,14 @@ public class InitFilterPanel extends JPanel
 		final HashMap< String, String > keyNames = new HashMap<>( 1 );
 		keyNames.put( Spot.QUALITY, Spot.FEATURE_NAMES.get( Spot.QUALITY ) );
 
-		filterPanel = new FilterPanel( keyNames, valueCollector, filter );
+		filterPanel = new FilterPanel( keyNames, histograms, filter );
 		filterPanel.cmbboxFeatureKeys.setEnabled( false );
 		filterPanel.rdbtnAbove.setEnabled( false );
 		filterPanel.rdbtnBelow.setEnabled( false );
 		this.add( filterPanel, BorderLayout.CENTER );
 		filterPanel.setPreferredSize( new java.awt.Dimension( 300, 200 ) );
+		// Called when the histogram is ready.
 		filterPanel.addChangeListener( e -> updater.doUpdate() );
-
-		refresh();
 	}
 
 	/*
@@ -129,9 +128,8 @@ public class InitFilterPanel extends JPanel
 
 	public void refresh()
 	{
-		values = valueCollector.apply( Spot.QUALITY );
+		histograms.refresh( Spot.QUALITY );
 		filterPanel.refresh();
-		updater.doUpdate();
 	}
 
 	/**
@@ -152,22 +150,13 @@ public class InitFilterPanel extends JPanel
 		final double threshold = filter.value;
 		final boolean isAbove = filter.isAbove;
 
-		if ( null == values )
+		final FeatureHistogram histogram = filterPanel.getHistogram();
+		if ( null == histogram )
 			return;
-		final int nspots = values.length;
-		int nselected = 0;
-		if ( isAbove )
-		{
-			for ( final double val : values )
-				if ( val > threshold )
-					nselected++;
-		}
-		else
-		{
-			for ( final double val : values )
-				if ( val < threshold )
-					nselected++;
-		}
+		final int nspots = histogram.size();
+		final int nselected = isAbove
+				? histogram.countAbove( threshold )
+				: histogram.countBelow( threshold );
 		lblSelectedSpots.setText( String.format( SELECTED_SPOT_STRING, nselected, nspots ) );
 	}
 }
@@ -23,6 +23,8 @@ package fiji.plugin.trackmate.gui.components;
 
 import org.jfree.data.statistics.HistogramDataset;
 
+import fiji.plugin.trackmate.features.FeatureHistogram;
+
 /**
  * A {@link HistogramDataset} that returns the log of the count in each bin
  * (plus one), so as to have a logarithmic plot.
@@ -35,6 +37,26 @@ public class LogHistogramDataset extends HistogramDataset
 
 	private static final long serialVersionUID = 6012084169414194555L;
 
+	/**
+	 * Creates a dataset with a single series, binning the values of the
+	 * specified histogram with its own number of bins.
+	 *
+	 * @param key
+	 *            the series key.
+	 * @param histogram
+	 *            the histogram. If it has less than 2 bins, the dataset is
+	 *            empty.
+	 * @return a new dataset.
+	 */
+	public static LogHistogramDataset of( final Comparable< ? > key, final FeatureHistogram histogram )
+	{
+		final LogHistogramDataset dataset = new LogHistogramDataset();
+		final int nBins = histogram.getNBins();
+		if ( nBins > 1 )
+			dataset.addSeries( key, histogram.getSortedValues(), nBins, histogram.getMin(), histogram.getMax() );
+		return dataset;
+	}
+
 	@Override
 	public Number getY( int series, int item )
 	{
@@ -0,0 +1,902 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.manual.ManualEdgeColorAnalyzer;
+import fiji.plugin.trackmate.features.manual.ManualSpotColorAnalyzerFactory;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Headless export of the spot, edge and track statistics of a {@link Model}.
+ * <p>
+ * The tables have the same content as the ones displayed by the
+ * <code>AllSpotsTableView</code> and <code>TrackTableView</code> views, but
+ * are written directly from the model, without creating any UI component.
+ * Rows are streamed: they are formatted in blocks on several threads and
+ * written to the file in order, so only a few blocks are held in memory at
+ * once.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li>{@link Format#CSV}: the same CSV layout as the one exported from the
+ * table views, with up to 4 header lines (feature keys, names, short names and
+ * units).
+ * <li>{@link Format#BINARY}: a simple typed columnar format, meant to be read
+ * quickly by downstream analysis tools. All numbers are little-endian. The file
+ * starts with the <code>int32</code> magic number {@value #MAGIC}, the
+ * <code>int32</code> format version, the <code>int64</code> number of rows and
+ * the <code>int32</code> number of columns. Then, for each column, its name,
+ * its units and its type as one byte: <code>'D'</code> for
+ * <code>float64</code> values (<code>NaN</code> when missing),
+ * <code>'I'</code> for <code>int32</code> values
+ * (<code>Integer.MIN_VALUE</code> when missing) and <code>'S'</code> for
+ * strings. Then the values of each column, one column after the other. Strings
+ * are written as their <code>int32</code> byte length followed by their UTF-8
+ * bytes. Such files can be read back with {@link #readBinary(File)}.
+ * </ul>
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class StatsExporter
+{
+
+	public enum Format
+	{
+		CSV( ".csv" ),
+		BINARY( ".tmcol" );
+
+		private final String extension;
+
+		private Format( final String extension )
+		{
+			this.extension = extension;
+		}
+
+		/**
+		 * Returns the file extension of this format, including the dot.
+		 *
+		 * @return the file extension.
+		 */
+		public String extension()
+		{
+			return extension;
+		}
+	}
+
+	/** Magic number at the start of binary files, 'TMCL'. */
+	public static final int MAGIC = 0x544D434C;
+
+	private static final int VERSION = 1;
+
+	/** Number of rows formatted per task. */
+	private static final int BLOCK_SIZE = 4096;
+
+	private static final String SPOT_ID = "ID";
+
+	private static final String TRACK_ID = "TRACK_ID";
+
+	private StatsExporter()
+	{}
+
+	/**
+	 * Exports the spots, edges and tracks tables of the specified model in 3
+	 * files, named after the specified base name with the
+	 * <code>-spots</code>, <code>-edges</code> and <code>-tracks</code>
+	 * suffixes.
+	 *
+	 * @param model
+	 *            the model to export.
+	 * @param folder
+	 *            the folder in which to write the files.
+	 * @param baseName
+	 *            the base name of the files.
+	 * @param format
+	 *            the file format.
+	 * @param numThreads
+	 *            the number of threads to use to format rows.
+	 * @throws IOException
+	 *             if a file cannot be written.
+	 */
+	public static void exportAll( final Model model, final File folder, final String baseName, final Format format, final int numThreads ) throws IOException
+	{
+		exportSpots( model, false, new File( folder, baseName + "-spots" + format.extension() ), format, numThreads );
+		exportEdges( model, new File( folder, baseName + "-edges" + format.extension() ), format, numThreads );
+		exportTracks( model, new File( folder, baseName + "-tracks" + format.extension() ), format, numThreads );
+	}
+
+	/**
+	 * Exports the spot table of the specified model.
+	 *
+	 * @param model
+	 *            the model to export.
+	 * @param onlyInVisibleTracks
+	 *            if <code>true</code>, only the spots of visible tracks are
+	 *            exported, as in the track tables. Otherwise all visible
+	 *            spots are exported, sorted by frame.
+	 * @param file
+	 *            the file to write.
+	 * @param format
+	 *            the file format.
+	 * @param numThreads
+	 *            the number of threads to use to format rows.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void exportSpots( final Model model, final boolean onlyInVisibleTracks, final File file, final Format format, final int numThreads ) throws IOException
+	{
+		final Iterable< Spot > spots;
+		if ( onlyInVisibleTracks )
+		{
+			final List< Spot > list = new ArrayList<>();
+			for ( final Integer trackID : model.getTrackModel().unsortedTrackIDs( true ) )
+				list.addAll( model.getTrackModel().trackSpots( trackID ) );
+			spots = list;
+		}
+		else
+		{
+			spots = model.getSpots().iterable( true );
+		}
+		write( spotTable( model, spots ), file, format, numThreads );
+	}
+
+	/**
+	 * Exports the table of the edges in visible tracks of the specified model.
+	 *
+	 * @param model
+	 *            the model to export.
+	 * @param file
+	 *            the file to write.
+	 * @param format
+	 *            the file format.
+	 * @param numThreads
+	 *            the number of threads to use to format rows.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void exportEdges( final Model model, final File file, final Format format, final int numThreads ) throws IOException
+	{
+		final List< DefaultWeightedEdge > edges = new ArrayList<>();
+		for ( final Integer trackID : model.getTrackModel().unsortedTrackIDs( true ) )
+			edges.addAll( model.getTrackModel().trackEdges( trackID ) );
+		write( edgeTable( model, edges ), file, format, numThreads );
+	}
+
+	/**
+	 * Exports the table of the visible tracks of the specified model.
+	 *
+	 * @param model
+	 *            the model to export.
+	 * @param file
+	 *            the file to write.
+	 * @param format
+	 *            the file format.
+	 * @param numThreads
+	 *            the number of threads to use to format rows.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void exportTracks( final Model model, final File file, final Format format, final int numThreads ) throws IOException
+	{
+		final List< Integer > trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( true ) );
+		write( trackTable( model, trackIDs ), file, format, numThreads );
+	}
+
+	/**
+	 * Reads a file written in the {@link Format#BINARY} format.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return a new map from column name to column values, in the file order.
+	 *         Values are stored in a <code>double[]</code>, an
+	 *         <code>int[]</code> or a <code>String[]</code> array, depending
+	 *         on the column type.
+	 * @throws IOException
+	 *             if the file cannot be read or is not in the expected format.
+	 */
+	public static Map< String, Object > readBinary( final File file ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+		{
+			final ChannelReader in = new ChannelReader( channel );
+			if ( in.getInt() != MAGIC )
+				throw new IOException( "Not a TrackMate column file: " + file );
+			final int version = in.getInt();
+			if ( version != VERSION )
+				throw new IOException( "Unsupported TrackMate column file version: " + version );
+			final long nRowsL = in.getLong();
+			if ( nRowsL > Integer.MAX_VALUE )
+				throw new IOException( "Too many rows to read in memory: " + nRowsL );
+			final int nRows = ( int ) nRowsL;
+			final int nCols = in.getInt();
+
+			final String[] names = new String[ nCols ];
+			final byte[] types = new byte[ nCols ];
+			for ( int c = 0; c < nCols; c++ )
+			{
+				names[ c ] = in.getString();
+				in.getString(); // units
+				types[ c ] = in.get();
+			}
+
+			final Map< String, Object > columns = new LinkedHashMap<>( nCols );
+			for ( int c = 0; c < nCols; c++ )
+			{
+				switch ( types[ c ] )
+				{
+				case 'D':
+				{
+					final double[] values = new double[ nRows ];
+					for ( int r = 0; r < nRows; r++ )
+						values[ r ] = in.getDouble();
+					columns.put( names[ c ], values );
+					break;
+				}
+				case 'I':
+				{
+					final int[] values = new int[ nRows ];
+					for ( int r = 0; r < nRows; r++ )
+						values[ r ] = in.getInt();
+					columns.put( names[ c ], values );
+					break;
+				}
+				case 'S':
+				{
+					final String[] values = new String[ nRows ];
+					for ( int r = 0; r < nRows; r++ )
+						values[ r ] = in.getString();
+					columns.put( names[ c ], values );
+					break;
+				}
+				default:
+					throw new IOException( "Unknown column type for column " + names[ c ] + ": " + types[ c ] );
+				}
+			}
+			return columns;
+		}
+	}
+
+	/*
+	 * TABLES.
+	 */
+
+	/**
+	 * The description of a table: its rows and how to get the value of each
+	 * column for a row.
+	 */
+	private static final class Table< O >
+	{
+
+		private final Iterable< O > rows;
+
+		private final List< String > features;
+
+		private final Map< String, String > names;
+
+		private final Map< String, String > shortNames;
+
+		private final Map< String, String > units;
+
+		private final Map< String, Boolean > isInts;
+
+		private final Function< O, String > labelFun;
+
+		private final BiFunction< O, String, Double > featureFun;
+
+		private final String colorFeature;
+
+		private Table(
+				final Iterable< O > rows,
+				final List< String > features,
+				final Map< String, String > names,
+				final Map< String, String > shortNames,
+				final Map< String, String > units,
+				final Map< String, Boolean > isInts,
+				final Function< O, String > labelFun,
+				final BiFunction< O, String, Double > featureFun,
+				final String colorFeature )
+		{
+			this.rows = rows;
+			this.features = features;
+			this.names = names;
+			this.shortNames = shortNames;
+			this.units = units;
+			this.isInts = isInts;
+			this.labelFun = labelFun;
+			this.featureFun = featureFun;
+			this.colorFeature = colorFeature;
+		}
+	}
+
+	private static Table< Spot > spotTable( final Model model, final Iterable< Spot > spots )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > features = new ArrayList<>( fm.getSpotFeatures() );
+		final Map< String, String > names = new LinkedHashMap<>( fm.getSpotFeatureNames() );
+		final Map< String, String > shortNames = new LinkedHashMap<>( fm.getSpotFeatureShortNames() );
+		final Map< String, String > units = units( features, fm.getSpotFeatureDimensions(), model );
+		final Map< String, Boolean > isInts = new LinkedHashMap<>( fm.getSpotFeatureIsInt() );
+
+		features.add( 0, SPOT_ID );
+		names.put( SPOT_ID, "Spot ID" );
+		shortNames.put( SPOT_ID, "Spot ID" );
+		units.put( SPOT_ID, "" );
+		isInts.put( SPOT_ID, Boolean.TRUE );
+
+		features.add( 1, TRACK_ID );
+		names.put( TRACK_ID, "Track ID" );
+		shortNames.put( TRACK_ID, "Track ID" );
+		units.put( TRACK_ID, "" );
+		isInts.put( TRACK_ID, Boolean.TRUE );
+
+		final TrackModel tm = model.getTrackModel();
+		final BiFunction< Spot, String, Double > featureFun = ( spot, feature ) -> {
+			if ( feature.equals( TRACK_ID ) )
+			{
+				final Integer trackID = tm.trackIDOf( spot );
+				return trackID == null ? null : trackID.doubleValue();
+			}
+			else if ( feature.equals( SPOT_ID ) )
+				return ( double ) spot.ID();
+			return spot.getFeature( feature );
+		};
+		return new Table<>( spots, features, names, shortNames, units, isInts,
+				Spot::getName, featureFun, ManualSpotColorAnalyzerFactory.FEATURE );
+	}
+
+	private static Table< DefaultWeightedEdge > edgeTable( final Model model, final Collection< DefaultWeightedEdge > edges )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > features = new ArrayList<>( fm.getEdgeFeatures() );
+		final Map< String, String > names = new LinkedHashMap<>( fm.getEdgeFeatureNames() );
+		final Map< String, String > shortNames = new LinkedHashMap<>( fm.getEdgeFeatureShortNames() );
+		final Map< String, String > units = units( features, fm.getEdgeFeatureDimensions(), model );
+		final Map< String, Boolean > isInts = new LinkedHashMap<>( fm.getEdgeFeatureIsInt() );
+
+		features.add( 0, TRACK_ID );
+		names.put( TRACK_ID, "Track ID" );
+		shortNames.put( TRACK_ID, "Track ID" );
+		units.put( TRACK_ID, "" );
+		isInts.put( TRACK_ID, Boolean.TRUE );
+
+		final TrackModel tm = model.getTrackModel();
+		final Function< DefaultWeightedEdge, String > labelFun = edge -> tm.getEdgeSource( edge ).getName()
+				+ " → " + tm.getEdgeTarget( edge ).getName();
+		final BiFunction< DefaultWeightedEdge, String, Double > featureFun = ( edge, feature ) -> {
+			if ( feature.equals( TRACK_ID ) )
+			{
+				final Integer trackID = tm.trackIDOf( edge );
+				return trackID == null ? null : trackID.doubleValue();
+			}
+			return fm.getEdgeFeature( edge, feature );
+		};
+		return new Table<>( edges, features, names, shortNames, units, isInts,
+				labelFun, featureFun, ManualEdgeColorAnalyzer.FEATURE );
+	}
+
+	private static Table< Integer > trackTable( final Model model, final Collection< Integer > trackIDs )
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > features = new ArrayList<>( fm.getTrackFeatures() );
+		final TrackModel tm = model.getTrackModel();
+		return new Table<>( trackIDs, features,
+				fm.getTrackFeatureNames(),
+				fm.getTrackFeatureShortNames(),
+				units( features, fm.getTrackFeatureDimensions(), model ),
+				fm.getTrackFeatureIsInt(),
+				tm::name,
+				fm::getTrackFeature,
+				null );
+	}
+
+	private static Map< String, String > units( final Collection< String > features, final Map< String, Dimension > dimensions, final Model model )
+	{
+		final Map< String, String > units = new LinkedHashMap<>();
+		for ( final String feature : features )
+			units.put( feature, TMUtils.getUnitsFor( dimensions.get( feature ), model.getSpaceUnits(), model.getTimeUnits() ) );
+		return units;
+	}
+
+	/*
+	 * WRITING.
+	 */
+
+	private static < O > void write( final Table< O > table, final File file, final Format format, final int numThreads ) throws IOException
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		try (final FileChannel channel = FileChannel.open( file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+		{
+			switch ( format )
+			{
+			case CSV:
+				writeFully( channel, csvHeader( table ) );
+				writeOrdered( channel, csvTasks( table ), executor, numThreads );
+				break;
+			case BINARY:
+			{
+				// We need the number of rows before writing the columns.
+				final List< List< O > > blocks = new ArrayList<>();
+				blocks( table.rows ).forEachRemaining( blocks::add );
+				long nRows = 0;
+				for ( final List< O > block : blocks )
+					nRows += block.size();
+				writeFully( channel, binaryHeader( table, nRows ) );
+				writeOrdered( channel, binaryTasks( table, blocks ), executor, numThreads );
+				break;
+			}
+			default:
+				throw new IllegalArgumentException( "Unknown format: " + format );
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs the specified tasks on the executor and writes their results to the
+	 * channel in order. At most a few tasks per thread are pending at any
+	 * time, so that memory usage stays bounded.
+	 */
+	private static void writeOrdered( final FileChannel channel, final Iterator< Callable< byte[] > > tasks, final ExecutorService executor, final int numThreads ) throws IOException
+	{
+		final int maxPending = 2 * Math.max( 1, numThreads );
+		final Deque< Future< byte[] > > pending = new ArrayDeque<>( maxPending );
+		try
+		{
+			while ( tasks.hasNext() )
+			{
+				pending.add( executor.submit( tasks.next() ) );
+				if ( pending.size() >= maxPending )
+					writeFully( channel, pending.poll().get() );
+			}
+			while ( !pending.isEmpty() )
+				writeFully( channel, pending.poll().get() );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Export interrupted.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new IOException( "Problem formatting rows: " + e.getCause().getMessage(), e.getCause() );
+		}
+	}
+
+	private static void writeFully( final FileChannel channel, final byte[] bytes ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes );
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	/**
+	 * Splits the rows of a table in blocks of at most {@link #BLOCK_SIZE}
+	 * rows, as they are iterated.
+	 */
+	private static < O > Iterator< List< O > > blocks( final Iterable< O > rows )
+	{
+		final Iterator< O > it = rows.iterator();
+		return new Iterator< List< O > >()
+		{
+
+			@Override
+			public boolean hasNext()
+			{
+				return it.hasNext();
+			}
+
+			@Override
+			public List< O > next()
+			{
+				final List< O > block = new ArrayList<>( BLOCK_SIZE );
+				while ( it.hasNext() && block.size() < BLOCK_SIZE )
+					block.add( it.next() );
+				return block;
+			}
+		};
+	}
+
+	/*
+	 * CSV.
+	 */
+
+	private static < O > byte[] csvHeader( final Table< O > table )
+	{
+		final StringBuilder str = new StringBuilder();
+		final boolean hasLabel = table.labelFun != null;
+
+		/*
+		 * Skip the 2nd or 3rd line if they are identical to the previous one,
+		 * as in the table views.
+		 */
+		boolean skipSecondLine = true;
+		boolean skipThirdLine = true;
+		for ( final String feature : table.features )
+		{
+			final String name = table.names.get( feature );
+			if ( !feature.equals( name ) )
+				skipSecondLine = false;
+			if ( !name.equals( table.shortNames.get( feature ) ) )
+				skipThirdLine = false;
+		}
+
+		csvHeaderLine( str, hasLabel ? "LABEL" : null, table.features, f -> f );
+		if ( !skipSecondLine )
+			csvHeaderLine( str, hasLabel ? "Label" : null, table.features, table.names::get );
+		if ( !skipThirdLine )
+			csvHeaderLine( str, hasLabel ? "Label" : null, table.features, table.shortNames::get );
+		csvHeaderLine( str, hasLabel ? "" : null, table.features, f -> {
+			final String units = table.units.get( f );
+			return ( units == null || units.isEmpty() ) ? "" : "(" + units + ")";
+		} );
+		return str.toString().getBytes( StandardCharsets.UTF_8 );
+	}
+
+	private static void csvHeaderLine( final StringBuilder str, final String label, final List< String > features, final Function< String, String > fun )
+	{
+		boolean first = true;
+		if ( label != null )
+		{
+			appendCsvString( str, label );
+			first = false;
+		}
+		for ( final String feature : features )
+		{
+			if ( !first )
+				str.append( ',' );
+			appendCsvString( str, fun.apply( feature ) );
+			first = false;
+		}
+		str.append( '\n' );
+	}
+
+	private static < O > Iterator< Callable< byte[] > > csvTasks( final Table< O > table )
+	{
+		final Iterator< List< O > > blocks = blocks( table.rows );
+		return new Iterator< Callable< byte[] > >()
+		{
+
+			@Override
+			public boolean hasNext()
+			{
+				return blocks.hasNext();
+			}
+
+			@Override
+			public Callable< byte[] > next()
+			{
+				final List< O > block = blocks.next();
+				return () -> formatCsv( table, block );
+			}
+		};
+	}
+
+	private static < O > byte[] formatCsv( final Table< O > table, final List< O > block )
+	{
+		final int nFeatures = table.features.size();
+		final String[] features = table.features.toArray( new String[ nFeatures ] );
+		final boolean[] isInt = new boolean[ nFeatures ];
+		final boolean[] isColor = new boolean[ nFeatures ];
+		for ( int i = 0; i < nFeatures; i++ )
+		{
+			isColor[ i ] = features[ i ].equals( table.colorFeature );
+			isInt[ i ] = Boolean.TRUE.equals( table.isInts.get( features[ i ] ) );
+		}
+
+		final StringBuilder str = new StringBuilder( block.size() * 16 * ( nFeatures + 1 ) );
+		for ( final O o : block )
+		{
+			boolean first = true;
+			if ( table.labelFun != null )
+			{
+				appendCsvString( str, table.labelFun.apply( o ) );
+				first = false;
+			}
+			for ( int i = 0; i < nFeatures; i++ )
+			{
+				if ( !first )
+					str.append( ',' );
+				first = false;
+
+				final Double val = table.featureFun.apply( o, features[ i ] );
+				if ( val == null )
+					continue;
+
+				if ( isColor[ i ] )
+				{
+					final int rgb = val.intValue();
+					str.append( "r=" ).append( ( rgb >> 16 ) & 0xFF )
+							.append( ";g=" ).append( ( rgb >> 8 ) & 0xFF )
+							.append( ";b=" ).append( rgb & 0xFF );
+				}
+				else if ( isInt[ i ] )
+					str.append( val.intValue() );
+				else
+					str.append( val.doubleValue() );
+			}
+			str.append( '\n' );
+		}
+		return str.toString().getBytes( StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * Appends a string to a CSV line, quoting it only if it contains a
+	 * separator, a quote or a line break.
+	 */
+	private static void appendCsvString( final StringBuilder str, final String s )
+	{
+		if ( s == null )
+			return;
+		boolean quote = false;
+		for ( int i = 0; i < s.length() && !quote; i++ )
+		{
+			final char c = s.charAt( i );
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if ( !quote )
+		{
+			str.append( s );
+			return;
+		}
+		str.append( '"' );
+		for ( int i = 0; i < s.length(); i++ )
+		{
+			final char c = s.charAt( i );
+			if ( c == '"' )
+				str.append( '"' );
+			str.append( c );
+		}
+		str.append( '"' );
+	}
+
+	/*
+	 * BINARY.
+	 */
+
+	private static < O > byte[] binaryHeader( final Table< O > table, final long nRows )
+	{
+		final ByteArrayBuilder out = new ByteArrayBuilder( 64 * ( table.features.size() + 1 ) );
+		out.putInt( MAGIC );
+		out.putInt( VERSION );
+		out.putLong( nRows );
+		out.putInt( table.features.size() + ( table.labelFun == null ? 0 : 1 ) );
+		if ( table.labelFun != null )
+		{
+			out.putString( "LABEL" );
+			out.putString( "" );
+			out.put( ( byte ) 'S' );
+		}
+		for ( final String feature : table.features )
+		{
+			out.putString( feature );
+			final String units = table.units.get( feature );
+			out.putString( units == null ? "" : units );
+			out.put( ( byte ) ( Boolean.TRUE.equals( table.isInts.get( feature ) ) ? 'I' : 'D' ) );
+		}
+		return out.toArray();
+	}
+
+	/**
+	 * One task per column and per block of rows, column after column.
+	 */
+	private static < O > Iterator< Callable< byte[] > > binaryTasks( final Table< O > table, final List< List< O > > blocks )
+	{
+		final List< Callable< byte[] > > tasks = new ArrayList<>();
+		if ( table.labelFun != null )
+		{
+			for ( final List< O > block : blocks )
+			{
+				tasks.add( () -> {
+					final ByteArrayBuilder out = new ByteArrayBuilder( 16 * block.size() );
+					for ( final O o : block )
+					{
+						final String label = table.labelFun.apply( o );
+						out.putString( label == null ? "" : label );
+					}
+					return out.toArray();
+				} );
+			}
+		}
+		for ( final String feature : table.features )
+		{
+			final boolean isInt = Boolean.TRUE.equals( table.isInts.get( feature ) );
+			for ( final List< O > block : blocks )
+			{
+				tasks.add( () -> {
+					final ByteBuffer buffer = ByteBuffer.allocate( ( isInt ? 4 : 8 ) * block.size() ).order( ByteOrder.LITTLE_ENDIAN );
+					for ( final O o : block )
+					{
+						final Double val = table.featureFun.apply( o, feature );
+						if ( isInt )
+							buffer.putInt( val == null ? Integer.MIN_VALUE : val.intValue() );
+						else
+							buffer.putDouble( val == null ? Double.NaN : val.doubleValue() );
+					}
+					return buffer.array();
+				} );
+			}
+		}
+		return tasks.iterator();
+	}
+
+	/**
+	 * A growable little-endian byte buffer.
+	 */
+	private static final class ByteArrayBuilder
+	{
+
+		private ByteBuffer buffer;
+
+		private ByteArrayBuilder( final int capacity )
+		{
+			this.buffer = ByteBuffer.allocate( Math.max( 16, capacity ) ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+
+		private void ensure( final int n )
+		{
+			if ( buffer.remaining() >= n )
+				return;
+			final int capacity = Math.max( buffer.capacity() * 2, buffer.position() + n );
+			final ByteBuffer newBuffer = ByteBuffer.allocate( capacity ).order( ByteOrder.LITTLE_ENDIAN );
+			buffer.flip();
+			newBuffer.put( buffer );
+			buffer = newBuffer;
+		}
+
+		private void put( final byte b )
+		{
+			ensure( 1 );
+			buffer.put( b );
+		}
+
+		private void putInt( final int i )
+		{
+			ensure( 4 );
+			buffer.putInt( i );
+		}
+
+		private void putLong( final long l )
+		{
+			ensure( 8 );
+			buffer.putLong( l );
+		}
+
+		private void putString( final String s )
+		{
+			final byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+			ensure( 4 + bytes.length );
+			buffer.putInt( bytes.length );
+			buffer.put( bytes );
+		}
+
+		private byte[] toArray()
+		{
+			return Arrays.copyOf( buffer.array(), buffer.position() );
+		}
+	}
+
+	/**
+	 * Reads little-endian values from a channel through a buffer.
+	 */
+	private static final class ChannelReader
+	{
+
+		private final FileChannel channel;
+
+		private ByteBuffer buffer = ByteBuffer.allocate( 1 << 16 ).order( ByteOrder.LITTLE_ENDIAN );
+
+		private ChannelReader( final FileChannel channel )
+		{
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		private void ensure( final int n ) throws IOException
+		{
+			if ( buffer.remaining() >= n )
+				return;
+			if ( buffer.capacity() < n )
+			{
+				final ByteBuffer newBuffer = ByteBuffer.allocate( n ).order( ByteOrder.LITTLE_ENDIAN );
+				newBuffer.put( buffer );
+				buffer = newBuffer;
+			}
+			else
+			{
+				buffer.compact();
+			}
+			while ( buffer.position() < n )
+			{
+				if ( channel.read( buffer ) < 0 )
+					throw new IOException( "Unexpected end of file." );
+			}
+			buffer.flip();
+		}
+
+		private byte get() throws IOException
+		{
+			ensure( 1 );
+			return buffer.get();
+		}
+
+		private int getInt() throws IOException
+		{
+			ensure( 4 );
+			return buffer.getInt();
+		}
+
+		private long getLong() throws IOException
+		{
+			ensure( 8 );
+			return buffer.getLong();
+		}
+
+		private double getDouble() throws IOException
+		{
+			ensure( 8 );
+			return buffer.getDouble();
+		}
+
+		private String getString() throws IOException
+		{
+			final int length = getInt();
+			ensure( length );
+			final byte[] bytes = new byte[ length ];
+			buffer.get( bytes );
+			return new String( bytes, StandardCharsets.UTF_8 );
+		}
+	}
+}
@@ -22,26 +22,34 @@
 package fiji.plugin.trackmate.providers;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.scijava.Context;
-import org.scijava.InstantiableException;
-import org.scijava.log.LogService;
-import org.scijava.plugin.PluginInfo;
-import org.scijava.plugin.PluginService;
+import java.util.concurrent.ConcurrentHashMap;
 
 import fiji.plugin.trackmate.TrackMateModule;
-import fiji.plugin.trackmate.util.TMUtils;
 
+/**
+ * Base class for the providers of TrackMate modules.
+ * <p>
+ * The modules available are read from the process-wide
+ * {@link PluginRegistry}, so creating a provider does not trigger plugin
+ * discovery again. Each provider instantiates its modules lazily, the first
+ * time they are requested with {@link #getFactory(String)}, and then returns
+ * the same instance.
+ *
+ * @param <K>
+ *            the type of modules provided.
+ */
 public abstract class AbstractProvider< K extends TrackMateModule >
 {
 	private final Class< K > cl;
 
+	private final PluginRegistry.Index index;
+
 	public AbstractProvider( final Class< K > cl )
 	{
 		this.cl = cl;
+		this.index = PluginRegistry.index( cl );
 		registerModules();
 	}
 
@@ -55,39 +63,10 @@ public abstract class AbstractProvider< K extends TrackMateModule >
 
 	private void registerModules()
 	{
-		final Context context = TMUtils.getContext();
-		final LogService log = context.getService( LogService.class );
-		final PluginService pluginService = context.getService( PluginService.class );
-		final List< PluginInfo< K > > infos = pluginService.getPluginsOfType( cl );
-
-		keys = new ArrayList<>( infos.size() );
-		visibleKeys = new ArrayList<>( infos.size() );
-		disabled = new ArrayList<>( infos.size() );
-		implementations = new HashMap<>();
-
-		for ( final PluginInfo< K > info : infos )
-		{
-			if ( !info.isEnabled() )
-			{
-				disabled.add( info.getClassName() );
-				continue;
-			}
-			try
-			{
-				final K implementation = info.createInstance();
-				final String key = implementation.getKey();
-
-				implementations.put( key, implementation );
-				keys.add( key );
-				if ( info.isVisible() )
-					visibleKeys.add( key );
-
-			}
-			catch ( final InstantiableException e )
-			{
-				log.error( "Could not instantiate " + info.getClassName(), e );
-			}
-		}
+		keys = new ArrayList<>( index.keys );
+		visibleKeys = new ArrayList<>( index.visibleKeys );
+		disabled = new ArrayList<>( index.disabled );
+		implementations = new ConcurrentHashMap<>();
 	}
 
 	public List< String > getKeys()
@@ -107,7 +86,14 @@ public abstract class AbstractProvider< K extends TrackMateModule >
 
 	public K getFactory( final String key )
 	{
-		return implementations.get( key );
+		if ( null == key )
+			return null;
+		final K implementation = implementations.get( key );
+		if ( null != implementation )
+			return implementation;
+		if ( !keys.contains( key ) )
+			return null;
+		return implementations.computeIfAbsent( key, k -> PluginRegistry.instantiate( cl, index, k ) );
 	}
 
 	public String echo()
@@ -0,0 +1,347 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.providers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.scijava.Context;
+import org.scijava.InstantiableException;
+import org.scijava.log.LogService;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.plugin.PluginService;
+
+import fiji.plugin.trackmate.TrackMateModule;
+import fiji.plugin.trackmate.action.TrackMateActionFactory;
+import fiji.plugin.trackmate.detection.SpotDetectorFactoryBase;
+import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
+import fiji.plugin.trackmate.features.spot.SpotMorphologyAnalyzerFactory;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.tracking.SpotTrackerFactory;
+import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.visualization.ViewFactory;
+
+/**
+ * Process-wide registry of the TrackMate modules discovered at runtime, shared
+ * by all the {@link AbstractProvider}s.
+ * <p>
+ * For each module type, the plugins are discovered once with the SciJava
+ * {@link PluginService}, and the index from module key to plugin is cached.
+ * Each plugin is instantiated once during discovery to read its key; after
+ * that, providers only instantiate the modules that are requested.
+ * <p>
+ * The discovery can be skipped altogether with a precomputed index file,
+ * written by {@link #writeIndex(File)} and loaded by {@link #loadIndex(File)},
+ * or by setting the {@value #INDEX_PROPERTY} system property to its path. This
+ * is meant for headless runs on a fixed installation. The index must be
+ * recomputed when plugins are added or removed. The module types missing from
+ * the index, or all of them if it cannot be read, are discovered at runtime.
+ * The classes of a precomputed index are loaded with the context class loader
+ * of the calling thread, as the SciJava plugin classes are.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public final class PluginRegistry
+{
+
+	/**
+	 * System property that can be set to the path of a precomputed index file.
+	 */
+	public static final String INDEX_PROPERTY = "trackmate.pluginIndex";
+
+	/**
+	 * The module types handled by the providers of this package.
+	 */
+	private static final List< Class< ? extends TrackMateModule > > MODULE_TYPES = Arrays.asList(
+			SpotDetectorFactoryBase.class,
+			SpotTrackerFactory.class,
+			SpotAnalyzerFactory.class,
+			SpotMorphologyAnalyzerFactory.class,
+			EdgeAnalyzer.class,
+			TrackAnalyzer.class,
+			ViewFactory.class,
+			TrackMateActionFactory.class );
+
+	private static final String VISIBLE = "visible";
+
+	private static final String HIDDEN = "hidden";
+
+	private static final String DISABLED = "disabled";
+
+	private static final Map< String, Index > INDICES = new ConcurrentHashMap<>();
+
+	private static volatile boolean propertyChecked = false;
+
+	private PluginRegistry()
+	{}
+
+	/**
+	 * The modules of one type, in priority order.
+	 */
+	static final class Index
+	{
+
+		final List< String > keys = new ArrayList<>();
+
+		final List< String > visibleKeys = new ArrayList<>();
+
+		final List< String > disabled = new ArrayList<>();
+
+		/** Plugin info, or class name for precomputed indices. */
+		final Map< String, Object > plugins = new HashMap<>();
+	}
+
+	/**
+	 * Returns the index of the modules of the specified type, discovering them
+	 * if needed.
+	 */
+	static Index index( final Class< ? extends TrackMateModule > cl )
+	{
+		if ( !propertyChecked )
+			loadIndexFromProperty();
+		return INDICES.computeIfAbsent( cl.getName(), k -> discover( cl ) );
+	}
+
+	/**
+	 * Creates a new instance of the module with the specified key.
+	 *
+	 * @return a new instance, or <code>null</code> if the key is unknown or if
+	 *         the module cannot be instantiated.
+	 */
+	static < K extends TrackMateModule > K instantiate( final Class< K > cl, final Index index, final String key )
+	{
+		final Object plugin = index.plugins.get( key );
+		if ( null == plugin )
+			return null;
+		try
+		{
+			if ( plugin instanceof PluginInfo )
+				return cl.cast( ( ( PluginInfo< ? > ) plugin ).createInstance() );
+
+			final Class< ? > pluginClass = loadClass( ( String ) plugin );
+			return cl.cast( pluginClass.getDeclaredConstructor().newInstance() );
+		}
+		catch ( final InstantiableException | ReflectiveOperationException | ClassCastException e )
+		{
+			final LogService log = TMUtils.getContext().getService( LogService.class );
+			log.error( "Could not instantiate " + plugin, e );
+			return null;
+		}
+	}
+
+	/**
+	 * Loads a plugin class with the context class loader of the current
+	 * thread, or with the class loader of this class if there is none or if
+	 * it does not know the class.
+	 */
+	private static Class< ? > loadClass( final String className ) throws ClassNotFoundException
+	{
+		final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		if ( null != contextClassLoader )
+		{
+			try
+			{
+				return Class.forName( className, true, contextClassLoader );
+			}
+			catch ( final ClassNotFoundException e )
+			{}
+		}
+		return Class.forName( className, true, PluginRegistry.class.getClassLoader() );
+	}
+
+	/**
+	 * Forgets all the discovered modules, so that they are discovered again
+	 * the next time a provider is created. Useful when plugins are added at
+	 * runtime. The index file specified by the {@value #INDEX_PROPERTY}
+	 * system property, if any, is read again.
+	 */
+	public static synchronized void clear()
+	{
+		INDICES.clear();
+		propertyChecked = false;
+	}
+
+	/**
+	 * Discovers the modules of all types and writes their index to a file,
+	 * that can be loaded later with {@link #loadIndex(File)}.
+	 *
+	 * @param file
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void writeIndex( final File file ) throws IOException
+	{
+		try (BufferedWriter writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ))
+		{
+			writer.write( "# TrackMate plugin index: type, state, key, class." );
+			writer.newLine();
+			for ( final Class< ? extends TrackMateModule > cl : MODULE_TYPES )
+			{
+				final Index index = index( cl );
+				for ( final String key : index.keys )
+				{
+					final Object plugin = index.plugins.get( key );
+					final String className = ( plugin instanceof PluginInfo ) ? ( ( PluginInfo< ? > ) plugin ).getClassName() : ( String ) plugin;
+					final String state = index.visibleKeys.contains( key ) ? VISIBLE : HIDDEN;
+					writer.write( String.join( "\t", cl.getName(), state, key, className ) );
+					writer.newLine();
+				}
+				for ( final String className : index.disabled )
+				{
+					writer.write( String.join( "\t", cl.getName(), DISABLED, "", className ) );
+					writer.newLine();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads a precomputed index file. The module types it contains will not
+	 * be discovered at runtime anymore.
+	 *
+	 * @param file
+	 *            the file written by {@link #writeIndex(File)}.
+	 * @throws IOException
+	 *             if the file cannot be read or is malformed.
+	 */
+	public static void loadIndex( final File file ) throws IOException
+	{
+		final Map< String, Index > indices = new LinkedHashMap<>();
+		int lineNumber = 0;
+		for ( final String line : Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			lineNumber++;
+			if ( line.trim().isEmpty() || line.startsWith( "#" ) )
+				continue;
+			final String[] tokens = line.split( "\t", -1 );
+			if ( tokens.length != 4 )
+				throw new IOException( "Malformed plugin index line " + lineNumber + " in " + file + ": " + line );
+
+			final Index index = indices.computeIfAbsent( tokens[ 0 ], k -> new Index() );
+			final String state = tokens[ 1 ];
+			final String key = tokens[ 2 ];
+			final String className = tokens[ 3 ];
+			if ( DISABLED.equals( state ) )
+			{
+				index.disabled.add( className );
+				continue;
+			}
+			index.keys.add( key );
+			if ( VISIBLE.equals( state ) )
+				index.visibleKeys.add( key );
+			index.plugins.put( key, className );
+		}
+		INDICES.putAll( indices );
+	}
+
+	private static synchronized void loadIndexFromProperty()
+	{
+		if ( propertyChecked )
+			return;
+		propertyChecked = true;
+		final String path = System.getProperty( INDEX_PROPERTY );
+		if ( null == path || path.isEmpty() )
+			return;
+		try
+		{
+			loadIndex( new File( path ) );
+		}
+		catch ( final IOException e )
+		{
+			final LogService log = TMUtils.getContext().getService( LogService.class );
+			log.warn( "Could not load the TrackMate plugin index " + path + ", plugins will be discovered at runtime.", e );
+		}
+	}
+
+	private static < K extends TrackMateModule > Index discover( final Class< K > cl )
+	{
+		final Context context = TMUtils.getContext();
+		final LogService log = context.getService( LogService.class );
+		final PluginService pluginService = context.getService( PluginService.class );
+		final List< PluginInfo< K > > infos = pluginService.getPluginsOfType( cl );
+
+		final Index index = new Index();
+		for ( final PluginInfo< K > info : infos )
+		{
+			if ( !info.isEnabled() )
+			{
+				index.disabled.add( info.getClassName() );
+				continue;
+			}
+			try
+			{
+				// We need an instance to know the key.
+				final K implementation = info.createInstance();
+				final String key = implementation.getKey();
+
+				index.plugins.put( key, info );
+				index.keys.add( key );
+				if ( info.isVisible() )
+					index.visibleKeys.add( key );
+			}
+			catch ( final InstantiableException e )
+			{
+				log.error( "Could not instantiate " + info.getClassName(), e );
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the module types handled by the providers.
+	 *
+	 * @return an unmodifiable collection of module types.
+	 */
+	public static Collection< Class< ? extends TrackMateModule > > moduleTypes()
+	{
+		return Collections.unmodifiableList( MODULE_TYPES );
+	}
+
+	/**
+	 * Writes the plugin index of this installation to the file specified as
+	 * first argument.
+	 */
+	public static void main( final String[] args ) throws IOException
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "Usage: PluginRegistry index-file" );
+			System.exit( 1 );
+		}
+		writeIndex( new File( args[ 0 ] ) );
+		System.out.println( "Plugin index written to " + args[ 0 ] );
+	}
+}
@@ -26,6 +26,7 @@ import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -45,9 +46,6 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
-import fiji.plugin.trackmate.util.TMUtils;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, Cancelable
@@ -108,18 +106,22 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 		final double maxDistSquare = maxLinkingDistance * maxLinkingDistance;
 		final TreeSet< Integer > frames = new TreeSet<>( spots.keySet() );
 
-		// Prepare executors.
+		/*
+		 * Each frame pair is processed independently, and its links are
+		 * collected in a buffer. The buffers are added to the graph once all
+		 * frame pairs are done, so that the workers never contend on it.
+		 */
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
-		final List< Future< Void > > futures = new ArrayList<>( frames.size() );
+		final List< Future< Links > > futures = new ArrayList<>( frames.size() );
 		for ( int i = frames.first(); i < frames.last(); i++ )
 		{
 			final int frame = i;
-			final Future< Void > future = executors.submit( new Callable< Void >()
+			final Future< Links > future = executors.submit( new Callable< Links >()
 			{
 
 				@Override
-				public Void call() throws Exception
+				public Links call() throws Exception
 				{
 					if ( isCanceled() )
 						return null;
@@ -135,20 +137,9 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 						return null;
 					}
 
-					final List< RealPoint > targetCoords = new ArrayList<>( nTargetSpots );
-					final List< FlagNode< Spot > > targetNodes = new ArrayList<>( nTargetSpots );
-					final Iterator< Spot > targetIt = spots.iterator( targetFrame, true );
-					while ( targetIt.hasNext() )
-					{
-						final double[] coords = new double[ 3 ];
-						final Spot spot = targetIt.next();
-						TMUtils.localize( spot, coords );
-						targetCoords.add( new RealPoint( coords ) );
-						targetNodes.add( new FlagNode<>( spot ) );
-					}
-
-					final KDTree< FlagNode< Spot > > tree = new KDTree<>( targetNodes, targetCoords );
-					final NearestNeighborFlagSearchOnKDTree< Spot > search = new NearestNeighborFlagSearchOnKDTree<>( tree );
+					final SpotKDTree tree = SpotKDTree.forFrame( spots, targetFrame, true );
+					final BitSet assigned = new BitSet( nTargetSpots );
+					final Links links = new Links( Math.min( nTargetSpots, spots.getNSpots( sourceFrame, true ) ) );
 
 					/*
 					 * For each spot in the source frame, find its nearest
@@ -158,18 +149,19 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 					while ( sourceIt.hasNext() )
 					{
 						final Spot source = sourceIt.next();
-						final double[] coords = new double[ 3 ];
-						TMUtils.localize( source, coords );
-						final RealPoint sourceCoords = new RealPoint( coords );
-						search.search( sourceCoords );
-
-						final double squareDist = search.getSquareDistance();
-						final FlagNode< Spot > targetNode = search.getSampler().get();
+						final double x = source.getDoublePosition( 0 );
+						final double y = source.getDoublePosition( 1 );
+						final double z = source.getDoublePosition( 2 );
+						final int target = tree.nearest( x, y, z, assigned );
 
 						/*
-						 * The closest we could find is too far. We skip this
-						 * source spot and do not create a link
+						 * All the targets are assigned, or the closest we
+						 * could find is too far. We skip this source spot
+						 * and do not create a link.
 						 */
+						if ( target < 0 )
+							continue;
+						final double squareDist = tree.squareDistance( target, x, y, z );
 						if ( squareDist > maxDistSquare )
 							continue;
 
@@ -178,16 +170,11 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 						 * dist. We create a link and mark this node as
 						 * assigned.
 						 */
-
-						targetNode.setVisited( true );
-						synchronized ( graph )
-						{
-							final DefaultWeightedEdge edge = graph.addEdge( source, targetNode.getValue() );
-							graph.setEdgeWeight( edge, squareDist );
-						}
+						assigned.set( target );
+						links.add( source, tree.getSpot( target ), squareDist );
 					}
 					logger.setProgress( progress.incrementAndGet() / ( double ) frames.size() );
-					return null;
+					return links;
 				}
 			} );
 			futures.add( future );
@@ -198,8 +185,17 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 
 		try
 		{
-			for ( final Future< Void > future : futures )
-				future.get();
+			for ( final Future< Links > future : futures )
+			{
+				final Links links = future.get();
+				if ( null == links )
+					continue;
+				for ( int i = 0; i < links.size; i++ )
+				{
+					final DefaultWeightedEdge edge = graph.addEdge( links.sources[ i ], links.targets[ i ] );
+					graph.setEdgeWeight( edge, links.weights[ i ] );
+				}
+			}
 
 			executors.shutdown();
 		}
@@ -269,4 +265,34 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 	{
 		return cancelReason;
 	}
+
+	/**
+	 * The links found for one frame pair.
+	 */
+	private static final class Links
+	{
+
+		private final Spot[] sources;
+
+		private final Spot[] targets;
+
+		private final double[] weights;
+
+		private int size;
+
+		private Links( final int capacity )
+		{
+			this.sources = new Spot[ capacity ];
+			this.targets = new Spot[ capacity ];
+			this.weights = new double[ capacity ];
+		}
+
+		private void add( final Spot source, final Spot target, final double weight )
+		{
+			sources[ size ] = source;
+			targets[ size ] = target;
+			weights[ size ] = weight;
+			size++;
+		}
+	}
 }
@@ -0,0 +1,361 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.kdtree;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * A KD-tree over the positions of a fixed set of spots, stored in flat
+ * primitive arrays.
+ * <p>
+ * The tree is balanced and implicit: the node of a sub-range
+ * <code>[lo, hi[</code> of the arrays is at its middle, its left sub-tree is
+ * the lower half and its right sub-tree the upper half. The coordinates are
+ * interleaved as X, Y, Z in a single <code>double[]</code> array, so that
+ * there is no object per node and a search only touches contiguous memory.
+ * <p>
+ * Spots are referred to by their index in the tree, from 0 to
+ * {@link #size()} excluded. This makes it possible to flag spots with a
+ * {@link BitSet}, for instance to exclude spots that were already assigned
+ * in a nearest-neighbor search. Searches do not allocate and do not modify
+ * the tree, so a single instance can be queried concurrently.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SpotKDTree
+{
+
+	private final Spot[] spots;
+
+	/** X, Y, Z interleaved, in tree order. */
+	private final double[] coords;
+
+	/** The dimension along which each node splits its sub-tree. */
+	private final byte[] splitDims;
+
+	/**
+	 * Builds a KD-tree over the specified spots.
+	 *
+	 * @param spots
+	 *            the spots to index.
+	 */
+	public SpotKDTree( final Collection< Spot > spots )
+	{
+		this( spots.iterator(), spots.size() );
+	}
+
+	/**
+	 * Builds a KD-tree over the spots returned by the specified iterator.
+	 *
+	 * @param it
+	 *            an iterator over the spots to index.
+	 * @param nSpots
+	 *            the number of spots returned by the iterator.
+	 */
+	public SpotKDTree( final Iterator< Spot > it, final int nSpots )
+	{
+		this.spots = new Spot[ nSpots ];
+		this.coords = new double[ 3 * nSpots ];
+		this.splitDims = new byte[ nSpots ];
+		int i = 0;
+		while ( it.hasNext() && i < nSpots )
+		{
+			final Spot spot = it.next();
+			spots[ i ] = spot;
+			coords[ 3 * i ] = spot.getDoublePosition( 0 );
+			coords[ 3 * i + 1 ] = spot.getDoublePosition( 1 );
+			coords[ 3 * i + 2 ] = spot.getDoublePosition( 2 );
+			i++;
+		}
+		if ( i != nSpots )
+			throw new IllegalArgumentException( "Expected " + nSpots + " spots, but the iterator returned " + i + "." );
+
+		build( 0, nSpots );
+	}
+
+	/**
+	 * Builds a KD-tree over the spots of the specified frame of a
+	 * {@link SpotCollection}.
+	 *
+	 * @param spots
+	 *            the spot collection.
+	 * @param frame
+	 *            the frame to index.
+	 * @param visibleSpotsOnly
+	 *            if <code>true</code>, only the visible spots are indexed.
+	 * @return a new KD-tree.
+	 */
+	public static SpotKDTree forFrame( final SpotCollection spots, final int frame, final boolean visibleSpotsOnly )
+	{
+		return new SpotKDTree( spots.iterator( frame, visibleSpotsOnly ), spots.getNSpots( frame, visibleSpotsOnly ) );
+	}
+
+	/**
+	 * Returns the number of spots in this tree.
+	 *
+	 * @return the number of spots.
+	 */
+	public int size()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns the spot with the specified index in this tree.
+	 *
+	 * @param index
+	 *            the index of the spot, as returned by a search.
+	 * @return the spot.
+	 */
+	public Spot getSpot( final int index )
+	{
+		return spots[ index ];
+	}
+
+	/**
+	 * Returns the squared distance between the spot with the specified index
+	 * and a location.
+	 *
+	 * @param index
+	 *            the index of the spot.
+	 * @param x
+	 *            the X coordinate of the location.
+	 * @param y
+	 *            the Y coordinate of the location.
+	 * @param z
+	 *            the Z coordinate of the location.
+	 * @return the squared distance.
+	 */
+	public double squareDistance( final int index, final double x, final double y, final double z )
+	{
+		final int o = 3 * index;
+		final double dx = coords[ o ] - x;
+		final double dy = coords[ o + 1 ] - y;
+		final double dz = coords[ o + 2 ] - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Returns the index of the spot closest to the specified location.
+	 *
+	 * @param x
+	 *            the X coordinate of the location.
+	 * @param y
+	 *            the Y coordinate of the location.
+	 * @param z
+	 *            the Z coordinate of the location.
+	 * @return the index of the closest spot, or -1 if the tree is empty.
+	 */
+	public int nearest( final double x, final double y, final double z )
+	{
+		return nearest( x, y, z, null );
+	}
+
+	/**
+	 * Returns the index of the spot closest to the specified location, among
+	 * those not flagged in the specified bitset.
+	 *
+	 * @param x
+	 *            the X coordinate of the location.
+	 * @param y
+	 *            the Y coordinate of the location.
+	 * @param z
+	 *            the Z coordinate of the location.
+	 * @param excluded
+	 *            the indices of the spots to skip. Can be <code>null</code>.
+	 * @return the index of the closest spot not excluded, or -1 if there is no
+	 *         such spot.
+	 */
+	public int nearest( final double x, final double y, final double z, final BitSet excluded )
+	{
+		return nearest( 0, spots.length, x, y, z, excluded, -1, Double.POSITIVE_INFINITY );
+	}
+
+	/**
+	 * Adds to the specified list the indices of all the spots within the
+	 * specified distance of a location, in no particular order.
+	 *
+	 * @param x
+	 *            the X coordinate of the location.
+	 * @param y
+	 *            the Y coordinate of the location.
+	 * @param z
+	 *            the Z coordinate of the location.
+	 * @param radius
+	 *            the search radius.
+	 * @param out
+	 *            the list to add the indices to. It is not cleared.
+	 */
+	public void inRadius( final double x, final double y, final double z, final double radius, final TIntArrayList out )
+	{
+		inRadius( 0, spots.length, x, y, z, radius * radius, out );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int nearest( final int lo, final int hi, final double x, final double y, final double z, final BitSet excluded, int best, double bestD2 )
+	{
+		if ( lo >= hi )
+			return best;
+
+		final int mid = ( lo + hi ) >>> 1;
+		if ( null == excluded || !excluded.get( mid ) )
+		{
+			final double d2 = squareDistance( mid, x, y, z );
+			if ( d2 < bestD2 )
+			{
+				best = mid;
+				bestD2 = d2;
+			}
+		}
+
+		final int d = splitDims[ mid ];
+		final double diff = ( d == 0 ? x : d == 1 ? y : z ) - coords[ 3 * mid + d ];
+		if ( diff < 0. )
+		{
+			best = nearest( lo, mid, x, y, z, excluded, best, bestD2 );
+			if ( best >= 0 )
+				bestD2 = squareDistance( best, x, y, z );
+			if ( diff * diff < bestD2 )
+				best = nearest( mid + 1, hi, x, y, z, excluded, best, bestD2 );
+		}
+		else
+		{
+			best = nearest( mid + 1, hi, x, y, z, excluded, best, bestD2 );
+			if ( best >= 0 )
+				bestD2 = squareDistance( best, x, y, z );
+			if ( diff * diff < bestD2 )
+				best = nearest( lo, mid, x, y, z, excluded, best, bestD2 );
+		}
+		return best;
+	}
+
+	private void inRadius( final int lo, final int hi, final double x, final double y, final double z, final double r2, final TIntArrayList out )
+	{
+		if ( lo >= hi )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+		if ( squareDistance( mid, x, y, z ) <= r2 )
+			out.add( mid );
+
+		final int d = splitDims[ mid ];
+		final double diff = ( d == 0 ? x : d == 1 ? y : z ) - coords[ 3 * mid + d ];
+		if ( diff <= 0. || diff * diff <= r2 )
+			inRadius( lo, mid, x, y, z, r2, out );
+		if ( diff >= 0. || diff * diff <= r2 )
+			inRadius( mid + 1, hi, x, y, z, r2, out );
+	}
+
+	/**
+	 * Arranges the range <code>[lo, hi[</code> as a sub-tree, splitting along
+	 * the dimension of largest extent.
+	 */
+	private void build( final int lo, final int hi )
+	{
+		if ( hi - lo < 2 )
+			return;
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		double minZ = Double.POSITIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for ( int i = lo; i < hi; i++ )
+		{
+			final double x = coords[ 3 * i ];
+			final double y = coords[ 3 * i + 1 ];
+			final double z = coords[ 3 * i + 2 ];
+			minX = Math.min( minX, x );
+			maxX = Math.max( maxX, x );
+			minY = Math.min( minY, y );
+			maxY = Math.max( maxY, y );
+			minZ = Math.min( minZ, z );
+			maxZ = Math.max( maxZ, z );
+		}
+		final double ex = maxX - minX;
+		final double ey = maxY - minY;
+		final double ez = maxZ - minZ;
+		final int d = ( ex >= ey && ex >= ez ) ? 0 : ( ey >= ez ) ? 1 : 2;
+
+		final int mid = ( lo + hi ) >>> 1;
+		select( lo, hi - 1, mid, d );
+		splitDims[ mid ] = ( byte ) d;
+		build( lo, mid );
+		build( mid + 1, hi );
+	}
+
+	/**
+	 * Partially sorts the range <code>[left, right]</code> along the specified
+	 * dimension, so that the element at <code>k</code> is the one that would
+	 * be there if the range was sorted.
+	 */
+	private void select( int left, int right, final int k, final int d )
+	{
+		while ( right > left )
+		{
+			final double pivot = coords[ 3 * ( ( left + right ) >>> 1 ) + d ];
+			int i = left;
+			int j = right;
+			do
+			{
+				while ( coords[ 3 * i + d ] < pivot )
+					i++;
+				while ( pivot < coords[ 3 * j + d ] )
+					j--;
+				if ( i <= j )
+				{
+					swap( i, j );
+					i++;
+					j--;
+				}
+			}
+			while ( i <= j );
+
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap( final int i, final int j )
+	{
+		final Spot s = spots[ i ];
+		spots[ i ] = spots[ j ];
+		spots[ j ] = s;
+		for ( int o = 0; o < 3; o++ )
+		{
+			final double c = coords[ 3 * i + o ];
+			coords[ 3 * i + o ] = coords[ 3 * j + o ];
+			coords[ 3 * j + o ] = c;
+		}
+	}
+}
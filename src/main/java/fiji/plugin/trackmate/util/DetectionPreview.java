@@ -28,6 +28,7 @@ import java.util.function.DoubleConsumer;
 import java.util.function.Supplier;
 
 import javax.swing.JFormattedTextField;
+import javax.swing.SwingUtilities;
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
@@ -38,6 +39,7 @@ import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.detection.DetectorKeys;
 import fiji.plugin.trackmate.detection.SpotDetectorFactoryBase;
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.features.FeatureHistogram;
 import fiji.plugin.trackmate.features.FeatureUtils;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import net.imglib2.util.Pair;
@@ -222,9 +224,10 @@ public class DetectionPreview
 		// Update histogram if any.
 		if ( panel.chart != null )
 		{
-			final double[] values = FeatureUtils.collectFeatureValues(
-					Spot.QUALITY, TrackMateObject.SPOTS, sourceModel, false );
-			panel.chart.displayHistogram( values, threshold );
+			// Bin on this thread, only update the plot on the EDT.
+			final FeatureHistogram histogram = FeatureHistogram.of( FeatureUtils.collectFeatureValues(
+					Spot.QUALITY, TrackMateObject.SPOTS, sourceModel, false ) );
+			SwingUtilities.invokeLater( () -> panel.chart.displayHistogram( histogram, threshold ) );
 		}
 	}
 
@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.TiffEncoder;
+import ij.process.ImageProcessor;
+
+/**
+ * A virtual stack whose frames are computed in parallel, ahead of the ones
+ * requested, so that they can be consumed in order, for instance by the TIFF
+ * encoder. A frame is made of one or several consecutive planes of the stack,
+ * and is released as soon as its last plane has been requested. At most one
+ * frame per thread is computed ahead.
+ * <p>
+ * Frames are prepared in order, in the thread that requests the planes, then
+ * computed in the pool. The preparation step is where data that cannot be
+ * read concurrently, such as the planes of a source {@link ij.ImagePlus},
+ * must be read.
+ */
+public class LookAheadStack extends VirtualStack
+{
+
+	private final int nFrames;
+
+	private final int planesPerFrame;
+
+	private final int lookAhead;
+
+	private final IntFunction< Callable< ImageProcessor[] > > preparer;
+
+	private final ExecutorService executor;
+
+	private final Map< Integer, Future< ImageProcessor[] > > pending = new HashMap<>();
+
+	private int nextFrameToSubmit = 0;
+
+	private int currentFrame = -1;
+
+	private ImageProcessor[] currentPlanes;
+
+	/**
+	 * Creates a new look-ahead stack.
+	 *
+	 * @param width
+	 *            the width of the planes.
+	 * @param height
+	 *            the height of the planes.
+	 * @param nFrames
+	 *            the number of frames.
+	 * @param planesPerFrame
+	 *            the number of planes in each frame.
+	 * @param numThreads
+	 *            the number of threads used to compute frames.
+	 * @param preparer
+	 *            called in order with each 0-based frame index, in the thread
+	 *            requesting the planes. Returns the task that computes the
+	 *            planes of the frame, run in the pool.
+	 */
+	public LookAheadStack(
+			final int width,
+			final int height,
+			final int nFrames,
+			final int planesPerFrame,
+			final int numThreads,
+			final IntFunction< Callable< ImageProcessor[] > > preparer )
+	{
+		super( width, height, null, null );
+		this.nFrames = nFrames;
+		this.planesPerFrame = planesPerFrame;
+		this.lookAhead = Math.max( 1, numThreads );
+		this.preparer = preparer;
+		this.executor = Executors.newFixedThreadPool( lookAhead );
+	}
+
+	@Override
+	public int getSize()
+	{
+		return nFrames * planesPerFrame;
+	}
+
+	/**
+	 * Returns the specified plane, waiting for its frame to be computed.
+	 *
+	 * @throws FrameComputationException
+	 *             if the frame could not be computed.
+	 */
+	@Override
+	public ImageProcessor getProcessor( final int n )
+	{
+		final int frame = ( n - 1 ) / planesPerFrame;
+		final int plane = ( n - 1 ) % planesPerFrame;
+		if ( frame != currentFrame )
+		{
+			currentPlanes = frame( frame );
+			currentFrame = frame;
+		}
+		final ImageProcessor ip = currentPlanes[ plane ];
+		if ( plane == planesPerFrame - 1 )
+		{
+			currentPlanes = null;
+			currentFrame = -1;
+		}
+		return ip;
+	}
+
+	/**
+	 * Writes this stack to a TIFF file, and stops the computing threads.
+	 *
+	 * @param fi
+	 *            the description of the TIFF file. Its virtual stack is set to
+	 *            this stack. If this stack has a single plane, its pixels are
+	 *            set to the ones of this plane, because the TIFF encoder only
+	 *            reads virtual stacks of several planes.
+	 * @param file
+	 *            the file to write.
+	 * @throws IOException
+	 *             if the file cannot be written, or if a frame could not be
+	 *             computed.
+	 */
+	public void writeTiff( final FileInfo fi, final File file ) throws IOException
+	{
+		fi.virtualStack = this;
+		try (final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ), 1 << 20 ))
+		{
+			if ( getSize() == 1 )
+				fi.pixels = getPixels( 1 );
+			new TiffEncoder( fi ).write( out );
+		}
+		catch ( final FrameComputationException e )
+		{
+			throw new IOException( "Could not compute the image to write.", e.getCause() );
+		}
+		finally
+		{
+			dispose();
+		}
+	}
+
+	/**
+	 * Stops the computing threads. Planes requested after this call are
+	 * computed in the calling thread.
+	 */
+	public void dispose()
+	{
+		executor.shutdownNow();
+	}
+
+	private ImageProcessor[] frame( final int frame )
+	{
+		while ( nextFrameToSubmit < nFrames && nextFrameToSubmit <= frame + lookAhead && !executor.isShutdown() )
+		{
+			final Callable< ImageProcessor[] > task = preparer.apply( nextFrameToSubmit );
+			pending.put( Integer.valueOf( nextFrameToSubmit++ ), executor.submit( task ) );
+		}
+
+		try
+		{
+			final Future< ImageProcessor[] > future = pending.remove( Integer.valueOf( frame ) );
+			if ( null == future )
+				// Frame requested out of order, or twice.
+				return preparer.apply( frame ).call();
+
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new FrameComputationException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new FrameComputationException( e.getCause() );
+		}
+		catch ( final Exception e )
+		{
+			throw new FrameComputationException( e );
+		}
+	}
+
+	/**
+	 * Thrown from the stack when a frame could not be computed, to get
+	 * through the consumers of the stack, such as the TIFF encoder.
+	 */
+	public static final class FrameComputationException extends RuntimeException
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private FrameComputationException( final Throwable cause )
+		{
+			super( cause );
+		}
+	}
+}
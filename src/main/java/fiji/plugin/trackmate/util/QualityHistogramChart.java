@@ -54,11 +54,11 @@ import org.jfree.chart.renderer.xy.XYBarRenderer;
 import org.jfree.chart.ui.RectangleInsets;
 
 import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.features.FeatureHistogram;
 import fiji.plugin.trackmate.gui.Fonts;
 import fiji.plugin.trackmate.gui.components.LogHistogramDataset;
 import fiji.plugin.trackmate.gui.components.XYTextSimpleAnnotation;
 import fiji.util.NumberParser;
-import net.imglib2.util.Util;
 
 public class QualityHistogramChart extends JPanel
 {
@@ -195,17 +195,29 @@ public class QualityHistogramChart extends JPanel
 	}
 
 	public void displayHistogram( final double[] values, final double threshold )
+	{
+		displayHistogram( FeatureHistogram.of( values ), threshold );
+	}
+
+	/**
+	 * Displays the specified histogram, with its own number of bins and
+	 * auto-threshold. The histogram can be built off the EDT, so that this
+	 * method only has to update the plot.
+	 *
+	 * @param histogram
+	 *            the histogram to display.
+	 * @param threshold
+	 *            the threshold to display, or NaN to display none.
+	 */
+	public void displayHistogram( final FeatureHistogram histogram, final double threshold )
 	{
 		this.threshold = threshold;
-		this.autoThreshold = TMUtils.otsuThreshold( values );
-		if ( values.length > 0 )
+		this.autoThreshold = histogram.getOtsuThreshold();
+		if ( histogram.size() > 0 )
 		{
-			final int nBins = getNBins( values, 8, 100 );
-			if ( nBins > 1 )
+			if ( histogram.getNBins() > 1 )
 			{
-				final LogHistogramDataset dataset = new LogHistogramDataset();
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
-				plot.setDataset( dataset );
+				plot.setDataset( LogHistogramDataset.of( DATA_SERIES_NAME, histogram ) );
 
 				plot.removeDomainMarker( intervalMarker );
 				plot.removeAnnotation( annotation );
@@ -265,40 +277,6 @@ public class QualityHistogramChart extends JPanel
 			thresholdSetter.accept( threshold );
 	}
 
-	/**
-	 * Return the optimal bin number for a histogram of the data given in array,
-	 * using the Freedman and Diaconis rule (bin_space = 2*IQR/n^(1/3)). It is
-	 * ensured that the bin number returned is not smaller and no bigger than
-	 * the bounds given in argument.
-	 *
-	 * @param values
-	 *            the values to bin.
-	 * @param minBinNumber
-	 *            the minimal desired number of bins.
-	 * @param maxBinNumber
-	 *            the maximal desired number of bins.
-	 * @return the number of bins.
-	 */
-	private static final int getNBins( final double[] values, final int minBinNumber, final int maxBinNumber )
-	{
-		final int size = values.length;
-		final double q1 = Util.percentile( values, 0.25 );
-		final double q3 = Util.percentile( values, 0.75 );
-		final double iqr = q3 - q1;
-		final double binWidth = 2 * iqr * Math.pow( size, -0.33 );
-
-		final double max = Util.max( values );
-		final double min = Util.min( values );
-		final double range = max - min;
-
-		int nBin = ( int ) ( range / binWidth + 1 );
-		if ( nBin > maxBinNumber )
-			nBin = maxBinNumber;
-		else if ( nBin < minBinNumber )
-			nBin = minBinNumber;
-		return nBin;
-	}
-
 	/**
 	 * A class that listen to the user typing a number, building a string
 	 * representation as he types, then converting the string to a double after
@@ -21,7 +21,11 @@
  */
 package fiji.plugin.trackmate.util;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotRoi;
@@ -31,14 +35,12 @@ import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
-import net.imglib2.Localizable;
 import net.imglib2.RandomAccess;
 import net.imglib2.RealLocalizable;
 import net.imglib2.Sampler;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 public class SpotUtil
@@ -91,42 +93,214 @@ public class SpotUtil
 		return Views.interval( img, interval );
 	}
 
-	private static final class SpotRoiIterable< T extends RealType< T > > implements IterableInterval< T >
+	/**
+	 * Cache of the pixel runs of the last position of each {@link SpotRoi}, so
+	 * that successive measurements on the same spot do not rasterize the
+	 * polygon again.
+	 */
+	private static final Map< SpotRoi, CachedRuns > RUNS_CACHE = Collections.synchronizedMap( new WeakHashMap<>() );
+
+	/**
+	 * Returns the horizontal runs of pixels inside the specified ROI, reusing
+	 * the cached ones if the ROI and its position did not change.
+	 */
+	private static final PolygonRuns runsOf( final SpotRoi roi, final RealLocalizable center, final double xScale, final double yScale )
 	{
+		final double cx = center.getDoublePosition( 0 );
+		final double cy = center.getDoublePosition( 1 );
+		final CachedRuns cached = RUNS_CACHE.get( roi );
+		if ( null != cached && cached.matches( roi, cx, cy, xScale, yScale ) )
+			return cached.runs;
+
+		final double[] x = roi.toPolygonX( xScale, 0, cx, 1. );
+		final double[] y = roi.toPolygonY( yScale, 0, cy, 1. );
+		final PolygonRuns runs = PolygonRuns.rasterize( x, y );
+		RUNS_CACHE.put( roi, new CachedRuns( roi, cx, cy, xScale, yScale, runs ) );
+		return runs;
+	}
 
-		private final SpotRoi roi;
+	private static final class CachedRuns
+	{
 
-		private final RealLocalizable center;
+		private final double[] x;
 
-		private final ImgPlus< T > img;
+		private final double[] y;
 
-		private final FinalInterval interval;
+		private final double cx;
 
-		public SpotRoiIterable( final SpotRoi roi, final RealLocalizable center, final ImgPlus< T > img )
+		private final double cy;
+
+		private final double xScale;
+
+		private final double yScale;
+
+		private final PolygonRuns runs;
+
+		private CachedRuns( final SpotRoi roi, final double cx, final double cy, final double xScale, final double yScale, final PolygonRuns runs )
+		{
+			// Copy: the ROI can be modified in place.
+			this.x = roi.x.clone();
+			this.y = roi.y.clone();
+			this.cx = cx;
+			this.cy = cy;
+			this.xScale = xScale;
+			this.yScale = yScale;
+			this.runs = runs;
+		}
+
+		private boolean matches( final SpotRoi roi, final double cx, final double cy, final double xScale, final double yScale )
+		{
+			return this.cx == cx && this.cy == cy
+					&& this.xScale == xScale && this.yScale == yScale
+					&& Arrays.equals( x, roi.x ) && Arrays.equals( y, roi.y );
+		}
+	}
+
+	/**
+	 * The pixels inside a polygon, stored as horizontal runs sorted by Y then
+	 * X. A pixel is inside if its center is inside the polygon, following the
+	 * even-odd rule.
+	 */
+	static final class PolygonRuns
+	{
+
+		/** The Y of each run. */
+		final long[] y;
+
+		/** The first X of each run. */
+		final long[] x0;
+
+		/** The last X of each run, inclusive. */
+		final long[] x1;
+
+		final int nRuns;
+
+		final long nPixels;
+
+		/** The bounding box of the polygon. */
+		final FinalInterval interval;
+
+		private PolygonRuns( final long[] y, final long[] x0, final long[] x1, final int nRuns, final FinalInterval interval )
+		{
+			this.y = y;
+			this.x0 = x0;
+			this.x1 = x1;
+			this.nRuns = nRuns;
+			this.interval = interval;
+			long n = 0;
+			for ( int r = 0; r < nRuns; r++ )
+				n += x1[ r ] - x0[ r ] + 1;
+			this.nPixels = n;
+		}
+
+		/**
+		 * Rasterizes the specified polygon, in pixel coordinates, one line at a
+		 * time. On each line, the polygon edges are intersected and the
+		 * crossings sorted, so the cost is proportional to the number of lines
+		 * times the number of vertices.
+		 *
+		 * @param x
+		 *            the X coordinates of the polygon vertices.
+		 * @param y
+		 *            the Y coordinates of the polygon vertices.
+		 * @return a new {@link PolygonRuns}.
+		 */
+		static PolygonRuns rasterize( final double[] x, final double[] y )
 		{
-			this.roi = roi;
-			this.center = center;
-			this.img = img;
-			final double[] x = roi.toPolygonX( img.averageScale( 0 ), 0, center.getDoublePosition( 0 ), 1. );
-			final double[] y = roi.toPolygonX( img.averageScale( 1 ), 0, center.getDoublePosition( 1 ), 1. );
 			final long minX = ( long ) Math.floor( Util.min( x ) );
 			final long maxX = ( long ) Math.ceil( Util.max( x ) );
 			final long minY = ( long ) Math.floor( Util.min( y ) );
 			final long maxY = ( long ) Math.ceil( Util.max( y ) );
-			interval = Intervals.createMinMax( minX, minY, maxX, maxY );
+			final FinalInterval interval = Intervals.createMinMax( minX, minY, maxX, maxY );
+
+			final int capacity = ( int ) Math.min( Integer.MAX_VALUE - 8, 2 * ( maxY - minY + 1 ) );
+			long[] ry = new long[ capacity ];
+			long[] rx0 = new long[ capacity ];
+			long[] rx1 = new long[ capacity ];
+			int nRuns = 0;
+
+			final double[] crossings = new double[ x.length ];
+			for ( long yl = minY; yl <= maxY; yl++ )
+			{
+				// Same crossing test as the point-in-polygon test.
+				int nc = 0;
+				for ( int i = 0, j = x.length - 1; i < x.length; j = i++ )
+				{
+					final double yi = y[ i ];
+					final double yj = y[ j ];
+					if ( ( yi > yl ) != ( yj > yl ) )
+						crossings[ nc++ ] = ( x[ j ] - x[ i ] ) * ( yl - yi ) / ( yj - yi ) + x[ i ];
+				}
+				Arrays.sort( crossings, 0, nc );
+
+				/*
+				 * A pixel is inside if there is an odd number of crossings
+				 * strictly to its right: it lies between crossings 2k
+				 * (inclusive) and 2k+1 (exclusive).
+				 */
+				for ( int k = 0; k + 1 < nc; k += 2 )
+				{
+					final long xs = Math.max( minX, ( long ) Math.ceil( crossings[ k ] ) );
+					final long xe = Math.min( maxX, ( long ) Math.ceil( crossings[ k + 1 ] ) - 1 );
+					if ( xs > xe )
+						continue;
+
+					if ( nRuns == ry.length )
+					{
+						final int newLength = ry.length * 2 + 1;
+						ry = Arrays.copyOf( ry, newLength );
+						rx0 = Arrays.copyOf( rx0, newLength );
+						rx1 = Arrays.copyOf( rx1, newLength );
+					}
+					ry[ nRuns ] = yl;
+					rx0[ nRuns ] = xs;
+					rx1[ nRuns ] = xe;
+					nRuns++;
+				}
+			}
+			return new PolygonRuns( ry, rx0, rx1, nRuns, interval );
 		}
 
-		@Override
-		public long size()
+		/**
+		 * Returns <code>true</code> if all the pixels of the runs are inside
+		 * the specified interval.
+		 */
+		boolean isInside( final Interval bounds )
 		{
-			int n = 0;
-			final Cursor< T > cursor = cursor();
-			while ( cursor.hasNext() )
+			if ( nRuns == 0 )
+				return true;
+			long xmin = Long.MAX_VALUE;
+			long xmax = Long.MIN_VALUE;
+			for ( int r = 0; r < nRuns; r++ )
 			{
-				cursor.fwd();
-				n++;
+				xmin = Math.min( xmin, x0[ r ] );
+				xmax = Math.max( xmax, x1[ r ] );
 			}
-			return n;
+			return xmin >= bounds.min( 0 ) && xmax <= bounds.max( 0 )
+					&& y[ 0 ] >= bounds.min( 1 ) && y[ nRuns - 1 ] <= bounds.max( 1 );
+		}
+	}
+
+	private static final class SpotRoiIterable< T extends RealType< T > > implements IterableInterval< T >
+	{
+
+		private final ImgPlus< T > img;
+
+		private final PolygonRuns runs;
+
+		private final boolean inBounds;
+
+		public SpotRoiIterable( final SpotRoi roi, final RealLocalizable center, final ImgPlus< T > img )
+		{
+			this.img = img;
+			this.runs = runsOf( roi, center, img.averageScale( 0 ), img.averageScale( 1 ) );
+			this.inBounds = runs.isInside( img );
+		}
+
+		@Override
+		public long size()
+		{
+			return runs.nPixels;
 		}
 
 		@Override
@@ -144,13 +318,13 @@ public class SpotUtil
 		@Override
 		public double realMin( final int d )
 		{
-			return interval.realMin( d );
+			return runs.interval.realMin( d );
 		}
 
 		@Override
 		public double realMax( final int d )
 		{
-			return interval.realMax( d );
+			return runs.interval.realMax( d );
 		}
 
 		@Override
@@ -162,19 +336,27 @@ public class SpotUtil
 		@Override
 		public long min( final int d )
 		{
-			return interval.min( d );
+			return runs.interval.min( d );
 		}
 
 		@Override
 		public long max( final int d )
 		{
-			return interval.max( d );
+			return runs.interval.max( d );
 		}
 
 		@Override
 		public Cursor< T > cursor()
 		{
-			return new MyCursor< T >( roi, center, img );
+			/*
+			 * When all the runs are inside the image, we walk the image
+			 * directly. For an ArrayImg this moves an index in the backing
+			 * array. Otherwise we have to go through a mirror extension.
+			 */
+			final RandomAccess< T > ra = inBounds
+					? img.randomAccess()
+					: Views.extendMirrorSingle( img ).randomAccess();
+			return new RunCursor<>( runs, ra );
 		}
 
 		@Override
@@ -190,39 +372,26 @@ public class SpotUtil
 		}
 	}
 
-	private static final class MyCursor< T extends RealType< T > > implements Cursor< T >
+	/**
+	 * A cursor that iterates over the pixels of {@link PolygonRuns}, run after
+	 * run.
+	 */
+	private static final class RunCursor< T > implements Cursor< T >
 	{
 
-		private final SpotRoi roi;
+		private final PolygonRuns runs;
 
-		private final RealLocalizable center;
+		private final RandomAccess< T > ra;
 
-		private final ImgPlus< T > img;
-
-		private final FinalInterval interval;
+		/** Index of the current run. -1 before the first call to fwd(). */
+		private int run;
 
-		private Cursor< T > cursor;
+		private long x;
 
-		private final double[] x;
-
-		private final double[] y;
-
-		private boolean hasNext;
-
-		private RandomAccess< T > ra;
-
-		public MyCursor( final SpotRoi roi, final RealLocalizable center, final ImgPlus< T > img )
+		public RunCursor( final PolygonRuns runs, final RandomAccess< T > ra )
 		{
-			this.roi = roi;
-			this.center = center;
-			this.img = img;
-			x = roi.toPolygonX( img.averageScale( 0 ), 0, center.getDoublePosition( 0 ), 1. );
-			y = roi.toPolygonY( img.averageScale( 1 ), 0, center.getDoublePosition( 1 ), 1. );
-			final long minX = ( long ) Math.floor( Util.min( x ) );
-			final long maxX = ( long ) Math.ceil( Util.max( x ) );
-			final long minY = ( long ) Math.floor( Util.min( y ) );
-			final long maxY = ( long ) Math.ceil( Util.max( y ) );
-			interval = Intervals.createMinMax( minX, minY, maxX, maxY );
+			this.runs = runs;
+			this.ra = ra;
 			reset();
 		}
 
@@ -235,60 +404,31 @@ public class SpotUtil
 		@Override
 		public void fwd()
 		{
-			ra.setPosition( cursor );
-			fetch();
-		}
-
-		private void fetch()
-		{
-			while ( cursor.hasNext() )
+			if ( run >= 0 && x < runs.x1[ run ] )
 			{
-				cursor.fwd();
-				if ( isInside( cursor, x, y ) )
-				{
-					hasNext = cursor.hasNext();
-					return;
-				}
+				x++;
+				ra.fwd( 0 );
 			}
-			hasNext = false;
-		}
-
-		private static final boolean isInside( final Localizable localizable, final double[] x, final double[] y )
-		{
-			// Taken from Imglib2-roi GeomMaths. No edge case.
-			final double xl = localizable.getDoublePosition( 0 );
-			final double yl = localizable.getDoublePosition( 1 );
-
-			int i;
-			int j;
-			boolean inside = false;
-			for ( i = 0, j = x.length - 1; i < x.length; j = i++ )
+			else
 			{
-				final double xj = x[ j ];
-				final double yj = y[ j ];
-
-				final double xi = x[ i ];
-				final double yi = y[ i ];
-
-				if ( ( yi > yl ) != ( yj > yl ) && ( xl < ( xj - xi ) * ( yl - yi ) / ( yj - yi ) + xi ) )
-					inside = !inside;
+				run++;
+				x = runs.x0[ run ];
+				ra.setPosition( x, 0 );
+				ra.setPosition( runs.y[ run ], 1 );
 			}
-			return inside;
 		}
 
 		@Override
 		public void reset()
 		{
-			final IntervalView< T > view = Views.interval( img, interval );
-			cursor = view.localizingCursor();
-			ra = Views.extendMirrorSingle( img ).randomAccess();
-			fetch();
+			run = -1;
+			x = 0;
 		}
 
 		@Override
 		public double getDoublePosition( final int d )
 		{
-			return ra.getDoublePosition( d );
+			return getLongPosition( d );
 		}
 
 		@Override
@@ -307,7 +447,7 @@ public class SpotUtil
 		@Override
 		public boolean hasNext()
 		{
-			return hasNext;
+			return ( run >= 0 && x < runs.x1[ run ] ) || run < runs.nRuns - 1;
 		}
 
 		@Override
@@ -320,13 +460,16 @@ public class SpotUtil
 		@Override
 		public long getLongPosition( final int d )
 		{
-			return ra.getLongPosition( d );
+			return ( d == 0 ) ? x : runs.y[ run ];
 		}
 
 		@Override
 		public Cursor< T > copyCursor()
 		{
-			return new MyCursor<>( roi, center, img );
+			final RunCursor< T > copy = new RunCursor<>( runs, ra.copyRandomAccess() );
+			copy.run = run;
+			copy.x = x;
+			return copy;
 		}
 
 		@Override
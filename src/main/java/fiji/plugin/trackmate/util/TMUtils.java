@@ -499,6 +499,8 @@ public class TMUtils
 			return "/" + timeUnits;
 		case ANGLE_RATE:
 			return "rad/" + timeUnits;
+		case DIFFUSION_COEFFICIENT:
+			return spaceUnits + "^2/" + timeUnits;
 		default:
 		case STRING:
 			return null;
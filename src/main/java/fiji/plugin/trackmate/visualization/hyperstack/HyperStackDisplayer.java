@@ -122,6 +122,8 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 		case ModelChangeEvent.SPOTS_COMPUTED:
 		case ModelChangeEvent.TRACKS_VISIBILITY_CHANGED:
 		case ModelChangeEvent.TRACKS_COMPUTED:
+			spotOverlay.invalidate();
+			trackOverlay.invalidate();
 			refresh();
 			break;
 		}
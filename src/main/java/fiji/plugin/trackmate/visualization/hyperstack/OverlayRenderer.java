@@ -0,0 +1,476 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.SelectionModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
+import fiji.plugin.trackmate.util.LookAheadStack;
+import fiji.plugin.trackmate.util.LookAheadStack.FrameComputationException;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.CompositeImage;
+import ij.ImageJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.ImageCanvas;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Renders the TrackMate overlay of an image off-screen, as the
+ * {@link HyperStackDisplayer} would display it, without a display.
+ * <p>
+ * Each frame is rendered as a RGB image made of the image plane at the
+ * specified channel and Z-slice, scaled to the specified magnification, with
+ * the spot and track overlays painted over it. Contrary to a capture of the
+ * image window, the whole image is rendered regardless of the window size,
+ * and only the specified channel is rendered for composite images.
+ * <p>
+ * Frames are rendered in parallel, and can be collected in an
+ * {@link ImagePlus} or streamed directly to a TIFF file.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class OverlayRenderer implements MultiThreaded
+{
+
+	private final Model model;
+
+	private final ImagePlus imp;
+
+	private final DisplaySettings displaySettings;
+
+	private final Collection< Spot > spotSelection;
+
+	private final Collection< DefaultWeightedEdge > edgeSelection;
+
+	private final double[] calibration;
+
+	/** Overlays not currently used by a rendering thread. */
+	private final Queue< Overlays > overlays = new ConcurrentLinkedQueue<>();
+
+	private double magnification;
+
+	private int channel;
+
+	private int slice;
+
+	private boolean hideImage = false;
+
+	/** Color model of the rendered channel, <code>null</code> for RGB images. */
+	private ColorModel colorModel;
+
+	private double displayMin;
+
+	private double displayMax;
+
+	private int numThreads;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a renderer for the specified image. The channel, Z-slice and
+	 * magnification are initialized from the current state of the image and
+	 * of its window, if any.
+	 *
+	 * @param model
+	 *            the model to render.
+	 * @param selectionModel
+	 *            the selection to highlight. Can be <code>null</code>.
+	 * @param imp
+	 *            the image to render the overlay on.
+	 * @param displaySettings
+	 *            the display settings to use.
+	 */
+	public OverlayRenderer( final Model model, final SelectionModel selectionModel, final ImagePlus imp, final DisplaySettings displaySettings )
+	{
+		this.model = model;
+		this.imp = imp;
+		this.displaySettings = displaySettings;
+		this.spotSelection = ( null == selectionModel ) ? Collections.emptyList() : new ArrayList<>( selectionModel.getSpotSelection() );
+		this.edgeSelection = ( null == selectionModel ) ? Collections.emptyList() : new ArrayList<>( selectionModel.getEdgeSelection() );
+		this.calibration = TMUtils.getSpatialCalibration( imp );
+		this.channel = imp.getChannel();
+		this.slice = imp.getSlice();
+		final ImageCanvas canvas = imp.getCanvas();
+		this.magnification = ( null == canvas ) ? 1. : canvas.getMagnification();
+		updateDisplay();
+		setNumThreads();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets the zoom level of the rendered images.
+	 *
+	 * @param magnification
+	 *            the zoom level, strictly positive.
+	 */
+	public void setMagnification( final double magnification )
+	{
+		if ( magnification <= 0. )
+			throw new IllegalArgumentException( "Magnification must be strictly positive, was " + magnification + "." );
+		this.magnification = magnification;
+	}
+
+	public double getMagnification()
+	{
+		return magnification;
+	}
+
+	/**
+	 * Sets the channel and Z-slice of the image to render.
+	 *
+	 * @param channel
+	 *            the channel, 1-based.
+	 * @param slice
+	 *            the Z-slice, 1-based.
+	 */
+	public void setPosition( final int channel, final int slice )
+	{
+		this.channel = Math.max( 1, Math.min( imp.getNChannels(), channel ) );
+		this.slice = Math.max( 1, Math.min( imp.getNSlices(), slice ) );
+		updateDisplay();
+	}
+
+	/**
+	 * Sets whether the image is rendered under the overlay. If not, the
+	 * overlay is rendered on a black background.
+	 *
+	 * @param hideImage
+	 *            if <code>true</code>, the image is not rendered.
+	 */
+	public void setHideImage( final boolean hideImage )
+	{
+		this.hideImage = hideImage;
+	}
+
+	/**
+	 * Returns the width of the rendered images.
+	 *
+	 * @return the width, in pixels.
+	 */
+	public int getWidth()
+	{
+		return Math.max( 1, ( int ) Math.round( imp.getWidth() * magnification ) );
+	}
+
+	/**
+	 * Returns the height of the rendered images.
+	 *
+	 * @return the height, in pixels.
+	 */
+	public int getHeight()
+	{
+		return Math.max( 1, ( int ) Math.round( imp.getHeight() * magnification ) );
+	}
+
+	/**
+	 * Renders the specified frame.
+	 *
+	 * @param frame
+	 *            the frame to render, 1-based.
+	 * @return a new RGB image.
+	 */
+	public ColorProcessor render( final int frame )
+	{
+		return render( frame, hideImage ? null : plane( frame ) );
+	}
+
+	/**
+	 * Renders the specified frame over the specified image plane. Can be
+	 * called concurrently.
+	 *
+	 * @param frame
+	 *            the frame to render, 1-based.
+	 * @param ip
+	 *            the image plane to render under the overlay,
+	 *            <code>null</code> to render it on a black background.
+	 * @return a new RGB image.
+	 */
+	private ColorProcessor render( final int frame, final ImageProcessor ip )
+	{
+		final int width = getWidth();
+		final int height = getHeight();
+		final BufferedImage bi = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+		final Graphics2D g2d = bi.createGraphics();
+		Overlays lOverlays = overlays.poll();
+		if ( null == lOverlays )
+			lOverlays = new Overlays();
+		try
+		{
+			if ( null != ip )
+			{
+				g2d.setRenderingHint( RenderingHints.KEY_INTERPOLATION, magnification < 1.
+						? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+						: RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+				g2d.drawImage( ip.createImage(), 0, 0, width, height, null );
+			}
+
+			// Same order than in the HyperStackDisplayer.
+			final double zslice = ( slice - 1 ) * calibration[ 2 ];
+			lOverlays.spotOverlay.drawOverlay( g2d, frame - 1, zslice, 0, 0, magnification, width, height );
+			lOverlays.trackOverlay.drawOverlay( g2d, frame - 1, zslice, 0, 0, magnification, width, height );
+		}
+		finally
+		{
+			g2d.dispose();
+			overlays.add( lOverlays );
+		}
+		return new ColorProcessor( bi );
+	}
+
+	/**
+	 * Renders the specified frames in parallel, in a new RGB
+	 * {@link ImagePlus}. Careful with large data, all the frames are kept in
+	 * memory.
+	 *
+	 * @param first
+	 *            the first frame, inclusive, 1-based.
+	 * @param last
+	 *            the last frame, inclusive, 1-based.
+	 * @param logger
+	 *            a {@link Logger} to report progress. Can be <code>null</code>.
+	 * @return a new ImagePlus.
+	 */
+	public ImagePlus render( final int first, final int last, final Logger logger )
+	{
+		final Logger log = ( null == logger ) ? Logger.VOID_LOGGER : logger;
+		final int firstFrame = Math.max( 1, Math.min( first, last ) );
+		final int lastFrame = Math.min( imp.getNFrames(), Math.max( first, last ) );
+		final int nFrames = lastFrame - firstFrame + 1;
+		log.log( "Rendering TrackMate overlay from frame " + firstFrame + " to " + lastFrame + ".\n" );
+
+		final LookAheadStack rendered = renderedStack( firstFrame, nFrames, log );
+		final ImageStack stack = new ImageStack( getWidth(), getHeight() );
+		try
+		{
+			for ( int frame = firstFrame; frame <= lastFrame; frame++ )
+				stack.addSlice( sliceLabel( frame ), rendered.getProcessor( frame - firstFrame + 1 ) );
+		}
+		catch ( final FrameComputationException e )
+		{
+			log.error( "Problem rendering the TrackMate overlay: " + e.getCause() + '\n' );
+			return null;
+		}
+		finally
+		{
+			rendered.dispose();
+		}
+
+		final ImagePlus capture = new ImagePlus( "TrackMate capture of " + imp.getShortTitle(), stack );
+		final Calibration cal = capture.getCalibration();
+		final Calibration fc = imp.getCalibration();
+		cal.setUnit( fc.getUnit() );
+		cal.setTimeUnit( fc.getTimeUnit() );
+		cal.frameInterval = fc.frameInterval;
+		cal.pixelWidth = fc.pixelWidth / magnification;
+		cal.pixelHeight = fc.pixelHeight / magnification;
+		cal.pixelDepth = fc.pixelDepth;
+
+		log.log( "Done.\n" );
+		log.setProgress( 0. );
+		return capture;
+	}
+
+	/**
+	 * Renders the specified frames in parallel, and writes them to a RGB TIFF
+	 * file as soon as they are ready, in order. At most one frame per thread
+	 * is kept in memory, plus the one being written.
+	 *
+	 * @param first
+	 *            the first frame, inclusive, 1-based.
+	 * @param last
+	 *            the last frame, inclusive, 1-based.
+	 * @param file
+	 *            the TIFF file to write.
+	 * @param logger
+	 *            a {@link Logger} to report progress. Can be <code>null</code>.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public void render( final int first, final int last, final File file, final Logger logger ) throws IOException
+	{
+		final Logger log = ( null == logger ) ? Logger.VOID_LOGGER : logger;
+		final int firstFrame = Math.max( 1, Math.min( first, last ) );
+		final int lastFrame = Math.min( imp.getNFrames(), Math.max( first, last ) );
+		final int nFrames = lastFrame - firstFrame + 1;
+		log.log( "Rendering TrackMate overlay from frame " + firstFrame + " to " + lastFrame + " to " + file + ".\n" );
+
+		final LookAheadStack stack = renderedStack( firstFrame, nFrames, log );
+		final Calibration fc = imp.getCalibration();
+		final FileInfo fi = new FileInfo();
+		fi.fileType = FileInfo.RGB;
+		fi.width = getWidth();
+		fi.height = getHeight();
+		fi.nImages = nFrames;
+		fi.unit = fc.getUnit();
+		fi.pixelWidth = fc.pixelWidth / magnification;
+		fi.pixelHeight = fc.pixelHeight / magnification;
+		fi.pixelDepth = fc.pixelDepth;
+		fi.frameInterval = fc.frameInterval;
+		fi.description = "ImageJ=" + ImageJ.VERSION + "\n"
+				+ "images=" + nFrames + "\n"
+				+ ( nFrames > 1 ? "frames=" + nFrames + "\n" : "" )
+				+ "unit=" + fc.getUnit() + "\n"
+				+ ( nFrames > 1 ? "finterval=" + fc.frameInterval + "\ntunit=" + fc.getTimeUnit() + "\n" : "" )
+				+ "loop=false\n"
+				+ ( char ) 0;
+
+		stack.writeTiff( fi, file );
+		log.log( "Done.\n" );
+		log.setProgress( 0. );
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		setNumThreads( Runtime.getRuntime().availableProcessors() );
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private String sliceLabel( final int frame )
+	{
+		final int index = imp.getStackIndex( channel, slice, frame );
+		return imp.getImageStack().getSliceLabel( index );
+	}
+
+	/**
+	 * Returns a stack of the specified frames, rendered in parallel. The
+	 * image planes are read in the thread that requests the frames, as
+	 * virtual stacks may not support concurrent reads.
+	 */
+	private LookAheadStack renderedStack( final int firstFrame, final int nFrames, final Logger log )
+	{
+		final AtomicInteger nDone = new AtomicInteger( 0 );
+		return new LookAheadStack( getWidth(), getHeight(), nFrames, 1, numThreads, i -> {
+			final int frame = firstFrame + i;
+			final ImageProcessor ip = hideImage ? null : plane( frame );
+			return () -> {
+				final ColorProcessor cp = render( frame, ip );
+				log.setProgress( ( double ) nDone.incrementAndGet() / nFrames );
+				return new ImageProcessor[] { cp };
+			};
+		} );
+	}
+
+	/**
+	 * Returns the image plane to render at the specified frame, with the
+	 * display range and LUT of the current channel. Must not be called
+	 * concurrently.
+	 */
+	private ImageProcessor plane( final int frame )
+	{
+		final int index = imp.getStackIndex( channel, slice, frame );
+		final ImageProcessor ip = imp.getImageStack().getProcessor( index );
+		if ( ip instanceof ColorProcessor || null == colorModel )
+			return ip;
+
+		ip.setColorModel( colorModel );
+		ip.setMinAndMax( displayMin, displayMax );
+		return ip;
+	}
+
+	/**
+	 * Reads the LUT and display range of the rendered channel, so that the
+	 * image is not accessed concurrently while rendering.
+	 */
+	private void updateDisplay()
+	{
+		if ( imp.getType() == ImagePlus.COLOR_RGB )
+		{
+			colorModel = null;
+		}
+		else if ( imp.isComposite() )
+		{
+			final LUT lut = ( ( CompositeImage ) imp ).getChannelLut( channel );
+			colorModel = lut;
+			displayMin = lut.min;
+			displayMax = lut.max;
+		}
+		else
+		{
+			colorModel = imp.getProcessor().getColorModel();
+			displayMin = imp.getDisplayRangeMin();
+			displayMax = imp.getDisplayRangeMax();
+		}
+	}
+
+	/**
+	 * The overlays used by one rendering thread.
+	 */
+	private final class Overlays
+	{
+
+		private final SpotOverlay spotOverlay;
+
+		private final TrackOverlay trackOverlay;
+
+		private Overlays()
+		{
+			this.spotOverlay = new SpotOverlay( model, imp, displaySettings );
+			this.trackOverlay = new TrackOverlay( model, imp, displaySettings );
+			spotOverlay.setSpotSelection( spotSelection );
+			trackOverlay.setHighlight( edgeSelection );
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * An immutable uniform grid over 2D axis-aligned boxes, used to quickly
+ * retrieve the items that intersect the painted region of an overlay.
+ * <p>
+ * Items are identified by their index in the arrays given at construction.
+ * Each item is stored in every grid cell its box overlaps. Items whose box is
+ * too large or not finite are stored separately and always returned as
+ * candidates.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class SpatialGrid
+{
+
+	/** Target number of items per grid cell. */
+	private static final int ITEMS_PER_CELL = 4;
+
+	private static final int MAX_CELLS_PER_SIDE = 1024;
+
+	/** Items overlapping more cells than this are stored as large items. */
+	private static final int MAX_CELLS_PER_ITEM = 64;
+
+	private final double minX;
+
+	private final double minY;
+
+	private final double cellWidth;
+
+	private final double cellHeight;
+
+	private final int nx;
+
+	private final int ny;
+
+	/** Start of the items of each cell in {@link #cellItems}. */
+	private final int[] cellStart;
+
+	private final int[] cellItems;
+
+	private final int[] largeItems;
+
+	private final double[] boxMinX;
+
+	private final double[] boxMinY;
+
+	private final double[] boxMaxX;
+
+	private final double[] boxMaxY;
+
+	/** Used to report each item once per query. */
+	private final int[] stamps;
+
+	private int stamp = 0;
+
+	/**
+	 * Builds a grid over the specified boxes. The arrays are not copied and
+	 * must not be modified afterwards.
+	 *
+	 * @param boxMinX
+	 *            the min X of each box.
+	 * @param boxMinY
+	 *            the min Y of each box.
+	 * @param boxMaxX
+	 *            the max X of each box.
+	 * @param boxMaxY
+	 *            the max Y of each box.
+	 * @param n
+	 *            the number of boxes.
+	 */
+	public SpatialGrid( final double[] boxMinX, final double[] boxMinY, final double[] boxMaxX, final double[] boxMaxY, final int n )
+	{
+		this.boxMinX = boxMinX;
+		this.boxMinY = boxMinY;
+		this.boxMaxX = boxMaxX;
+		this.boxMaxY = boxMaxY;
+		this.stamps = new int[ n ];
+
+		// Bounds.
+		double x0 = Double.POSITIVE_INFINITY;
+		double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY;
+		double y1 = Double.NEGATIVE_INFINITY;
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( !isFinite( i ) )
+				continue;
+			x0 = Math.min( x0, boxMinX[ i ] );
+			y0 = Math.min( y0, boxMinY[ i ] );
+			x1 = Math.max( x1, boxMaxX[ i ] );
+			y1 = Math.max( y1, boxMaxY[ i ] );
+		}
+		if ( x0 > x1 )
+		{
+			x0 = 0.;
+			x1 = 1.;
+			y0 = 0.;
+			y1 = 1.;
+		}
+		this.minX = x0;
+		this.minY = y0;
+
+		// Grid size.
+		final double width = Math.max( x1 - x0, 1. );
+		final double height = Math.max( y1 - y0, 1. );
+		final double nCells = Math.max( 1., ( double ) n / ITEMS_PER_CELL );
+		final double aspect = width / height;
+		this.nx = ( int ) Math.max( 1, Math.min( MAX_CELLS_PER_SIDE, Math.round( Math.sqrt( nCells * aspect ) ) ) );
+		this.ny = ( int ) Math.max( 1, Math.min( MAX_CELLS_PER_SIDE, Math.round( Math.sqrt( nCells / aspect ) ) ) );
+		this.cellWidth = width / nx;
+		this.cellHeight = height / ny;
+
+		// Count items per cell.
+		this.cellStart = new int[ nx * ny + 1 ];
+		final TIntArrayList large = new TIntArrayList();
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( isLarge( i ) )
+			{
+				large.add( i );
+				continue;
+			}
+			final int cx0 = cellX( boxMinX[ i ] );
+			final int cx1 = cellX( boxMaxX[ i ] );
+			final int cy0 = cellY( boxMinY[ i ] );
+			final int cy1 = cellY( boxMaxY[ i ] );
+			for ( int cy = cy0; cy <= cy1; cy++ )
+				for ( int cx = cx0; cx <= cx1; cx++ )
+					cellStart[ cy * nx + cx + 1 ]++;
+		}
+		this.largeItems = large.toArray();
+
+		// Prefix sum and fill.
+		for ( int c = 0; c < nx * ny; c++ )
+			cellStart[ c + 1 ] += cellStart[ c ];
+		this.cellItems = new int[ cellStart[ nx * ny ] ];
+		final int[] fill = new int[ nx * ny ];
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( isLarge( i ) )
+				continue;
+			final int cx0 = cellX( boxMinX[ i ] );
+			final int cx1 = cellX( boxMaxX[ i ] );
+			final int cy0 = cellY( boxMinY[ i ] );
+			final int cy1 = cellY( boxMaxY[ i ] );
+			for ( int cy = cy0; cy <= cy1; cy++ )
+			{
+				for ( int cx = cx0; cx <= cx1; cx++ )
+				{
+					final int c = cy * nx + cx;
+					cellItems[ cellStart[ c ] + fill[ c ]++ ] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds to the specified list the items whose box intersects the specified
+	 * region, each item once. Items with a large or non-finite box are always
+	 * added.
+	 *
+	 * @param x0
+	 *            the min X of the region.
+	 * @param y0
+	 *            the min Y of the region.
+	 * @param x1
+	 *            the max X of the region.
+	 * @param y1
+	 *            the max Y of the region.
+	 * @param out
+	 *            the list to add item indices to.
+	 */
+	public void query( final double x0, final double y0, final double x1, final double y1, final TIntArrayList out )
+	{
+		out.add( largeItems );
+		if ( x1 < minX || y1 < minY || x0 > minX + nx * cellWidth || y0 > minY + ny * cellHeight )
+			return;
+
+		if ( ++stamp == 0 )
+		{
+			// Overflow of the stamp counter, reset.
+			Arrays.fill( stamps, 0 );
+			stamp = 1;
+		}
+
+		final int cx0 = cellX( x0 );
+		final int cx1 = cellX( x1 );
+		final int cy0 = cellY( y0 );
+		final int cy1 = cellY( y1 );
+		for ( int cy = cy0; cy <= cy1; cy++ )
+		{
+			for ( int cx = cx0; cx <= cx1; cx++ )
+			{
+				final int c = cy * nx + cx;
+				for ( int k = cellStart[ c ]; k < cellStart[ c + 1 ]; k++ )
+				{
+					final int i = cellItems[ k ];
+					if ( stamps[ i ] == stamp )
+						continue;
+					stamps[ i ] = stamp;
+					if ( boxMaxX[ i ] < x0 || boxMinX[ i ] > x1 || boxMaxY[ i ] < y0 || boxMinY[ i ] > y1 )
+						continue;
+					out.add( i );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of items in this grid.
+	 *
+	 * @return the number of items.
+	 */
+	public int size()
+	{
+		return stamps.length;
+	}
+
+	private boolean isFinite( final int i )
+	{
+		return Double.isFinite( boxMinX[ i ] ) && Double.isFinite( boxMinY[ i ] )
+				&& Double.isFinite( boxMaxX[ i ] ) && Double.isFinite( boxMaxY[ i ] );
+	}
+
+	private boolean isLarge( final int i )
+	{
+		if ( !isFinite( i ) )
+			return true;
+		final long spanX = cellX( boxMaxX[ i ] ) - cellX( boxMinX[ i ] ) + 1;
+		final long spanY = cellY( boxMaxY[ i ] ) - cellY( boxMinY[ i ] ) + 1;
+		return spanX * spanY > MAX_CELLS_PER_ITEM;
+	}
+
+	private int cellX( final double x )
+	{
+		return Math.max( 0, Math.min( nx - 1, ( int ) Math.floor( ( x - minX ) / cellWidth ) ) );
+	}
+
+	private int cellY( final double y )
+	{
+		return Math.max( 0, Math.min( ny - 1, ( int ) Math.floor( ( y - minY ) / cellHeight ) ) );
+	}
+}
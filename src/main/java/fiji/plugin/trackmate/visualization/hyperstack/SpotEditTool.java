@@ -388,6 +388,8 @@ public class SpotEditTool extends AbstractTool implements MouseMotionListener, M
 		quickEditedSpot.putFeature( Spot.POSITION_X, x );
 		quickEditedSpot.putFeature( Spot.POSITION_Y, y );
 		quickEditedSpot.putFeature( Spot.POSITION_Z, z );
+		displayer.spotOverlay.invalidate( quickEditedSpot );
+		displayer.trackOverlay.invalidate( quickEditedSpot );
 		displayer.imp.updateAndDraw();
 	}
 
@@ -36,7 +36,13 @@ import java.awt.geom.Path2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
@@ -47,12 +53,17 @@ import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackDisplayMode;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.FeatureColorGenerator;
+import gnu.trove.list.array.TIntArrayList;
 import ij.ImagePlus;
 import ij.gui.Roi;
 
 /**
  * The overlay class in charge of drawing the spot images on the hyperstack
  * window.
+ * <p>
+ * The visible spots of each displayed frame are indexed in space, so that only
+ * the spots in the painted region are visited at each repaint. The index is
+ * rebuilt after {@link #invalidate()} is called.
  *
  * @author Jean-Yves Tinevez
  */
@@ -73,6 +84,21 @@ public class SpotOverlay extends Roi
 
 	protected final Model model;
 
+	/**
+	 * Margin added to the painted region when querying spots whose name is
+	 * displayed, in screen pixels, so that names of spots just out of the
+	 * region are still painted.
+	 */
+	private static final int NAME_MARGIN = 200;
+
+	/** The spot index, replaced by an empty one on invalidation. */
+	private volatile SpotIndex index = new SpotIndex();
+
+	private final TIntArrayList candidates = new TIntArrayList();
+
+	/** Width of the region being painted, in screen pixels. */
+	private int paintWidth;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -90,12 +116,61 @@ public class SpotOverlay extends Roi
 	 * METHODS
 	 */
 
+	/**
+	 * Discards the spot index, so that it is rebuilt at next repaint. Must be
+	 * called when spots are added, removed, moved or filtered in the model.
+	 */
+	public void invalidate()
+	{
+		this.index = new SpotIndex();
+	}
+
+	/**
+	 * Notifies this overlay that the specified spot was moved without the
+	 * model being notified.
+	 *
+	 * @param spot
+	 *            the spot that moved.
+	 */
+	public void invalidate( final Spot spot )
+	{
+		index.moved( spot );
+	}
+
 	@Override
-	public void drawOverlay( final Graphics g )
+	public synchronized void drawOverlay( final Graphics g )
+	{
+		final double zslice = ( imp.getSlice() - 1 ) * calibration[ 2 ];
+		final int frame = imp.getFrame() - 1;
+		drawOverlay( ( Graphics2D ) g, frame, zslice, ic.offScreenX( 0 ), ic.offScreenY( 0 ), getMagnification(), ic.getWidth(), ic.getHeight() );
+	}
+
+	/**
+	 * Draws the spots of the specified frame and Z position on a region of
+	 * the image. This does not depend on the state of the image window, and
+	 * can be used to paint off-screen.
+	 *
+	 * @param g2d
+	 *            the graphics to paint on.
+	 * @param frame
+	 *            the frame to paint, 0-based.
+	 * @param zslice
+	 *            the Z position to paint, in physical units.
+	 * @param xcorner
+	 *            the X position of the top-left corner of the painted region
+	 *            in the image, in pixels.
+	 * @param ycorner
+	 *            the Y position of the top-left corner of the painted region
+	 *            in the image, in pixels.
+	 * @param magnification
+	 *            the zoom level.
+	 * @param width
+	 *            the width of the painted region, in screen pixels.
+	 * @param height
+	 *            the height of the painted region, in screen pixels.
+	 */
+	public synchronized void drawOverlay( final Graphics2D g2d, final int frame, final double zslice, final int xcorner, final int ycorner, final double magnification, final int width, final int height )
 	{
-		final int xcorner = ic.offScreenX( 0 );
-		final int ycorner = ic.offScreenY( 0 );
-		final double magnification = getMagnification();
 		final SpotCollection spots = model.getSpots();
 
 		if ( !displaySettings.isSpotVisible() )
@@ -107,8 +182,7 @@ public class SpotOverlay extends Roi
 		final boolean selectionOnly = ( trackDisplayMode == TrackDisplayMode.SELECTION_ONLY );
 		final boolean filled = displaySettings.isSpotFilled();
 		final float alpha = ( float ) displaySettings.getSpotTransparencyAlpha();
-
-		final Graphics2D g2d = ( Graphics2D ) g;
+		this.paintWidth = width;
 
 		// Save graphic device original settings
 		final AffineTransform originalTransform = g2d.getTransform();
@@ -123,9 +197,7 @@ public class SpotOverlay extends Roi
 				displaySettings.getUseAntialiasing() ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF );
 		fm = g2d.getFontMetrics();
 
-		final double zslice = ( imp.getSlice() - 1 ) * calibration[ 2 ];
 		final double lMag = magnification;
-		final int frame = imp.getFrame() - 1;
 
 		// Deal with normal spots.
 		final FeatureColorGenerator< Spot > colorGenerator = FeatureUtils.createSpotColorGenerator( model, displaySettings );
@@ -156,11 +228,33 @@ public class SpotOverlay extends Roi
 		}
 		else
 		{
-			// Other track displays.
-			for ( final Iterator< Spot > iterator = spots.iterator( frame, true ); iterator.hasNext(); )
+			// Other track displays. Only visit spots in the painted region.
+			final SpotIndex lIndex = index;
+			final FrameSpots frameSpots = lIndex.get( frame, spots, calibration );
+			final double radiusRatio = displaySettings.getSpotDisplayRadius();
+			final double margin = 2. + frameSpots.maxExtent * Math.max( 1., radiusRatio ) / Math.min( calibration[ 0 ], calibration[ 1 ] )
+					+ ( displaySettings.isSpotShowName() ? NAME_MARGIN / lMag : 0. );
+			final double minx = xcorner - margin;
+			final double miny = ycorner - margin;
+			final double maxx = xcorner + width / lMag + margin;
+			final double maxy = ycorner + height / lMag + margin;
+
+			candidates.resetQuick();
+			frameSpots.grid.query( minx, miny, maxx, maxy, candidates );
+			final Set< Spot > moved = lIndex.moved();
+			final List< Spot > toDraw = new ArrayList<>( candidates.size() + moved.size() );
+			for ( int k = 0; k < candidates.size(); k++ )
 			{
-				final Spot spot = iterator.next();
+				final Spot spot = frameSpots.spots[ candidates.getQuick( k ) ];
+				if ( !moved.contains( spot ) )
+					toDraw.add( spot );
+			}
+			for ( final Spot spot : moved )
+				if ( spot.getFeature( Spot.FRAME ).intValue() == frame )
+					toDraw.add( spot );
 
+			for ( final Spot spot : toDraw )
+			{
 				if ( editingSpot == spot || ( spotSelection != null && spotSelection.contains( spot ) ) )
 					continue;
 
@@ -318,11 +412,88 @@ public class SpotOverlay extends Roi
 		final String str = spot.toString();
 		final int xindent = fm.stringWidth( str );
 		int xtext = ( int ) ( xs + textPos + 5 );
-		if ( xtext + xindent > imp.getWindow().getWidth() )
+		if ( xtext + xindent > paintWidth )
 			xtext = ( int ) ( xs - textPos - 5 - xindent );
 
 		final int yindent = fm.getAscent() / 2;
 		final int ytext = ( int ) ys + yindent;
 		g2d.drawString( spot.toString(), xtext, ytext );
 	}
+
+	/**
+	 * The visible spots of each frame, indexed lazily in a {@link SpatialGrid}
+	 * by their center in pixel units.
+	 */
+	private static final class SpotIndex
+	{
+
+		private final Map< Integer, FrameSpots > frames = new HashMap<>();
+
+		/** Spots moved since this index was created. */
+		private final Set< Spot > moved = new HashSet<>();
+
+		public synchronized FrameSpots get( final int frame, final SpotCollection spots, final double[] calibration )
+		{
+			FrameSpots frameSpots = frames.get( Integer.valueOf( frame ) );
+			if ( null == frameSpots )
+			{
+				frameSpots = new FrameSpots( frame, spots, calibration );
+				frames.put( Integer.valueOf( frame ), frameSpots );
+			}
+			return frameSpots;
+		}
+
+		public synchronized void moved( final Spot spot )
+		{
+			moved.add( spot );
+		}
+
+		public synchronized Set< Spot > moved()
+		{
+			return moved.isEmpty() ? Collections.emptySet() : new HashSet<>( moved );
+		}
+	}
+
+	private static final class FrameSpots
+	{
+
+		private final Spot[] spots;
+
+		private final SpatialGrid grid;
+
+		/**
+		 * The largest radius or ROI extent of the spots in this frame, in
+		 * physical units.
+		 */
+		private final double maxExtent;
+
+		public FrameSpots( final int frame, final SpotCollection spotCollection, final double[] calibration )
+		{
+			final List< Spot > list = new ArrayList<>( spotCollection.getNSpots( frame, true ) );
+			for ( final Iterator< Spot > iterator = spotCollection.iterator( frame, true ); iterator.hasNext(); )
+				list.add( iterator.next() );
+
+			final int n = list.size();
+			this.spots = list.toArray( new Spot[ n ] );
+			final double[] xs = new double[ n ];
+			final double[] ys = new double[ n ];
+			double extent = 0.;
+			for ( int i = 0; i < n; i++ )
+			{
+				final Spot spot = spots[ i ];
+				// In pixel units
+				xs[ i ] = spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5;
+				ys[ i ] = spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5;
+				extent = Math.max( extent, spot.getFeature( Spot.RADIUS ) );
+				final SpotRoi roi = spot.getRoi();
+				if ( null != roi )
+				{
+					for ( int j = 0; j < roi.x.length; j++ )
+						extent = Math.max( extent, Math.max( Math.abs( roi.x[ j ] ), Math.abs( roi.y[ j ] ) ) );
+				}
+			}
+			this.maxExtent = extent;
+			this.grid = new SpatialGrid( xs, ys, xs, ys, n );
+		}
+	}
 }
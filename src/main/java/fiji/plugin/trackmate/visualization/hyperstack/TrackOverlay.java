@@ -30,24 +30,35 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.features.FeatureUtils;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackDisplayMode;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.FeatureColorGenerator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import ij.ImagePlus;
 import ij.gui.Roi;
 
 /**
  * The overlay class in charge of drawing the tracks on the hyperstack window.
+ * <p>
+ * The edges of visible tracks are indexed per frame and in space, with their
+ * coordinates in pixel units. Only the edges that are in the painted region
+ * and in the displayed time window are visited at each repaint. The index is
+ * rebuilt after {@link #invalidate()} is called.
  *
  * @author Jean-Yves Tinevez
  */
@@ -63,6 +74,14 @@ public class TrackOverlay extends Roi
 
 	protected final Model model;
 
+	/** The edge index, <code>null</code> if it must be rebuilt. */
+	private volatile EdgeIndex index;
+
+	/** Incremented at each invalidation, to discard outdated indices. */
+	private final AtomicInteger modCount = new AtomicInteger();
+
+	private final TIntArrayList candidates = new TIntArrayList();
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -85,27 +104,76 @@ public class TrackOverlay extends Roi
 		this.highlight = edges;
 	}
 
+	/**
+	 * Discards the edge index, so that it is rebuilt at next repaint. Must be
+	 * called when spots, edges or track visibility change in the model. Does
+	 * not lock this overlay, so that it can be called from model listeners.
+	 */
+	public void invalidate()
+	{
+		modCount.incrementAndGet();
+		this.index = null;
+	}
+
+	/**
+	 * Updates the edge index for the specified spot, that was moved without
+	 * the model being notified.
+	 *
+	 * @param spot
+	 *            the spot that moved.
+	 */
+	public synchronized void invalidate( final Spot spot )
+	{
+		final EdgeIndex lIndex = index;
+		if ( null != lIndex )
+			lIndex.update( spot, model.getTrackModel(), calibration );
+	}
+
 	@Override
 	public final synchronized void drawOverlay( final Graphics g )
 	{
-		final Graphics2D g2d = ( Graphics2D ) g;
-
-		final double magnification = getMagnification();
+		final double zslice = ( imp.getSlice() - 1 ) * calibration[ 2 ];
+		final int currentFrame = imp.getFrame() - 1;
+		drawOverlay( ( Graphics2D ) g, currentFrame, zslice, ic.offScreenX( 0 ), ic.offScreenY( 0 ), getMagnification(), ic.getWidth(), ic.getHeight() );
+	}
 
-		// Painted clip in window coordinates.
-		final int xcorner = ic.offScreenX( 0 );
-		final int ycorner = ic.offScreenY( 0 );
+	/**
+	 * Draws the tracks around the specified frame and Z position on a region
+	 * of the image. This does not depend on the state of the image window,
+	 * and can be used to paint off-screen.
+	 *
+	 * @param g2d
+	 *            the graphics to paint on.
+	 * @param currentFrame
+	 *            the frame to paint, 0-based.
+	 * @param zslice
+	 *            the Z position to paint, in physical units.
+	 * @param xcorner
+	 *            the X position of the top-left corner of the painted region
+	 *            in the image, in pixels.
+	 * @param ycorner
+	 *            the Y position of the top-left corner of the painted region
+	 *            in the image, in pixels.
+	 * @param magnification
+	 *            the zoom level.
+	 * @param width
+	 *            the width of the painted region, in screen pixels.
+	 * @param height
+	 *            the height of the painted region, in screen pixels.
+	 */
+	public final synchronized void drawOverlay( final Graphics2D g2d, final int currentFrame, final double zslice, final int xcorner, final int ycorner, final double magnification, final int width, final int height )
+	{
+		// Painted clip in image coordinates.
 		final double minx = xcorner;
 		final double miny = ycorner;
-		final double maxx = minx + ic.getWidth() / magnification;
-		final double maxy = miny + ic.getHeight() / magnification;
+		final double maxx = minx + width / magnification;
+		final double maxy = miny + height / magnification;
 
 		if ( !displaySettings.isTrackVisible() || model.getTrackModel().nTracks( true ) == 0 )
 			return;
 
 		final boolean doLimitDrawingDepth = displaySettings.isZDrawingDepthLimited();
 		final double drawingDepth = displaySettings.getZDrawingDepth();
-		final double zslice = ( imp.getSlice() - 1 ) * calibration[ 2 ];
 
 		// Save graphic device original settings
 		final AffineTransform originalTransform = g2d.getTransform();
@@ -114,10 +182,8 @@ public class TrackOverlay extends Roi
 		final Color originalColor = g2d.getColor();
 
 		// Normal edges
-		final int currentFrame = imp.getFrame() - 1;
 		final TrackDisplayMode trackDisplayMode = displaySettings.getTrackDisplayMode();
 		final int trackDisplayDepth = displaySettings.isFadeTracks() ? displaySettings.getFadeTrackRange() : 1_000_000_000;
-		final Set< Integer > filteredTrackKeys = model.getTrackModel().unsortedTrackIDs( true );
 
 		g2d.setStroke( new BasicStroke( ( float ) displaySettings.getLineThickness() ) );
 		if ( trackDisplayMode == TrackDisplayMode.LOCAL )
@@ -179,63 +245,52 @@ public class TrackOverlay extends Roi
 			break;
 		}
 		case FULL:
-		{
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				final Set< DefaultWeightedEdge > track = new HashSet<>( model.getTrackModel().trackEdges( trackID ) );
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					final Spot source = model.getTrackModel().getEdgeSource( edge );
-					final Spot target = model.getTrackModel().getEdgeTarget( edge );
-					if ( !isOnClip( source, target, minx, miny, maxx, maxy, calibration ) )
-						continue;
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
-			}
-			break;
-		}
 		case LOCAL:
 		case LOCAL_BACKWARD:
 		case LOCAL_FORWARD:
 		{
-
-			for ( final Integer trackID : filteredTrackKeys )
+			EdgeIndex index = this.index;
+			if ( null == index )
 			{
-				final Set< DefaultWeightedEdge > track;
+				final int mc = modCount.get();
 				synchronized ( model )
 				{
-					track = new HashSet<>( model.getTrackModel().trackEdges( trackID ) );
+					index = new EdgeIndex( model.getTrackModel(), calibration );
 				}
-				for ( final DefaultWeightedEdge edge : track )
+				// Only keep it if the model did not change meanwhile.
+				if ( mc == modCount.get() )
+					this.index = index;
+			}
+
+			final boolean full = trackDisplayMode == TrackDisplayMode.FULL;
+			candidates.resetQuick();
+			if ( full )
+				index.query( Integer.MIN_VALUE, Integer.MAX_VALUE, minx, miny, maxx, maxy, candidates );
+			else
+				index.query( minT, maxT - 1, minx, miny, maxx, maxy, candidates );
+
+			for ( int k = 0; k < candidates.size(); k++ )
+			{
+				final int id = candidates.getQuick( k );
+				final double x0p = index.x0[ id ];
+				final double y0p = index.y0[ id ];
+				final double x1p = index.x1[ id ];
+				final double y1p = index.y1[ id ];
+				if ( !isOnClip( x0p, y0p, x1p, y1p, minx, miny, maxx, maxy ) )
+					continue;
+
+				if ( doLimitDrawingDepth && Math.abs( index.zs[ id ] - zslice ) > drawingDepth && Math.abs( index.zt[ id ] - zslice ) > drawingDepth )
+					continue;
+
+				g2d.setColor( colorGenerator.color( index.edges[ id ] ) );
+				if ( !full )
 				{
-					final Spot source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
-
-					final float transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
-					final Spot target = model.getTrackModel().getEdgeTarget( edge );
-					if ( !isOnClip( source, target, minx, miny, maxx, maxy, calibration ) )
-						continue;
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
+					final float transparency = ( float ) ( 1 - Math.abs( ( double ) index.frames[ id ] - currentFrame ) / trackDisplayDepth );
+					g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER, transparency ) );
 				}
+				drawEdge( g2d, x0p, y0p, x1p, y1p, xcorner, ycorner, magnification );
 			}
 			break;
-
 		}
 		}
 
@@ -274,7 +329,11 @@ public class TrackOverlay extends Roi
 		final double y0p = y0i / calibration[ 1 ] + 0.5f;
 		final double x1p = x1i / calibration[ 0 ] + 0.5f;
 		final double y1p = y1i / calibration[ 1 ] + 0.5f;
+		return isOnClip( x0p, y0p, x1p, y1p, minx, miny, maxx, maxy );
+	}
 
+	private static final boolean isOnClip( final double x0p, final double y0p, final double x1p, final double y1p, final double minx, final double miny, final double maxx, final double maxy )
+	{
 		// Is any spot inside the clip?
 		if ( ( x0p > minx && x0p < maxx && y0p > miny && y0p < maxy )
 				|| ( x1p > minx && x1p < maxx && y1p > miny && y1p < maxy ) )
@@ -367,4 +426,186 @@ public class TrackOverlay extends Roi
 
 		g2d.drawLine( x0, y0, x1, y1 );
 	}
+
+	private final void drawEdge( final Graphics2D g2d, final double x0p, final double y0p, final double x1p, final double y1p, final int xcorner, final int ycorner, final double magnification )
+	{
+		// Scale to image zoom
+		final int x0 = ( int ) Math.round( ( x0p - xcorner ) * magnification );
+		final int y0 = ( int ) Math.round( ( y0p - ycorner ) * magnification );
+		final int x1 = ( int ) Math.round( ( x1p - xcorner ) * magnification );
+		final int y1 = ( int ) Math.round( ( y1p - ycorner ) * magnification );
+		g2d.drawLine( x0, y0, x1, y1 );
+	}
+
+	/**
+	 * The edges of the visible tracks, with their coordinates in pixel units,
+	 * indexed per source frame in a {@link SpatialGrid}.
+	 */
+	private static final class EdgeIndex
+	{
+
+		private final DefaultWeightedEdge[] edges;
+
+		private final double[] x0;
+
+		private final double[] y0;
+
+		private final double[] x1;
+
+		private final double[] y1;
+
+		private final double[] zs;
+
+		private final double[] zt;
+
+		private final int[] frames;
+
+		private final TObjectIntHashMap< DefaultWeightedEdge > ids;
+
+		private final int minFrame;
+
+		/** One grid per frame, <code>null</code> for frames without edges. */
+		private final SpatialGrid[] grids;
+
+		/** For each frame, the edge ID of each grid item. */
+		private final int[][] gridIDs;
+
+		/** Edges moved since the index was built, not found by the grids. */
+		private final BitSet moved = new BitSet();
+
+		private final TIntArrayList movedIDs = new TIntArrayList();
+
+		private final TIntArrayList tmp = new TIntArrayList();
+
+		public EdgeIndex( final TrackModel trackModel, final double[] calibration )
+		{
+			final List< DefaultWeightedEdge > list = new ArrayList<>();
+			for ( final Integer trackID : trackModel.unsortedTrackIDs( true ) )
+				list.addAll( trackModel.trackEdges( trackID ) );
+
+			final int n = list.size();
+			this.edges = list.toArray( new DefaultWeightedEdge[ n ] );
+			this.x0 = new double[ n ];
+			this.y0 = new double[ n ];
+			this.x1 = new double[ n ];
+			this.y1 = new double[ n ];
+			this.zs = new double[ n ];
+			this.zt = new double[ n ];
+			this.frames = new int[ n ];
+			this.ids = new TObjectIntHashMap<>( 2 * n, 0.5f, -1 );
+
+			int fmin = Integer.MAX_VALUE;
+			int fmax = Integer.MIN_VALUE;
+			for ( int id = 0; id < n; id++ )
+			{
+				ids.put( edges[ id ], id );
+				set( id, trackModel, calibration );
+				fmin = Math.min( fmin, frames[ id ] );
+				fmax = Math.max( fmax, frames[ id ] );
+			}
+			this.minFrame = fmin;
+			final int nFrames = n == 0 ? 0 : fmax - fmin + 1;
+
+			// Group per frame.
+			final int[] counts = new int[ nFrames ];
+			for ( int id = 0; id < n; id++ )
+				counts[ frames[ id ] - minFrame ]++;
+			this.gridIDs = new int[ nFrames ][];
+			for ( int f = 0; f < nFrames; f++ )
+				gridIDs[ f ] = new int[ counts[ f ] ];
+			final int[] fill = new int[ nFrames ];
+			for ( int id = 0; id < n; id++ )
+			{
+				final int f = frames[ id ] - minFrame;
+				gridIDs[ f ][ fill[ f ]++ ] = id;
+			}
+
+			// One grid per frame over segment bounding boxes.
+			this.grids = new SpatialGrid[ nFrames ];
+			for ( int f = 0; f < nFrames; f++ )
+			{
+				final int[] fids = gridIDs[ f ];
+				if ( fids.length == 0 )
+					continue;
+				final double[] bx0 = new double[ fids.length ];
+				final double[] by0 = new double[ fids.length ];
+				final double[] bx1 = new double[ fids.length ];
+				final double[] by1 = new double[ fids.length ];
+				for ( int i = 0; i < fids.length; i++ )
+				{
+					final int id = fids[ i ];
+					bx0[ i ] = Math.min( x0[ id ], x1[ id ] );
+					by0[ i ] = Math.min( y0[ id ], y1[ id ] );
+					bx1[ i ] = Math.max( x0[ id ], x1[ id ] );
+					by1[ i ] = Math.max( y0[ id ], y1[ id ] );
+				}
+				grids[ f ] = new SpatialGrid( bx0, by0, bx1, by1, fids.length );
+			}
+		}
+
+		/**
+		 * Adds to the specified list the IDs of the edges with a source frame
+		 * in the specified range, and that may intersect the specified region.
+		 */
+		public void query( final int fromFrame, final int toFrame, final double minx, final double miny, final double maxx, final double maxy, final TIntArrayList out )
+		{
+			final int f0 = Math.max( 0, ( int ) Math.max( Integer.MIN_VALUE, ( long ) fromFrame - minFrame ) );
+			final int f1 = Math.min( grids.length - 1, ( int ) Math.min( Integer.MAX_VALUE, ( long ) toFrame - minFrame ) );
+			for ( int f = f0; f <= f1; f++ )
+			{
+				if ( null == grids[ f ] )
+					continue;
+
+				tmp.resetQuick();
+				grids[ f ].query( minx, miny, maxx, maxy, tmp );
+				for ( int k = 0; k < tmp.size(); k++ )
+				{
+					final int id = gridIDs[ f ][ tmp.getQuick( k ) ];
+					if ( !moved.get( id ) )
+						out.add( id );
+				}
+			}
+
+			for ( int k = 0; k < movedIDs.size(); k++ )
+			{
+				final int id = movedIDs.getQuick( k );
+				if ( frames[ id ] >= fromFrame && frames[ id ] <= toFrame )
+					out.add( id );
+			}
+		}
+
+		/**
+		 * Updates the coordinates of the edges of the specified spot.
+		 */
+		public void update( final Spot spot, final TrackModel trackModel, final double[] calibration )
+		{
+			for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+			{
+				final int id = ids.get( edge );
+				if ( id < 0 )
+					continue;
+
+				set( id, trackModel, calibration );
+				if ( !moved.get( id ) )
+				{
+					moved.set( id );
+					movedIDs.add( id );
+				}
+			}
+		}
+
+		private void set( final int id, final TrackModel trackModel, final double[] calibration )
+		{
+			final Spot source = trackModel.getEdgeSource( edges[ id ] );
+			final Spot target = trackModel.getEdgeTarget( edges[ id ] );
+			// In pixel units
+			x0[ id ] = source.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5f;
+			y0[ id ] = source.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5f;
+			x1[ id ] = target.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5f;
+			y1[ id ] = target.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5f;
+			zs[ id ] = source.getFeature( Spot.POSITION_Z );
+			zt[ id ] = target.getFeature( Spot.POSITION_Z );
+			frames[ id ] = source.getFeature( Spot.FRAME ).intValue();
+		}
+	}
 }
@@ -62,7 +62,6 @@ import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
 import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
-import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 import fiji.plugin.trackmate.util.FileChooser;
 import fiji.plugin.trackmate.util.FileChooser.DialogType;
 import fiji.plugin.trackmate.util.FileChooser.SelectionMode;
@@ -158,12 +157,17 @@ public class BranchTableView extends JFrame implements TrackMateModelView
 		if ( ntracks == 0 )
 			logger.log( "No visible track found. Aborting.\n" );
 
-		final TimeDirectedNeighborIndex neighborIndex = model.getTrackModel().getDirectedNeighborIndex();
+		final Map< Integer, TrackBranchDecomposition > decompositions = ConvexBranchesDecomposition.processTracks(
+				model.getTrackModel().unsortedTrackIDs( true ),
+				model.getTrackModel(),
+				true,
+				false,
+				Runtime.getRuntime().availableProcessors() );
 
 		final List< Branch > brs = new ArrayList<>();
-		for ( final Integer trackID : model.getTrackModel().unsortedTrackIDs( true ) )
+		for ( final Integer trackID : decompositions.keySet() )
 		{
-			final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, model.getTrackModel(), neighborIndex, true, false );
+			final TrackBranchDecomposition branchDecomposition = decompositions.get( trackID );
 			final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
 
 			final Map< Branch, Set< List< Spot > > > successorMap = new HashMap<>();
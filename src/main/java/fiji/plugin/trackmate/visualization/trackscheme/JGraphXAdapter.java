@@ -55,10 +55,26 @@ public class JGraphXAdapter extends mxGraph implements GraphListener< Spot, Defa
 	 */
 
 	public JGraphXAdapter( final Model tmm )
+	{
+		this( tmm, true );
+	}
+
+	/**
+	 * Creates a new adapter for the specified model.
+	 *
+	 * @param tmm
+	 *            the model.
+	 * @param insertTracks
+	 *            if <code>true</code>, a cell is created for all the spots and
+	 *            edges of the visible tracks. If <code>false</code>, the graph
+	 *            is created empty and cells are to be added by the caller.
+	 */
+	public JGraphXAdapter( final Model tmm, final boolean insertTracks )
 	{
 		super();
 		this.tmm = tmm;
-		insertTrackCollection( tmm );
+		if ( insertTracks )
+			insertTrackCollection( tmm );
 	}
 
 	/*
@@ -22,6 +22,7 @@
 package fiji.plugin.trackmate.visualization.trackscheme;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
@@ -32,13 +33,11 @@ import com.mxgraph.util.mxBase64;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
 import net.imagej.ImgPlus;
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
-import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
@@ -76,6 +75,23 @@ public class SpotIconGrabber< T extends RealType< T > >
 	 *            this radius.
 	 */
 	public String getImageString( final Spot spot, final double radiusFactor )
+	{
+		return toImageString( getImage( spot, radiusFactor ) );
+	}
+
+	/**
+	 * Returns the thumbnail image of the specified spot, as a 8-bit grayscale
+	 * image with its display range set to the min and max of the thumbnail.
+	 *
+	 * @param spot
+	 *            the spot to generate a thumbnail image from.
+	 * @param radiusFactor
+	 *            a factor that determines the size of the thumbnail. The
+	 *            thumbnail will have a size equal to the spot diameter times
+	 *            this radius.
+	 * @return a new image.
+	 */
+	public BufferedImage getImage( final Spot spot, final double radiusFactor )
 	{
 		// Get crop coordinates
 		final double[] calibration = TMUtils.getSpatialCalibration( img );
@@ -101,18 +117,23 @@ public class SpotIconGrabber< T extends RealType< T > >
 		}
 
 		final Img< T > crop = grabImage( x, y, slice, width, height );
+		return toBufferedImage( crop, ( int ) width, ( int ) height );
+	}
 
-		// Convert to ImagePlus
-		final ImagePlus imp = ImageJFunctions.wrap( crop, crop.toString() );
-		final ImageProcessor ip = imp.getProcessor();
-		ip.resetMinAndMax();
-
-		// Convert to base64
+	/**
+	 * Encodes the specified image as a base64 PNG string, suitable to be used
+	 * in a JGraphX cell style.
+	 *
+	 * @param image
+	 *            the image to encode.
+	 * @return the image string.
+	 */
+	public static String toImageString( final BufferedImage image )
+	{
 		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		final BufferedImage lImg = ip.getBufferedImage();
 		try
 		{
-			ImageIO.write( lImg, "png", bos );
+			ImageIO.write( image, "png", bos );
 			return mxBase64.encodeToString( bos.toByteArray(), false );
 		}
 		catch ( final IOException e )
@@ -122,6 +143,36 @@ public class SpotIconGrabber< T extends RealType< T > >
 		}
 	}
 
+	/**
+	 * Converts the specified 2D image to a 8-bit grayscale image, mapping its
+	 * min and max to 0 and 255.
+	 */
+	private static final < T extends RealType< T > > BufferedImage toBufferedImage( final Img< T > crop, final int width, final int height )
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for ( final T t : crop )
+		{
+			final double val = t.getRealDouble();
+			if ( val < min )
+				min = val;
+			if ( val > max )
+				max = val;
+		}
+		final double scale = max > min ? 256. / ( max - min ) : 0.;
+
+		final BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_BYTE_GRAY );
+		final byte[] pixels = ( ( DataBufferByte ) image.getRaster().getDataBuffer() ).getData();
+		final Cursor< T > cursor = crop.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final int val = Math.min( 255, ( int ) ( ( cursor.get().getRealDouble() - min ) * scale ) );
+			pixels[ cursor.getIntPosition( 1 ) * width + cursor.getIntPosition( 0 ) ] = ( byte ) val;
+		}
+		return image;
+	}
+
 	/**
 	 * Returns a 2D slice extract around the specified coordinates.
 	 * 
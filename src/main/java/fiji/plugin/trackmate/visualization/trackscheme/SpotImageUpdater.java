@@ -21,41 +21,109 @@
  */
 package fiji.plugin.trackmate.visualization.trackscheme;
 
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import net.imagej.ImgPlus;
 
+/**
+ * Generates and caches the thumbnail image strings of spots.
+ * <p>
+ * Image strings are stored in a LRU cache bounded in memory, keyed by spot ID,
+ * radius factor, channel and spot position. Thumbnails that are not in the
+ * cache can be rendered synchronously, or on a background pool while a
+ * placeholder is displayed.
+ *
+ * @author Jean-Yves Tinevez
+ */
 public class SpotImageUpdater
 {
 
-	private int previousFrame;
+	/** Default memory budget of the thumbnail cache, in bytes. */
+	public static final long DEFAULT_CACHE_SIZE = 64l * 1024l * 1024l;
 
-	private int previousChannel;
+	/** How many frame & channel grabbers we keep. */
+	private static final int N_GRABBERS = 16;
 
-	private SpotIconGrabber< ? > grabber;
+	/**
+	 * The image string returned while a thumbnail is rendered in the
+	 * background.
+	 */
+	public static final String PLACEHOLDER;
+	static
+	{
+		final BufferedImage image = new BufferedImage( 4, 4, BufferedImage.TYPE_BYTE_GRAY );
+		for ( int x = 0; x < 4; x++ )
+			for ( int y = 0; y < 4; y++ )
+				image.getRaster().setSample( x, y, 0, 128 );
+		PLACEHOLDER = SpotIconGrabber.toImageString( image );
+	}
 
 	private final Settings settings;
 
+	private final long maxCacheSize;
+
+	private long cacheSize = 0;
+
+	private final LinkedHashMap< ThumbnailKey, String > cache = new LinkedHashMap<>( 256, 0.75f, true );
+
+	private final Map< Long, SpotIconGrabber< ? > > grabbers = new LinkedHashMap< Long, SpotIconGrabber< ? > >( N_GRABBERS, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< Long, SpotIconGrabber< ? > > eldest )
+		{
+			return size() > N_GRABBERS;
+		}
+	};
+
+	private final Set< ThumbnailKey > pending = new HashSet<>();
+
+	private ExecutorService executor;
+
 	/**
-	 * Instantiates a new spot image updater.
+	 * Instantiates a new spot image updater, with the default cache size.
 	 *
 	 * @param settings
 	 *            the {@link Settings} object from which we read the raw image
 	 *            and the target channel.
 	 */
 	public SpotImageUpdater( final Settings settings )
+	{
+		this( settings, DEFAULT_CACHE_SIZE );
+	}
+
+	/**
+	 * Instantiates a new spot image updater.
+	 *
+	 * @param settings
+	 *            the {@link Settings} object from which we read the raw image
+	 *            and the target channel.
+	 * @param maxCacheSize
+	 *            the max memory used by the cached image strings, in bytes.
+	 */
+	public SpotImageUpdater( final Settings settings, final long maxCacheSize )
 	{
 		this.settings = settings;
-		this.previousFrame = -1;
-		this.previousChannel = -1;
+		this.maxCacheSize = maxCacheSize;
 	}
 
 	/**
 	 * Returns the image string of the given spot, based on the raw images
-	 * contained in the given model. For performance, the image at target frame
-	 * is stored for subsequent calls of this method. So it is a good idea to
-	 * group calls to this method for spots that belong to the same frame.
+	 * contained in the given model. Image strings are cached, so subsequent
+	 * calls for the same spot are cheap, as long as the spot does not move.
 	 *
 	 * @param radiusFactor
 	 *            a factor that determines the size of the thumbnail. The
@@ -63,24 +131,232 @@ public class SpotImageUpdater
 	 *            this radius.
 	 * @return the image string.
 	 */
-	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	public String getImageString( final Spot spot, final double radiusFactor )
 	{
-		final int frame = spot.getFeature( Spot.FRAME ).intValue();
-		final int targetChannel = settings.imp.getC() - 1;
-		if ( frame == previousFrame && targetChannel == previousChannel )
+		final ThumbnailKey key = new ThumbnailKey( spot, radiusFactor, targetChannel() );
+		final String cached = get( key );
+		if ( null != cached )
+			return cached;
+
+		final String imageStr = render( spot, key );
+		put( key, imageStr );
+		return imageStr;
+	}
+
+	/**
+	 * Returns the image string of the given spot if it is in the cache.
+	 * Otherwise returns {@link #PLACEHOLDER} and renders the thumbnail on a
+	 * background thread. When it is ready, it is stored in the cache and
+	 * passed to the specified consumer, on the background thread.
+	 *
+	 * @param radiusFactor
+	 *            a factor that determines the size of the thumbnail. The
+	 *            thumbnail will have a size equal to the spot diameter times
+	 *            this radius.
+	 * @param onReady
+	 *            called with the image string when it is rendered in the
+	 *            background.
+	 * @return the image string, or {@link #PLACEHOLDER}.
+	 */
+	public String getImageString( final Spot spot, final double radiusFactor, final Consumer< String > onReady )
+	{
+		final ThumbnailKey key = new ThumbnailKey( spot, radiusFactor, targetChannel() );
+		final ExecutorService service;
+		synchronized ( this )
 		{
-			// Keep the same image than in memory
+			final String cached = cache.get( key );
+			if ( null != cached )
+				return cached;
+
+			if ( !pending.add( key ) )
+				return PLACEHOLDER;
+
+			if ( null == executor )
+			{
+				final int nThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+				executor = Executors.newFixedThreadPool( nThreads, r -> {
+					final Thread thread = new Thread( r, "TrackMate-thumbnails" );
+					thread.setDaemon( true );
+					return thread;
+				} );
+			}
+			service = executor;
 		}
-		else
+
+		try
 		{
-			final ImgPlus img = TMUtils.rawWraps( settings.imp );
-			final ImgPlus< ? > imgCT = TMUtils.hyperSlice( img, targetChannel, frame );
+			service.execute( () -> {
+				try
+				{
+					final String imageStr = render( spot, key );
+					put( key, imageStr );
+					onReady.accept( imageStr );
+				}
+				finally
+				{
+					synchronized ( SpotImageUpdater.this )
+					{
+						pending.remove( key );
+					}
+				}
+			} );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			// We have been quit in the meantime.
+			synchronized ( this )
+			{
+				pending.remove( key );
+			}
+		}
+		return PLACEHOLDER;
+	}
+
+	/**
+	 * Stops the background rendering threads and empties the thumbnail cache.
+	 * Queued thumbnails are not rendered. A new background pool is created if
+	 * thumbnails are requested again.
+	 */
+	public synchronized void quit()
+	{
+		if ( null != executor )
+			executor.shutdownNow();
+		executor = null;
+		pending.clear();
+		clear();
+	}
 
+	/**
+	 * Empties the thumbnail cache.
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+		cacheSize = 0;
+		grabbers.clear();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int targetChannel()
+	{
+		return settings.imp.getC() - 1;
+	}
+
+	private String render( final Spot spot, final ThumbnailKey key )
+	{
+		return getGrabber( key.frame, key.channel ).getImageString( spot, key.radiusFactor );
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private synchronized SpotIconGrabber< ? > getGrabber( final int frame, final int channel )
+	{
+		final Long grabberKey = Long.valueOf( ( ( long ) channel << 32 ) | ( frame & 0xffffffffl ) );
+		SpotIconGrabber< ? > grabber = grabbers.get( grabberKey );
+		if ( null == grabber )
+		{
+			final ImgPlus img = TMUtils.rawWraps( settings.imp );
+			final ImgPlus< ? > imgCT = TMUtils.hyperSlice( img, channel, frame );
 			grabber = new SpotIconGrabber( imgCT );
-			previousFrame = frame;
-			previousChannel = targetChannel;
+			grabbers.put( grabberKey, grabber );
+		}
+		return grabber;
+	}
+
+	private synchronized String get( final ThumbnailKey key )
+	{
+		return cache.get( key );
+	}
+
+	private synchronized void put( final ThumbnailKey key, final String imageStr )
+	{
+		final String previous = cache.put( key, imageStr );
+		if ( null != previous )
+			cacheSize -= sizeOf( previous );
+		cacheSize += sizeOf( imageStr );
+
+		final Iterator< String > it = cache.values().iterator();
+		while ( cacheSize > maxCacheSize && it.hasNext() )
+		{
+			cacheSize -= sizeOf( it.next() );
+			it.remove();
+		}
+	}
+
+	private static final long sizeOf( final String imageStr )
+	{
+		// 2 bytes per char, plus key and entry overhead.
+		return 2l * imageStr.length() + 96l;
+	}
+
+	/**
+	 * Identifies a thumbnail. Spot position and radius are part of the key so
+	 * that a thumbnail is rendered again when its spot is moved.
+	 */
+	private static final class ThumbnailKey
+	{
+
+		private final int spotID;
+
+		private final int frame;
+
+		private final int channel;
+
+		private final double radiusFactor;
+
+		private final double x;
+
+		private final double y;
+
+		private final double z;
+
+		private final double radius;
+
+		private final int hash;
+
+		public ThumbnailKey( final Spot spot, final double radiusFactor, final int channel )
+		{
+			this.spotID = spot.ID();
+			this.frame = spot.getFeature( Spot.FRAME ).intValue();
+			this.channel = channel;
+			this.radiusFactor = radiusFactor;
+			this.x = spot.getFeature( Spot.POSITION_X );
+			this.y = spot.getFeature( Spot.POSITION_Y );
+			this.z = spot.getFeature( Spot.POSITION_Z );
+			this.radius = spot.getFeature( Spot.RADIUS );
+			int h = spotID;
+			h = 31 * h + frame;
+			h = 31 * h + channel;
+			h = 31 * h + Double.hashCode( radiusFactor );
+			h = 31 * h + Double.hashCode( x );
+			h = 31 * h + Double.hashCode( y );
+			h = 31 * h + Double.hashCode( z );
+			h = 31 * h + Double.hashCode( radius );
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof ThumbnailKey ) )
+				return false;
+			final ThumbnailKey o = ( ThumbnailKey ) obj;
+			return spotID == o.spotID
+					&& frame == o.frame
+					&& channel == o.channel
+					&& Double.compare( radiusFactor, o.radiusFactor ) == 0
+					&& Double.compare( x, o.x ) == 0
+					&& Double.compare( y, o.y ) == 0
+					&& Double.compare( z, o.z ) == 0
+					&& Double.compare( radius, o.radius ) == 0;
 		}
-		return grabber.getImageString( spot, radiusFactor );
 	}
 }
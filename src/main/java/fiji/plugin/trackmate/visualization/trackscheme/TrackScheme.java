@@ -25,6 +25,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
@@ -33,9 +34,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
@@ -51,6 +55,7 @@ import com.mxgraph.util.mxConstants;
 import com.mxgraph.util.mxEvent;
 import com.mxgraph.util.mxEventObject;
 import com.mxgraph.util.mxEventSource.mxIEventListener;
+import com.mxgraph.util.mxPoint;
 import com.mxgraph.util.mxRectangle;
 import com.mxgraph.util.mxStyleUtils;
 import com.mxgraph.view.mxGraphSelectionModel;
@@ -104,6 +109,13 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 	public static final String KEY = "TRACKSCHEME";
 
+	/**
+	 * Above this number of spots in visible tracks, TrackScheme switches to
+	 * virtualized mode: cells are only created for the spots around the
+	 * viewport.
+	 */
+	static final int VIRTUAL_MODE_THRESHOLD = 50_000;
+
 	/*
 	 * FIELDS
 	 */
@@ -156,6 +168,29 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 */
 	private boolean doThumbnailCapture = DEFAULT_THUMBNAILS_ENABLED;
 
+	/**
+	 * If <code>true</code>, cells are only created for the spots around the
+	 * viewport, and positioned by {@link #virtualLayout}.
+	 */
+	private boolean virtual = false;
+
+	/** The layout used in virtualized mode. */
+	private TrackSchemeVirtualLayout virtualLayout;
+
+	/**
+	 * The min row, max row, min column and max column of the spots that have a
+	 * cell in virtualized mode. <code>null</code> if no cell was created yet.
+	 */
+	private int[] pagedWindow;
+
+	/** Prevents re-entrant paging when the viewport changes while paging. */
+	private boolean isPaging = false;
+
+	/** Thumbnails rendered in the background, waiting to be set to cells. */
+	private final Map< Spot, String > thumbnailsReady = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean thumbnailUpdateScheduled = new AtomicBoolean( false );
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -175,6 +210,8 @@ public class TrackScheme extends AbstractTrackMateModelView
 			public void windowClosing( final WindowEvent e )
 			{
 				model.removeModelChangeListener( TrackScheme.this );
+				if ( null != spotImageUpdater )
+					spotImageUpdater.quit();
 			}
 		} );
 		gui.setLocationByPlatform( true );
@@ -255,7 +292,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 	{
 		gui.logger.setStatus( "Creating graph adapter." );
 
-		final JGraphXAdapter lGraph = new JGraphXAdapter( model );
+		final JGraphXAdapter lGraph = new JGraphXAdapter( model, !virtual );
 		lGraph.setAllowLoops( false );
 		lGraph.setAllowDanglingEdges( false );
 		lGraph.setCellsCloneable( false );
@@ -287,6 +324,15 @@ public class TrackScheme extends AbstractTrackMateModelView
 	{
 
 		mxICell cell = graph.getCellFor( spot );
+		if ( null == cell && virtual && virtualLayout.ordinalOf( spot ) >= 0 )
+		{
+			/*
+			 * Paged out of the graph in virtualized mode. The cell will get
+			 * its style when it is paged in again.
+			 */
+			return null;
+		}
+
 		graph.getModel().beginUpdate();
 		try
 		{
@@ -308,9 +354,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 			if ( spotImageUpdater != null && doThumbnailCapture )
 			{
 				String style = cell.getStyle();
-				final double radiusFactor = displaySettings.getSpotDisplayRadius();
-				final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor );
-				style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
+				style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, thumbnailOf( spot ) );
 				graph.getModel().setStyle( cell, style );
 			}
 		}
@@ -343,13 +387,60 @@ public class TrackScheme extends AbstractTrackMateModelView
 		final mxGeometry geometry = new mxGeometry( x, y, DEFAULT_CELL_WIDTH, DEFAULT_CELL_HEIGHT );
 		cellAdded.setGeometry( geometry );
 		// Set its style
-		final double radiusFactor = displaySettings.getSpotDisplayRadius();
 		if ( null != spotImageUpdater && doThumbnailCapture )
+			graph.getModel().setStyle( cellAdded, mxConstants.STYLE_IMAGE + "=" + thumbnailOf( spot ) );
+
+		return cellAdded;
+	}
+
+	/**
+	 * Returns the style image string of the thumbnail of the specified spot. If
+	 * it is not in the thumbnail cache, a placeholder is returned, and the
+	 * cell style is updated when the thumbnail has been rendered in the
+	 * background.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return the image string.
+	 */
+	private String thumbnailOf( final Spot spot )
+	{
+		final double radiusFactor = displaySettings.getSpotDisplayRadius();
+		final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor, str -> {
+			thumbnailsReady.put( spot, str );
+			if ( !thumbnailUpdateScheduled.getAndSet( true ) )
+				SwingUtilities.invokeLater( () -> flushThumbnails() );
+		} );
+		return "data:image/base64," + imageStr;
+	}
+
+	/**
+	 * Sets the thumbnails rendered in the background to their cells, in one
+	 * graph update.
+	 */
+	private void flushThumbnails()
+	{
+		thumbnailUpdateScheduled.set( false );
+		graph.getModel().beginUpdate();
+		try
 		{
-			final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor );
-			graph.getModel().setStyle( cellAdded, mxConstants.STYLE_IMAGE + "=" + "data:image/base64," + imageStr );
+			final Iterator< Map.Entry< Spot, String > > it = thumbnailsReady.entrySet().iterator();
+			while ( it.hasNext() )
+			{
+				final Map.Entry< Spot, String > entry = it.next();
+				it.remove();
+				final mxICell cell = graph.getCellFor( entry.getKey() );
+				if ( null == cell || !doThumbnailCapture )
+					continue;
+
+				final String style = mxStyleUtils.setStyle( cell.getStyle(), mxConstants.STYLE_IMAGE, "data:image/base64," + entry.getValue() );
+				graph.getModel().setStyle( cell, style );
+			}
+		}
+		finally
+		{
+			graph.getModel().endUpdate();
 		}
-		return cellAdded;
 	}
 
 	/**
@@ -530,7 +621,33 @@ public class TrackScheme extends AbstractTrackMateModelView
 	@Override
 	public void centerViewOn( final Spot spot )
 	{
-		gui.centerViewOn( graph.getCellFor( spot ) );
+		mxICell cell = graph.getCellFor( spot );
+		if ( null == cell && virtual )
+		{
+			// Lay out and page in the spot before centering on it.
+			if ( virtualLayout.layoutUntil( spot ) )
+				updateVirtualExtent();
+			final int ordinal = virtualLayout.ordinalOf( spot );
+			if ( ordinal < 0 )
+				return;
+
+			final mxGeometry geometry = new mxGeometry();
+			virtualLayout.setGeometry( ordinal, geometry );
+			final double scale = graph.getView().getScale();
+			final mxPoint translate = graph.getView().getTranslate();
+			final Rectangle rect = new Rectangle(
+					( int ) ( ( geometry.getX() + translate.getX() ) * scale ),
+					( int ) ( ( geometry.getY() + translate.getY() ) * scale ),
+					( int ) ( geometry.getWidth() * scale ),
+					( int ) ( geometry.getHeight() * scale ) );
+			gui.graphComponent.validate();
+			gui.graphComponent.getGraphControl().scrollRectToVisible( rect );
+			pageCells();
+			cell = graph.getCellFor( spot );
+			if ( null == cell )
+				return;
+		}
+		gui.centerViewOn( cell );
 	}
 
 	/**
@@ -544,6 +661,15 @@ public class TrackScheme extends AbstractTrackMateModelView
 	@Override
 	public void modelChanged( final ModelChangeEvent event )
 	{
+		// The virtual layout only lays out the tracks it was created with.
+		if ( virtual && null != virtualLayout
+				&& ( event.getEventID() == ModelChangeEvent.TRACKS_COMPUTED
+						|| event.getEventID() == ModelChangeEvent.TRACKS_VISIBILITY_CHANGED ) )
+		{
+			doTrackLayout();
+			return;
+		}
+
 		// Only catch model changes
 		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
 			return;
@@ -580,14 +706,18 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 						// Change the look of the cell
 						final mxICell cell = updateCellOf( spot );
-						spotsWithStyleToUpdate.add( ( mxCell ) cell );
+						if ( null != cell )
+							spotsWithStyleToUpdate.add( ( mxCell ) cell );
 
 					}
 					else if ( event.getSpotFlag( spot ) == ModelChangeEvent.FLAG_SPOT_REMOVED )
 					{
 
 						final mxICell cell = graph.getCellFor( spot );
-						cellsToRemove.add( cell );
+						if ( null != cell )
+							cellsToRemove.add( cell );
+						if ( virtual )
+							virtualLayout.remove( spot );
 
 					}
 				}
@@ -635,6 +765,17 @@ public class TrackScheme extends AbstractTrackMateModelView
 								final Spot target = model.getTrackModel().getEdgeTarget( edge );
 								final mxCell targetCell = graph.getCellFor( target );
 
+								if ( virtual && ( ( sourceCell == null && virtualLayout.ordinalOf( source ) >= 0 )
+										|| ( targetCell == null && virtualLayout.ordinalOf( target ) >= 0 ) ) )
+								{
+									/*
+									 * One of the spots is paged out in
+									 * virtualized mode. The edge cell will be
+									 * created when it is paged in again.
+									 */
+									continue;
+								}
+
 								if ( sourceCell == null || targetCell == null )
 								{
 									/*
@@ -692,14 +833,17 @@ public class TrackScheme extends AbstractTrackMateModelView
 						else if ( event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_MODIFIED )
 						{
 							// Add it to the map of cells to recolor
-							edgesToUpdate.add( graph.getCellFor( edge ) );
+							final mxCell cell = graph.getCellFor( edge );
+							if ( null != cell )
+								edgesToUpdate.add( cell );
 
 						}
 						else if ( event.getEdgeFlag( edge ) == ModelChangeEvent.FLAG_EDGE_REMOVED )
 						{
 
 							final mxCell cell = graph.getCellFor( edge );
-							graph.removeCells( new Object[] { cell } );
+							if ( null != cell )
+								graph.removeCells( new Object[] { cell } );
 						}
 					}
 
@@ -722,12 +866,36 @@ public class TrackScheme extends AbstractTrackMateModelView
 				graph.getModel().endUpdate();
 			}
 		}
+
+		// Tracks might have been created, merged, split or removed.
+		if ( virtual && null != virtualLayout && changesVirtualLayout( event ) )
+			doTrackLayout();
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified event adds or removes spots
+	 * or links, or moves spots to another frame, which invalidates the
+	 * virtual layout.
+	 */
+	private static boolean changesVirtualLayout( final ModelChangeEvent event )
+	{
+		for ( final Spot spot : event.getSpots() )
+			if ( event.getSpotFlag( spot ) != ModelChangeEvent.FLAG_SPOT_MODIFIED )
+				return true;
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+			if ( event.getEdgeFlag( edge ) != ModelChangeEvent.FLAG_EDGE_MODIFIED )
+				return true;
+		return false;
 	}
 
 	@Override
 	public void render()
 	{
 		final long start = System.currentTimeMillis();
+		// Large models are displayed in virtualized mode.
+		final int nSpots = nSpotsInVisibleTracks();
+		this.virtual = nSpots > VIRTUAL_MODE_THRESHOLD;
+
 		// Graph to mirror model
 		this.graph = createGraph();
 		gui.logger.setProgress( 0.5 );
@@ -758,6 +926,21 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 				gui.logger.setStatus( "Refreshing display." );
 				gui.graphComponent.refresh();
+				if ( virtual )
+				{
+					gui.logger.log( String.format( "Displaying %d spots in virtualized mode.", nSpots ) );
+					gui.graphComponent.getViewport().addChangeListener( e -> pageCells() );
+					gui.graphComponent.zoomOut();
+					gui.graphComponent.zoomOut();
+					pageCells();
+					gui.logger.setStatus( "" );
+					gui.logger.setProgress( 0 );
+					final long end = System.currentTimeMillis();
+					gui.logger.log( String.format( "TrackScheme rendering done in %.1f s.", ( end - start ) / 1000d ) );
+					gui.revalidate();
+					return;
+				}
+
 				final mxRectangle bounds = graph.getView().validateCellState( graph.getDefaultParent(), false );
 
 				// This happens when there is not track to display
@@ -1077,57 +1260,59 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 */
 	private void createThumbnails()
 	{
-		// Group spots per frame
-		final Set< Integer > frames = model.getSpots().keySet();
-		final HashMap< Integer, HashSet< Spot > > spotPerFrame = new HashMap<>( frames.size() );
-		for ( final Integer frame : frames )
-			spotPerFrame.put( frame, new HashSet< Spot >( model.getSpots().getNSpots( frame, true ) ) ); // max
+		if ( null == spotImageUpdater )
+			return;
 
-		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+		// Set spot image to cell style. Thumbnails are rendered in background.
+		graph.getModel().beginUpdate();
+		try
 		{
-			for ( final Spot spot : model.getTrackModel().trackSpots( trackID ) )
+			for ( final mxCell cell : graph.getVertexCells() )
 			{
-				final int frame = spot.getFeature( Spot.FRAME ).intValue();
-				spotPerFrame.get( frame ).add( spot );
+				final Spot spot = graph.getSpotFor( cell );
+				final String style = mxStyleUtils.setStyle( cell.getStyle(), mxConstants.STYLE_IMAGE, thumbnailOf( spot ) );
+				graph.getModel().setStyle( cell, style );
 			}
 		}
+		finally
+		{
+			graph.getModel().endUpdate();
+		}
+	}
 
-		// Set spot image to cell style
-		if ( null != spotImageUpdater )
+	public void doTrackLayout()
+	{
+		if ( virtual )
 		{
-			gui.logger.setStatus( "Collecting spot thumbnails." );
-			final double radiusFactor = displaySettings.getSpotDisplayRadius();
-			int index = 0;
+			// Discard the cells of the previous layout and page in again.
+			final Collection< Spot > spots = new ArrayList<>();
+			for ( final mxCell cell : graph.getVertexCells() )
+			{
+				final Spot spot = graph.getSpotFor( cell );
+				final Integer trackID = model.getTrackModel().trackIDOf( spot );
+				final boolean laidOut = null != virtualLayout && virtualLayout.ordinalOf( spot ) >= 0;
+				if ( laidOut || ( null != trackID && model.getTrackModel().isVisible( trackID ) ) )
+					spots.add( spot );
+			}
+			graph.getModel().beginUpdate();
 			try
 			{
-				graph.getModel().beginUpdate();
-
-				// Iterate per frame
-				for ( final Integer frame : frames )
-				{
-					for ( final Spot spot : spotPerFrame.get( frame ) )
-					{
-						final mxICell cell = graph.getCellFor( spot );
-						final String imageStr = spotImageUpdater.getImageString( spot, radiusFactor );
-						String style = cell.getStyle();
-						style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-						graph.getModel().setStyle( cell, style );
-
-					}
-					gui.logger.setProgress( ( double ) index++ / frames.size() );
-				}
+				removeCellsOf( spots );
 			}
 			finally
 			{
 				graph.getModel().endUpdate();
-				gui.logger.setProgress( 0d );
-				gui.logger.setStatus( "" );
 			}
+			virtualLayout = new TrackSchemeVirtualLayout( model );
+			rowLengths = new HashMap<>();
+			pagedWindow = null;
+			updateVirtualExtent();
+			pageCells();
+			gui.graphComponent.refresh();
+			gui.graphComponent.repaint();
+			return;
 		}
-	}
 
-	public void doTrackLayout()
-	{
 		// Position cells
 		graphLayout.execute( null );
 		rowLengths = graphLayout.getRowLengths();
@@ -1142,6 +1327,168 @@ public class TrackScheme extends AbstractTrackMateModelView
 		gui.graphComponent.repaint();
 	}
 
+	/**
+	 * Creates the cells of the spots around the viewport, and removes the
+	 * cells of the spots far from it, in virtualized mode. Tracks are laid out
+	 * as the viewport reaches them.
+	 */
+	private void pageCells()
+	{
+		if ( !virtual || isPaging || null == stylist || null == virtualLayout )
+			return;
+
+		// Visible rows and columns.
+		final Rectangle viewRect = gui.graphComponent.getViewport().getViewRect();
+		final double scale = graph.getView().getScale();
+		final mxPoint translate = graph.getView().getTranslate();
+		final double x0 = viewRect.x / scale - translate.getX();
+		final double y0 = viewRect.y / scale - translate.getY();
+		final int minCol = ( int ) Math.floor( x0 / X_COLUMN_SIZE );
+		final int maxCol = ( int ) Math.ceil( ( x0 + viewRect.width / scale ) / X_COLUMN_SIZE ) + 1;
+		final int minRow = ( int ) Math.floor( y0 / Y_COLUMN_SIZE );
+		final int maxRow = ( int ) Math.ceil( ( y0 + viewRect.height / scale ) / Y_COLUMN_SIZE );
+		if ( null != pagedWindow
+				&& minRow >= pagedWindow[ 0 ] && maxRow <= pagedWindow[ 1 ]
+				&& minCol >= pagedWindow[ 2 ] && maxCol <= pagedWindow[ 3 ] )
+			return;
+
+		// Page with one viewport of margin on each side.
+		final int nRows = maxRow - minRow + 1;
+		final int nCols = maxCol - minCol + 1;
+		final int[] window = new int[] { minRow - nRows, maxRow + nRows, minCol - nCols, maxCol + nCols };
+
+		isPaging = true;
+		graph.getModel().beginUpdate();
+		try
+		{
+			if ( virtualLayout.layoutUpTo( window[ 3 ] ) )
+				updateVirtualExtent();
+
+			// Page out.
+			final Set< Spot > selectedSpots = selectionModel.getSpotSelection();
+			final Collection< Spot > toPageOut = new ArrayList<>();
+			for ( final mxCell cell : graph.getVertexCells() )
+			{
+				final Spot spot = graph.getSpotFor( cell );
+				final int ordinal = virtualLayout.ordinalOf( spot );
+				if ( ordinal < 0 || selectedSpots.contains( spot ) )
+					continue;
+
+				final int row = virtualLayout.rowOf( ordinal );
+				final int column = virtualLayout.columnOf( ordinal );
+				if ( row < window[ 0 ] || row > window[ 1 ] || column < window[ 2 ] || column > window[ 3 ] )
+					toPageOut.add( spot );
+			}
+			removeCellsOf( toPageOut );
+
+			// Page in.
+			final List< Spot > toPageIn = new ArrayList<>();
+			virtualLayout.collect( window[ 0 ], window[ 1 ], window[ 2 ], window[ 3 ], toPageIn );
+			final Collection< mxCell > verticesAdded = new ArrayList<>();
+			for ( final Spot spot : toPageIn )
+			{
+				if ( null != graph.getCellFor( spot ) )
+					continue;
+
+				final mxCell cell = graph.addJGraphTVertex( spot );
+				virtualLayout.setGeometry( virtualLayout.ordinalOf( spot ), cell.getGeometry() );
+				if ( null != spotImageUpdater && doThumbnailCapture )
+					graph.getModel().setStyle( cell, mxConstants.STYLE_IMAGE + "=" + thumbnailOf( spot ) );
+
+				verticesAdded.add( cell );
+			}
+
+			final Collection< mxCell > edgesAdded = new ArrayList<>();
+			for ( final mxCell cell : verticesAdded )
+			{
+				for ( final DefaultWeightedEdge edge : model.getTrackModel().edgesOf( graph.getSpotFor( cell ) ) )
+				{
+					if ( null != graph.getCellFor( edge )
+							|| null == graph.getCellFor( model.getTrackModel().getEdgeSource( edge ) )
+							|| null == graph.getCellFor( model.getTrackModel().getEdgeTarget( edge ) ) )
+						continue;
+
+					final mxCell edgeCell = graph.addJGraphTEdge( edge );
+					graph.getModel().add( graph.getDefaultParent(), edgeCell, 0 );
+					edgesAdded.add( edgeCell );
+				}
+			}
+			stylist.updateVertexStyle( verticesAdded );
+			stylist.updateEdgeStyle( edgesAdded );
+		}
+		finally
+		{
+			graph.getModel().endUpdate();
+			isPaging = false;
+		}
+		pagedWindow = window;
+	}
+
+	/**
+	 * Removes the cells of the specified spots and of their edges from the
+	 * graph, without modifying the model nor the selection.
+	 */
+	private void removeCellsOf( final Collection< Spot > spots )
+	{
+		final ArrayList< Object > cells = new ArrayList<>();
+		for ( final Spot spot : spots )
+		{
+			for ( final DefaultWeightedEdge edge : model.getTrackModel().edgesOf( spot ) )
+			{
+				final mxCell edgeCell = graph.getCellFor( edge );
+				if ( null == edgeCell )
+					continue;
+
+				cells.add( edgeCell );
+				graph.removeMapping( edge );
+			}
+			cells.add( graph.getCellFor( spot ) );
+			graph.removeMapping( spot );
+		}
+		if ( cells.isEmpty() )
+			return;
+
+		doFireModelChangeEvent = false;
+		doFireSelectionChangeEvent = false;
+		try
+		{
+			graph.removeCells( cells.toArray(), true );
+		}
+		finally
+		{
+			doFireModelChangeEvent = true;
+			doFireSelectionChangeEvent = true;
+		}
+	}
+
+	/**
+	 * Passes the extent of the virtual layout to the graph and the component,
+	 * so that the scroll bars span all the tracks, including the ones not laid
+	 * out yet.
+	 */
+	private void updateVirtualExtent()
+	{
+		gui.graphComponent.columnWidths = virtualLayout.getTrackWidths();
+		gui.graphComponent.columnTrackIDs = virtualLayout.getTrackIDs();
+		unlaidSpotColumn = virtualLayout.getNColumns() + virtualLayout.getNTracksLeft();
+
+		final mxRectangle extent = new mxRectangle( 0, 0, ( unlaidSpotColumn + 1 ) * X_COLUMN_SIZE, virtualLayout.getNRows() * Y_COLUMN_SIZE );
+		graph.setMinimumGraphSize( extent );
+		final double scale = graph.getView().getScale();
+		final Dimension dim = new Dimension();
+		dim.setSize( extent.getWidth() * scale, extent.getHeight() * scale );
+		gui.graphComponent.getGraphControl().setPreferredSize( dim );
+		gui.graphComponent.getGraphControl().revalidate();
+	}
+
+	private int nSpotsInVisibleTracks()
+	{
+		int nSpots = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+			nSpots += model.getTrackModel().trackSpots( trackID ).size();
+		return nSpots;
+	}
+
 	public void captureUndecorated()
 	{
 		final BufferedImage image = mxCellRenderer.createBufferedImage( graph, null, 1, Color.WHITE, true, null, gui.graphComponent.getCanvas() );
@@ -0,0 +1,463 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_HEIGHT;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.DEFAULT_CELL_WIDTH;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.X_COLUMN_SIZE;
+import static fiji.plugin.trackmate.visualization.trackscheme.TrackScheme.Y_COLUMN_SIZE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+import org.jgrapht.traverse.DepthFirstIterator;
+
+import com.mxgraph.model.mxGeometry;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
+import fiji.plugin.trackmate.graph.GraphUtils;
+import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * The layout used by TrackScheme in virtualized mode, for models too large to
+ * have one JGraphX cell per spot.
+ * <p>
+ * It computes the same lanes as the {@link TrackSchemeGraphLayout}, but stores
+ * the resulting cell positions in primitive arrays instead of in cell
+ * geometries, so that cells can be created only for the spots that are in the
+ * viewport. Tracks are laid out incrementally, from left to right, only when
+ * the viewport reaches the columns they will occupy.
+ * <p>
+ * The list of tracks to lay out is taken when the layout is created. Tracks
+ * that are removed or hidden in the meantime are skipped, and rows are added
+ * for spots in new frames, but the positions of spots already laid out are
+ * not updated. The layout must be re-created after edits that add or remove
+ * tracks, spots or links.
+ *
+ * @author Jean-Yves Tinevez
+ */
+public class TrackSchemeVirtualLayout
+{
+
+	private static final int START_COLUMN = 1;
+
+	private final TrackModel trackModel;
+
+	/** The IDs of the visible tracks, in the order they are laid out. */
+	private final List< Integer > trackIDs;
+
+	/** The index of the next track to lay out in {@link #trackIDs}. */
+	private int nextTrack = 0;
+
+	/** The IDs of the tracks laid out so far. */
+	private final List< Integer > laidOutTrackIDs = new ArrayList<>();
+
+	/** The column occupancy, per row. */
+	private int[] columns;
+
+	/** The spots laid out so far, indexed by ordinal. */
+	private final List< Spot > spots = new ArrayList<>();
+
+	private final TIntArrayList spotRows = new TIntArrayList();
+
+	private final TIntArrayList spotColumns = new TIntArrayList();
+
+	private final TObjectIntHashMap< Spot > ordinals = new TObjectIntHashMap<>( 10, 0.5f, -1 );
+
+	/**
+	 * For each row, the <code>(column &lt;&lt; 32) | ordinal</code> keys of the
+	 * spots it contains, so that sorting them sorts spots by column.
+	 */
+	private TLongArrayList[] rowContent;
+
+	/** Rows that received new spots since they were last sorted. */
+	private final BitSet unsortedRows = new BitSet();
+
+	/** Spots removed from the model after they were laid out. */
+	private final BitSet removed = new BitSet();
+
+	private final TIntArrayList trackWidths = new TIntArrayList();
+
+	/** The first free column after the tracks laid out so far. */
+	private int nColumns = START_COLUMN;
+
+	/** The sum of the track widths, plus the start column. */
+	private int sumWidth = START_COLUMN;
+
+	public TrackSchemeVirtualLayout( final Model model )
+	{
+		this.trackModel = model.getTrackModel();
+		this.trackIDs = new ArrayList<>( trackModel.trackIDs( true ) );
+		final int nRows = model.getSpots().lastKey() + 1;
+		this.columns = new int[ nRows ];
+		Arrays.fill( columns, START_COLUMN );
+		this.rowContent = new TLongArrayList[ nRows ];
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Lays out tracks until the specified column is occupied, or until all
+	 * the tracks are laid out.
+	 *
+	 * @param column
+	 *            the column to reach.
+	 * @return <code>true</code> if new tracks were laid out.
+	 */
+	public boolean layoutUpTo( final int column )
+	{
+		boolean changed = false;
+		while ( !isComplete() && nColumns <= column )
+		{
+			layoutNextTrack();
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Lays out tracks until the specified spot is laid out, or until all the
+	 * tracks are laid out.
+	 *
+	 * @param spot
+	 *            the spot to reach.
+	 * @return <code>true</code> if new tracks were laid out.
+	 */
+	public boolean layoutUntil( final Spot spot )
+	{
+		boolean changed = false;
+		while ( !isComplete() && ordinalOf( spot ) < 0 )
+		{
+			layoutNextTrack();
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns <code>true</code> if all the visible tracks are laid out.
+	 *
+	 * @return whether the layout is complete.
+	 */
+	public boolean isComplete()
+	{
+		return nextTrack >= trackIDs.size();
+	}
+
+	/**
+	 * Returns the number of visible tracks not laid out yet. Each of them will
+	 * take at least one column.
+	 *
+	 * @return the number of tracks left.
+	 */
+	public int getNTracksLeft()
+	{
+		return trackIDs.size() - nextTrack;
+	}
+
+	/**
+	 * Returns the first free column after the tracks laid out so far.
+	 *
+	 * @return the number of columns used.
+	 */
+	public int getNColumns()
+	{
+		return nColumns;
+	}
+
+	public int getNRows()
+	{
+		return columns.length;
+	}
+
+	/**
+	 * Returns the width, in columns, of the tracks laid out so far.
+	 *
+	 * @return a new array.
+	 */
+	public int[] getTrackWidths()
+	{
+		return trackWidths.toArray();
+	}
+
+	/**
+	 * Returns the IDs of the tracks laid out so far, in the same order as
+	 * {@link #getTrackWidths()}.
+	 *
+	 * @return a new array.
+	 */
+	public Integer[] getTrackIDs()
+	{
+		return laidOutTrackIDs.toArray( new Integer[ laidOutTrackIDs.size() ] );
+	}
+
+	/**
+	 * Returns the ordinal of the specified spot in this layout, or -1 if it
+	 * has not been laid out.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return the spot ordinal.
+	 */
+	public int ordinalOf( final Spot spot )
+	{
+		return ordinals.get( spot );
+	}
+
+	public int rowOf( final int ordinal )
+	{
+		return spotRows.get( ordinal );
+	}
+
+	public int columnOf( final int ordinal )
+	{
+		return spotColumns.get( ordinal );
+	}
+
+	/**
+	 * Marks the specified spot as removed, so that it is not returned anymore
+	 * by {@link #collect(int, int, int, int, Collection)}.
+	 *
+	 * @param spot
+	 *            the spot removed from the model.
+	 */
+	public void remove( final Spot spot )
+	{
+		final int ordinal = ordinalOf( spot );
+		if ( ordinal >= 0 )
+			removed.set( ordinal );
+	}
+
+	/**
+	 * Collects the laid out spots whose row and column are within the
+	 * specified bounds, inclusive.
+	 *
+	 * @param minRow
+	 *            the first row.
+	 * @param maxRow
+	 *            the last row.
+	 * @param minColumn
+	 *            the first column.
+	 * @param maxColumn
+	 *            the last column.
+	 * @param out
+	 *            the collection to add the spots to.
+	 */
+	public void collect( final int minRow, final int maxRow, final int minColumn, final int maxColumn, final Collection< Spot > out )
+	{
+		final long minKey = ( ( long ) Math.max( 0, minColumn ) ) << 32;
+		final long maxKey = ( ( long ) Math.max( 0, maxColumn ) + 1 ) << 32;
+		for ( int row = Math.max( 0, minRow ); row <= Math.min( maxRow, columns.length - 1 ); row++ )
+		{
+			final TLongArrayList keys = rowContent[ row ];
+			if ( null == keys )
+				continue;
+
+			if ( unsortedRows.get( row ) )
+			{
+				keys.sort();
+				unsortedRows.clear( row );
+			}
+
+			int start = keys.binarySearch( minKey );
+			if ( start < 0 )
+				start = -start - 1;
+			for ( int i = start; i < keys.size(); i++ )
+			{
+				final long key = keys.getQuick( i );
+				if ( key >= maxKey )
+					break;
+
+				final int ordinal = ( int ) key;
+				if ( !removed.get( ordinal ) )
+					out.add( spots.get( ordinal ) );
+			}
+		}
+	}
+
+	/**
+	 * Sets the specified geometry to the position of the spot with the
+	 * specified ordinal.
+	 *
+	 * @param ordinal
+	 *            the spot ordinal.
+	 * @param geometry
+	 *            the geometry to modify.
+	 */
+	public void setGeometry( final int ordinal, final mxGeometry geometry )
+	{
+		geometry.setX( spotColumns.get( ordinal ) * X_COLUMN_SIZE - DEFAULT_CELL_WIDTH / 2 );
+		geometry.setY( ( 0.5 + spotRows.get( ordinal ) ) * Y_COLUMN_SIZE - DEFAULT_CELL_HEIGHT / 2 );
+		geometry.setWidth( DEFAULT_CELL_WIDTH );
+		geometry.setHeight( DEFAULT_CELL_HEIGHT );
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Lays out the next track, with the same algorithm as
+	 * {@link TrackSchemeGraphLayout#execute(Object)}.
+	 */
+	private void layoutNextTrack()
+	{
+		final Integer trackID = trackIDs.get( nextTrack++ );
+		final Set< Spot > track = trackModel.trackSpots( trackID );
+		// The track might have been removed, merged or hidden since.
+		if ( null == track || track.isEmpty() || !trackModel.isVisible( trackID ) )
+			return;
+
+		final TreeSet< Spot > sortedTrack = new TreeSet<>( Spot.frameComparator );
+		sortedTrack.addAll( track );
+		final Spot first = sortedTrack.first();
+		ensureRows( sortedTrack.last().getFeature( Spot.FRAME ).intValue() + 1 );
+		final int maxFrame = columns.length - 1;
+
+		// The links might have changed since the layout was created.
+		final TimeDirectedNeighborIndex neighborCache = trackModel.getDirectedNeighborIndex();
+
+		if ( GraphUtils.isTree( track, neighborCache ) )
+		{
+			// Collect spots in good order.
+			final List< Spot > order = new ArrayList<>( track.size() );
+			final SortedDepthFirstIterator< Spot, DefaultWeightedEdge > iterator = trackModel.getSortedDepthFirstIterator( first, Spot.nameComparator, false );
+			while ( iterator.hasNext() )
+				order.add( iterator.next() );
+
+			// Cumulative branch width. Children come after parents.
+			final TObjectIntHashMap< Spot > widths = new TObjectIntHashMap<>( order.size() );
+			for ( int i = order.size() - 1; i >= 0; i-- )
+			{
+				final Spot spot = order.get( i );
+				final Set< Spot > successors = neighborCache.successorsOf( spot );
+				int width = successors.isEmpty() ? 1 : 0;
+				for ( final Spot successor : successors )
+					width += widths.get( successor );
+				widths.put( spot, width );
+			}
+
+			for ( final Spot spot : order )
+			{
+				final int frame = spot.getFeature( Spot.FRAME ).intValue();
+				final int width = widths.get( spot );
+				add( spot, frame, columns[ frame ] + width / 2 );
+				columns[ frame ] += width;
+
+				// If it is a leaf, we fill the remaining row below and above.
+				if ( neighborCache.successorsOf( spot ).isEmpty() )
+				{
+					final int target = columns[ frame ];
+					for ( int i = 0; i <= maxFrame; i++ )
+						columns[ i ] = target;
+				}
+			}
+		}
+		else
+		{
+			final TrackBranchDecomposition branchDecomposition = ConvexBranchesDecomposition.processTrack( trackID, trackModel, false, false );
+			final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( branchDecomposition );
+			final DepthFirstIterator< List< Spot >, DefaultEdge > depthFirstIterator = new DepthFirstIterator<>( branchGraph );
+			while ( depthFirstIterator.hasNext() )
+			{
+				final List< Spot > branch = depthFirstIterator.next();
+				final int firstFrame = branch.get( 0 ).getFeature( Spot.FRAME ).intValue();
+				final int lastFrame = branch.get( branch.size() - 1 ).getFeature( Spot.FRAME ).intValue();
+
+				int targetColumn = columns[ firstFrame ];
+				for ( final Spot spot : branch )
+					targetColumn = Math.max( targetColumn, columns[ spot.getFeature( Spot.FRAME ).intValue() ] );
+
+				for ( final Spot spot : branch )
+					add( spot, spot.getFeature( Spot.FRAME ).intValue(), targetColumn );
+
+				for ( int frame = firstFrame; frame <= lastFrame; frame++ )
+					columns[ frame ] = targetColumn + 1;
+			}
+		}
+
+		// Move all columns to the next free column.
+		int maxCol = 0;
+		for ( final int column : columns )
+			maxCol = Math.max( maxCol, column );
+		Arrays.fill( columns, maxCol + 1 );
+
+		// Store column widths for the panel background.
+		final int width = maxCol - sumWidth;
+		trackWidths.add( width );
+		laidOutTrackIDs.add( trackID );
+		sumWidth += width;
+		nColumns = maxCol + 1;
+	}
+
+	/**
+	 * Adds rows for frames beyond the last one seen so far. New rows start at
+	 * the first free column.
+	 */
+	private void ensureRows( final int nRows )
+	{
+		final int oldNRows = columns.length;
+		if ( nRows <= oldNRows )
+			return;
+
+		columns = Arrays.copyOf( columns, nRows );
+		Arrays.fill( columns, oldNRows, nRows, nColumns );
+		rowContent = Arrays.copyOf( rowContent, nRows );
+	}
+
+	private void add( final Spot spot, final int row, final int column )
+	{
+		// A spot laid out with a track it has left since.
+		final int previous = ordinals.get( spot );
+		if ( previous >= 0 )
+			removed.set( previous );
+
+		final int ordinal = spots.size();
+		spots.add( spot );
+		spotRows.add( row );
+		spotColumns.add( column );
+		ordinals.put( spot, ordinal );
+
+		if ( null == rowContent[ row ] )
+			rowContent[ row ] = new TLongArrayList();
+		rowContent[ row ].add( ( ( long ) column << 32 ) | ordinal );
+		unsortedRows.set( row );
+	}
+}
@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class FeatureTableTest
+{
+
+	@Test
+	public void testPutGetRemove()
+	{
+		final FeatureTable< String > table = new FeatureTable<>();
+		assertNull( table.get( "a", "F1" ) );
+
+		table.put( "a", "F1", 1. );
+		table.put( "a", "F2", Double.NaN );
+		table.put( "b", "F1", 0. );
+		table.put( "c", "F1", Double.longBitsToDouble( -1l ) );
+
+		assertEquals( 1., table.get( "a", "F1" ), 0. );
+		assertTrue( table.get( "a", "F2" ).isNaN() );
+		assertEquals( 0., table.get( "b", "F1" ), 0. );
+		assertNull( table.get( "b", "F2" ) );
+		assertTrue( table.get( "c", "F1" ).isNaN() );
+		assertNull( table.get( "d", "F1" ) );
+
+		table.remove( "a", "F1" );
+		assertNull( table.get( "a", "F1" ) );
+		final Map< String, Double > values = table.values( "a" );
+		assertEquals( 1, values.size() );
+		assertTrue( values.get( "F2" ).isNaN() );
+	}
+
+	@Test
+	public void testConcurrentWrites() throws Exception
+	{
+		final FeatureTable< Integer > table = new FeatureTable<>();
+		final int nThreads = 8;
+		final int nPerThread = 50_000;
+		final ExecutorService executor = Executors.newFixedThreadPool( nThreads );
+		final List< Callable< Void > > tasks = new ArrayList<>();
+		for ( int t = 0; t < nThreads; t++ )
+		{
+			final int offset = t * nPerThread;
+			tasks.add( () -> {
+				for ( int i = offset; i < offset + nPerThread; i++ )
+				{
+					table.put( Integer.valueOf( i ), "X", i );
+					table.put( Integer.valueOf( i ), "Y", -i );
+				}
+				return null;
+			} );
+		}
+		for ( final Future< Void > future : executor.invokeAll( tasks ) )
+			future.get();
+		executor.shutdown();
+
+		assertEquals( nThreads * nPerThread, table.keys().size() );
+		for ( int i = 0; i < nThreads * nPerThread; i++ )
+		{
+			assertEquals( i, table.get( Integer.valueOf( i ), "X" ), 0. );
+			assertEquals( -i, table.get( Integer.valueOf( i ), "Y" ), 0. );
+		}
+	}
+}
@@ -22,6 +22,7 @@
 package fiji.plugin.trackmate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
@@ -538,6 +539,64 @@ public class ModelTest {
 		new ModelTest().exampleManipulation();
 	}
 
+	/**
+	 * Test that a copy of a model can be edited without changing the source.
+	 */
+	@Test
+	public void testCopy() {
+		final Model model = new Model();
+		final Spot s1 = new Spot( 0d, 0d, 0d, 1d, -1d, "S1" );
+		final Spot s2 = new Spot( 0d, 0d, 0d, 1d, -1d, "S2" );
+		final Spot s3 = new Spot( 0d, 0d, 0d, 1d, -1d, "S3" );
+		final Spot s4 = new Spot( 0d, 0d, 0d, 1d, -1d, "S4" );
+		final Spot s5 = new Spot( 0d, 0d, 0d, 1d, -1d, "S5" );
+
+		model.beginUpdate();
+		try {
+			model.addSpotTo( s1, 0 );
+			model.addSpotTo( s2, 1 );
+			model.addSpotTo( s3, 2 );
+			model.addSpotTo( s4, 0 );
+			model.addSpotTo( s5, 1 );
+			model.addEdge( s1, s2, 1d );
+			model.addEdge( s2, s3, 2d );
+			model.addEdge( s4, s5, 3d );
+		} finally {
+			model.endUpdate();
+		}
+
+		final Model copy = model.copy();
+		final TrackModel tm = model.getTrackModel();
+		final TrackModel tmCopy = copy.getTrackModel();
+		assertEquals( 5, copy.getSpots().getNSpots( false ) );
+		assertEquals( tm.trackIDs( false ), tmCopy.trackIDs( false ) );
+		assertEquals( tm.trackIDOf( s1 ), tmCopy.trackIDOf( s3 ) );
+		assertEquals( tm.trackSpots( tm.trackIDOf( s4 ) ), tmCopy.trackSpots( tmCopy.trackIDOf( s5 ) ) );
+		assertEquals( 2d, tmCopy.getEdgeWeight( tmCopy.getEdge( s3, s2 ) ), 0d );
+
+		// Edit the copy.
+		final Spot s6 = new Spot( 0d, 0d, 0d, 1d, -1d, "S6" );
+		copy.beginUpdate();
+		try {
+			copy.removeEdge( s2, s3 );
+			copy.addSpotTo( s6, 2 );
+			copy.addEdge( s5, s6, 1d );
+		} finally {
+			copy.endUpdate();
+		}
+		assertFalse( tmCopy.containsEdge( s2, s3 ) );
+		assertEquals( tmCopy.trackIDOf( s5 ), tmCopy.trackIDOf( s6 ) );
+		assertEquals( 3, tmCopy.trackSpots( tmCopy.trackIDOf( s4 ) ).size() );
+
+		// The source is unchanged.
+		assertEquals( 5, model.getSpots().getNSpots( false ) );
+		assertTrue( tm.containsEdge( s2, s3 ) );
+		assertEquals( 2, tm.nTracks( false ) );
+		assertEquals( 3, tm.trackSpots( tm.trackIDOf( s1 ) ).size() );
+		assertEquals( 2, tm.trackSpots( tm.trackIDOf( s4 ) ).size() );
+		assertEquals( 1, tm.trackEdges( tm.trackIDOf( s4 ) ).size() );
+	}
+
 	private static class EventLogger implements ModelChangeListener {
 
 		@Override
@@ -198,6 +198,91 @@ public class SpotCollectionTest
 		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
 	}
 
+	@Test
+	public void testIncrementalFilter()
+	{
+		// Move the threshold up and down, like the GUI sliders do.
+		for ( final double threshold : new double[] { 2.5, 50., 10., 10., 99.5, -1. } )
+		{
+			sc.filter( Arrays.asList( new FeatureFilter( Spot.QUALITY, threshold, true ) ) );
+			final int expected = N_FRAMES * ( int ) Math.max( 0, Math.min( N_SPOTS, N_SPOTS - Math.ceil( threshold ) ) );
+			assertEquals( "Unexpected number of visible spots for threshold " + threshold + ".", expected, sc.getNSpots( true ) );
+		}
+
+		// Add a second filter, then remove the first one.
+		sc.filter( Arrays.asList(
+				new FeatureFilter( Spot.QUALITY, 20., true ),
+				new FeatureFilter( Spot.POSITION_X, 29.5, false ) ) );
+		assertEquals( 10 * N_FRAMES, sc.getNSpots( true ) );
+		sc.filter( Arrays.asList( new FeatureFilter( Spot.POSITION_X, 29.5, false ) ) );
+		assertEquals( 30 * N_FRAMES, sc.getNSpots( true ) );
+
+		// Modifying the collection must not leave stale visibility.
+		final Spot spot = new Spot( 0, 0, 0, 1, 200. );
+		sc.add( spot, frames.get( 0 ) );
+		sc.filter( Arrays.asList( new FeatureFilter( Spot.QUALITY, 150., true ) ) );
+		assertEquals( 1, sc.getNSpots( true ) );
+		assertTrue( isVisible( spot ) );
+
+		// Changing feature values requires discarding the index.
+		spot.putFeature( Spot.QUALITY, 100. );
+		sc.invalidateFilterIndex();
+		sc.filter( Arrays.asList( new FeatureFilter( Spot.QUALITY, 150., true ) ) );
+		assertEquals( 0, sc.getNSpots( true ) );
+	}
+
+	@Test
+	public void testVisibilityFeatureFollowsFilters()
+	{
+		// Random successive filters, like the GUI sliders and check-boxes do.
+		final Random ran = new Random( 1l );
+		for ( int i = 0; i < 20; i++ )
+		{
+			final List< FeatureFilter > filters = new ArrayList<>();
+			filters.add( new FeatureFilter( Spot.QUALITY, ran.nextInt( N_SPOTS ) + 0.5, ran.nextBoolean() ) );
+			if ( ran.nextBoolean() )
+				filters.add( new FeatureFilter( Spot.POSITION_X, ran.nextInt( N_SPOTS ) + 0.5, ran.nextBoolean() ) );
+			sc.filter( filters );
+			assertVisibilityMatches( filters );
+		}
+
+		// Visibility set directly is rewritten once the index is discarded.
+		final List< FeatureFilter > filters = Arrays.asList( new FeatureFilter( Spot.QUALITY, 49.5, true ) );
+		sc.filter( filters );
+		final Spot spot = sc.iterator( false ).next();
+		spot.putFeature( SpotCollection.VISIBILITY, isVisible( spot ) ? SpotCollection.ZERO : SpotCollection.ONE );
+		sc.invalidateFilterIndex();
+		sc.filter( filters );
+		assertVisibilityMatches( filters );
+
+		// Same after marking all spots.
+		sc.setVisible( true );
+		sc.filter( filters );
+		assertVisibilityMatches( filters );
+	}
+
+	/**
+	 * Checks that the {@link SpotCollection#VISIBILITY} feature of all the
+	 * spots matches the specified filters.
+	 */
+	private void assertVisibilityMatches( final List< FeatureFilter > filters )
+	{
+		int nVisible = 0;
+		for ( final Spot spot : sc.iterable( false ) )
+		{
+			boolean expected = true;
+			for ( final FeatureFilter filter : filters )
+			{
+				final double val = spot.getFeature( filter.feature ).doubleValue();
+				expected &= filter.isAbove ? val > filter.value : val < filter.value;
+			}
+			assertEquals( "Visibility of spot " + spot + " does not match the filters.", expected, isVisible( spot ) );
+			if ( expected )
+				nVisible++;
+		}
+		assertEquals( nVisible, sc.getNSpots( true ) );
+	}
+
 	@Test
 	public void testFilters()
 	{
@@ -472,6 +557,43 @@ public class SpotCollectionTest
 		assertArrayEquals( frames.toArray( new Integer[] {} ), sc.keySet().toArray( new Integer[] {} ) );
 	}
 
+	@Test
+	public void testCopy()
+	{
+		// A frame without visible spots.
+		final Spot lonely = new Spot( 0d, 0d, 0d, 1d, -1d );
+		lonely.putFeature( Spot.QUALITY, 0d );
+		sc.put( 200, Arrays.asList( lonely ) );
+		sc.filter( new FeatureFilter( Spot.QUALITY, 50d, true ) );
+
+		final SpotCollection all = sc.copy( false );
+		final SpotCollection visible = sc.copy( true );
+		final SpotCollection fromCollection = SpotCollection.fromCollection( sc.iterable( true ) );
+		assertArrayEquals( sc.keySet().toArray(), all.keySet().toArray() );
+		assertArrayEquals( frames.toArray(), visible.keySet().toArray() );
+		assertArrayEquals( frames.toArray(), fromCollection.keySet().toArray() );
+		for ( final Integer frame : frames )
+		{
+			assertEquals( toSet( sc.iterable( frame, false ) ), toSet( all.iterable( frame, false ) ) );
+			assertEquals( toSet( sc.iterable( frame, true ) ), toSet( visible.iterable( frame, false ) ) );
+			assertEquals( toSet( sc.iterable( frame, true ) ), toSet( fromCollection.iterable( frame, false ) ) );
+		}
+
+		// The copies can be edited independently.
+		final Spot spot = all.iterable( frames.get( 0 ), false ).iterator().next();
+		assertTrue( all.remove( spot, frames.get( 0 ) ) );
+		assertEquals( N_SPOTS, sc.getNSpots( frames.get( 0 ), false ) );
+		assertEquals( N_SPOTS - 1, all.getNSpots( frames.get( 0 ), false ) );
+	}
+
+	private static final HashSet< Spot > toSet( final Iterable< Spot > spots )
+	{
+		final HashSet< Spot > set = new HashSet<>();
+		for ( final Spot spot : spots )
+			set.add( spot );
+		return set;
+	}
+
 	private static final boolean isVisible( final Spot spot )
 	{
 		return spot.getFeature( SpotCollection.VISIBILITY ).compareTo( SpotCollection.ZERO ) > 0;
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+public class TrackMateBatchRunnerTest
+{
+
+	private static File newFolder() throws IOException
+	{
+		final File folder = Files.createTempDirectory( "batch" ).toFile();
+		folder.deleteOnExit();
+		return folder;
+	}
+
+	private static File newFile( final File folder, final String name ) throws IOException
+	{
+		final File file = new File( folder, name );
+		Files.write( file.toPath(), new byte[] { 0 } );
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testListInputsFolder() throws IOException
+	{
+		final File folder = newFolder();
+		final File a = newFile( folder, "a.tif" );
+		final File b = newFile( folder, "b.TIFF" );
+		newFile( folder, "c.txt" );
+		newFile( folder, ".hidden.tif" );
+		final File sub = new File( folder, "sub.tif" );
+		assertTrue( sub.mkdir() );
+		sub.deleteOnExit();
+
+		assertEquals( Arrays.asList( a, b ), TrackMateBatchRunner.listInputs( folder ) );
+	}
+
+	@Test
+	public void testListInputsTextFile() throws IOException
+	{
+		final File folder = newFolder();
+		final File absolute = new File( folder, "absolute.tif" ).getAbsoluteFile();
+		final File list = new File( folder, "list.txt" );
+		list.deleteOnExit();
+		Files.write( list.toPath(), Arrays.asList(
+				"# Images to process.",
+				"",
+				"  relative/image.tif  ",
+				absolute.getPath(),
+				"   ",
+				"#ignored.tif" ), StandardCharsets.UTF_8 );
+
+		final List< File > inputs = TrackMateBatchRunner.listInputs( list );
+		assertEquals( Arrays.asList(
+				new File( folder.getAbsoluteFile(), "relative/image.tif" ),
+				absolute ), inputs );
+	}
+
+	@Test
+	public void testBaseName()
+	{
+		assertEquals( "img", TrackMateBatchRunner.baseName( new File( "img.tif" ) ) );
+		assertEquals( "img", TrackMateBatchRunner.baseName( new File( "img.TIFF" ) ) );
+		assertEquals( "img", TrackMateBatchRunner.baseName( new File( "img.ome.tif" ) ) );
+		assertEquals( "img.v2", TrackMateBatchRunner.baseName( new File( "img.v2.tiff" ) ) );
+		assertEquals( "img", TrackMateBatchRunner.baseName( new File( "/some/folder/img.png" ) ) );
+		assertEquals( "img", TrackMateBatchRunner.baseName( new File( "img" ) ) );
+		assertEquals( ".img", TrackMateBatchRunner.baseName( new File( ".img" ) ) );
+	}
+
+	@Test
+	public void testFailuresAreReported() throws IOException
+	{
+		final File folder = newFolder();
+		final File missing = new File( folder, "missing.tif" );
+		final File image = new File( folder, "blank.tif" );
+		image.deleteOnExit();
+		IJ.saveAsTiff( new ImagePlus( "blank", new ByteProcessor( 16, 16 ) ), image.getAbsolutePath() );
+
+		// No detector: TrackMate will not start.
+		final Settings template = new Settings();
+		final File output = new File( folder, "output" );
+		final TrackMateBatchRunner runner = new TrackMateBatchRunner( template, Arrays.asList( missing, image ), output, 2, 2, Logger.VOID_LOGGER );
+		final List< TrackMateBatchRunner.Result > results = runner.run();
+
+		assertEquals( 2, results.size() );
+		for ( final TrackMateBatchRunner.Result result : results )
+		{
+			assertFalse( result.ok );
+			assertFalse( result.message.isEmpty() );
+			if ( result.file.equals( missing ) )
+				assertEquals( "Could not open image.", result.message );
+		}
+		assertFalse( new File( output, "blank.xml" ).exists() );
+
+		final File reportFile = new File( output, TrackMateBatchRunner.REPORT_FILE_NAME );
+		reportFile.deleteOnExit();
+		output.deleteOnExit();
+		final List< String > report = Files.readAllLines( reportFile.toPath(), StandardCharsets.UTF_8 );
+		assertEquals( 3, report.size() );
+		assertTrue( report.get( 0 ).startsWith( "FILE,STATUS" ) );
+		for ( final String line : report.subList( 1, 3 ) )
+			assertTrue( line, line.contains( ",FAILED," ) );
+	}
+}
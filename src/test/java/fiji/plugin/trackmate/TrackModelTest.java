@@ -22,15 +22,19 @@
 package fiji.plugin.trackmate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
 import org.junit.Test;
 
 public class TrackModelTest
@@ -274,4 +278,153 @@ public class TrackModelTest
 		assertTrue( model.isVisible( id ) );
 	}
 
+	@Test
+	public void testTrackVersions()
+	{
+		// Build 2 tracks
+		final TrackModel model = new TrackModel();
+		final List< Spot > starts = new ArrayList<>();
+		for ( int i = 0; i < 2; i++ )
+		{
+			Spot previous = null;
+			for ( int j = 0; j < DEPTH; j++ )
+			{
+				final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+				model.addSpot( spot );
+				if ( null != previous )
+					model.addEdge( previous, spot, 1 );
+				else
+					starts.add( spot );
+				previous = spot;
+			}
+		}
+		final Integer idA = model.trackIDOf( starts.get( 0 ) );
+		final Integer idB = model.trackIDOf( starts.get( 1 ) );
+		final long versionA = model.trackVersion( idA );
+		final long versionB = model.trackVersion( idB );
+
+		// Unchanged tracks keep their version
+		assertEquals( versionA, model.trackVersion( idA ) );
+
+		// Adding a spot to track A changes its version, not the one of B
+		final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+		model.addSpot( spot );
+		model.addEdge( starts.get( 0 ), spot, 1 );
+		assertNotEquals( versionA, model.trackVersion( idA ) );
+		assertEquals( versionB, model.trackVersion( idB ) );
+
+		// Removing an edge of track B changes its version
+		final DefaultWeightedEdge edge = model.trackEdges( idB ).iterator().next();
+		model.removeEdge( edge );
+		assertNotEquals( versionB, model.trackVersion( idB ) );
+
+		// Modifying a spot of track A changes its version
+		final long versionA2 = model.trackVersion( idA );
+		model.spotModified( spot );
+		assertNotEquals( versionA2, model.trackVersion( idA ) );
+	}
+
+	@Test
+	public void testTrackIDListings()
+	{
+		// Build 3 tracks
+		final TrackModel model = new TrackModel();
+		final List< Spot > starts = new ArrayList<>();
+		for ( int i = 0; i < N_TRACKS; i++ )
+		{
+			Spot previous = null;
+			for ( int j = 0; j < DEPTH; j++ )
+			{
+				final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+				model.addSpot( spot );
+				if ( null != previous )
+					model.addEdge( previous, spot, 1 );
+				else
+					starts.add( spot );
+				previous = spot;
+			}
+		}
+		final Integer idA = model.trackIDOf( starts.get( 0 ) );
+		final Integer idB = model.trackIDOf( starts.get( 1 ) );
+		final Integer idC = model.trackIDOf( starts.get( 2 ) );
+
+		// Listings are reused while nothing changes
+		final Set< Integer > ids = model.trackIDs( true );
+		assertSame( ids, model.trackIDs( true ) );
+		assertEquals( N_TRACKS, ids.size() );
+
+		// Renaming sorts again. Names without digits come first.
+		model.setName( idA, "Track_Z" );
+		model.setName( idB, "Track_B" );
+		model.setName( idC, "Track_10" );
+		assertEquals( Arrays.asList( idB, idA, idC ), new ArrayList<>( model.trackIDs( false ) ) );
+
+		// Hiding a track
+		model.setVisibility( idC, false );
+		assertEquals( Arrays.asList( idB, idA ), new ArrayList<>( model.trackIDs( true ) ) );
+		assertEquals( N_TRACKS, model.trackIDs( false ).size() );
+		assertEquals( 2, model.nTracks( true ) );
+		assertEquals( 2, model.unsortedTrackIDs( true ).size() );
+
+		// Removing a track
+		final Set< Integer > before = model.trackIDs( false );
+		for ( final DefaultWeightedEdge edge : new ArrayList<>( model.trackEdges( idB ) ) )
+			model.removeEdge( edge );
+		assertEquals( Arrays.asList( idA, idC ), new ArrayList<>( model.trackIDs( false ) ) );
+		// Previous listings are snapshots
+		assertEquals( N_TRACKS, before.size() );
+	}
+
+	@Test
+	public void testCompactGraphIsOptIn()
+	{
+		// The default model uses the graph it is given.
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final Spot a = new Spot( 0d, 0d, 0d, 1d, -1d );
+		final Spot b = new Spot( 1d, 0d, 0d, 1d, -1d );
+		graph.addVertex( a );
+		graph.addVertex( b );
+		graph.addEdge( a, b );
+
+		final TrackModel model = new TrackModel();
+		model.setGraph( graph );
+		final Set< DefaultWeightedEdge > edges = model.edgesOf( a );
+		model.removeEdge( a, b );
+		assertTrue( edges.isEmpty() );
+		assertTrue( graph.edgeSet().isEmpty() );
+
+		// The compact model copies it.
+		graph.addEdge( a, b );
+		final TrackModel compact = TrackModel.withCompactGraph();
+		compact.setGraph( graph );
+		assertEquals( 1, compact.nTracks( false ) );
+		final Set< DefaultWeightedEdge > snapshot = compact.edgesOf( a );
+		compact.removeEdge( a, b );
+		assertEquals( 1, snapshot.size() );
+		assertEquals( 1, graph.edgeSet().size() );
+		assertEquals( 0, compact.nTracks( false ) );
+
+		// Both build the same tracks.
+		for ( final TrackModel tm : Arrays.asList( new TrackModel(), TrackModel.withCompactGraph() ) )
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < DEPTH; j++ )
+				{
+					final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+					tm.addSpot( spot );
+					if ( null != previous )
+						tm.addEdge( previous, spot, 1 );
+					previous = spot;
+				}
+			}
+			assertEquals( N_TRACKS, tm.nTracks( false ) );
+			for ( final Integer id : tm.trackIDs( false ) )
+			{
+				assertEquals( DEPTH, tm.trackSpots( id ).size() );
+				assertEquals( DEPTH - 1, tm.trackEdges( id ).size() );
+			}
+		}
+	}
 }
@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+
+public class CTCExporterTest
+{
+
+	private static final int N_FRAMES = 8;
+
+	private static final int N_SPOTS_PER_FRAME = 60;
+
+	/**
+	 * Creates a model with many overlapping spots, most of them in tracks
+	 * that split and merge.
+	 */
+	private static Model createModel( final long seed )
+	{
+		final Random ran = new Random( seed );
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			List< Spot > previous = new ArrayList<>();
+			for ( int frame = 0; frame < N_FRAMES; frame++ )
+			{
+				final List< Spot > current = new ArrayList<>();
+				for ( int i = 0; i < N_SPOTS_PER_FRAME; i++ )
+				{
+					final double radius = 0.5 + 2. * ran.nextDouble();
+					final Spot spot = new Spot( 20. * ran.nextDouble(), 20. * ran.nextDouble(), 0., radius, -1. );
+					model.addSpotTo( spot, frame );
+					current.add( spot );
+				}
+				for ( final Spot source : previous )
+					if ( ran.nextInt( 5 ) > 0 )
+						model.addEdge( source, current.get( ran.nextInt( current.size() ) ), 1. );
+				previous = current;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	/**
+	 * Returns a description of the spots, links and tracks of the model, that
+	 * does not depend on iteration orders.
+	 */
+	private static Set< String > describe( final Model model )
+	{
+		final Set< String > description = new TreeSet<>();
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+			description.add( "spot " + spot.ID() + " @ " + spot.getFeature( Spot.FRAME ).intValue() );
+
+		final TrackModel tm = model.getTrackModel();
+		for ( final DefaultWeightedEdge edge : tm.edgeSet() )
+		{
+			final int a = tm.getEdgeSource( edge ).ID();
+			final int b = tm.getEdgeTarget( edge ).ID();
+			description.add( "edge " + Math.min( a, b ) + " - " + Math.max( a, b ) );
+		}
+		for ( final Integer trackID : tm.trackIDs( false ) )
+		{
+			final Set< Integer > ids = new TreeSet<>();
+			for ( final Spot spot : tm.trackSpots( trackID ) )
+				ids.add( spot.ID() );
+			description.add( "track " + ids );
+		}
+		return description;
+	}
+
+	/**
+	 * The former sanitizing loop: all the spots of a frame are compared
+	 * pairwise, and overlaps are fixed as they are met. The missing
+	 * <code>continue</code> after removing a spot that is not in a track is
+	 * added.
+	 */
+	private static void pairwiseSanitize( final Model model )
+	{
+		final double fudgeFactor = 1.2;
+		final SpotCollection allSpots = model.getSpots();
+		final TrackModel trackModel = model.getTrackModel();
+		for ( final Integer frame : new ArrayList<>( allSpots.keySet() ) )
+		{
+			final List< Spot > spots = new ArrayList<>();
+			allSpots.iterable( frame, true ).forEach( spots::add );
+			final int nSpots = spots.size();
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				final Spot s1 = spots.get( i );
+				final double r1 = s1.getFeature( Spot.RADIUS ).doubleValue();
+				for ( int j = i + 1; j < nSpots; j++ )
+				{
+					final Spot s2 = spots.get( j );
+					final double r2 = s2.getFeature( Spot.RADIUS ).doubleValue();
+					final double d = Math.sqrt( s1.squareDistanceTo( s2 ) );
+					if ( !( fudgeFactor * r1 > ( d + r2 ) || fudgeFactor * r2 > ( d + r1 ) ) )
+						continue;
+
+					model.beginUpdate();
+					try
+					{
+						final Set< Spot > track1 = trackModel.trackSpots( trackModel.trackIDOf( s1 ) );
+						if ( track1 == null )
+						{
+							model.removeSpot( s1 );
+							continue;
+						}
+						final Set< Spot > track2 = trackModel.trackSpots( trackModel.trackIDOf( s2 ) );
+						if ( track2 == null )
+						{
+							model.removeSpot( s2 );
+							continue;
+						}
+
+						final Spot toRemove = ( track2.size() > track1.size() ) ? s1 : s2;
+						final List< Spot > sources = new ArrayList<>();
+						final List< Spot > targets = new ArrayList<>();
+						for ( final DefaultWeightedEdge edge : trackModel.edgesOf( toRemove ) )
+						{
+							final Spot source = trackModel.getEdgeSource( edge );
+							if ( source == toRemove )
+								targets.add( trackModel.getEdgeTarget( edge ) );
+							else
+								sources.add( source );
+						}
+						for ( final Spot source : sources )
+							for ( final Spot target : targets )
+								model.addEdge( source, target, -1. );
+						model.removeSpot( toRemove );
+					}
+					finally
+					{
+						model.endUpdate();
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSanitizeDoesNotModifySource()
+	{
+		final Model model = createModel( 1l );
+		final Set< String > before = describe( model );
+
+		final Model sanitized = CTCExporter.sanitizeAndCopy( model, 2 );
+		assertTrue( sanitized.getSpots().getNSpots( false ) < model.getSpots().getNSpots( false ) );
+		assertEquals( before, describe( model ) );
+
+		// Editing the sanitized copy further does not leak either.
+		sanitized.beginUpdate();
+		try
+		{
+			for ( final DefaultWeightedEdge edge : new ArrayList<>( sanitized.getTrackModel().edgeSet() ) )
+				sanitized.removeEdge( edge );
+		}
+		finally
+		{
+			sanitized.endUpdate();
+		}
+		assertEquals( before, describe( model ) );
+	}
+
+	@Test
+	public void testSanitizeMatchesPairwiseLoop()
+	{
+		for ( long seed = 1l; seed <= 5l; seed++ )
+		{
+			final Model model = createModel( seed );
+			final Model expected = model.copy();
+			pairwiseSanitize( expected );
+
+			final Model actual = CTCExporter.sanitizeAndCopy( model, 3 );
+			assertEquals( describe( expected ), describe( actual ) );
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import ij.ImagePlus;
+import ij.io.Opener;
+import ij.process.ImageProcessor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class LabelImgExporterTest
+{
+
+	private static final long[] DIMENSIONS = new long[] { 40, 30, 3, 4 };
+
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.5, 1., 1. };
+
+	/**
+	 * Creates a model with a few tracks and a few spots not in tracks.
+	 */
+	private static Model createModel()
+	{
+		final Random ran = new Random( 1l );
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			List< Spot > previous = new ArrayList<>();
+			for ( int frame = 0; frame < DIMENSIONS[ 3 ]; frame++ )
+			{
+				final List< Spot > current = new ArrayList<>();
+				for ( int i = 0; i < 6; i++ )
+				{
+					final Spot spot = new Spot(
+							20. * ran.nextDouble(),
+							15. * ran.nextDouble(),
+							2. * ran.nextDouble(),
+							0.8 + 1.5 * ran.nextDouble(),
+							-1. );
+					model.addSpotTo( spot, frame );
+					current.add( spot );
+				}
+				for ( int i = 0; i < previous.size() - 2; i++ )
+					model.addEdge( previous.get( i ), current.get( i ), 1. );
+				previous = current;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	/**
+	 * Checks that the planes of the TIFF file are those of the label image
+	 * created in memory.
+	 */
+	private static void assertSameLabels( final Model model, final boolean exportSpotsAsDots, final boolean exportTracksOnly, final boolean useSpotIDsAsLabels ) throws IOException
+	{
+		final File file = File.createTempFile( "LblImg", ".tif" );
+		file.deleteOnExit();
+		LabelImgExporter.exportLabelImage( model, DIMENSIONS, CALIBRATION, exportSpotsAsDots, exportTracksOnly, useSpotIDsAsLabels, file, 2, Logger.VOID_LOGGER );
+		final Img< UnsignedShortType > expected = LabelImgExporter.createLabelImg( model, DIMENSIONS, CALIBRATION, exportSpotsAsDots, exportTracksOnly, useSpotIDsAsLabels, Logger.VOID_LOGGER );
+
+		final ImagePlus imp = new Opener().openImage( file.getAbsolutePath() );
+		assertNotNull( imp );
+		assertEquals( 16, imp.getBitDepth() );
+		assertEquals( DIMENSIONS[ 0 ], imp.getWidth() );
+		assertEquals( DIMENSIONS[ 1 ], imp.getHeight() );
+		assertEquals( DIMENSIONS[ 2 ] * DIMENSIONS[ 3 ], imp.getStackSize() );
+		assertEquals( CALIBRATION[ 0 ], imp.getCalibration().pixelWidth, 1e-9 );
+
+		final RandomAccess< UnsignedShortType > ra = expected.randomAccess();
+		int nPainted = 0;
+		for ( int t = 0; t < DIMENSIONS[ 3 ]; t++ )
+		{
+			for ( int z = 0; z < DIMENSIONS[ 2 ]; z++ )
+			{
+				final ImageProcessor ip = imp.getStack().getProcessor( 1 + t * ( int ) DIMENSIONS[ 2 ] + z );
+				for ( int y = 0; y < DIMENSIONS[ 1 ]; y++ )
+				{
+					for ( int x = 0; x < DIMENSIONS[ 0 ]; x++ )
+					{
+						ra.setPosition( new long[] { x, y, z, t } );
+						final int label = ra.get().get();
+						assertEquals( "At " + x + ", " + y + ", " + z + ", " + t, label, ip.get( x, y ) );
+						if ( label > 0 )
+							nPainted++;
+					}
+				}
+			}
+		}
+		// Make sure we did not compare empty images.
+		assertTrue( nPainted > 0 );
+	}
+
+	@Test
+	public void testExportSpots() throws IOException
+	{
+		final Model model = createModel();
+		assertSameLabels( model, false, false, false );
+		assertSameLabels( model, false, true, false );
+		assertSameLabels( model, false, false, true );
+	}
+
+	@Test
+	public void testExportDots() throws IOException
+	{
+		final Model model = createModel();
+		assertSameLabels( model, true, false, false );
+		assertSameLabels( model, true, true, true );
+	}
+}
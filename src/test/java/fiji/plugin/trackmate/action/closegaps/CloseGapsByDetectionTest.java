@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.closegaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.LogDetectorFactory;
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import ij.process.ImageProcessor;
+
+public class CloseGapsByDetectionTest
+{
+
+	private static final int N_FRAMES = 5;
+
+	private static final double RADIUS = 3.;
+
+	/**
+	 * Offset in Y of the blob in the middle frame, so that detected spots can
+	 * be told apart from interpolated ones.
+	 */
+	private static final double OFFSET = 2.;
+
+	private static double x( final int frame )
+	{
+		return 12. + 8. * frame;
+	}
+
+	private static double y( final int frame )
+	{
+		return 20. + 4. * frame + ( frame == N_FRAMES / 2 ? OFFSET : 0. );
+	}
+
+	/**
+	 * Returns a 2D+T image with one Gaussian blob per frame, except for the
+	 * specified frames, left empty.
+	 */
+	private static ImagePlus makeImage( final int... emptyFrames )
+	{
+		final ImagePlus imp = NewImage.createFloatImage( "Blobs", 64, 64, N_FRAMES, NewImage.FILL_BLACK );
+		imp.setDimensions( 1, 1, N_FRAMES );
+		final double sigma = RADIUS / Math.sqrt( 2. );
+		frames: for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			for ( final int empty : emptyFrames )
+				if ( t == empty )
+					continue frames;
+
+			final ImageProcessor ip = imp.getStack().getProcessor( t + 1 );
+			for ( int y = 0; y < ip.getHeight(); y++ )
+			{
+				for ( int x = 0; x < ip.getWidth(); x++ )
+				{
+					final double dx = x - x( t );
+					final double dy = y - y( t );
+					ip.putPixelValue( x, y, 100. * Math.exp( -( dx * dx + dy * dy ) / ( 2. * sigma * sigma ) ) );
+				}
+			}
+		}
+		return imp;
+	}
+
+	/**
+	 * Returns a TrackMate instance on the specified image, with one track
+	 * made of a spot in the first and last frames.
+	 */
+	private static TrackMate makeTrackMate( final ImagePlus imp )
+	{
+		final Settings settings = new Settings( imp );
+		settings.detectorFactory = new LogDetectorFactory<>();
+		final Map< String, Object > detectorSettings = settings.detectorFactory.getDefaultSettings();
+		detectorSettings.put( DetectorKeys.KEY_RADIUS, RADIUS );
+		detectorSettings.put( DetectorKeys.KEY_THRESHOLD, 1. );
+		settings.detectorSettings = detectorSettings;
+
+		final Model model = new Model();
+		final int last = N_FRAMES - 1;
+		final Spot first = new Spot( x( 0 ), y( 0 ), 0., RADIUS, 1. );
+		final Spot end = new Spot( x( last ), y( last ), 0., RADIUS, 1. );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( first, 0 );
+			model.addSpotTo( end, last );
+			model.addEdge( first, end, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackMate trackmate = new TrackMate( model, settings );
+		trackmate.setNumThreads( 2 );
+		return trackmate;
+	}
+
+	/**
+	 * Returns the spots of the single track of the model, sorted by frame.
+	 */
+	private static List< Spot > trackSpots( final Model model )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		assertEquals( "There should be a single track.", 1, trackModel.nTracks( false ) );
+		final Integer trackID = trackModel.trackIDs( false ).iterator().next();
+		final List< Spot > spots = new ArrayList<>( trackModel.trackSpots( trackID ) );
+		spots.sort( ( s1, s2 ) -> Double.compare( s1.getFeature( Spot.FRAME ), s2.getFeature( Spot.FRAME ) ) );
+		return spots;
+	}
+
+	@Test
+	public void testGapIsClosed()
+	{
+		final TrackMate trackmate = makeTrackMate( makeImage() );
+		final Model model = trackmate.getModel();
+
+		new CloseGapsByDetection().execute( trackmate, Logger.VOID_LOGGER );
+
+		final List< Spot > spots = trackSpots( model );
+		assertEquals( "The gap should be filled with one spot per frame.", N_FRAMES, spots.size() );
+		assertEquals( N_FRAMES, model.getSpots().getNSpots( false ) );
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			final Spot spot = spots.get( t );
+			assertEquals( t, spot.getFeature( Spot.FRAME ).intValue() );
+			assertEquals( "Spot X position in frame " + t + " is not as expected.", x( t ), spot.getDoublePosition( 0 ), 0.5 );
+			assertEquals( "Spot Y position in frame " + t + " is not as expected.", y( t ), spot.getDoublePosition( 1 ), 0.5 );
+		}
+
+		// Links only join consecutive frames.
+		final TrackModel trackModel = model.getTrackModel();
+		final Set< DefaultWeightedEdge > edges = trackModel.edgeSet();
+		assertEquals( N_FRAMES - 1, edges.size() );
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			final int st = trackModel.getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
+			final int tt = trackModel.getEdgeTarget( edge ).getFeature( Spot.FRAME ).intValue();
+			assertEquals( 1, Math.abs( tt - st ) );
+		}
+		assertTrue( GapClosingMethod.getAllGaps( model ).isEmpty() );
+	}
+
+	@Test
+	public void testEmptyFrameIsSkipped()
+	{
+		final int empty = N_FRAMES / 2;
+		final TrackMate trackmate = makeTrackMate( makeImage( empty ) );
+		final Model model = trackmate.getModel();
+
+		new CloseGapsByDetection().execute( trackmate, Logger.VOID_LOGGER );
+
+		// The spots around the empty frame are found, and linked across it.
+		final List< Spot > spots = trackSpots( model );
+		assertEquals( N_FRAMES - 1, spots.size() );
+		for ( final Spot spot : spots )
+		{
+			final int t = spot.getFeature( Spot.FRAME ).intValue();
+			assertTrue( t != empty );
+			assertEquals( x( t ), spot.getDoublePosition( 0 ), 0.5 );
+			assertEquals( y( t ), spot.getDoublePosition( 1 ), 0.5 );
+		}
+		final List< DefaultWeightedEdge > gaps = GapClosingMethod.getAllGaps( model );
+		assertEquals( 1, gaps.size() );
+		final TrackModel trackModel = model.getTrackModel();
+		assertEquals( empty - 1, trackModel.getEdgeSource( gaps.get( 0 ) ).getFeature( Spot.FRAME ).intValue() );
+		assertEquals( empty + 1, trackModel.getEdgeTarget( gaps.get( 0 ) ).getFeature( Spot.FRAME ).intValue() );
+	}
+}
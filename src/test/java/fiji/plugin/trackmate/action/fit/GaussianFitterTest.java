@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.fit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresProblem;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+public class GaussianFitterTest
+{
+
+	/**
+	 * Fills the fitter with a Gaussian spot sampled on a pixel grid, with
+	 * additive noise.
+	 *
+	 * @return the pixel values.
+	 */
+	private static double[] sample( final GaussianFitter fitter, final boolean is3D, final double x0, final double y0, final double z0, final double A, final double bXY, final double bZ, final double noise, final Random ran )
+	{
+		fitter.clear();
+		final int span = 6;
+		final int spanZ = is3D ? 4 : 0;
+		final int cx = ( int ) Math.round( x0 );
+		final int cy = ( int ) Math.round( y0 );
+		final int cz = ( int ) Math.round( z0 );
+		final double[] values = new double[ ( 2 * span + 1 ) * ( 2 * span + 1 ) * ( 2 * spanZ + 1 ) ];
+		int i = 0;
+		for ( int z = cz - spanZ; z <= cz + spanZ; z++ )
+			for ( int y = cy - span; y <= cy + span; y++ )
+				for ( int x = cx - span; x <= cx + span; x++ )
+				{
+					final double dx = x - x0;
+					final double dy = y - y0;
+					final double dz = is3D ? z - z0 : 0.;
+					final double val = A * Math.exp( -bXY * ( dx * dx + dy * dy ) - bZ * dz * dz ) + noise * ran.nextGaussian();
+					values[ i++ ] = val;
+					fitter.add( x, y, z, val );
+				}
+		return values;
+	}
+
+	@Test
+	public void testExact2D()
+	{
+		final GaussianFitter fitter = new GaussianFitter( false, true );
+		sample( fitter, false, 20.3, 15.7, 0., 100., 0.125, 0., 0., new Random( 1l ) );
+		assertTrue( fitter.fit( 20., 16., 0., 0.2, 0., 0.01, 0. ) );
+		assertEquals( 20.3, fitter.getX(), 1e-6 );
+		assertEquals( 15.7, fitter.getY(), 1e-6 );
+		assertEquals( 100., fitter.getAmplitude(), 1e-4 );
+		assertEquals( 0.125, fitter.getBxy(), 1e-6 );
+	}
+
+	@Test
+	public void testExact3D()
+	{
+		final GaussianFitter fitter = new GaussianFitter( true, true );
+		sample( fitter, true, 20.3, 15.7, 8.4, 50., 0.1, 0.3, 0., new Random( 1l ) );
+		assertTrue( fitter.fit( 20., 16., 8., 0.2, 0.2, 0.01, 0.01 ) );
+		assertEquals( 20.3, fitter.getX(), 1e-6 );
+		assertEquals( 15.7, fitter.getY(), 1e-6 );
+		assertEquals( 8.4, fitter.getZ(), 1e-6 );
+		assertEquals( 50., fitter.getAmplitude(), 1e-4 );
+		assertEquals( 0.1, fitter.getBxy(), 1e-6 );
+		assertEquals( 0.3, fitter.getBz(), 1e-6 );
+	}
+
+	@Test
+	public void testFixedWidth()
+	{
+		final GaussianFitter fitter = new GaussianFitter( true, false );
+		sample( fitter, true, 12.6, 11.1, 5.2, 80., 0.15, 0.25, 0., new Random( 1l ) );
+		assertTrue( fitter.fit( 13., 11., 5., 0.15, 0.25, 0.15, 0.25 ) );
+		assertEquals( 12.6, fitter.getX(), 1e-6 );
+		assertEquals( 11.1, fitter.getY(), 1e-6 );
+		assertEquals( 5.2, fitter.getZ(), 1e-6 );
+		assertEquals( 0.15, fitter.getBxy(), 0. );
+		assertEquals( 0.25, fitter.getBz(), 0. );
+	}
+
+	@Test
+	public void testClipBackground()
+	{
+		final GaussianFitter fitter = new GaussianFitter( false, true );
+		fitter.add( 0., 0., 0., 1. );
+		fitter.add( 1., 0., 0., 5. );
+		fitter.add( 2., 0., 0., 2. );
+		fitter.add( 3., 0., 0., 3. );
+		fitter.clipBackground();
+		// Median is 2.5.
+		assertTrue( fitter.fit( 1., 0., 0., 1., 0., 0.01, 0. ) );
+		assertEquals( 4, fitter.size() );
+	}
+
+	/**
+	 * Compares against the commons-math Levenberg-Marquardt optimizer used
+	 * previously, on noisy data.
+	 */
+	@Test
+	public void testAgainstCommonsMath()
+	{
+		final Random ran = new Random( 42l );
+		final GaussianFitter fitter = new GaussianFitter( false, true );
+		final LevenbergMarquardtOptimizer optimizer = new LevenbergMarquardtOptimizer()
+				.withCostRelativeTolerance( 1.0e-12 )
+				.withParameterRelativeTolerance( 1.0e-12 );
+		for ( int t = 0; t < 50; t++ )
+		{
+			final double x0 = 20. + ran.nextDouble();
+			final double y0 = 20. + ran.nextDouble();
+			final double[] values = sample( fitter, false, x0, y0, 0., 100., 0.125, 0., 5., ran );
+
+			final double sx = Math.round( x0 ) + 0.2;
+			final double sy = Math.round( y0 ) - 0.2;
+			assertTrue( fitter.fit( sx, sy, 0., 0.1, 0., 0.02, 0. ) );
+
+			final int cx = ( int ) Math.round( x0 );
+			final int cy = ( int ) Math.round( y0 );
+			final double[][] pos = new double[ 2 ][ values.length ];
+			int i = 0;
+			for ( int y = cy - 6; y <= cy + 6; y++ )
+				for ( int x = cx - 6; x <= cx + 6; x++ )
+				{
+					pos[ 0 ][ i ] = x;
+					pos[ 1 ][ i ] = y;
+					i++;
+				}
+			final LeastSquaresProblem lsq = new LeastSquaresBuilder()
+					.start( new double[] { sx, sy, 100., 0.1 } )
+					.model( point -> {
+						final double px = point.getEntry( 0 );
+						final double py = point.getEntry( 1 );
+						final double A = point.getEntry( 2 );
+						final double b = point.getEntry( 3 );
+						final double[] vals = new double[ values.length ];
+						final double[][] grad = new double[ values.length ][ 4 ];
+						for ( int k = 0; k < vals.length; k++ )
+						{
+							final double dx = pos[ 0 ][ k ] - px;
+							final double dy = pos[ 1 ][ k ] - py;
+							final double r2 = dx * dx + dy * dy;
+							final double E = Math.exp( -b * r2 );
+							vals[ k ] = A * E;
+							grad[ k ][ 0 ] = A * b * E * 2. * dx;
+							grad[ k ][ 1 ] = A * b * E * 2. * dy;
+							grad[ k ][ 2 ] = E;
+							grad[ k ][ 3 ] = -A * E * r2;
+						}
+						return new Pair<>( new ArrayRealVector( vals ), new Array2DRowRealMatrix( grad, false ) );
+					} )
+					.target( values )
+					.lazyEvaluation( false )
+					.maxEvaluations( 1000 )
+					.maxIterations( 1000 )
+					.build();
+			final RealVector expected = optimizer.optimize( lsq ).getPoint();
+
+			assertEquals( expected.getEntry( 0 ), fitter.getX(), 1e-6 );
+			assertEquals( expected.getEntry( 1 ), fitter.getY(), 1e-6 );
+			assertEquals( expected.getEntry( 2 ), fitter.getAmplitude(), 1e-4 );
+			assertEquals( expected.getEntry( 3 ), fitter.getBxy(), 1e-6 );
+		}
+	}
+
+	/**
+	 * Benchmark.
+	 */
+	public static void main( final String[] args )
+	{
+		final Random ran = new Random( 1l );
+		final GaussianFitter fitter = new GaussianFitter( false, true );
+		final int nFits = 1_000_000;
+		final long start = System.currentTimeMillis();
+		for ( int t = 0; t < nFits; t++ )
+		{
+			sample( fitter, false, 20. + ran.nextDouble(), 20. + ran.nextDouble(), 0., 100., 0.125, 0., 5., ran );
+			fitter.fit( 20.5, 20.5, 0., 0.1, 0., 0.02, 0. );
+		}
+		final long end = System.currentTimeMillis();
+		System.out.println( String.format( "%d fits in %.1f s.", nFits, ( end - start ) / 1000. ) );
+	}
+}
@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.labeling.ConnectedComponents;
+import net.imglib2.algorithm.labeling.ConnectedComponents.StructuringElement;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class MaskUtilsTest
+{
+
+	private static final Comparator< Spot > BY_POSITION = Comparator
+			.comparingDouble( ( final Spot s ) -> s.getDoublePosition( 0 ) )
+			.thenComparingDouble( s -> s.getDoublePosition( 1 ) )
+			.thenComparingDouble( s -> s.getDoublePosition( 2 ) );
+
+	/**
+	 * Paints random overlapping discs and boxes with labels 1 to n.
+	 */
+	private static Img< IntType > labelImage( final long[] dims, final int nLabels, final Random ran )
+	{
+		final Img< IntType > img = ArrayImgs.ints( dims );
+		final RandomAccess< IntType > ra = img.randomAccess();
+		for ( int label = 1; label <= nLabels; label++ )
+		{
+			final long[] center = new long[ dims.length ];
+			for ( int d = 0; d < dims.length; d++ )
+				center[ d ] = ran.nextInt( ( int ) dims[ d ] );
+			final int r = 2 + ran.nextInt( 6 );
+			final boolean disc = ran.nextBoolean();
+			final long[] min = new long[ dims.length ];
+			final long[] max = new long[ dims.length ];
+			for ( int d = 0; d < dims.length; d++ )
+			{
+				min[ d ] = Math.max( 0, center[ d ] - r );
+				max[ d ] = Math.min( dims[ d ] - 1, center[ d ] + r );
+			}
+			for ( final long[] pos : positions( min, max ) )
+			{
+				long r2 = 0;
+				for ( int d = 0; d < dims.length; d++ )
+					r2 += ( pos[ d ] - center[ d ] ) * ( pos[ d ] - center[ d ] );
+				if ( disc && r2 > r * r )
+					continue;
+				ra.setPosition( pos );
+				ra.get().set( label );
+			}
+		}
+		return img;
+	}
+
+	private static List< long[] > positions( final long[] min, final long[] max )
+	{
+		final List< long[] > positions = new ArrayList<>();
+		final long[] pos = min.clone();
+		while ( true )
+		{
+			positions.add( pos.clone() );
+			int d = 0;
+			while ( d < pos.length && pos[ d ] == max[ d ] )
+			{
+				pos[ d ] = min[ d ];
+				d++;
+			}
+			if ( d == pos.length )
+				return positions;
+			pos[ d ]++;
+		}
+	}
+
+	private static ImgLabeling< Integer, IntType > toLabeling( final Img< IntType > img, final int nLabels )
+	{
+		final List< Integer > labels = new ArrayList<>( nLabels );
+		for ( int i = 1; i <= nLabels; i++ )
+			labels.add( Integer.valueOf( i ) );
+		return ImgLabeling.fromImageAndLabels( img, labels );
+	}
+
+	private static void assertSameSpots( final List< Spot > expected, final List< Spot > actual )
+	{
+		assertEquals( expected.size(), actual.size() );
+		expected.sort( BY_POSITION );
+		actual.sort( BY_POSITION );
+		for ( int i = 0; i < expected.size(); i++ )
+		{
+			final Spot e = expected.get( i );
+			final Spot a = actual.get( i );
+			for ( int d = 0; d < 3; d++ )
+				assertEquals( e.getDoublePosition( d ), a.getDoublePosition( d ), 0. );
+			assertEquals( e.getFeature( Spot.RADIUS ), a.getFeature( Spot.RADIUS ), 0. );
+			assertEquals( e.getFeature( Spot.QUALITY ), a.getFeature( Spot.QUALITY ), 0. );
+			if ( null == e.getRoi() )
+				continue;
+			assertArrayEquals( e.getRoi().x, a.getRoi().x, 0. );
+			assertArrayEquals( e.getRoi().y, a.getRoi().y, 0. );
+		}
+	}
+
+	@Test
+	public void testLabelImageWithROIMatchesLabeling()
+	{
+		final Random ran = new Random( 1l );
+		final int nLabels = 60;
+		final Img< IntType > img = labelImage( new long[] { 128, 96 }, nLabels, ran );
+		final FinalInterval interval = FinalInterval.createMinSize( 10, 20, 128, 96 );
+		final double[] calibration = new double[] { 0.5, 0.5, 1. };
+
+		for ( final boolean simplify : new boolean[] { false, true } )
+		{
+			final List< Spot > expected = MaskUtils.fromLabelingWithROI( toLabeling( img, nLabels ), interval, calibration, simplify, null );
+			final List< Spot > actual = MaskUtils.fromLabelImageWithROI( img, interval, calibration, simplify, 4 );
+			assertSameSpots( expected, actual );
+		}
+	}
+
+	@Test
+	public void testLabelImageMatchesLabeling()
+	{
+		final Random ran = new Random( 2l );
+		final int nLabels = 40;
+		final Img< IntType > img = labelImage( new long[] { 48, 40, 20 }, nLabels, ran );
+		final FinalInterval interval = FinalInterval.createMinSize( 0, 5, 2, 48, 40, 20 );
+		final double[] calibration = new double[] { 0.2, 0.2, 1. };
+
+		final List< Spot > expected = MaskUtils.fromLabeling( toLabeling( img, nLabels ), interval, calibration );
+		final List< Spot > actual = MaskUtils.fromLabelImage( img, interval, calibration );
+		assertSameSpots( expected, actual );
+	}
+
+	@Test
+	public void testSparseLabels()
+	{
+		final Random ran = new Random( 3l );
+		final int nLabels = 30;
+		final Img< IntType > img = labelImage( new long[] { 64, 64 }, nLabels, ran );
+		final FinalInterval interval = new FinalInterval( img );
+		final double[] calibration = new double[] { 1., 1., 1. };
+
+		// Same objects, with large and sparse 64-bit label values.
+		final Img< LongType > sparse = ArrayImgs.longs( 64, 64 );
+		Views.interval( Views.pair( img, sparse ), img ).forEach( p -> {
+			final int label = p.getA().get();
+			p.getB().set( label == 0 ? 0l : ( label * 1_000_003l ) << 20 );
+		} );
+
+		final List< Spot > expected = MaskUtils.fromLabelImageWithROI( img, interval, calibration, true, 1 );
+		final List< Spot > actual = MaskUtils.fromLabelImageWithROI( sparse, interval, calibration, true, 2 );
+		assertSameSpots( expected, actual );
+	}
+
+	@Test
+	public void testThresholdMatchesConnectedComponents()
+	{
+		final Random ran = new Random( 4l );
+		final long[] dims = new long[] { 40, 30, 25 };
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		img.forEach( p -> p.set( ran.nextFloat() ) );
+		final FinalInterval interval = new FinalInterval( img );
+		final double[] calibration = new double[] { 0.3, 0.3, 1.5 };
+		final double threshold = 0.6;
+
+		// Reference: serial labeling with ImgLib2.
+		final ImgLabeling< Integer, IntType > labeling = new ImgLabeling<>( ArrayImgs.ints( dims ) );
+		final RandomAccessibleInterval< BitType > mask = Converters.convertRAI( img, ( a, b ) -> b.set( a.get() > threshold ), new BitType() );
+		final ExecutorService es = Executors.newSingleThreadExecutor();
+		ConnectedComponents.labelAllConnectedComponents( mask, labeling, MaskUtils.labelGenerator(), StructuringElement.FOUR_CONNECTED, es );
+		es.shutdown();
+		final List< Spot > expected = MaskUtils.fromLabeling( labeling, interval, calibration );
+
+		for ( final int numThreads : new int[] { 1, 3, 8 } )
+		{
+			final List< Spot > actual = MaskUtils.fromThreshold( img, interval, calibration, threshold, numThreads );
+			assertSameSpots( new ArrayList<>( expected ), actual );
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.jfree.chart.axis.NumberAxis;
+import org.junit.Test;
+
+public class DensityDatasetTest
+{
+
+	private static double total( final DensityDataset dataset )
+	{
+		double sum = 0.;
+		for ( int i = 0; i < dataset.getItemCount( 0 ); i++ )
+			sum += dataset.getZValue( 0, i );
+		return sum;
+	}
+
+	@Test
+	public void testAllPointsBinned()
+	{
+		final Random ran = new Random( 1l );
+		final int n = 200_000;
+		final double[] xs = new double[ n ];
+		final double[] ys = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			xs[ i ] = ran.nextGaussian();
+			ys[ i ] = 10. + 3. * ran.nextGaussian();
+		}
+		// Missing values are ignored.
+		xs[ 10 ] = Double.NaN;
+		ys[ 20 ] = Double.NaN;
+
+		final DensityDataset dataset = new DensityDataset( "test", xs, ys, 50, 40 );
+		assertEquals( n - 2, total( dataset ), 0. );
+		assertTrue( dataset.getItemCount( 0 ) <= 50 * 40 );
+	}
+
+	@Test
+	public void testRebinOnZoom()
+	{
+		final int n = 100;
+		final double[] xs = new double[ n ];
+		final double[] ys = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			xs[ i ] = i;
+			ys[ i ] = i;
+		}
+		final DensityDataset dataset = new DensityDataset( "test", xs, ys, 10, 10 );
+		assertEquals( 0., dataset.getDomainLowerBound( false ), 0. );
+		assertEquals( 99., dataset.getDomainUpperBound( false ), 0. );
+		assertEquals( 10, dataset.getItemCount( 0 ) );
+
+		final NumberAxis xAxis = new NumberAxis();
+		final NumberAxis yAxis = new NumberAxis();
+		xAxis.setRange( 0., 99. );
+		yAxis.setRange( 0., 99. );
+		dataset.listenTo( xAxis, yAxis );
+
+		// Zoom on the 10 first points: one point per bin.
+		xAxis.setRange( -0.5, 9.5 );
+		yAxis.setRange( -0.5, 9.5 );
+		assertEquals( 10, dataset.getItemCount( 0 ) );
+		assertEquals( 10., total( dataset ), 0. );
+		for ( int i = 0; i < dataset.getItemCount( 0 ); i++ )
+		{
+			assertEquals( 1., dataset.getZValue( 0, i ), 0. );
+			assertEquals( dataset.getXValue( 0, i ), dataset.getYValue( 0, i ), 1e-9 );
+		}
+
+		// Bounds are still those of the whole data.
+		assertEquals( 99., dataset.getRangeUpperBound( false ), 0. );
+	}
+}
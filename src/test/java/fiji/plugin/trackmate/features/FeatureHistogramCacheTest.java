@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
+
+public class FeatureHistogramCacheTest
+{
+
+	private static final String KEY = "TEST";
+
+	/**
+	 * Checks that the cached histogram has the same values as a histogram
+	 * collected from scratch.
+	 */
+	private static void assertUpToDate( final Model model, final FeatureHistogramCache cache, final String key )
+	{
+		final double[] expected = FeatureHistogram.of( FeatureUtils.collectFeatureValues( key, TrackMateObject.SPOTS, model, false ) ).getSortedValues();
+		assertArrayEquals( expected, cache.get( key ).getSortedValues(), 0. );
+	}
+
+	private static Spot newSpot( final Random ran )
+	{
+		return new Spot( ran.nextDouble(), ran.nextDouble(), 0., 1., ran.nextDouble() );
+	}
+
+	@Test
+	public void testAddRemove()
+	{
+		final Random ran = new Random( 1l );
+		final Model model = new Model();
+		// Computes the feature of new spots, as the feature updater would.
+		model.addModelChangeListener( event -> {
+			if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+				return;
+			for ( final Spot spot : event.getSpots() )
+				if ( event.getSpotFlag( spot ) == ModelChangeEvent.FLAG_SPOT_ADDED )
+					spot.putFeature( KEY, Math.floor( 10. * spot.getFeature( Spot.QUALITY ) ) );
+		} );
+
+		final List< Spot > spots = new ArrayList<>();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 100; i++ )
+			{
+				final Spot spot = newSpot( ran );
+				spots.add( spot );
+				model.addSpotTo( spot, ran.nextInt( 5 ) );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final FeatureHistogramCache cache = FeatureHistogramCache.forModel( model, TrackMateObject.SPOTS, false );
+		assertUpToDate( model, cache, Spot.QUALITY );
+		assertUpToDate( model, cache, KEY );
+
+		for ( int round = 0; round < 20; round++ )
+		{
+			model.beginUpdate();
+			try
+			{
+				for ( int i = 0; i < 10; i++ )
+				{
+					if ( ran.nextBoolean() && !spots.isEmpty() )
+					{
+						model.removeSpot( spots.remove( ran.nextInt( spots.size() ) ) );
+					}
+					else
+					{
+						final Spot spot = newSpot( ran );
+						spots.add( spot );
+						model.addSpotTo( spot, ran.nextInt( 5 ) );
+					}
+				}
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+			assertEquals( spots.size(), cache.get( Spot.QUALITY ).size() );
+			assertUpToDate( model, cache, Spot.QUALITY );
+			assertUpToDate( model, cache, KEY );
+		}
+		cache.quit();
+	}
+
+	@Test
+	public void testMissingFeature()
+	{
+		final Random ran = new Random( 2l );
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 50; i++ )
+			{
+				final Spot spot = newSpot( ran );
+				spot.putFeature( KEY, ran.nextDouble() );
+				model.addSpotTo( spot, 0 );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final FeatureHistogramCache cache = FeatureHistogramCache.forModel( model, TrackMateObject.SPOTS, false );
+		assertEquals( 50, cache.get( KEY ).size() );
+
+		// The new spot does not have the feature yet.
+		final Spot spot = newSpot( ran );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( spot, 0 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		spot.putFeature( KEY, 2. );
+
+		assertEquals( 51, cache.get( KEY ).size() );
+		assertUpToDate( model, cache, KEY );
+		cache.quit();
+	}
+}
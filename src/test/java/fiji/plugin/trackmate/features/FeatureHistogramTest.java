@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.util.TMUtils;
+
+public class FeatureHistogramTest
+{
+
+	private static double[] randomValues( final Random ran, final int n )
+	{
+		final double[] values = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+			// Coarse values to have ties.
+			values[ i ] = Math.floor( 50. * ran.nextGaussian() ) / 10.;
+		return values;
+	}
+
+	@Test
+	public void testSummary()
+	{
+		final Random ran = new Random( 1l );
+		final double[] values = randomValues( ran, 5000 );
+		final double[] copy = values.clone();
+		final FeatureHistogram histogram = FeatureHistogram.of( values );
+
+		// The input is not modified.
+		assertArrayEquals( copy, values, 0. );
+
+		assertEquals( values.length, histogram.size() );
+		assertEquals( Arrays.stream( values ).min().getAsDouble(), histogram.getMin(), 0. );
+		assertEquals( Arrays.stream( values ).max().getAsDouble(), histogram.getMax(), 0. );
+		assertEquals( TMUtils.getNBins( values, 8, 100 ), histogram.getNBins() );
+		assertEquals( TMUtils.otsuThreshold( values ), histogram.getOtsuThreshold(), 0. );
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			final double threshold = values[ ran.nextInt( values.length ) ] + ( ran.nextBoolean() ? 0. : 0.05 );
+			final long above = Arrays.stream( values ).filter( v -> v > threshold ).count();
+			final long below = Arrays.stream( values ).filter( v -> v < threshold ).count();
+			assertEquals( above, histogram.countAbove( threshold ) );
+			assertEquals( below, histogram.countBelow( threshold ) );
+		}
+
+		final int[] counts = histogram.getBinCounts( histogram.getNBins() );
+		assertEquals( values.length, Arrays.stream( counts ).sum() );
+	}
+
+	@Test
+	public void testUpdate()
+	{
+		final Random ran = new Random( 2l );
+		final double[] values = randomValues( ran, 2000 );
+		FeatureHistogram histogram = FeatureHistogram.of( values );
+		double[] expected = values.clone();
+
+		for ( int i = 0; i < 20; i++ )
+		{
+			final double[] added = randomValues( ran, ran.nextInt( 50 ) );
+			final int nRemoved = ran.nextInt( 50 );
+			final double[] removed = Arrays.copyOf( expected, nRemoved );
+
+			histogram = histogram.update( added, removed );
+			final double[] remaining = Arrays.copyOfRange( expected, nRemoved, expected.length );
+			expected = new double[ remaining.length + added.length ];
+			System.arraycopy( remaining, 0, expected, 0, remaining.length );
+			System.arraycopy( added, 0, expected, remaining.length, added.length );
+
+			final FeatureHistogram reference = FeatureHistogram.of( expected );
+			assertArrayEquals( reference.getSortedValues(), histogram.getSortedValues(), 0. );
+			assertEquals( reference.getNBins(), histogram.getNBins() );
+			assertEquals( reference.getOtsuThreshold(), histogram.getOtsuThreshold(), 0. );
+		}
+	}
+
+	@Test
+	public void testInconsistentUpdate()
+	{
+		final FeatureHistogram histogram = FeatureHistogram.of( new double[] { 1., 2., 2., 3. } );
+		assertNull( histogram.update( new double[ 0 ], new double[] { 2.5 } ) );
+		assertNull( histogram.update( new double[ 0 ], new double[] { 4. } ) );
+		assertNull( histogram.update( new double[ 0 ], new double[] { 2., 2., 2. } ) );
+		assertEquals( 2, histogram.update( new double[ 0 ], new double[] { 2., 3. } ).size() );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		final FeatureHistogram histogram = FeatureHistogram.of( new double[ 0 ] );
+		assertEquals( 0, histogram.size() );
+		assertEquals( 0, histogram.getNBins() );
+		assertTrue( Double.isNaN( histogram.getOtsuThreshold() ) );
+		assertEquals( 0, histogram.countAbove( 0. ) );
+
+		final FeatureHistogram updated = histogram.update( new double[] { 1., Double.NaN }, new double[ 0 ] );
+		assertEquals( 1, updated.size() );
+		assertEquals( 0, updated.update( new double[ 0 ], new double[] { 1. } ).size() );
+	}
+}
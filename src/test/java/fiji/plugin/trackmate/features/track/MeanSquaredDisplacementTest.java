@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MeanSquaredDisplacementTest
+{
+
+	/**
+	 * Generates a Brownian random walk with the specified diffusion
+	 * coefficient, with a fraction of frames missing.
+	 */
+	private static double[][] randomWalk( final Random ran, final int nFrames, final double D, final double missing, final boolean is3D )
+	{
+		final double sigma = Math.sqrt( 2. * D );
+		final double[] x = new double[ nFrames ];
+		final double[] y = new double[ nFrames ];
+		final double[] z = new double[ nFrames ];
+		final double[] frame = new double[ nFrames ];
+		double cx = 100. * ran.nextDouble();
+		double cy = 100. * ran.nextDouble();
+		double cz = is3D ? 100. * ran.nextDouble() : 0.;
+		int n = 0;
+		for ( int f = 0; f < nFrames; f++ )
+		{
+			cx += sigma * ran.nextGaussian();
+			cy += sigma * ran.nextGaussian();
+			if ( is3D )
+				cz += sigma * ran.nextGaussian();
+			if ( f > 0 && f < nFrames - 1 && ran.nextDouble() < missing )
+				continue;
+			x[ n ] = cx;
+			y[ n ] = cy;
+			z[ n ] = cz;
+			frame[ n ] = f;
+			n++;
+		}
+		return new double[][] { x, y, z, frame, new double[] { n } };
+	}
+
+	private static int[] toFrames( final double[] frame, final int n )
+	{
+		final int[] out = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+			out[ i ] = ( int ) frame[ i ];
+		return out;
+	}
+
+	@Test
+	public void testFFTMatchesNaive()
+	{
+		final Random ran = new Random( 1l );
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			final int nFrames = 2 + ran.nextInt( 300 );
+			final double[][] walk = randomWalk( ran, nFrames, 1. + ran.nextDouble(), 0.3, trial % 2 == 0 );
+			final int n = ( int ) walk[ 4 ][ 0 ];
+			final int[] frame = toFrames( walk[ 3 ], n );
+
+			final double[] sums = new double[ nFrames ];
+			final long[] counts = new long[ nFrames ];
+			MeanSquaredDisplacement.accumulate( walk[ 0 ], walk[ 1 ], walk[ 2 ], frame, n, sums, counts );
+
+			final double[] sumsNaive = new double[ nFrames ];
+			final long[] countsNaive = new long[ nFrames ];
+			MeanSquaredDisplacement.accumulateNaive( walk[ 0 ], walk[ 1 ], walk[ 2 ], frame, n, sumsNaive, countsNaive );
+
+			for ( int m = 1; m < nFrames; m++ )
+			{
+				assertEquals( "Unexpected number of pairs for lag " + m, countsNaive[ m ], counts[ m ] );
+				assertEquals( "Unexpected sum of squared displacements for lag " + m, sumsNaive[ m ], sums[ m ], 1e-6 * ( 1. + sumsNaive[ m ] ) );
+			}
+		}
+	}
+
+	@Test
+	public void testBrownianFit()
+	{
+		final Random ran = new Random( 2l );
+		final double D = 0.5;
+		final int nFrames = 10000;
+		final double dt = 0.1;
+		final double[][] walk = randomWalk( ran, nFrames, D * dt, 0.1, false );
+		final int n = ( int ) walk[ 4 ][ 0 ];
+		final int[] frame = toFrames( walk[ 3 ], n );
+
+		final double[] sums = new double[ nFrames ];
+		final long[] counts = new long[ nFrames ];
+		MeanSquaredDisplacement.accumulate( walk[ 0 ], walk[ 1 ], walk[ 2 ], frame, n, sums, counts );
+		final double[] fit = MeanSquaredDisplacement.fit( sums, counts, 20, dt, 2 );
+		assertEquals( "Unexpected diffusion coefficient.", D, fit[ 0 ], 0.1 * D );
+		assertEquals( "Unexpected MSD exponent.", 1., fit[ 1 ], 0.1 );
+	}
+
+	@Test
+	public void testTooShort()
+	{
+		final double[] sums = new double[ 2 ];
+		final long[] counts = new long[ 2 ];
+		MeanSquaredDisplacement.accumulate( new double[] { 0., 1. }, new double[ 2 ], new double[ 2 ], new int[] { 0, 1 }, 2, sums, counts );
+		assertEquals( 1l, counts[ 1 ] );
+		assertEquals( 1., sums[ 1 ], 1e-9 );
+		final double[] fit = MeanSquaredDisplacement.fit( sums, counts, 1, 1., 2 );
+		assertEquals( Double.NaN, fit[ 0 ], 0. );
+		assertEquals( Double.NaN, fit[ 1 ], 0. );
+	}
+
+	/**
+	 * Compares the naive and FFT computations on long tracks.
+	 */
+	public static void main( final String[] args )
+	{
+		final Random ran = new Random( 3l );
+		final int nFrames = 10000;
+		final int nTracks = 20;
+		final double[][][] walks = new double[ nTracks ][][];
+		for ( int i = 0; i < nTracks; i++ )
+			walks[ i ] = randomWalk( ran, nFrames, 1., 0.05, true );
+
+		for ( int rep = 0; rep < 3; rep++ )
+		{
+			long start = System.currentTimeMillis();
+			for ( final double[][] walk : walks )
+			{
+				final int n = ( int ) walk[ 4 ][ 0 ];
+				MeanSquaredDisplacement.accumulateNaive( walk[ 0 ], walk[ 1 ], walk[ 2 ], toFrames( walk[ 3 ], n ), n, new double[ nFrames ], new long[ nFrames ] );
+			}
+			final long naive = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			for ( final double[][] walk : walks )
+			{
+				final int n = ( int ) walk[ 4 ][ 0 ];
+				MeanSquaredDisplacement.accumulate( walk[ 0 ], walk[ 1 ], walk[ 2 ], toFrames( walk[ 3 ], n ), n, new double[ nFrames ], new long[ nFrames ] );
+			}
+			final long fft = System.currentTimeMillis() - start;
+
+			System.out.println( String.format( "%d tracks of %d frames: naive %d ms, FFT %d ms.", nTracks, nFrames, naive, fft ) );
+		}
+	}
+}
@@ -0,0 +1,353 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.util.TMUtils;
+import net.imglib2.util.Util;
+
+public class TrajectoryTest
+{
+
+	private static final double EPSILON = 1e-9;
+
+	private static final double FRAME_INTERVAL = 0.5;
+
+	private Model model;
+
+	private final Random ran = new Random( 1l );
+
+	private Spot a2;
+
+	private Spot d6;
+
+	private Integer branchedID;
+
+	private Integer linearID;
+
+	/**
+	 * Creates a model with two tracks. The first one splits, has gaps in both
+	 * branches, and merges back. The second one is linear with a gap at its
+	 * end.
+	 */
+	@Before
+	public void setUp()
+	{
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			final Spot a0 = addSpot( 0 );
+			final Spot a1 = addSpot( 1 );
+			a2 = addSpot( 2 );
+			final Spot b3 = addSpot( 3 );
+			final Spot c4 = addSpot( 4 );
+			final Spot b5 = addSpot( 5 );
+			final Spot c5 = addSpot( 5 );
+			d6 = addSpot( 6 );
+			model.addEdge( a0, a1, 1. );
+			model.addEdge( a1, a2, 1. );
+			model.addEdge( a2, b3, 1. );
+			model.addEdge( a2, c4, 1. );
+			model.addEdge( b3, b5, 1. );
+			model.addEdge( c4, c5, 1. );
+			model.addEdge( b5, d6, 1. );
+			model.addEdge( c5, d6, 1. );
+
+			Spot previous = null;
+			for ( final int frame : new int[] { 0, 1, 2, 3, 6 } )
+			{
+				final Spot spot = addSpot( frame );
+				if ( null != previous )
+					model.addEdge( previous, spot, 1. );
+				previous = spot;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackModel tm = model.getTrackModel();
+		branchedID = tm.trackIDOf( a2 );
+		for ( final Integer trackID : tm.trackIDs( false ) )
+			if ( !trackID.equals( branchedID ) )
+				linearID = trackID;
+	}
+
+	private Spot addSpot( final int frame )
+	{
+		final Spot spot = new Spot( 10. * ran.nextDouble(), 10. * ran.nextDouble(), 2. * ran.nextDouble(), 1., -1. );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame * FRAME_INTERVAL ) );
+		model.addSpotTo( spot, frame );
+		return spot;
+	}
+
+	/**
+	 * Computes the track features with the analyzers, sharing the specified
+	 * trajectories.
+	 */
+	private void computeFeatures( final Trajectories trajectories )
+	{
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		for ( final TrackAnalyzer analyzer : Arrays.asList(
+				new TrackDurationAnalyzer(),
+				new TrackSpeedStatisticsAnalyzer(),
+				new TrackLocationAnalyzer(),
+				new TrackBranchingAnalyzer(),
+				new TrackMotilityAnalyzer() ) )
+		{
+			analyzer.setNumThreads( 2 );
+			analyzer.process( trackIDs, model, trajectories );
+		}
+	}
+
+	/**
+	 * Checks the track features against values computed from the track
+	 * graph, the way the analyzers did before they used trajectories.
+	 */
+	private void assertFeaturesMatchTrackGraph()
+	{
+		final TrackModel tm = model.getTrackModel();
+		for ( final Integer trackID : tm.trackIDs( false ) )
+		{
+			final Set< Spot > spots = tm.trackSpots( trackID );
+			final Set< DefaultWeightedEdge > edges = tm.trackEdges( trackID );
+
+			// Duration.
+			Spot start = null;
+			Spot stop = null;
+			for ( final Spot spot : spots )
+			{
+				if ( null == start || spot.getFeature( Spot.POSITION_T ) < start.getFeature( Spot.POSITION_T ) )
+					start = spot;
+				if ( null == stop || spot.getFeature( Spot.POSITION_T ) > stop.getFeature( Spot.POSITION_T ) )
+					stop = spot;
+			}
+			final double duration = stop.getFeature( Spot.POSITION_T ) - start.getFeature( Spot.POSITION_T );
+			final double displacement = Math.sqrt( start.squareDistanceTo( stop ) );
+			assertFeature( start.getFeature( Spot.POSITION_T ), trackID, TrackDurationAnalyzer.TRACK_START );
+			assertFeature( stop.getFeature( Spot.POSITION_T ), trackID, TrackDurationAnalyzer.TRACK_STOP );
+			assertFeature( duration, trackID, TrackDurationAnalyzer.TRACK_DURATION );
+			assertFeature( displacement, trackID, TrackDurationAnalyzer.TRACK_DISPLACEMENT );
+
+			// Speed statistics.
+			final double[] speeds = new double[ edges.size() ];
+			int n = 0;
+			double totalDistance = 0.;
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				final Spot source = tm.getEdgeSource( edge );
+				final Spot target = tm.getEdgeTarget( edge );
+				final double d = Math.sqrt( source.squareDistanceTo( target ) );
+				speeds[ n++ ] = d / Math.abs( source.diffTo( target, Spot.POSITION_T ) );
+				totalDistance += d;
+			}
+			Util.quicksort( speeds, 0, speeds.length - 1 );
+			final double meanSpeed = Util.average( speeds );
+			assertFeature( speeds[ speeds.length / 2 ], trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEDIAN_SPEED );
+			assertFeature( speeds[ 0 ], trackID, TrackSpeedStatisticsAnalyzer.TRACK_MIN_SPEED );
+			assertFeature( speeds[ speeds.length - 1 ], trackID, TrackSpeedStatisticsAnalyzer.TRACK_MAX_SPEED );
+			assertFeature( meanSpeed, trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED );
+			assertFeature( TMUtils.standardDeviation( speeds ), trackID, TrackSpeedStatisticsAnalyzer.TRACK_STD_SPEED );
+
+			// Location.
+			double x = 0.;
+			double y = 0.;
+			double z = 0.;
+			for ( final Spot spot : spots )
+			{
+				x += spot.getDoublePosition( 0 );
+				y += spot.getDoublePosition( 1 );
+				z += spot.getDoublePosition( 2 );
+			}
+			assertFeature( x / spots.size(), trackID, TrackLocationAnalyzer.X_LOCATION );
+			assertFeature( y / spots.size(), trackID, TrackLocationAnalyzer.Y_LOCATION );
+			assertFeature( z / spots.size(), trackID, TrackLocationAnalyzer.Z_LOCATION );
+
+			// Branching.
+			int nsplits = 0;
+			int nmerges = 0;
+			int ncomplex = 0;
+			for ( final Spot spot : spots )
+			{
+				final Set< Spot > neighbors = new HashSet<>();
+				for ( final DefaultWeightedEdge edge : tm.edgesOf( spot ) )
+				{
+					neighbors.add( tm.getEdgeSource( edge ) );
+					neighbors.add( tm.getEdgeTarget( edge ) );
+				}
+				neighbors.remove( spot );
+				int earlier = 0;
+				int later = 0;
+				for ( final Spot neighbor : neighbors )
+				{
+					if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
+						earlier++;
+					else
+						later++;
+				}
+				if ( earlier == 1 && later == 1 )
+					continue;
+				if ( earlier <= 1 && later > 1 )
+					nsplits++;
+				else if ( later <= 1 && earlier > 1 )
+					nmerges++;
+				else if ( later > 1 && earlier > 1 )
+					ncomplex++;
+			}
+			int ngaps = 0;
+			int longestGap = 0;
+			for ( final DefaultWeightedEdge edge : edges )
+			{
+				final int gap = ( int ) Math.abs( tm.getEdgeTarget( edge ).diffTo( tm.getEdgeSource( edge ), Spot.FRAME ) ) - 1;
+				if ( gap > 0 )
+				{
+					ngaps++;
+					longestGap = Math.max( longestGap, gap );
+				}
+			}
+			assertFeature( nsplits, trackID, TrackBranchingAnalyzer.NUMBER_SPLITS );
+			assertFeature( nmerges, trackID, TrackBranchingAnalyzer.NUMBER_MERGES );
+			assertFeature( ncomplex, trackID, TrackBranchingAnalyzer.NUMBER_COMPLEX );
+			assertFeature( ngaps, trackID, TrackBranchingAnalyzer.NUMBER_GAPS );
+			assertFeature( longestGap, trackID, TrackBranchingAnalyzer.LONGEST_GAP );
+			assertFeature( spots.size(), trackID, TrackBranchingAnalyzer.NUMBER_SPOTS );
+
+			// Motility.
+			final Spot first = spots.stream().min( Spot.frameComparator ).get();
+			double maxDistance = 0.;
+			for ( final DefaultWeightedEdge edge : edges )
+				maxDistance = Math.max( maxDistance, Math.sqrt( first.squareDistanceTo( tm.getEdgeTarget( edge ) ) ) );
+			assertFeature( totalDistance, trackID, TrackMotilityAnalyzer.TRACK_TOTAL_DISTANCE_TRAVELED );
+			assertFeature( maxDistance, trackID, TrackMotilityAnalyzer.TRACK_MAX_DISTANCE_TRAVELED );
+			assertFeature( displacement / totalDistance, trackID, TrackMotilityAnalyzer.TRACK_CONFINEMENT_RATIO );
+			assertFeature( displacement / duration, trackID, TrackMotilityAnalyzer.TRACK_MEAN_STRAIGHT_LINE_SPEED );
+			assertFeature( displacement / duration / meanSpeed, trackID, TrackMotilityAnalyzer.TRACK_LINEARITY_OF_FORWARD_PROGRESSION );
+		}
+	}
+
+	private void assertFeature( final double expected, final Integer trackID, final String feature )
+	{
+		assertEquals( "Unexpected value for " + feature + " of track " + trackID + ".",
+				expected, model.getFeatureModel().getTrackFeature( trackID, feature ).doubleValue(), EPSILON );
+	}
+
+	@Test
+	public void testTrajectory()
+	{
+		final Trajectory trajectory = Trajectory.of( branchedID, model.getTrackModel() );
+		assertEquals( 8, trajectory.nSpots() );
+		assertEquals( 8, trajectory.nEdges() );
+		for ( int i = 1; i < trajectory.nSpots(); i++ )
+			assertTrue( trajectory.frame[ i - 1 ] <= trajectory.frame[ i ] );
+
+		final List< Spot > spots = Arrays.asList( trajectory.spots );
+		final int split = spots.indexOf( a2 );
+		assertEquals( 1, trajectory.nEarlier[ split ] );
+		assertEquals( 2, trajectory.nLater[ split ] );
+		final int merge = spots.indexOf( d6 );
+		assertEquals( 2, trajectory.nEarlier[ merge ] );
+		assertEquals( 0, trajectory.nLater[ merge ] );
+	}
+
+	@Test
+	public void testFeaturesMatchTrackGraph()
+	{
+		computeFeatures( new Trajectories( model.getTrackModel() ) );
+		assertFeaturesMatchTrackGraph();
+		assertFeature( 1., branchedID, TrackBranchingAnalyzer.NUMBER_SPLITS );
+		assertFeature( 1., branchedID, TrackBranchingAnalyzer.NUMBER_MERGES );
+		assertFeature( 2., branchedID, TrackBranchingAnalyzer.NUMBER_GAPS );
+		assertFeature( 2., linearID, TrackBranchingAnalyzer.LONGEST_GAP );
+
+		// Same values without a shared cache.
+		final FeatureModel fm = model.getFeatureModel();
+		final double totalDistance = fm.getTrackFeature( branchedID, TrackMotilityAnalyzer.TRACK_TOTAL_DISTANCE_TRAVELED );
+		new TrackMotilityAnalyzer().process( model.getTrackModel().trackIDs( false ), model );
+		assertFeature( totalDistance, branchedID, TrackMotilityAnalyzer.TRACK_TOTAL_DISTANCE_TRAVELED );
+	}
+
+	@Test
+	public void testTrajectoriesFollowModelEdits()
+	{
+		final Trajectories trajectories = new Trajectories( model.getTrackModel() );
+		final Trajectory branched = trajectories.get( branchedID );
+		final Trajectory linear = trajectories.get( linearID );
+		assertSame( branched, trajectories.get( branchedID ) );
+
+		// Extend the branched track.
+		final Spot spot = new Spot( 5., 5., 0., 1., -1. );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( 7 * FRAME_INTERVAL ) );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( spot, 7 );
+			model.addEdge( d6, spot, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final Trajectory extended = trajectories.get( branchedID );
+		assertNotSame( branched, extended );
+		assertEquals( branched.nSpots() + 1, extended.nSpots() );
+		assertSame( linear, trajectories.get( linearID ) );
+		computeFeatures( trajectories );
+		assertFeaturesMatchTrackGraph();
+
+		// Move a spot of the branched track.
+		model.beginUpdate();
+		try
+		{
+			a2.putFeature( Spot.POSITION_X, Double.valueOf( 20. ) );
+			model.updateFeatures( a2 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final Trajectory moved = trajectories.get( branchedID );
+		assertNotSame( extended, moved );
+		assertEquals( 20., moved.x[ Arrays.asList( moved.spots ).indexOf( a2 ) ], EPSILON );
+		computeFeatures( trajectories );
+		assertFeaturesMatchTrackGraph();
+	}
+}
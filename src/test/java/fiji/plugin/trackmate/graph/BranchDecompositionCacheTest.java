@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
+
+public class BranchDecompositionCacheTest
+{
+
+	/**
+	 * Creates a model with the specified number of tracks, each made of a
+	 * parent branch of 3 spots that splits in two branches of 2 spots.
+	 */
+	private static Model createModel( final int nTracks )
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < nTracks; i++ )
+			{
+				Spot previous = null;
+				for ( int t = 0; t < 3; t++ )
+				{
+					final Spot spot = new Spot( 10. * i, t, 0., 1., -1. );
+					model.addSpotTo( spot, t );
+					if ( null != previous )
+						model.addEdge( previous, spot, 1. );
+					previous = spot;
+				}
+				for ( int b = 0; b < 2; b++ )
+				{
+					Spot source = previous;
+					for ( int t = 3; t < 5; t++ )
+					{
+						final Spot spot = new Spot( 10. * i + b, t, 0., 1., -1. );
+						model.addSpotTo( spot, t );
+						model.addEdge( source, spot, 1. );
+						source = spot;
+					}
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	@Test
+	public void testCachedUntilModified()
+	{
+		final Model model = createModel( 3 );
+		final TrackModel tm = model.getTrackModel();
+		final Integer trackID = tm.trackIDs( true ).iterator().next();
+
+		final TrackBranchDecomposition first = ConvexBranchesDecomposition.processTrack( trackID, tm, true, false );
+		assertEquals( 3, first.branches.size() );
+		assertEquals( 2, first.links.size() );
+		assertSame( first, ConvexBranchesDecomposition.processTrack( trackID, tm, true, false ) );
+
+		// Other flags are cached separately.
+		final TrackBranchDecomposition other = ConvexBranchesDecomposition.processTrack( trackID, tm, false, false );
+		assertNotSame( first, other );
+		assertSame( other, ConvexBranchesDecomposition.processTrack( trackID, tm, false, false ) );
+
+		// Modifying the track discards its decompositions.
+		final Spot last = tm.trackSpots( trackID ).stream()
+				.max( Spot.frameComparator )
+				.get();
+		final Spot spot = new Spot( last.getDoublePosition( 0 ), 5., 0., 1., -1. );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( spot, 5 );
+			model.addEdge( last, spot, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final TrackBranchDecomposition modified = ConvexBranchesDecomposition.processTrack( trackID, tm, true, false );
+		assertNotSame( first, modified );
+		assertEquals( 3, modified.branches.size() );
+		assertEquals( 8, modified.branches.stream().mapToInt( b -> b.size() ).sum() );
+	}
+
+	@Test
+	public void testProcessTracks()
+	{
+		final Model model = createModel( 8 );
+		final TrackModel tm = model.getTrackModel();
+
+		final Map< Integer, TrackBranchDecomposition > decompositions = ConvexBranchesDecomposition.processTracks( tm.trackIDs( true ), tm, true, false, 4 );
+		assertEquals( tm.trackIDs( true ), decompositions.keySet() );
+		for ( final Integer trackID : decompositions.keySet() )
+			assertSame( decompositions.get( trackID ), ConvexBranchesDecomposition.processTrack( trackID, tm, true, false ) );
+
+		// Same decompositions from the cache, with a caller executor.
+		final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try
+		{
+			final Map< Integer, TrackBranchDecomposition > again = ConvexBranchesDecomposition.processTracks( tm.trackIDs( true ), tm, true, false, executor );
+			for ( final Integer trackID : decompositions.keySet() )
+				assertSame( decompositions.get( trackID ), again.get( trackID ) );
+
+			// Recomputed after the cache is cleared.
+			ConvexBranchesDecomposition.clearCache( tm );
+			final Map< Integer, TrackBranchDecomposition > recomputed = ConvexBranchesDecomposition.processTracks( tm.trackIDs( true ), tm, true, false, executor );
+			for ( final Integer trackID : decompositions.keySet() )
+			{
+				assertNotSame( decompositions.get( trackID ), recomputed.get( trackID ) );
+				assertEquals( 3, recomputed.get( trackID ).branches.size() );
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+import net.imglib2.util.Util;
+
+/**
+ * Measures the heap retained by the links of lineages stored in a
+ * {@link SimpleWeightedGraph} and in a {@link CompactSpotGraph}, for the graph
+ * alone and for a whole {@link Model}. The spots are created beforehand and
+ * are not counted.
+ * <p>
+ * Run with a fixed heap size, for instance <code>-Xms4g -Xmx4g</code>.
+ */
+public class CompactSpotGraphMemoryBenchmark
+{
+
+	private static final int N_TRACKS = 2000;
+
+	private static final int N_FRAMES = 100;
+
+	private static final int N_TESTS = 5;
+
+	private final List< Spot > spots = new ArrayList<>();
+
+	private final List< Spot > sources = new ArrayList<>();
+
+	private final List< Spot > targets = new ArrayList<>();
+
+	/**
+	 * Creates lineages that split in two branches half-way.
+	 */
+	private CompactSpotGraphMemoryBenchmark()
+	{
+		for ( int i = 0; i < N_TRACKS; i++ )
+		{
+			Spot previous = null;
+			for ( int t = 0; t < N_FRAMES / 2; t++ )
+				previous = addSpot( previous, i, t );
+
+			final Spot mother = previous;
+			for ( int b = 0; b < 2; b++ )
+			{
+				previous = mother;
+				for ( int t = N_FRAMES / 2; t < N_FRAMES; t++ )
+					previous = addSpot( previous, i + 0.5 * b, t );
+			}
+		}
+	}
+
+	private Spot addSpot( final Spot previous, final double x, final int frame )
+	{
+		final Spot spot = new Spot( x, frame, 0., 1., -1. );
+		// Set the features the model writes, so that they are not counted.
+		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		spot.putFeature( SpotCollection.VISIBILITY, SpotCollection.ONE );
+		spots.add( spot );
+		if ( null != previous )
+		{
+			sources.add( previous );
+			targets.add( spot );
+		}
+		return spot;
+	}
+
+	private Graph< Spot, DefaultWeightedEdge > fillGraph( final Graph< Spot, DefaultWeightedEdge > graph )
+	{
+		for ( final Spot spot : spots )
+			graph.addVertex( spot );
+		for ( int e = 0; e < sources.size(); e++ )
+			graph.addEdge( sources.get( e ), targets.get( e ) );
+		return graph;
+	}
+
+	private Model fillModel( final Model model )
+	{
+		model.beginUpdate();
+		try
+		{
+			for ( final Spot spot : spots )
+				model.addSpotTo( spot, spot.getFeature( Spot.FRAME ).intValue() );
+			for ( int e = 0; e < sources.size(); e++ )
+				model.addEdge( sources.get( e ), targets.get( e ), 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	/**
+	 * Prints the median heap retained by the objects returned by the specified
+	 * builder.
+	 */
+	private static void measure( final String name, final Supplier< Object > builder )
+	{
+		final double[] sizes = new double[ N_TESTS ];
+		for ( int i = 0; i < N_TESTS; i++ )
+		{
+			final long before = usedMemory();
+			final Object o = builder.get();
+			final long after = usedMemory();
+			sizes[ i ] = ( after - before ) / 1e6;
+			// Keep the object reachable until after the measurement.
+			if ( System.identityHashCode( o ) == 0 )
+				System.out.print( "" );
+		}
+		System.out.println( String.format( "  %-20s %8.1f MB", name, Util.median( sizes ) ) );
+	}
+
+	private static long usedMemory()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for ( int i = 0; i < 5; i++ )
+		{
+			System.gc();
+			try
+			{
+				Thread.sleep( 100 );
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static void main( final String[] args )
+	{
+		final CompactSpotGraphMemoryBenchmark benchmark = new CompactSpotGraphMemoryBenchmark();
+		System.out.println( "Lineages of " + benchmark.spots.size() + " spots and " + benchmark.sources.size() + " links." );
+
+		System.out.println( "Graph alone:" );
+		measure( "SimpleWeightedGraph", () -> benchmark.fillGraph( new SimpleWeightedGraph<>( DefaultWeightedEdge.class ) ) );
+		measure( "CompactSpotGraph", () -> benchmark.fillGraph( new CompactSpotGraph() ) );
+
+		System.out.println( "Whole model:" );
+		measure( "Default track model", () -> benchmark.fillModel( new Model() ) );
+		measure( "Compact track model", () -> benchmark.fillModel( new Model()
+		{
+			@Override
+			protected TrackModel createTrackModel()
+			{
+				return TrackModel.withCompactGraph();
+			}
+		} ) );
+	}
+}
@@ -0,0 +1,321 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+
+public class CompactSpotGraphTest
+{
+
+	/**
+	 * Checks that the two graphs have the same content, in the same order.
+	 */
+	private static void assertSameGraph( final Graph< Spot, DefaultWeightedEdge > expected, final CompactSpotGraph actual )
+	{
+		assertEquals( new ArrayList<>( expected.vertexSet() ), new ArrayList<>( actual.vertexSet() ) );
+		assertEquals( new ArrayList<>( expected.edgeSet() ), new ArrayList<>( actual.edgeSet() ) );
+		for ( final Spot spot : expected.vertexSet() )
+		{
+			assertTrue( actual.containsVertex( spot ) );
+			assertEquals( expected.degreeOf( spot ), actual.degreeOf( spot ) );
+			assertEquals( new ArrayList<>( expected.edgesOf( spot ) ), new ArrayList<>( actual.edgesOf( spot ) ) );
+		}
+		for ( final DefaultWeightedEdge edge : expected.edgeSet() )
+		{
+			final Spot source = expected.getEdgeSource( edge );
+			final Spot target = expected.getEdgeTarget( edge );
+			assertTrue( actual.containsEdge( edge ) );
+			assertSame( source, actual.getEdgeSource( edge ) );
+			assertSame( target, actual.getEdgeTarget( edge ) );
+			assertEquals( expected.getEdgeWeight( edge ), actual.getEdgeWeight( edge ), 0. );
+			assertSame( edge, actual.getEdge( source, target ) );
+			assertSame( edge, actual.getEdge( target, source ) );
+		}
+	}
+
+	@Test
+	public void testRandomEdits()
+	{
+		final Random ran = new Random( 1l );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		final CompactSpotGraph actual = new CompactSpotGraph( 4, 4 );
+		final List< Spot > spots = new ArrayList<>();
+
+		for ( int round = 0; round < 50; round++ )
+		{
+			for ( int i = 0; i < 200; i++ )
+			{
+				final int op = ran.nextInt( 10 );
+				if ( op < 3 || spots.size() < 2 )
+				{
+					final Spot spot = new Spot( ran.nextDouble(), ran.nextDouble(), 0., 1., -1. );
+					spots.add( spot );
+					assertEquals( expected.addVertex( spot ), actual.addVertex( spot ) );
+					assertFalse( actual.addVertex( spot ) );
+				}
+				else if ( op < 7 )
+				{
+					// Favor recent spots to have high degrees.
+					final Spot source = spots.get( spots.size() - 1 - ran.nextInt( Math.min( 10, spots.size() ) ) );
+					final Spot target = spots.get( ran.nextInt( spots.size() ) );
+					if ( source == target || !expected.containsVertex( source ) || !expected.containsVertex( target ) )
+						continue;
+					final DefaultWeightedEdge edge = expected.addEdge( source, target );
+					if ( null == edge )
+					{
+						assertNull( actual.addEdge( source, target ) );
+						continue;
+					}
+					final double weight = ran.nextDouble();
+					expected.setEdgeWeight( edge, weight );
+					assertTrue( actual.addEdge( source, target, edge ) );
+					actual.setEdgeWeight( edge, weight );
+				}
+				else if ( op < 9 )
+				{
+					if ( expected.edgeSet().isEmpty() )
+						continue;
+					final List< DefaultWeightedEdge > edges = new ArrayList<>( expected.edgeSet() );
+					final DefaultWeightedEdge edge = edges.get( ran.nextInt( edges.size() ) );
+					if ( ran.nextBoolean() )
+					{
+						assertTrue( expected.removeEdge( edge ) );
+						assertTrue( actual.removeEdge( edge ) );
+					}
+					else
+					{
+						final Spot source = expected.getEdgeSource( edge );
+						final Spot target = expected.getEdgeTarget( edge );
+						assertSame( expected.removeEdge( target, source ), actual.removeEdge( target, source ) );
+					}
+					assertFalse( actual.removeEdge( edge ) );
+				}
+				else
+				{
+					final Spot spot = spots.remove( ran.nextInt( spots.size() ) );
+					assertEquals( expected.removeVertex( spot ), actual.removeVertex( spot ) );
+					assertFalse( actual.containsVertex( spot ) );
+				}
+			}
+			assertSameGraph( expected, actual );
+		}
+	}
+
+	@Test
+	public void testCopyOf()
+	{
+		final Random ran = new Random( 2l );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		Spot previous = null;
+		for ( int i = 0; i < 1000; i++ )
+		{
+			final Spot spot = new Spot( ran.nextDouble(), ran.nextDouble(), 0., 1., -1. );
+			graph.addVertex( spot );
+			if ( null != previous && ran.nextInt( 10 ) > 0 )
+				graph.setEdgeWeight( graph.addEdge( previous, spot ), ran.nextDouble() );
+			previous = spot;
+		}
+
+		final CompactSpotGraph copy = CompactSpotGraph.copyOf( graph );
+		assertSameGraph( graph, copy );
+	}
+
+	@Test
+	public void testCopy()
+	{
+		final Random ran = new Random( 3l );
+		final CompactSpotGraph graph = new CompactSpotGraph();
+		final List< Spot > spots = new ArrayList<>();
+		for ( int i = 0; i < 500; i++ )
+		{
+			final Spot spot = new Spot( ran.nextDouble(), ran.nextDouble(), 0., 1., -1. );
+			graph.addVertex( spot );
+			spots.add( spot );
+		}
+		// Some spots have more links than inline slots.
+		for ( int i = 0; i < 2000; i++ )
+		{
+			final Spot source = spots.get( ran.nextInt( 20 ) );
+			final Spot target = spots.get( ran.nextInt( spots.size() ) );
+			if ( source != target && null != graph.addEdge( source, target ) )
+				graph.setEdgeWeight( graph.getEdge( source, target ), ran.nextDouble() );
+		}
+		// Leave holes in the arrays.
+		for ( int i = 0; i < 50; i++ )
+			graph.removeVertex( spots.remove( 20 + ran.nextInt( spots.size() - 20 ) ) );
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		Graphs.addGraph( expected, graph );
+		final CompactSpotGraph copy = graph.copy();
+		assertSameGraph( expected, copy );
+
+		// Editing the copy does not change the source.
+		final Spot removed = spots.get( 0 );
+		assertTrue( copy.removeVertex( removed ) );
+		final Spot added = new Spot( 0., 0., 0., 1., -1. );
+		copy.addVertex( added );
+		copy.addEdge( added, spots.get( 1 ) );
+		assertSameGraph( expected, graph );
+		assertFalse( copy.containsVertex( removed ) );
+		assertEquals( expected.degreeOf( spots.get( 1 ) ) + 1, copy.degreeOf( spots.get( 1 ) ) );
+	}
+
+	@Test
+	public void testSemantics()
+	{
+		final CompactSpotGraph graph = new CompactSpotGraph();
+		final Spot a = new Spot( 0., 0., 0., 1., -1. );
+		final Spot b = new Spot( 1., 0., 0., 1., -1. );
+		final Spot c = new Spot( 2., 0., 0., 1., -1. );
+		graph.addVertex( a );
+		graph.addVertex( b );
+
+		final DefaultWeightedEdge ab = graph.addEdge( a, b );
+		assertSame( DefaultWeightedEdge.class, ab.getClass() );
+		assertEquals( Graph.DEFAULT_EDGE_WEIGHT, graph.getEdgeWeight( ab ), 0. );
+		assertNull( graph.addEdge( b, a ) );
+		assertTrue( graph.containsEdge( b, a ) );
+		assertNull( graph.getEdge( a, c ) );
+		assertNull( graph.getAllEdges( a, c ) );
+		assertEquals( 1, graph.getAllEdges( b, a ).size() );
+
+		try
+		{
+			graph.addEdge( a, a );
+			assertTrue( "Loops must not be allowed.", false );
+		}
+		catch ( final IllegalArgumentException e )
+		{}
+		try
+		{
+			graph.addEdge( a, c );
+			assertTrue( "Edges to missing spots must not be allowed.", false );
+		}
+		catch ( final IllegalArgumentException e )
+		{}
+		try
+		{
+			graph.getEdgeSource( new DefaultWeightedEdge() );
+			assertTrue( "Missing edges must be rejected.", false );
+		}
+		catch ( final IllegalArgumentException e )
+		{}
+
+		assertTrue( graph.removeVertex( b ) );
+		assertFalse( graph.containsEdge( ab ) );
+		assertEquals( 0, graph.degreeOf( a ) );
+		assertEquals( 1, graph.vertexSet().size() );
+		assertTrue( graph.edgeSet().isEmpty() );
+	}
+
+	@Test
+	public void testIterators()
+	{
+		final CompactSpotGraph graph = new CompactSpotGraph();
+		final List< Spot > spots = new ArrayList<>();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			final Spot spot = new Spot( i, 0., 0., 1., -1. );
+			graph.addVertex( spot );
+			spots.add( spot );
+		}
+		for ( int i = 1; i < spots.size(); i++ )
+			graph.addEdge( spots.get( i - 1 ), spots.get( i ) );
+
+		// Removing and adding edges does not break the vertex iterator, even
+		// when the edges are compacted.
+		final List< Spot > iterated = new ArrayList<>();
+		for ( final Spot spot : graph.vertexSet() )
+		{
+			iterated.add( spot );
+			for ( final DefaultWeightedEdge edge : graph.edgesOf( spot ) )
+				graph.removeEdge( edge );
+			if ( iterated.size() > 1 )
+				graph.addEdge( iterated.get( iterated.size() - 2 ), spot );
+		}
+		assertEquals( spots, iterated );
+		assertEquals( spots.size() - 1, graph.edgeSet().size() );
+
+		// Adding spots does not break the edge iterator.
+		int nEdges = 0;
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			assertTrue( graph.containsEdge( edge ) );
+			graph.addVertex( new Spot( 0., 1., 0., 1., -1. ) );
+			nEdges++;
+		}
+		assertEquals( spots.size() - 1, nEdges );
+
+		// But structural changes of the iterated set do.
+		final Iterator< Spot > vit = graph.vertexSet().iterator();
+		vit.next();
+		graph.addVertex( new Spot( 0., 2., 0., 1., -1. ) );
+		try
+		{
+			vit.next();
+			assertTrue( "Adding a spot must break the vertex iterator.", false );
+		}
+		catch ( final ConcurrentModificationException e )
+		{}
+
+		final Iterator< DefaultWeightedEdge > eit = graph.edgeSet().iterator();
+		eit.next();
+		graph.removeEdge( graph.getEdge( spots.get( 0 ), spots.get( 1 ) ) );
+		try
+		{
+			eit.next();
+			assertTrue( "Removing an edge must break the edge iterator.", false );
+		}
+		catch ( final ConcurrentModificationException e )
+		{}
+
+		// Removing spots compacts the spots, and keeps the graph consistent.
+		for ( int i = 0; i < spots.size(); i += 2 )
+			assertTrue( graph.removeVertex( spots.get( i ) ) );
+		for ( int i = 1; i < spots.size(); i += 2 )
+		{
+			final Spot spot = spots.get( i );
+			assertTrue( graph.containsVertex( spot ) );
+			assertEquals( 0, graph.degreeOf( spot ) );
+		}
+		for ( int i = 3; i < spots.size(); i += 2 )
+			assertSame( spots.get( i ), graph.getEdgeTarget( graph.addEdge( spots.get( i - 2 ), spots.get( i ) ) ) );
+	}
+}
@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.io.StatsExporter.Format;
+
+public class StatsExporterTest
+{
+
+	/**
+	 * Builds a model with 2 tracks of 3 spots and one lonely spot.
+	 */
+	private static Model createModel()
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int t = 0; t < 2; t++ )
+			{
+				Spot previous = null;
+				for ( int frame = 0; frame < 3; frame++ )
+				{
+					final Spot spot = new Spot( frame, 10. * t, 0., 1., 1., "T" + t + ",F" + frame );
+					model.addSpotTo( spot, frame );
+					if ( previous != null )
+						model.addEdge( previous, spot, 1. );
+					previous = spot;
+				}
+			}
+			model.addSpotTo( new Spot( 50., 50., 0., 1., 1., "Lonely" ), 1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		model.getSpots().setVisible( true );
+		return model;
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException
+	{
+		final Model model = createModel();
+		final File file = File.createTempFile( "spots", Format.BINARY.extension() );
+		file.deleteOnExit();
+		StatsExporter.exportSpots( model, false, file, Format.BINARY, 2 );
+
+		final Map< String, Object > columns = StatsExporter.readBinary( file );
+		final String[] labels = ( String[] ) columns.get( "LABEL" );
+		assertEquals( 7, labels.length );
+
+		final int[] ids = ( int[] ) columns.get( "ID" );
+		final double[] x = ( double[] ) columns.get( Spot.POSITION_X );
+		final int[] trackIDs = ( int[] ) columns.get( "TRACK_ID" );
+		for ( int r = 0; r < labels.length; r++ )
+		{
+			final Spot spot = model.getSpots().search( ids[ r ] );
+			assertEquals( spot.getName(), labels[ r ] );
+			assertEquals( spot.getDoublePosition( 0 ), x[ r ], 0. );
+			final Integer trackID = model.getTrackModel().trackIDOf( spot );
+			assertEquals( trackID == null ? Integer.MIN_VALUE : trackID.intValue(), trackIDs[ r ] );
+		}
+
+		final File edgeFile = File.createTempFile( "edges", Format.BINARY.extension() );
+		edgeFile.deleteOnExit();
+		StatsExporter.exportEdges( model, edgeFile, Format.BINARY, 2 );
+		assertEquals( 4, ( ( String[] ) StatsExporter.readBinary( edgeFile ).get( "LABEL" ) ).length );
+	}
+
+	@Test
+	public void testCsv() throws IOException
+	{
+		final Model model = createModel();
+		final File file = File.createTempFile( "tracks", Format.CSV.extension() );
+		file.deleteOnExit();
+		StatsExporter.exportSpots( model, true, file, Format.CSV, 3 );
+
+		final List< String > lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+		assertTrue( lines.get( 0 ).startsWith( "LABEL,ID,TRACK_ID," ) );
+		int nRows = 0;
+		for ( final String line : lines )
+			if ( line.startsWith( "\"T" ) )
+				nRows++;
+		// Labels contain a comma and must be quoted.
+		assertEquals( 6, nRows );
+
+		// Same number of columns in the header and in the rows.
+		final String[] header = lines.get( 0 ).split( ",", -1 );
+		final String last = lines.get( lines.size() - 1 );
+		final String[] values = last.substring( last.indexOf( "\"," ) + 2 ).split( ",", -1 );
+		assertEquals( header.length, values.length + 1 );
+	}
+}
@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.SpotTrackerFactory;
+import fiji.plugin.trackmate.tracking.jaqaman.SparseLAPTrackerFactory;
+import fiji.plugin.trackmate.tracking.kalman.KalmanTrackerFactory;
+import fiji.plugin.trackmate.tracking.kdtree.NearestNeighborTrackerFactory;
+
+public class PluginRegistryTest
+{
+
+	private static final String TYPE = SpotTrackerFactory.class.getName();
+
+	@Before
+	public void setUp()
+	{
+		System.clearProperty( PluginRegistry.INDEX_PROPERTY );
+		PluginRegistry.clear();
+	}
+
+	@After
+	public void tearDown()
+	{
+		System.clearProperty( PluginRegistry.INDEX_PROPERTY );
+		PluginRegistry.clear();
+	}
+
+	private static File writeIndex( final String... lines ) throws IOException
+	{
+		final File file = File.createTempFile( "plugins", ".txt" );
+		file.deleteOnExit();
+		Files.write( file.toPath(), Arrays.asList( lines ), StandardCharsets.UTF_8 );
+		return file;
+	}
+
+	private static String line( final String state, final String key, final Class< ? > cl )
+	{
+		return String.join( "\t", TYPE, state, key, cl.getName() );
+	}
+
+	@Test
+	public void testLoadIndex() throws IOException
+	{
+		final File file = writeIndex(
+				"# Comment.",
+				line( "visible", NearestNeighborTrackerFactory.TRACKER_KEY, NearestNeighborTrackerFactory.class ),
+				line( "hidden", KalmanTrackerFactory.KEY, KalmanTrackerFactory.class ),
+				String.join( "\t", TYPE, "disabled", "", "some.disabled.TrackerFactory" ) );
+		PluginRegistry.loadIndex( file );
+
+		final TrackerProvider provider = new TrackerProvider();
+		assertEquals( Arrays.asList( NearestNeighborTrackerFactory.TRACKER_KEY, KalmanTrackerFactory.KEY ), provider.getKeys() );
+		assertEquals( Collections.singletonList( NearestNeighborTrackerFactory.TRACKER_KEY ), provider.getVisibleKeys() );
+		assertEquals( Collections.singletonList( "some.disabled.TrackerFactory" ), provider.getDisabled() );
+		assertTrue( provider.getFactory( NearestNeighborTrackerFactory.TRACKER_KEY ) instanceof NearestNeighborTrackerFactory );
+
+		// The tracker types are not discovered at runtime anymore.
+		assertNull( provider.getFactory( SparseLAPTrackerFactory.THIS_TRACKER_KEY ) );
+
+		// But the types missing from the index are.
+		assertFalse( new DetectorProvider().getKeys().isEmpty() );
+	}
+
+	@Test
+	public void testContextClassLoader() throws IOException
+	{
+		PluginRegistry.loadIndex( writeIndex( line( "visible", KalmanTrackerFactory.KEY, KalmanTrackerFactory.class ) ) );
+
+		final List< String > requested = Collections.synchronizedList( new ArrayList<>() );
+		final ClassLoader recording = new ClassLoader( PluginRegistryTest.class.getClassLoader() )
+		{
+			@Override
+			protected Class< ? > loadClass( final String name, final boolean resolve ) throws ClassNotFoundException
+			{
+				requested.add( name );
+				return super.loadClass( name, resolve );
+			}
+		};
+
+		final Thread thread = Thread.currentThread();
+		final ClassLoader previous = thread.getContextClassLoader();
+		thread.setContextClassLoader( recording );
+		try
+		{
+			assertTrue( new TrackerProvider().getFactory( KalmanTrackerFactory.KEY ) instanceof KalmanTrackerFactory );
+		}
+		finally
+		{
+			thread.setContextClassLoader( previous );
+		}
+		assertTrue( requested.contains( KalmanTrackerFactory.class.getName() ) );
+	}
+
+	@Test
+	public void testMalformedIndex() throws IOException
+	{
+		final File file = writeIndex( String.join( "\t", TYPE, "visible", NearestNeighborTrackerFactory.TRACKER_KEY ) );
+		try
+		{
+			PluginRegistry.loadIndex( file );
+			fail( "A malformed index must be rejected." );
+		}
+		catch ( final IOException e )
+		{}
+	}
+
+	@Test
+	public void testWriteIndex() throws IOException
+	{
+		final TrackerProvider discovered = new TrackerProvider();
+		final File file = File.createTempFile( "plugins", ".txt" );
+		file.deleteOnExit();
+		PluginRegistry.writeIndex( file );
+
+		PluginRegistry.clear();
+		PluginRegistry.loadIndex( file );
+		final TrackerProvider loaded = new TrackerProvider();
+		assertEquals( discovered.getKeys(), loaded.getKeys() );
+		assertEquals( discovered.getVisibleKeys(), loaded.getVisibleKeys() );
+		assertEquals( discovered.getDisabled(), loaded.getDisabled() );
+		for ( final String key : loaded.getKeys() )
+			assertEquals( discovered.getFactory( key ).getClass(), loaded.getFactory( key ).getClass() );
+	}
+
+	@Test
+	public void testFallbackToDiscovery()
+	{
+		final File missing = new File( System.getProperty( "java.io.tmpdir" ), "no-such-trackmate-index.txt" );
+		assertFalse( missing.exists() );
+		System.setProperty( PluginRegistry.INDEX_PROPERTY, missing.getAbsolutePath() );
+		PluginRegistry.clear();
+
+		final TrackerProvider provider = new TrackerProvider();
+		assertTrue( provider.getKeys().contains( NearestNeighborTrackerFactory.TRACKER_KEY ) );
+		assertTrue( provider.getKeys().contains( SparseLAPTrackerFactory.THIS_TRACKER_KEY ) );
+		assertTrue( provider.getFactory( SparseLAPTrackerFactory.THIS_TRACKER_KEY ) instanceof SparseLAPTrackerFactory );
+	}
+}
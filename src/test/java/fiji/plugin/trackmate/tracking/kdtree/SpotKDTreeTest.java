@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.kdtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import gnu.trove.list.array.TIntArrayList;
+
+public class SpotKDTreeTest
+{
+
+	private static List< Spot > randomSpots( final Random ran, final int n, final boolean is3D )
+	{
+		final List< Spot > spots = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			// Coarse grid to have ties.
+			final double x = Math.floor( 20. * ran.nextDouble() );
+			final double y = 100. * ran.nextDouble();
+			final double z = is3D ? 10. * ran.nextDouble() : 0.;
+			spots.add( new Spot( x, y, z, 1., -1. ) );
+		}
+		return spots;
+	}
+
+	@Test
+	public void testNearest()
+	{
+		final Random ran = new Random( 1l );
+		for ( final boolean is3D : new boolean[] { false, true } )
+		{
+			final List< Spot > spots = randomSpots( ran, 2000, is3D );
+			final SpotKDTree tree = new SpotKDTree( spots );
+			assertEquals( spots.size(), tree.size() );
+
+			for ( int q = 0; q < 500; q++ )
+			{
+				final Spot query = randomSpots( ran, 1, is3D ).get( 0 );
+				double expected = Double.POSITIVE_INFINITY;
+				for ( final Spot spot : spots )
+					expected = Math.min( expected, spot.squareDistanceTo( query ) );
+
+				final int found = tree.nearest( query.getDoublePosition( 0 ), query.getDoublePosition( 1 ), query.getDoublePosition( 2 ) );
+				assertEquals( expected, tree.getSpot( found ).squareDistanceTo( query ), 1e-9 );
+			}
+		}
+	}
+
+	@Test
+	public void testNearestExcluded()
+	{
+		final Random ran = new Random( 2l );
+		final List< Spot > spots = randomSpots( ran, 300, true );
+		final SpotKDTree tree = new SpotKDTree( spots );
+		final BitSet excluded = new BitSet( tree.size() );
+		final Set< Spot > remaining = new HashSet<>( spots );
+
+		// Greedily take spots until none is left.
+		final Spot query = new Spot( 10., 50., 5., 1., -1. );
+		for ( int i = 0; i < spots.size(); i++ )
+		{
+			double expected = Double.POSITIVE_INFINITY;
+			for ( final Spot spot : remaining )
+				expected = Math.min( expected, spot.squareDistanceTo( query ) );
+
+			final int found = tree.nearest( 10., 50., 5., excluded );
+			assertTrue( found >= 0 );
+			assertEquals( expected, tree.squareDistance( found, 10., 50., 5. ), 1e-9 );
+			assertTrue( remaining.remove( tree.getSpot( found ) ) );
+			excluded.set( found );
+		}
+		assertEquals( -1, tree.nearest( 10., 50., 5., excluded ) );
+	}
+
+	@Test
+	public void testInRadius()
+	{
+		final Random ran = new Random( 3l );
+		final List< Spot > spots = randomSpots( ran, 2000, true );
+		final SpotKDTree tree = new SpotKDTree( spots );
+		final TIntArrayList out = new TIntArrayList();
+		for ( int q = 0; q < 100; q++ )
+		{
+			final Spot query = randomSpots( ran, 1, true ).get( 0 );
+			final double radius = 10. * ran.nextDouble();
+			final Set< Spot > expected = new HashSet<>();
+			for ( final Spot spot : spots )
+				if ( spot.squareDistanceTo( query ) <= radius * radius )
+					expected.add( spot );
+
+			out.resetQuick();
+			tree.inRadius( query.getDoublePosition( 0 ), query.getDoublePosition( 1 ), query.getDoublePosition( 2 ), radius, out );
+			final Set< Spot > found = new HashSet<>();
+			for ( int i = 0; i < out.size(); i++ )
+				found.add( tree.getSpot( out.get( i ) ) );
+			assertEquals( expected.size(), out.size() );
+			assertEquals( expected, found );
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		final SpotKDTree tree = new SpotKDTree( new ArrayList<>() );
+		assertEquals( 0, tree.size() );
+		assertEquals( -1, tree.nearest( 0., 0., 0. ) );
+	}
+}
@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.util.LookAheadStack.FrameComputationException;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.Opener;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+public class LookAheadStackTest
+{
+
+	private static final int WIDTH = 7;
+
+	private static final int HEIGHT = 5;
+
+	private static final int N_FRAMES = 12;
+
+	private static final int N_PLANES = 3;
+
+	/**
+	 * Returns the value of all the pixels of a plane.
+	 */
+	private static int value( final int frame, final int plane )
+	{
+		return 1 + frame * N_PLANES + plane;
+	}
+
+	private static ImageProcessor[] planes( final int frame )
+	{
+		final ImageProcessor[] planes = new ImageProcessor[ N_PLANES ];
+		for ( int z = 0; z < N_PLANES; z++ )
+		{
+			planes[ z ] = new ShortProcessor( WIDTH, HEIGHT );
+			planes[ z ].setValue( value( frame, z ) );
+			planes[ z ].fill();
+		}
+		return planes;
+	}
+
+	@Test
+	public void testOrder()
+	{
+		final Thread caller = Thread.currentThread();
+		final List< Integer > prepared = new ArrayList<>();
+		final List< Thread > workers = new ArrayList<>();
+		final LookAheadStack stack = new LookAheadStack( WIDTH, HEIGHT, N_FRAMES, N_PLANES, 3, frame -> {
+			// Preparation happens in order, in the requesting thread.
+			assertSame( caller, Thread.currentThread() );
+			prepared.add( frame );
+			return () -> {
+				synchronized ( workers )
+				{
+					workers.add( Thread.currentThread() );
+				}
+				return planes( frame );
+			};
+		} );
+
+		try
+		{
+			assertEquals( N_FRAMES * N_PLANES, stack.getSize() );
+			for ( int n = 1; n <= stack.getSize(); n++ )
+			{
+				final int frame = ( n - 1 ) / N_PLANES;
+				final int z = ( n - 1 ) % N_PLANES;
+				assertEquals( value( frame, z ), stack.getProcessor( n ).get( 2, 3 ) );
+			}
+
+			final List< Integer > expected = new ArrayList<>();
+			for ( int frame = 0; frame < N_FRAMES; frame++ )
+				expected.add( frame );
+			assertEquals( expected, prepared );
+			for ( final Thread worker : workers )
+				assertTrue( worker != caller );
+
+			// Requesting a plane again computes its frame in the calling thread.
+			assertEquals( value( 2, 1 ), stack.getProcessor( 2 * N_PLANES + 2 ).get( 0, 0 ) );
+			assertEquals( N_FRAMES + 1, prepared.size() );
+		}
+		finally
+		{
+			stack.dispose();
+		}
+	}
+
+	@Test
+	public void testFailure()
+	{
+		final IntFunction< Callable< ImageProcessor[] > > preparer = frame -> () -> {
+			if ( frame == 4 )
+				throw new IllegalStateException( "Frame " + frame );
+			return planes( frame );
+		};
+		final LookAheadStack stack = new LookAheadStack( WIDTH, HEIGHT, N_FRAMES, N_PLANES, 2, preparer );
+		try
+		{
+			for ( int n = 1; n <= 4 * N_PLANES; n++ )
+				assertNotNull( stack.getProcessor( n ) );
+			stack.getProcessor( 4 * N_PLANES + 1 );
+			fail( "The failure of the frame computation must be reported." );
+		}
+		catch ( final FrameComputationException e )
+		{
+			assertTrue( e.getCause() instanceof IllegalStateException );
+			assertEquals( "Frame 4", e.getCause().getMessage() );
+		}
+		finally
+		{
+			stack.dispose();
+		}
+	}
+
+	@Test
+	public void testWriteTiff() throws IOException
+	{
+		final LookAheadStack stack = new LookAheadStack( WIDTH, HEIGHT, N_FRAMES, N_PLANES, 4, frame -> () -> planes( frame ) );
+		final File file = File.createTempFile( "stack", ".tif" );
+		file.deleteOnExit();
+
+		final FileInfo fi = new FileInfo();
+		fi.fileType = FileInfo.GRAY16_UNSIGNED;
+		fi.width = WIDTH;
+		fi.height = HEIGHT;
+		fi.nImages = N_FRAMES * N_PLANES;
+		stack.writeTiff( fi, file );
+
+		final ImagePlus imp = new Opener().openImage( file.getAbsolutePath() );
+		assertNotNull( imp );
+		assertEquals( N_FRAMES * N_PLANES, imp.getStackSize() );
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			for ( int z = 0; z < N_PLANES; z++ )
+			{
+				final short[] pixels = ( short[] ) imp.getStack().getPixels( 1 + frame * N_PLANES + z );
+				final short[] expected = ( short[] ) planes( frame )[ z ].getPixels();
+				assertArrayEquals( expected, pixels );
+			}
+		}
+	}
+
+	@Test
+	public void testWriteTiffSinglePlane() throws IOException
+	{
+		final LookAheadStack stack = new LookAheadStack( WIDTH, HEIGHT, 1, 1, 2, frame -> () -> new ImageProcessor[] { planes( frame )[ 1 ] } );
+		final File file = File.createTempFile( "stack", ".tif" );
+		file.deleteOnExit();
+
+		final FileInfo fi = new FileInfo();
+		fi.fileType = FileInfo.GRAY16_UNSIGNED;
+		fi.width = WIDTH;
+		fi.height = HEIGHT;
+		fi.nImages = 1;
+		stack.writeTiff( fi, file );
+
+		final ImagePlus imp = new Opener().openImage( file.getAbsolutePath() );
+		assertNotNull( imp );
+		assertEquals( 1, imp.getStackSize() );
+		final short[] expected = ( short[] ) planes( 0 )[ 1 ].getPixels();
+		assertArrayEquals( expected, ( short[] ) imp.getProcessor().getPixels() );
+	}
+
+	@Test
+	public void testWriteTiffSingleRgbPlane() throws IOException
+	{
+		final int color = 0x00FF8040;
+		final LookAheadStack stack = new LookAheadStack( WIDTH, HEIGHT, 1, 1, 2, frame -> () -> {
+			final ColorProcessor cp = new ColorProcessor( WIDTH, HEIGHT );
+			cp.setColor( color );
+			cp.fill();
+			return new ImageProcessor[] { cp };
+		} );
+		final File file = File.createTempFile( "stack", ".tif" );
+		file.deleteOnExit();
+
+		final FileInfo fi = new FileInfo();
+		fi.fileType = FileInfo.RGB;
+		fi.width = WIDTH;
+		fi.height = HEIGHT;
+		fi.nImages = 1;
+		stack.writeTiff( fi, file );
+
+		final ImagePlus imp = new Opener().openImage( file.getAbsolutePath() );
+		assertNotNull( imp );
+		assertEquals( 1, imp.getStackSize() );
+		assertEquals( 24, imp.getBitDepth() );
+		assertEquals( color, imp.getProcessor().get( 3, 2 ) & 0xFFFFFF );
+	}
+
+	@Test
+	public void testWriteTiffFailure() throws IOException
+	{
+		final LookAheadStack stack = new LookAheadStack( WIDTH, HEIGHT, N_FRAMES, N_PLANES, 4, frame -> () -> {
+			if ( frame == N_FRAMES - 1 )
+				throw new IllegalStateException( "Last frame" );
+			return planes( frame );
+		} );
+		final File file = File.createTempFile( "stack", ".tif" );
+		file.deleteOnExit();
+
+		final FileInfo fi = new FileInfo();
+		fi.fileType = FileInfo.GRAY16_UNSIGNED;
+		fi.width = WIDTH;
+		fi.height = HEIGHT;
+		fi.nImages = N_FRAMES * N_PLANES;
+		try
+		{
+			stack.writeTiff( fi, file );
+			fail( "The failure of the frame computation must be reported." );
+		}
+		catch ( final IOException e )
+		{
+			assertTrue( e.getCause() instanceof IllegalStateException );
+		}
+	}
+}
@@ -22,8 +22,10 @@
 package fiji.plugin.trackmate.util;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -74,6 +76,52 @@ public class SpotRoiIterableTest
 		assertArrayEquals( "Cursor did not iterate the expected area.", iteratedPixels, arr );
 	}
 
+	@Test
+	public void testRasterizationMatchesPolygonTest()
+	{
+		final Random ran = new Random( 1l );
+		for ( int t = 0; t < 200; t++ )
+		{
+			// Random star-shaped polygon.
+			final int n = 3 + ran.nextInt( 30 );
+			final double[] x = new double[ n ];
+			final double[] y = new double[ n ];
+			final double cx = 50. * ran.nextDouble();
+			final double cy = 50. * ran.nextDouble();
+			for ( int i = 0; i < n; i++ )
+			{
+				final double theta = 2. * Math.PI * i / n;
+				final double r = 1. + 20. * ran.nextDouble();
+				x[ i ] = cx + r * Math.cos( theta );
+				y[ i ] = cy + r * Math.sin( theta );
+			}
+
+			final SpotUtil.PolygonRuns runs = SpotUtil.PolygonRuns.rasterize( x, y );
+			final TIntArrayList fromRuns = new TIntArrayList();
+			for ( int r = 0; r < runs.nRuns; r++ )
+				for ( long xl = runs.x0[ r ]; xl <= runs.x1[ r ]; xl++ )
+					fromRuns.add( ( int ) ( runs.y[ r ] * 1000 + xl ) );
+
+			final TIntArrayList expected = new TIntArrayList();
+			for ( long yl = runs.interval.min( 1 ); yl <= runs.interval.max( 1 ); yl++ )
+				for ( long xl = runs.interval.min( 0 ); xl <= runs.interval.max( 0 ); xl++ )
+					if ( isInside( xl, yl, x, y ) )
+						expected.add( ( int ) ( yl * 1000 + xl ) );
+
+			assertEquals( expected.size(), runs.nPixels );
+			assertArrayEquals( "Rasterization does not match the point-in-polygon test.", expected.toArray(), fromRuns.toArray() );
+		}
+	}
+
+	private static final boolean isInside( final double xl, final double yl, final double[] x, final double[] y )
+	{
+		boolean inside = false;
+		for ( int i = 0, j = x.length - 1; i < x.length; j = i++ )
+			if ( ( y[ i ] > yl ) != ( y[ j ] > yl ) && ( xl < ( x[ j ] - x[ i ] ) * ( yl - y[ i ] ) / ( y[ j ] - y[ i ] ) + x[ i ] ) )
+				inside = !inside;
+		return inside;
+	}
+
 	public static void main( final String[] args )
 	{
 		final Img< UnsignedByteType > img = ArrayImgs.unsignedBytes( 10, 10 );
@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import gnu.trove.list.array.TIntArrayList;
+
+public class SpatialGridTest
+{
+
+	@Test
+	public void testQueryAgainstBruteForce()
+	{
+		final Random ran = new Random( 1l );
+		for ( int trial = 0; trial < 50; trial++ )
+		{
+			final int n = ran.nextInt( 2000 );
+			final double[] x0 = new double[ n ];
+			final double[] y0 = new double[ n ];
+			final double[] x1 = new double[ n ];
+			final double[] y1 = new double[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				x0[ i ] = ran.nextDouble() * 1000.;
+				y0[ i ] = ran.nextDouble() * 500.;
+				// Some long segments spanning many cells.
+				x1[ i ] = x0[ i ] + ( ran.nextInt( 10 ) == 0 ? ran.nextDouble() * 800. : ran.nextDouble() * 20. );
+				y1[ i ] = y0[ i ] + ran.nextDouble() * 20.;
+			}
+			final SpatialGrid grid = new SpatialGrid( x0, y0, x1, y1, n );
+
+			for ( int q = 0; q < 20; q++ )
+			{
+				final double qx0 = ran.nextDouble() * 1200. - 100.;
+				final double qy0 = ran.nextDouble() * 700. - 100.;
+				final double qx1 = qx0 + ran.nextDouble() * 300.;
+				final double qy1 = qy0 + ran.nextDouble() * 300.;
+
+				final TIntArrayList out = new TIntArrayList();
+				grid.query( qx0, qy0, qx1, qy1, out );
+				final Set< Integer > found = new HashSet<>();
+				for ( int k = 0; k < out.size(); k++ )
+					assertTrue( "Item returned twice.", found.add( out.get( k ) ) );
+
+				for ( int i = 0; i < n; i++ )
+				{
+					final boolean intersects = !( x1[ i ] < qx0 || x0[ i ] > qx1 || y1[ i ] < qy0 || y0[ i ] > qy1 );
+					if ( intersects )
+						assertTrue( "Item " + i + " should have been found.", found.contains( i ) );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNonFiniteBoxesAreAlwaysReturned()
+	{
+		final double[] x0 = new double[] { 0., Double.NaN, 10. };
+		final double[] y0 = new double[] { 0., 0., 10. };
+		final double[] x1 = new double[] { 1., Double.NaN, 11. };
+		final double[] y1 = new double[] { 1., 1., 11. };
+		final SpatialGrid grid = new SpatialGrid( x0, y0, x1, y1, 3 );
+
+		final TIntArrayList out = new TIntArrayList();
+		grid.query( 100., 100., 200., 200., out );
+		assertTrue( out.contains( 1 ) );
+		assertFalse( out.contains( 0 ) );
+		assertFalse( out.contains( 2 ) );
+	}
+}
@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+public class TrackSchemeVirtualLayoutTest
+{
+
+	private static final int N_TRACKS = 3;
+
+	private static final int N_FRAMES = 5;
+
+	/**
+	 * Creates a model with linear tracks spanning the same frames, and returns
+	 * the last spot of each track.
+	 */
+	private static List< Spot > createTracks( final Model model )
+	{
+		final List< Spot > lastSpots = new ArrayList<>();
+		model.beginUpdate();
+		try
+		{
+			for ( int t = 0; t < N_TRACKS; t++ )
+			{
+				Spot previous = null;
+				for ( int frame = 0; frame < N_FRAMES; frame++ )
+				{
+					final Spot spot = new Spot( t, frame, 0d, 1d, -1d, "T" + t + "_F" + frame );
+					model.addSpotTo( spot, frame );
+					if ( null != previous )
+						model.addEdge( previous, spot, 1d );
+					previous = spot;
+				}
+				lastSpots.add( previous );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return lastSpots;
+	}
+
+	private static List< Spot > collectAll( final TrackSchemeVirtualLayout layout )
+	{
+		final List< Spot > spots = new ArrayList<>();
+		layout.collect( 0, layout.getNRows() - 1, 0, layout.getNColumns(), spots );
+		return spots;
+	}
+
+	@Test
+	public void testLayout()
+	{
+		final Model model = new Model();
+		createTracks( model );
+		final TrackSchemeVirtualLayout layout = new TrackSchemeVirtualLayout( model );
+
+		assertTrue( layout.layoutUpTo( 1 ) );
+		assertEquals( 1, layout.getTrackIDs().length );
+		assertFalse( layout.isComplete() );
+
+		layout.layoutUpTo( Integer.MAX_VALUE );
+		assertTrue( layout.isComplete() );
+		assertEquals( N_TRACKS, layout.getTrackIDs().length );
+		assertEquals( N_FRAMES, layout.getNRows() );
+		final List< Spot > spots = collectAll( layout );
+		assertEquals( N_TRACKS * N_FRAMES, spots.size() );
+		for ( final Spot spot : spots )
+			assertEquals( spot.getFeature( Spot.FRAME ).intValue(), layout.rowOf( layout.ordinalOf( spot ) ) );
+	}
+
+	/**
+	 * Edits the model after the layout is created: remove a track not laid
+	 * out yet, and extend another one to a frame beyond the last one.
+	 */
+	@Test
+	public void testEditAfterCreation()
+	{
+		final Model model = new Model();
+		final List< Spot > lastSpots = createTracks( model );
+		final TrackModel tm = model.getTrackModel();
+		final TrackSchemeVirtualLayout layout = new TrackSchemeVirtualLayout( model );
+		assertTrue( layout.layoutUpTo( 1 ) );
+		final Integer laidOut = layout.getTrackIDs()[ 0 ];
+
+		// Pick a track not laid out yet to remove, and one to extend.
+		final List< Integer > others = new ArrayList<>( tm.trackIDs( true ) );
+		others.remove( laidOut );
+		final Integer toRemove = others.get( 0 );
+		final Integer toExtend = others.get( 1 );
+		final Set< Spot > removedSpots = new HashSet<>( tm.trackSpots( toRemove ) );
+		Spot lastOfExtended = null;
+		for ( final Spot spot : lastSpots )
+			if ( toExtend.equals( tm.trackIDOf( spot ) ) )
+				lastOfExtended = spot;
+
+		final int newFrame = 2 * N_FRAMES;
+		final Spot newSpot = new Spot( 0d, 0d, 0d, 1d, -1d, "New" );
+		model.beginUpdate();
+		try
+		{
+			for ( final Spot spot : removedSpots )
+				model.removeSpot( spot );
+			model.addSpotTo( newSpot, newFrame );
+			model.addEdge( lastOfExtended, newSpot, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// The stale layout skips the removed track and grows for the new frame.
+		layout.layoutUpTo( Integer.MAX_VALUE );
+		assertTrue( layout.isComplete() );
+		assertEquals( 2, layout.getTrackIDs().length );
+		assertEquals( layout.getTrackIDs().length, layout.getTrackWidths().length );
+		assertEquals( newFrame + 1, layout.getNRows() );
+		assertEquals( newFrame, layout.rowOf( layout.ordinalOf( newSpot ) ) );
+		for ( final Spot spot : removedSpots )
+			assertEquals( -1, layout.ordinalOf( spot ) );
+
+		// A new layout has all the spots of the visible tracks, once.
+		final TrackSchemeVirtualLayout relayout = new TrackSchemeVirtualLayout( model );
+		relayout.layoutUpTo( Integer.MAX_VALUE );
+		final List< Spot > spots = collectAll( relayout );
+		assertEquals( ( N_TRACKS - 1 ) * N_FRAMES + 1, spots.size() );
+		assertEquals( spots.size(), new HashSet<>( spots ).size() );
+	}
+
+	/**
+	 * Merges a track laid out with one that is not: the spots laid out twice
+	 * are only collected once.
+	 */
+	@Test
+	public void testMergeAfterCreation()
+	{
+		final Model model = new Model();
+		createTracks( model );
+		final TrackModel tm = model.getTrackModel();
+		final TrackSchemeVirtualLayout layout = new TrackSchemeVirtualLayout( model );
+		layout.layoutUpTo( 1 );
+		final Integer laidOut = layout.getTrackIDs()[ 0 ];
+		final List< Integer > others = new ArrayList<>( tm.trackIDs( true ) );
+		others.remove( laidOut );
+
+		// Link the first spot of a track not laid out to the laid out track.
+		final Spot source = tm.trackSpots( laidOut ).stream().filter( s -> s.getFeature( Spot.FRAME ).intValue() == 0 ).findFirst().get();
+		final Spot target = tm.trackSpots( others.get( 0 ) ).stream().filter( s -> s.getFeature( Spot.FRAME ).intValue() == 1 ).findFirst().get();
+		model.beginUpdate();
+		try
+		{
+			model.addEdge( source, target, 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		layout.layoutUpTo( Integer.MAX_VALUE );
+		final List< Spot > spots = collectAll( layout );
+		assertEquals( spots.size(), new HashSet<>( spots ).size() );
+	}
+}